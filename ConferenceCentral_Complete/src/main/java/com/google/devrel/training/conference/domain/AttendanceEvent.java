@@ -0,0 +1,83 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.appengine.api.datastore.KeyFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * A registration or an unregistration, waiting to be folded into the AttendanceStats.
+ *
+ * The events are written in the transaction that changes the seats, so none of them is lost,
+ * under the Profile of the user that the transaction writes anyway: no entity group is shared
+ * by the registrations of a Conference but the Conference's own. The aggregation finds them
+ * with a query on the conference.
+ */
+@Entity
+public class AttendanceEvent {
+
+    /**
+     * The kind of the root keys of the attendance logs, which have no entity.
+     */
+    private static final String LOG_KIND = "AttendanceLog";
+
+    @Id
+    private Long id;
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    @Index
+    private String websafeConferenceKey;
+
+    /**
+     * True for a registration, false for an unregistration.
+     */
+    private boolean registered;
+
+    @Index
+    private Date occurredAt;
+
+    /**
+     * The seats available right after the event.
+     */
+    private int seatsAvailable;
+
+    private AttendanceEvent() {}
+
+    public AttendanceEvent(Key<Conference> conferenceKey, String userId, boolean registered,
+                           int seatsAvailable) {
+        this.profileKey = Key.create(Profile.class, userId);
+        this.websafeConferenceKey = conferenceKey.getString();
+        this.registered = registered;
+        this.seatsAvailable = seatsAvailable;
+        this.occurredAt = new Date();
+    }
+
+    /**
+     * Returns the key of the entity group that holds the stats of a Conference.
+     */
+    public static Key<?> logKey(Key<Conference> conferenceKey) {
+        return Key.create(KeyFactory.createKey(LOG_KIND, conferenceKey.getString()));
+    }
+
+    public Key<AttendanceEvent> getKey() {
+        return Key.create(profileKey, AttendanceEvent.class, id);
+    }
+
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    public Date getOccurredAt() {
+        return occurredAt;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+}
@@ -0,0 +1,219 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pre-aggregated attendance counters of a Conference.
+ *
+ * It holds the totals and two rolling series of windows, hourly for the last two days and
+ * daily for the last 90 days, so its size doesn't depend on the number of attendees.
+ */
+@Entity
+@Cache
+public class AttendanceStats {
+
+    public static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    public static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final int MAX_HOURS = 48;
+
+    private static final int MAX_DAYS = 90;
+
+    private static final long STATS_ID = 1L;
+
+    @Id
+    private Long id = STATS_ID;
+
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<?> logKey;
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    private int maxAttendees;
+
+    private int seatsTaken;
+
+    private long registrations;
+
+    private long cancellations;
+
+    private List<AttendanceWindow> hours = new ArrayList<>(0);
+
+    private List<AttendanceWindow> days = new ArrayList<>(0);
+
+    private Date updatedAt;
+
+    /**
+     * The events of the last fold, a fold that sees them again skips them.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private List<String> lastFolded = new ArrayList<>(0);
+
+    private AttendanceStats() {}
+
+    /**
+     * Creates the stats of a Conference, starting from its current seats.
+     */
+    public AttendanceStats(Conference conference, Key<Conference> conferenceKey) {
+        this.logKey = AttendanceEvent.logKey(conferenceKey);
+        this.conferenceKey = conferenceKey;
+        this.maxAttendees = conference.getMaxAttendees();
+        this.seatsTaken = conference.getMaxAttendees() - conference.getSeatsAvailable();
+    }
+
+    public static Key<AttendanceStats> key(Key<Conference> conferenceKey) {
+        return Key.create(AttendanceEvent.logKey(conferenceKey), AttendanceStats.class, STATS_ID);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return conferenceKey.getString();
+    }
+
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    /**
+     * Takes the capacity and the seats taken from the Conference, which is authoritative for
+     * them.
+     */
+    public void sync(Conference conference) {
+        this.maxAttendees = conference.getMaxAttendees();
+        this.seatsTaken = conference.getMaxAttendees() - conference.getSeatsAvailable();
+    }
+
+    public int getSeatsTaken() {
+        return seatsTaken;
+    }
+
+    public long getRegistrations() {
+        return registrations;
+    }
+
+    public long getCancellations() {
+        return cancellations;
+    }
+
+    /**
+     * Returns the share of the seats taken, from 0 to 1.
+     */
+    public double getFillRate() {
+        return maxAttendees == 0 ? 0 : (double) seatsTaken / maxAttendees;
+    }
+
+    /**
+     * Returns the share of the registrations that were cancelled, from 0 to 1.
+     */
+    public double getCancellationRate() {
+        return registrations == 0 ? 0 : (double) cancellations / registrations;
+    }
+
+    /**
+     * Returns the hourly windows, oldest first. The seats taken of each window draw the fill
+     * rate curve.
+     */
+    public List<AttendanceWindow> getHours() {
+        return ImmutableList.copyOf(hours);
+    }
+
+    /**
+     * Returns the daily windows, oldest first.
+     */
+    public List<AttendanceWindow> getDays() {
+        return ImmutableList.copyOf(days);
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Folds a batch of events into the counters, skipping the ones the last fold folded
+     * already. The events must be in time order.
+     *
+     * @param events the events to fold.
+     * @return the number of events folded.
+     */
+    public int fold(List<AttendanceEvent> events) {
+        Set<String> folded = new HashSet<>(lastFolded);
+        List<String> seen = new ArrayList<>(events.size());
+        int applied = 0;
+        for (AttendanceEvent event : events) {
+            String key = event.getKey().getString();
+            seen.add(key);
+            if (!folded.contains(key)) {
+                apply(event);
+                applied++;
+            }
+        }
+        lastFolded = seen;
+        return applied;
+    }
+
+    /**
+     * Folds an event into the counters. The events must be applied in time order.
+     *
+     * @param event the event to fold.
+     */
+    private void apply(AttendanceEvent event) {
+        if (event.isRegistered()) {
+            registrations++;
+        } else {
+            cancellations++;
+        }
+        seatsTaken = maxAttendees - event.getSeatsAvailable();
+        long time = event.getOccurredAt().getTime();
+        windowAt(hours, time - time % HOUR_MILLIS, MAX_HOURS).count(event.isRegistered(),
+                seatsTaken);
+        windowAt(days, time - time % DAY_MILLIS, MAX_DAYS).count(event.isRegistered(),
+                seatsTaken);
+        updatedAt = new Date();
+    }
+
+    /**
+     * Returns the window starting at the given time, adding it when it's newer than the last
+     * one and dropping the oldest ones beyond max.
+     */
+    private static AttendanceWindow windowAt(List<AttendanceWindow> windows, long start,
+                                             int max) {
+        for (int i = windows.size() - 1; i >= 0; i--) {
+            AttendanceWindow window = windows.get(i);
+            if (window.getStartMillis() == start) {
+                return window;
+            }
+            if (window.getStartMillis() < start) {
+                AttendanceWindow added = new AttendanceWindow(start);
+                windows.add(i + 1, added);
+                trim(windows, max);
+                return added;
+            }
+        }
+        AttendanceWindow added = new AttendanceWindow(start);
+        windows.add(0, added);
+        trim(windows, max);
+        return added;
+    }
+
+    private static void trim(List<AttendanceWindow> windows, int max) {
+        while (windows.size() > max) {
+            windows.remove(0);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Date;
+
+/**
+ * The counters of one time window, embedded in AttendanceStats.
+ */
+public class AttendanceWindow {
+
+    private long start;
+
+    private int registrations;
+
+    private int cancellations;
+
+    /**
+     * The seats taken at the end of the window.
+     */
+    private int seatsTaken;
+
+    private AttendanceWindow() {}
+
+    public AttendanceWindow(long start) {
+        this.start = start;
+    }
+
+    /**
+     * Returns the start of the window, the end is the start of the next one.
+     */
+    public Date getStart() {
+        return new Date(start);
+    }
+
+    public int getRegistrations() {
+        return registrations;
+    }
+
+    public int getCancellations() {
+        return cancellations;
+    }
+
+    public int getSeatsTaken() {
+        return seatsTaken;
+    }
+
+    long getStartMillis() {
+        return start;
+    }
+
+    void count(boolean registered, int seatsTaken) {
+        if (registered) {
+            registrations++;
+        } else {
+            cancellations++;
+        }
+        this.seatsTaken = seatsTaken;
+    }
+}
@@ -0,0 +1,46 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * An entry of the reverse attendee index: a user registered to the parent Conference.
+ *
+ * The id is the user id, so the attendees of a Conference can be listed and counted with
+ * keys-only ancestor queries, without loading any Profile.
+ */
+@Entity
+public class Attendee {
+
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    @Id
+    private String userId;
+
+    private Date registeredAt;
+
+    private Attendee() {}
+
+    public Attendee(Key<Conference> conferenceKey, String userId) {
+        this.conferenceKey = conferenceKey;
+        this.userId = userId;
+        this.registeredAt = new Date();
+    }
+
+    public static Key<Attendee> key(Key<Conference> conferenceKey, String userId) {
+        return Key.create(conferenceKey, Attendee.class, userId);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Date getRegisteredAt() {
+        return registeredAt;
+    }
+}
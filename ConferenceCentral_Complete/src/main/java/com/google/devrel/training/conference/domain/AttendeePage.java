@@ -0,0 +1,31 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A page of the user ids of the attendees of a Conference.
+ */
+public class AttendeePage {
+
+    private final List<String> userIds;
+
+    /**
+     * The token of the next page, null when this is the last one.
+     */
+    private final String nextPageToken;
+
+    public AttendeePage(List<String> userIds, String nextPageToken) {
+        this.userIds = ImmutableList.copyOf(userIds);
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<String> getUserIds() {
+        return userIds;
+    }
+
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+}
@@ -0,0 +1,88 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.List;
+
+/**
+ * The result of a call of a batch, see ConferenceApi.batchGet.
+ *
+ * Only the property of the method called is set, and none when the call failed.
+ */
+public class BatchResult {
+
+    private final String method;
+
+    /**
+     * The HTTP status code the call would have had on its own.
+     */
+    private final int code;
+
+    private final String error;
+
+    private final Conference conference;
+
+    private final List<Conference> conferences;
+
+    private final Profile profile;
+
+    private final Announcement announcement;
+
+    private BatchResult(String method, int code, String error, Conference conference,
+                        List<Conference> conferences, Profile profile,
+                        Announcement announcement) {
+        this.method = method;
+        this.code = code;
+        this.error = error;
+        this.conference = conference;
+        this.conferences = conferences;
+        this.profile = profile;
+        this.announcement = announcement;
+    }
+
+    public static BatchResult of(String method, Conference conference) {
+        return new BatchResult(method, 200, null, conference, null, null, null);
+    }
+
+    public static BatchResult of(String method, List<Conference> conferences) {
+        return new BatchResult(method, 200, null, null, conferences, null, null);
+    }
+
+    public static BatchResult of(String method, Profile profile) {
+        return new BatchResult(method, 200, null, null, null, profile, null);
+    }
+
+    public static BatchResult of(String method, Announcement announcement) {
+        return new BatchResult(method, 200, null, null, null, null, announcement);
+    }
+
+    public static BatchResult error(String method, int code, String error) {
+        return new BatchResult(method, code, error, null, null, null, null);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Conference getConference() {
+        return conference;
+    }
+
+    public List<Conference> getConferences() {
+        return conferences;
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    public Announcement getAnnouncement() {
+        return announcement;
+    }
+}
@@ -0,0 +1,41 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A batch of the change feed.
+ */
+public class ChangeFeedPage {
+
+    private final List<ChangeRecord> changes;
+
+    /**
+     * The position to read the next batch from.
+     */
+    private final String position;
+
+    /**
+     * True when the batch is full and more changes may be read right away.
+     */
+    private final boolean more;
+
+    public ChangeFeedPage(List<ChangeRecord> changes, String position, boolean more) {
+        this.changes = ImmutableList.copyOf(changes);
+        this.position = position;
+        this.more = more;
+    }
+
+    public List<ChangeRecord> getChanges() {
+        return changes;
+    }
+
+    public String getPosition() {
+        return position;
+    }
+
+    public boolean isMore() {
+        return more;
+    }
+}
@@ -0,0 +1,86 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.Date;
+
+/**
+ * The counter that hands out the sequences of the change feed.
+ *
+ * Only the sequencer writes it, about once a minute, so it is no hotspot. The sequences below
+ * published were all handed out by an earlier run, so their records are indexed by now. A run
+ * holds a lease on it, so that two runs never overlap.
+ */
+@Entity
+public class ChangeFeedSequence {
+
+    private static final long SEQUENCE_ID = 1L;
+
+    @Id
+    private Long id = SEQUENCE_ID;
+
+    /**
+     * The next sequence to hand out.
+     */
+    private long next = 1;
+
+    /**
+     * The sequences below this one can be read.
+     */
+    private long published = 1;
+
+    /**
+     * When the lease of the running sequencer ends, null when no run holds it.
+     */
+    private Date leasedUntil;
+
+    public ChangeFeedSequence() {}
+
+    public static Key<ChangeFeedSequence> key() {
+        return Key.create(ChangeFeedSequence.class, SEQUENCE_ID);
+    }
+
+    /**
+     * Takes the lease for a run, unless another run holds it.
+     *
+     * @param now the current time in milliseconds.
+     * @param leaseMillis how long the lease lasts.
+     * @return true when the lease was taken.
+     */
+    public boolean lease(long now, long leaseMillis) {
+        if (leasedUntil != null && leasedUntil.getTime() > now) {
+            return false;
+        }
+        leasedUntil = new Date(now + leaseMillis);
+        return true;
+    }
+
+    public void release() {
+        leasedUntil = null;
+    }
+
+    /**
+     * Hands out a range of sequences.
+     *
+     * @param count the number of sequences.
+     * @return the first one.
+     */
+    public long reserve(int count) {
+        long first = next;
+        next += count;
+        return first;
+    }
+
+    /**
+     * Makes all the sequences handed out so far readable.
+     */
+    public void publish() {
+        published = next;
+    }
+
+    public long getPublished() {
+        return published;
+    }
+}
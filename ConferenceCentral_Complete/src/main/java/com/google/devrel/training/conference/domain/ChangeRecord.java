@@ -0,0 +1,120 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * An entry of the change feed.
+ *
+ * The record is written under the changed Conference or Profile, in the transaction of the
+ * change, so that a change is in the feed if and only if it was committed. It only says what
+ * changed, the consumers load the current state themselves.
+ *
+ * Its sequence is handed out by the sequencer once it is committed and visible, see ChangeFeed.
+ */
+@Entity
+public class ChangeRecord {
+
+    /**
+     * The kinds of changes.
+     */
+    public static enum ChangeType {
+        PROFILE_SAVED,
+        CONFERENCE_CREATED,
+        CONFERENCE_UPDATED,
+        REGISTERED,
+        UNREGISTERED,
+        SESSION_CREATED,
+        WISHLIST_ADDED,
+        WISHLIST_REMOVED
+    }
+
+    @Id
+    private Long id;
+
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<?> parentKey;
+
+    /**
+     * Orders the feed, null until the record is sequenced.
+     */
+    @Index
+    private Long sequence;
+
+    private ChangeType type;
+
+    /**
+     * The websafe key of the changed entity.
+     */
+    private String websafeKey;
+
+    private String websafeConferenceKey;
+
+    private String userId;
+
+    @Index
+    private Date createdAt;
+
+    private ChangeRecord() {}
+
+    /**
+     * Creates a record.
+     *
+     * @param parentKey the Conference or the Profile whose entity group holds the change.
+     * @param type the kind of change.
+     * @param websafeKey the websafe key of the changed entity.
+     * @param websafeConferenceKey the Conference concerned, null when there is none.
+     * @param userId the user concerned, null when there is none.
+     */
+    public ChangeRecord(Key<?> parentKey, ChangeType type, String websafeKey,
+                        String websafeConferenceKey, String userId) {
+        this.parentKey = parentKey;
+        this.type = type;
+        this.websafeKey = websafeKey;
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.userId = userId;
+        this.createdAt = new Date();
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<ChangeRecord> getKey() {
+        return Key.create(parentKey, ChangeRecord.class, id);
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public ChangeType getType() {
+        return type;
+    }
+
+    public String getWebsafeKey() {
+        return websafeKey;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+}
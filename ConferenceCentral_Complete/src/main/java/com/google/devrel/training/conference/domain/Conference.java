@@ -4,13 +4,18 @@ import static com.google.devrel.training.conference.service.OfyService.ofy;
 
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.api.server.spi.config.ApiTransformer;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.EntityVersions;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.annotation.Parent;
 
 import java.util.Calendar;
@@ -19,8 +24,15 @@ import java.util.List;
 
 /**
  * Conference class stores conference information.
+ *
+ * The API serializes a Conference as its ConferenceView.
+ *
+ * Conferences are also cached in memcache, so that the instances waiting on the load of a
+ * Conference by another one read it from there, see InstanceCache.getConference.
  */
 @Entity
+@Cache
+@ApiTransformer(ConferenceViewTransformer.class)
 public class Conference {
 
     private static final String DEFAULT_CITY = "Default City";
@@ -101,6 +113,24 @@ public class Conference {
     @Index
     private int seatsAvailable;
 
+    /**
+     * When the registrations open, null when they are open already. Indexed for the cron that
+     * pre-warms the caches before an opening, see Prewarmer.
+     */
+    @Index
+    private Date registrationOpensAt;
+
+    /**
+     * Bumped on every save, used for the ETag.
+     */
+    private long version;
+
+    /**
+     * The read model of the Conference as it is now, built on first use.
+     */
+    @Ignore
+    private transient volatile ConferenceView view;
+
     /**
      * Just making the default constructor private.
      */
@@ -147,6 +177,10 @@ public class Conference {
      * @return organizer's display name. If there is no Profile, return his/her gplusId.
      */
     public String getOrganizerDisplayName() {
+        return organizerDisplayName(organizerUserId);
+    }
+
+    static String organizerDisplayName(String organizerUserId) {
         Profile organizer = ofy().load().key(Key.create(Profile.class, organizerUserId)).now();
         if (organizer == null) {
             return organizerUserId;
@@ -195,6 +229,54 @@ public class Conference {
         return seatsAvailable;
     }
 
+    /**
+     * Returns a defensive copy of registrationOpensAt if not null.
+     * @return a defensive copy of registrationOpensAt if not null.
+     */
+    public Date getRegistrationOpensAt() {
+        return registrationOpensAt == null ? null : new Date(registrationOpensAt.getTime());
+    }
+
+    /**
+     * Returns whether the registrations are open at the given time.
+     */
+    public boolean isRegistrationOpen(Date now) {
+        return registrationOpensAt == null || !registrationOpensAt.after(now);
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public long getVersion() {
+        return version;
+    }
+
+    public String getEtag() {
+        return EntityVersions.etag(version);
+    }
+
+    /**
+     * Returns the read model of the Conference, which is kept until the Conference is modified.
+     *
+     * A Conference cached by the InstanceCache keeps its view across requests, with the
+     * organizer's display name of when it was built.
+     *
+     * @return the view of the Conference.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public ConferenceView toView() {
+        ConferenceView current = view;
+        if (current == null) {
+            current = new ConferenceView(this);
+            view = current;
+        }
+        return current;
+    }
+
+    @OnSave
+    private void bumpVersion() {
+        version++;
+        view = null;
+    }
+
     /**
      * Updates the Conference with ConferenceForm.
      * This method is used upon object creation as well as updating existing Conferences.
@@ -202,6 +284,7 @@ public class Conference {
      * @param conferenceForm contains form data sent from the client.
      */
     public void updateWithConferenceForm(ConferenceForm conferenceForm) {
+        view = null;
         this.name = conferenceForm.getName();
         this.description = conferenceForm.getDescription();
         List<String> topics = conferenceForm.getTopics();
@@ -231,11 +314,23 @@ public class Conference {
         this.seatsAvailable = this.maxAttendees - seatsAllocated;
     }
 
+    /**
+     * Schedules the opening of the registrations.
+     *
+     * @param registrationOpensAt when the registrations open, null to open them now.
+     */
+    public void scheduleRegistrationOpening(Date registrationOpensAt) {
+        this.registrationOpensAt = registrationOpensAt == null ? null
+                : new Date(registrationOpensAt.getTime());
+        view = null;
+    }
+
     public void bookSeats(final int number) {
         if (seatsAvailable < number) {
             throw new IllegalArgumentException("There are no seats available.");
         }
         seatsAvailable = seatsAvailable - number;
+        view = null;
     }
 
     public void giveBackSeats(final int number) {
@@ -243,6 +338,7 @@ public class Conference {
             throw new IllegalArgumentException("The number of seats will exceeds the capacity.");
         }
         seatsAvailable = seatsAvailable + number;
+        view = null;
     }
 
     @Override
@@ -0,0 +1,115 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A materialized, denormalized agenda of a Conference.
+ *
+ * It holds everything the conference detail page needs: the Conference itself, its Sessions
+ * sorted by time and the resolved speaker names, so that the whole page costs one read. The
+ * agenda is rebuilt by a task whenever the Conference, one of its Sessions or one of the
+ * speakers changes.
+ */
+@Entity
+@Cache
+public class ConferenceAgenda {
+
+    /**
+     * The websafe String representation of the Conference Key.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    private String name;
+
+    private String description;
+
+    private String organizerDisplayName;
+
+    private List<String> topics;
+
+    private String city;
+
+    private Date startDate;
+
+    private Date endDate;
+
+    private int maxAttendees;
+
+    /**
+     * The sessions of the conference sorted by start date and time.
+     */
+    private List<SessionSummary> sessions;
+
+    /**
+     * When this agenda was built.
+     */
+    private Date builtAt;
+
+    private ConferenceAgenda() {}
+
+    public ConferenceAgenda(Conference conference, String organizerDisplayName,
+                            List<SessionSummary> sessions) {
+        this.websafeConferenceKey = conference.getWebsafeKey();
+        this.name = conference.getName();
+        this.description = conference.getDescription();
+        this.organizerDisplayName = organizerDisplayName;
+        this.topics = conference.getTopics();
+        this.city = conference.getCity();
+        this.startDate = conference.getStartDate();
+        this.endDate = conference.getEndDate();
+        this.maxAttendees = conference.getMaxAttendees();
+        this.sessions = ImmutableList.copyOf(sessions);
+        this.builtAt = new Date();
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getOrganizerDisplayName() {
+        return organizerDisplayName;
+    }
+
+    public List<String> getTopics() {
+        return topics;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    public List<SessionSummary> getSessions() {
+        return sessions;
+    }
+
+    public Date getBuiltAt() {
+        return builtAt;
+    }
+}
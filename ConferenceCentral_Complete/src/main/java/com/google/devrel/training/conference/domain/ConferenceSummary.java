@@ -0,0 +1,95 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A compact copy of a Conference, embedded in the upcoming conferences view.
+ */
+public class ConferenceSummary {
+
+    /**
+     * Orders the summaries by start date, then by key so that the order is stable.
+     */
+    public static final Comparator<ConferenceSummary> BY_START =
+            new Comparator<ConferenceSummary>() {
+                @Override
+                public int compare(ConferenceSummary a, ConferenceSummary b) {
+                    int result = a.startDate.compareTo(b.startDate);
+                    return result != 0 ? result : a.websafeKey.compareTo(b.websafeKey);
+                }
+            };
+
+    private String websafeKey;
+
+    private String name;
+
+    private String city;
+
+    private Date startDate;
+
+    private Date endDate;
+
+    private ConferenceSummary() {}
+
+    /**
+     * Creates the summary of the given Conference, which must have a start date.
+     */
+    public ConferenceSummary(Conference conference) {
+        this.websafeKey = conference.getWebsafeKey();
+        this.name = conference.getName();
+        this.city = conference.getCity();
+        this.startDate = conference.getStartDate();
+        this.endDate = conference.getEndDate();
+    }
+
+    public String getWebsafeKey() {
+        return websafeKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    /**
+     * Adds or replaces a summary in a list sorted by BY_START, keeping it sorted.
+     *
+     * @param summaries the sorted list.
+     * @param summary the summary to add.
+     */
+    public static void putSorted(List<ConferenceSummary> summaries, ConferenceSummary summary) {
+        remove(summaries, summary.getWebsafeKey());
+        int index = Collections.binarySearch(summaries, summary, BY_START);
+        summaries.add(index < 0 ? -index - 1 : index, summary);
+    }
+
+    /**
+     * Removes the summary of a Conference from a list.
+     *
+     * @return true when the list held the Conference.
+     */
+    public static boolean remove(List<ConferenceSummary> summaries, String websafeKey) {
+        for (Iterator<ConferenceSummary> iterator = summaries.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().getWebsafeKey().equals(websafeKey)) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,144 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.devrel.training.conference.service.EntityVersions;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * The immutable read model of a Conference, which is what the API serializes in its place.
+ *
+ * Everything the serializer asks for is computed once, when the view is built: the websafe
+ * key, the dates formatted the way Endpoints writes a Date and the ETag. The getters only
+ * return fields, so serializing a Conference again allocates nothing but the JSON. A
+ * Conference keeps its view until it is modified, see Conference.toView.
+ *
+ * The organizer's display name is the exception: it belongs to the Profile, which changes
+ * without the Conference, so it is read when serialized, from the session cache after the
+ * first time in a request.
+ */
+public final class ConferenceView {
+
+    private static final ThreadLocal<SimpleDateFormat> RFC_3339 =
+            new ThreadLocal<SimpleDateFormat>() {
+                @Override
+                protected SimpleDateFormat initialValue() {
+                    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+                    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                    return format;
+                }
+            };
+
+    private final long id;
+
+    private final String websafeKey;
+
+    private final String name;
+
+    private final String description;
+
+    private final String organizerUserId;
+
+    private final List<String> topics;
+
+    private final String city;
+
+    private final String startDate;
+
+    private final String endDate;
+
+    private final int month;
+
+    private final int maxAttendees;
+
+    private final int seatsAvailable;
+
+    private final String registrationOpensAt;
+
+    private final String etag;
+
+    ConferenceView(Conference conference) {
+        this.id = conference.getId();
+        this.websafeKey = conference.getWebsafeKey();
+        this.name = conference.getName();
+        this.description = conference.getDescription();
+        this.organizerUserId = conference.getOrganizerUserId();
+        this.topics = conference.getTopics();
+        this.city = conference.getCity();
+        this.startDate = formatDateTime(conference.getStartDate());
+        this.endDate = formatDateTime(conference.getEndDate());
+        this.month = conference.getMonth();
+        this.maxAttendees = conference.getMaxAttendees();
+        this.seatsAvailable = conference.getSeatsAvailable();
+        this.registrationOpensAt = formatDateTime(conference.getRegistrationOpensAt());
+        this.etag = EntityVersions.etag(conference.getVersion());
+    }
+
+    /**
+     * Formats a Date as RFC 3339 in UTC, like the Endpoints serializer does.
+     */
+    static String formatDateTime(Date date) {
+        return date == null ? null : RFC_3339.get().format(date);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getWebsafeKey() {
+        return websafeKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getOrganizerDisplayName() {
+        return Conference.organizerDisplayName(organizerUserId);
+    }
+
+    /**
+     * Returns the topics, an ImmutableList shared by all the responses.
+     */
+    public List<String> getTopics() {
+        return topics;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public String getStartDate() {
+        return startDate;
+    }
+
+    public String getEndDate() {
+        return endDate;
+    }
+
+    public int getMonth() {
+        return month;
+    }
+
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    public String getRegistrationOpensAt() {
+        return registrationOpensAt;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+}
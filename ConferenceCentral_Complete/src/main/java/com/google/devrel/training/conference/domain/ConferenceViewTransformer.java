@@ -0,0 +1,21 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.Transformer;
+
+/**
+ * Serializes a Conference as its ConferenceView.
+ *
+ * Conferences are never read from a request, the forms are.
+ */
+public class ConferenceViewTransformer implements Transformer<Conference, ConferenceView> {
+
+    @Override
+    public ConferenceView transformTo(Conference conference) {
+        return conference.toView();
+    }
+
+    @Override
+    public Conference transformFrom(ConferenceView view) {
+        throw new UnsupportedOperationException("A Conference can't be read from a request");
+    }
+}
@@ -0,0 +1,62 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * The statistics of the sampled calls of one ConferenceApi method on an instance, see
+ * EndpointProfiler.
+ */
+public class EndpointStats {
+
+    private final String method;
+
+    private final long calls;
+
+    private final long totalMillis;
+
+    private final long maxMillis;
+
+    private final long allocatedBytes;
+
+    private final long maxAllocatedBytes;
+
+    public EndpointStats(String method, long calls, long totalMillis, long maxMillis,
+                         long allocatedBytes, long maxAllocatedBytes) {
+        this.method = method;
+        this.calls = calls;
+        this.totalMillis = totalMillis;
+        this.maxMillis = maxMillis;
+        this.allocatedBytes = allocatedBytes;
+        this.maxAllocatedBytes = maxAllocatedBytes;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getAverageMillis() {
+        return calls == 0 ? 0 : totalMillis / calls;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * Returns the bytes allocated by the request threads of the calls, 0 when the JVM does not
+     * measure them.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getAverageAllocatedBytes() {
+        return calls == 0 ? 0 : allocatedBytes / calls;
+    }
+
+    public long getMaxAllocatedBytes() {
+        return maxAllocatedBytes;
+    }
+}
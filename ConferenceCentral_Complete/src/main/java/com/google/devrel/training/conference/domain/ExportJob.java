@@ -0,0 +1,176 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A background export of the attendees or the sessions of a Conference.
+ *
+ * The export is written as a series of gzipped parts, one per task run. The job keeps the
+ * cursor of the next part, so a task that runs again after a failure rewrites the same part.
+ */
+@Entity
+public class ExportJob {
+
+    public enum Kind {
+        ATTENDEES,
+        SESSIONS
+    }
+
+    public enum Format {
+        CSV("csv", "text/csv"),
+        /**
+         * One JSON object per line, so that the parts can simply be concatenated.
+         */
+        JSON("json", "application/x-ndjson");
+
+        private final String extension;
+
+        private final String contentType;
+
+        Format(String extension, String contentType) {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    @Id
+    private Long id;
+
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    private Kind kind;
+
+    private Format format;
+
+    private String userId;
+
+    /**
+     * The names of the parts written so far, in order.
+     */
+    private List<String> parts = new ArrayList<>(0);
+
+    private long rows;
+
+    /**
+     * Where the next part starts, null before the first part and once the export is done.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private String cursor;
+
+    private boolean done;
+
+    private Date createdAt;
+
+    private Date completedAt;
+
+    private ExportJob() {}
+
+    public ExportJob(long id, Key<Conference> conferenceKey, Kind kind, Format format,
+                     String userId) {
+        this.id = id;
+        this.conferenceKey = conferenceKey;
+        this.kind = kind;
+        this.format = format;
+        this.userId = userId;
+        this.createdAt = new Date();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<ExportJob> getKey() {
+        return Key.create(conferenceKey, ExportJob.class, id);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return conferenceKey.getString();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public List<String> getParts() {
+        return ImmutableList.copyOf(parts);
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public Date getCompletedAt() {
+        return completedAt;
+    }
+
+    /**
+     * Returns the name of the next part, e.g. exports/1001/42/attendees-00003.csv.gz.
+     */
+    public String nextPartName() {
+        return String.format("exports/%s/%d/%s-%05d.%s.gz", conferenceKey.getRaw().getId(), id,
+                kind.name().toLowerCase(), parts.size(), format.getExtension());
+    }
+
+    /**
+     * Records a part written by a task.
+     *
+     * @param name the name of the part.
+     * @param partRows the number of rows in the part.
+     * @param nextCursor where the next part starts, null when this was the last one.
+     */
+    public void addPart(String name, long partRows, String nextCursor) {
+        parts.add(name);
+        rows += partRows;
+        cursor = nextCursor;
+        if (nextCursor == null) {
+            done = true;
+            completedAt = new Date();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A speaker featured in a Conference, embedded in FeaturedSpeakers.
+ */
+public class FeaturedSpeaker {
+
+    private String websafeSpeakerKey;
+
+    private String displayName;
+
+    private List<String> sessionNames;
+
+    private Date featuredAt;
+
+    private FeaturedSpeaker() {}
+
+    public FeaturedSpeaker(String websafeSpeakerKey, String displayName,
+                           List<String> sessionNames) {
+        this.websafeSpeakerKey = websafeSpeakerKey;
+        this.displayName = displayName;
+        this.sessionNames = ImmutableList.copyOf(sessionNames);
+        this.featuredAt = new Date();
+    }
+
+    public String getWebsafeSpeakerKey() {
+        return websafeSpeakerKey;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public List<String> getSessionNames() {
+        return sessionNames;
+    }
+
+    public Date getFeaturedAt() {
+        return featuredAt;
+    }
+
+    /**
+     * Returns the announcement of this speaker, as shown by getFeaturedSpeaker.
+     */
+    public String getMessage() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Featured Speaker: " + displayName + " will be in sessions: ");
+        for (String sessionName : sessionNames) {
+            sb.append(sessionName + "\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The featured speakers of a Conference, the most recent first.
+ *
+ * It lives in the Conference's entity group, so createSession updates it in its transaction
+ * without enlisting another group. Being cached, each Conference has a memcache entry of its
+ * own with the datastore behind it when the entry is evicted.
+ */
+@Entity
+@Cache
+public class FeaturedSpeakers {
+
+    /**
+     * The number of featured speakers kept per Conference.
+     */
+    public static final int MAX_HISTORY = 10;
+
+    private static final long FEATURED_SPEAKERS_ID = 1L;
+
+    @Id
+    private Long id = FEATURED_SPEAKERS_ID;
+
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    private List<FeaturedSpeaker> history = new ArrayList<>(0);
+
+    /**
+     * When a speaker was last featured, indexed for the speaker featured last in any
+     * conference, see FeaturedSpeakerService.publishLatest.
+     */
+    @Index
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Date featuredAt;
+
+    private FeaturedSpeakers() {}
+
+    public FeaturedSpeakers(Key<Conference> conferenceKey) {
+        this.conferenceKey = conferenceKey;
+    }
+
+    public static Key<FeaturedSpeakers> key(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, FeaturedSpeakers.class, FEATURED_SPEAKERS_ID);
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return conferenceKey.getString();
+    }
+
+    public List<FeaturedSpeaker> getHistory() {
+        return ImmutableList.copyOf(history);
+    }
+
+    /**
+     * Returns the current featured speaker.
+     *
+     * @return the most recent featured speaker, or null when there is none.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public FeaturedSpeaker getLatest() {
+        return history.isEmpty() ? null : history.get(0);
+    }
+
+    /**
+     * Makes the given speaker the current one, dropping the oldest beyond MAX_HISTORY.
+     *
+     * @param speaker the new featured speaker.
+     */
+    public void feature(FeaturedSpeaker speaker) {
+        for (int i = 0; i < history.size(); i++) {
+            if (history.get(i).getWebsafeSpeakerKey().equals(speaker.getWebsafeSpeakerKey())) {
+                history.remove(i);
+                break;
+            }
+        }
+        history.add(0, speaker);
+        featuredAt = new Date();
+        while (history.size() > MAX_HISTORY) {
+            history.remove(history.size() - 1);
+        }
+    }
+}
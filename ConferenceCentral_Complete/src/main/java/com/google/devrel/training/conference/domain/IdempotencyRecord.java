@@ -0,0 +1,79 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * The outcome of a call made with an Idempotency-Key, to answer its retries, see
+ * IdempotencyKeys.
+ *
+ * It lives in the group of the caller's Profile, which the registrations already write, and is
+ * saved in the transaction of the call: either both are written, or a retry runs the call
+ * again.
+ */
+@Entity
+public class IdempotencyRecord {
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The API method and the Idempotency-Key, "createConference:{key}".
+     */
+    @Id
+    private String id;
+
+    /**
+     * The key of the entity the call returned, or null.
+     */
+    private Key<?> resultKey;
+
+    /**
+     * The Boolean the call returned, or null.
+     */
+    private Boolean result;
+
+    private Date createdAt;
+
+    @Index
+    private Date expiresAt;
+
+    private IdempotencyRecord() {}
+
+    public IdempotencyRecord(Key<IdempotencyRecord> key, Key<?> resultKey, Boolean result,
+                             Date expiresAt) {
+        this.profileKey = key.getParent();
+        this.id = key.getName();
+        this.resultKey = resultKey;
+        this.result = result;
+        this.createdAt = new Date();
+        this.expiresAt = expiresAt;
+    }
+
+    public static Key<IdempotencyRecord> key(String userId, String method, String idempotencyKey) {
+        return Key.create(Key.create(Profile.class, userId), IdempotencyRecord.class,
+                method + ":" + idempotencyKey);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Key<T> getResultKey() {
+        return (Key<T>) resultKey;
+    }
+
+    public Boolean getResult() {
+        return result;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public boolean isExpired(Date now) {
+        return !expiresAt.after(now);
+    }
+}
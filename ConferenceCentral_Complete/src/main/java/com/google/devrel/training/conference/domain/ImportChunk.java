@@ -0,0 +1,118 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One chunk of a bulk import.
+ *
+ * It is saved with its rows when the upload is split, the task importing it only gets its
+ * index. The task saves it with the keys allocated for its conferences before they are
+ * written, so that a retried task writes the same conferences again instead of new ones.
+ */
+@Entity
+public class ImportChunk {
+
+    @Parent
+    private Key<ImportJob> jobKey;
+
+    /**
+     * The index of the chunk in the upload, from 1.
+     */
+    @Id
+    private Long index;
+
+    /**
+     * The rows of the chunk as JSON lines, dropped once it is done.
+     */
+    private String rows;
+
+    private boolean allocated;
+
+    /**
+     * The keys of the conferences, in the order of the rows that could be imported.
+     */
+    private List<Key<Conference>> conferenceKeys = new ArrayList<>(0);
+
+    /**
+     * The lines of the upload the conferences come from, in the same order as their keys.
+     */
+    private List<Integer> lines = new ArrayList<>(0);
+
+    /**
+     * One message per row that couldn't be imported.
+     */
+    private List<String> errors = new ArrayList<>(0);
+
+    private boolean done;
+
+    private ImportChunk() {}
+
+    public ImportChunk(Key<ImportJob> jobKey, long index, String rows) {
+        this.jobKey = jobKey;
+        this.index = index;
+        this.rows = rows;
+    }
+
+    public static Key<ImportChunk> key(Key<ImportJob> jobKey, long index) {
+        return Key.create(jobKey, ImportChunk.class, index);
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public String getRows() {
+        return rows;
+    }
+
+    public boolean isAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Records the keys allocated for the conferences of the chunk.
+     *
+     * @param conferenceKeys the keys, in the order of the rows that can be imported.
+     * @param lines the lines of those rows, in the same order.
+     * @param errors one message per row that can't be imported.
+     */
+    public void allocated(List<Key<Conference>> conferenceKeys, List<Integer> lines,
+                          List<String> errors) {
+        this.allocated = true;
+        this.conferenceKeys = new ArrayList<>(conferenceKeys);
+        this.lines = new ArrayList<>(lines);
+        this.errors = new ArrayList<>(errors);
+    }
+
+    public List<Key<Conference>> getConferenceKeys() {
+        return ImmutableList.copyOf(conferenceKeys);
+    }
+
+    public List<Integer> getLines() {
+        return ImmutableList.copyOf(lines);
+    }
+
+    public List<String> getErrors() {
+        return ImmutableList.copyOf(errors);
+    }
+
+    public int getImported() {
+        return conferenceKeys.size();
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public void markDone() {
+        done = true;
+        rows = null;
+    }
+}
@@ -0,0 +1,187 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A bulk import of conferences.
+ *
+ * The upload is split into chunks, each imported by a task of its own which records its
+ * outcome in an ImportChunk, so that the parallel tasks never write to the job. Until the job
+ * is done its progress is the sum of the chunks, see {@link #addProgress(ImportChunk)}, it is
+ * only saved with the job once all the chunks are done.
+ */
+@Entity
+public class ImportJob {
+
+    /**
+     * The number of error messages kept, the others are only counted.
+     */
+    public static final int MAX_ERRORS = 20;
+
+    @Id
+    private Long id;
+
+    private String userId;
+
+    /**
+     * Whether the organizers get one summary email each once the import is done.
+     */
+    private boolean notify;
+
+    /**
+     * Whether the whole upload has been read and split into chunks.
+     */
+    private boolean uploaded;
+
+    private int chunks;
+
+    /**
+     * The rows rejected while reading the upload.
+     */
+    private int rejected;
+
+    private List<String> errors = new ArrayList<>(0);
+
+    private boolean done;
+
+    /**
+     * Why the job failed, null unless it did.
+     */
+    private String failure;
+
+    private Date createdAt;
+
+    private Date completedAt;
+
+    private int chunksDone;
+
+    private int imported;
+
+    private int failed;
+
+    private ImportJob() {}
+
+    public ImportJob(long id, String userId, boolean notify) {
+        this.id = id;
+        this.userId = userId;
+        this.notify = notify;
+        this.createdAt = new Date();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Key<ImportJob> getKey() {
+        return Key.create(ImportJob.class, id);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public boolean isNotify() {
+        return notify;
+    }
+
+    public boolean isUploaded() {
+        return uploaded;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public List<String> getErrors() {
+        return ImmutableList.copyOf(errors);
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public Date getCompletedAt() {
+        return completedAt;
+    }
+
+    public int getChunksDone() {
+        return chunksDone;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Records the end of the upload.
+     *
+     * @param chunks the number of chunks enqueued.
+     * @param rejected the number of rows that couldn't be read.
+     * @param errors the messages of the first rejected rows.
+     */
+    public void uploaded(int chunks, int rejected, List<String> errors) {
+        this.uploaded = true;
+        this.chunks = chunks;
+        this.rejected = rejected;
+        addErrors(errors);
+    }
+
+    /**
+     * Adds the outcome of a chunk to the progress of the job.
+     */
+    public void addProgress(ImportChunk chunk) {
+        if (chunk.isDone()) {
+            chunksDone++;
+            imported += chunk.getImported();
+            failed += chunk.getErrors().size();
+            addErrors(chunk.getErrors());
+        }
+    }
+
+    public void complete() {
+        done = true;
+        completedAt = new Date();
+    }
+
+    /**
+     * Ends the job without completing it, the chunks that are done stay imported.
+     *
+     * @param failure why the job failed.
+     */
+    public void fail(String failure) {
+        this.failure = failure;
+        complete();
+    }
+
+    private void addErrors(List<String> messages) {
+        for (String message : messages) {
+            if (errors.size() == MAX_ERRORS) {
+                return;
+            }
+            errors.add(message);
+        }
+    }
+}
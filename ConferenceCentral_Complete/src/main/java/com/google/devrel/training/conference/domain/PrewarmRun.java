@@ -0,0 +1,155 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.condition.IfNotNull;
+
+import java.util.Date;
+
+/**
+ * The pre-warming of the caches before a registration opening of a Conference, and once the
+ * rush is over, how often the reads hit the caches.
+ *
+ * There is one run per opening, its id is the time of the opening, so that a rescheduled
+ * opening is warmed again.
+ */
+@Entity
+public class PrewarmRun {
+
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The time of the opening, in milliseconds.
+     */
+    @Id
+    private long id;
+
+    private Date warmedAt;
+
+    private int sessions;
+
+    private int speakers;
+
+    private boolean waitingRoom;
+
+    /**
+     * When the hit rates are to be reported, only indexed until they are.
+     */
+    @Index(IfNotNull.class)
+    private Date reportDueAt;
+
+    private Date reportedAt;
+
+    private long conferenceHits;
+
+    private long conferenceMisses;
+
+    private long agendaHits;
+
+    private long agendaMisses;
+
+    private PrewarmRun() {}
+
+    public PrewarmRun(Key<Conference> conferenceKey, Date opensAt, int sessions, int speakers,
+                      boolean waitingRoom, Date reportDueAt) {
+        this.conferenceKey = conferenceKey;
+        this.id = opensAt.getTime();
+        this.warmedAt = new Date();
+        this.sessions = sessions;
+        this.speakers = speakers;
+        this.waitingRoom = waitingRoom;
+        this.reportDueAt = reportDueAt;
+    }
+
+    public static Key<PrewarmRun> key(Key<Conference> conferenceKey, Date opensAt) {
+        return Key.create(conferenceKey, PrewarmRun.class, opensAt.getTime());
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return conferenceKey.getString();
+    }
+
+    public Date getOpensAt() {
+        return new Date(id);
+    }
+
+    public Date getWarmedAt() {
+        return warmedAt;
+    }
+
+    /**
+     * Returns the number of Sessions loaded into memcache.
+     */
+    public int getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Returns the number of speaker Profiles resolved into the agenda.
+     */
+    public int getSpeakers() {
+        return speakers;
+    }
+
+    /**
+     * Returns whether a waiting room was set up for the opening.
+     */
+    public boolean isWaitingRoom() {
+        return waitingRoom;
+    }
+
+    public Date getReportedAt() {
+        return reportedAt;
+    }
+
+    public long getConferenceHits() {
+        return conferenceHits;
+    }
+
+    public long getConferenceMisses() {
+        return conferenceMisses;
+    }
+
+    public long getAgendaHits() {
+        return agendaHits;
+    }
+
+    public long getAgendaMisses() {
+        return agendaMisses;
+    }
+
+    /**
+     * Returns the share of the Conference and agenda reads served from the caches, 0 when
+     * nothing was read or the report is not done yet.
+     */
+    public double getHitRate() {
+        long hits = conferenceHits + agendaHits;
+        long reads = hits + conferenceMisses + agendaMisses;
+        return reads == 0 ? 0 : (double) hits / reads;
+    }
+
+    /**
+     * Records the hits and misses counted since the caches were warmed.
+     */
+    public void report(long conferenceHits, long conferenceMisses, long agendaHits,
+                       long agendaMisses) {
+        this.conferenceHits = conferenceHits;
+        this.conferenceMisses = conferenceMisses;
+        this.agendaHits = agendaHits;
+        this.agendaMisses = agendaMisses;
+        this.reportedAt = new Date();
+        this.reportDueAt = null;
+    }
+}
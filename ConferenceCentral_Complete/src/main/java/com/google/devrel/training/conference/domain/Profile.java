@@ -4,9 +4,11 @@ import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.EntityVersions;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.OnSave;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -48,6 +50,11 @@ public class Profile {
 
     List<String> sessionsToSpeakKeys = new ArrayList<>();
 
+    /**
+     * Bumped on every save, used for the ETag.
+     */
+    private long version;
+
     /**
      * Just making the default constructor private.
      */
@@ -99,6 +106,20 @@ public class Profile {
         return teeShirtSize;
     }
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public long getVersion() {
+        return version;
+    }
+
+    public String getEtag() {
+        return EntityVersions.etag(version);
+    }
+
+    @OnSave
+    private void bumpVersion() {
+        version++;
+    }
+
     /**
      * Getter for conferenceIdsToAttend.
      * @return an immutable copy of conferenceIdsToAttend.
@@ -133,9 +154,6 @@ public class Profile {
         conferenceKeysToAttend.add(conferenceKey);
     }
 
-    public void addSessionKeyWishList(String conferenceKey) {
-        sessionKeysWishList.add(conferenceKey);
-    }
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
     public List< Key<Session> > getSessionKeysWishList(){
 
@@ -146,6 +164,11 @@ public class Profile {
         }
         return keys;
     }
+    /**
+     * Returns the wishlist stored before the wishlist log, the base WishlistService folds the
+     * log onto. It is not the current wishlist.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
     public List<String> getSessionKeysWishListWebsafe(){
         return sessionKeysWishList;
     }
@@ -0,0 +1,102 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * The statistics of the conference queries of one shape on an instance, see QueryLog.
+ */
+public class QueryShapeStats {
+
+    private final String shape;
+
+    private final String mode;
+
+    private final long count;
+
+    private final long slowCount;
+
+    private final long totalMillis;
+
+    private final long maxMillis;
+
+    private final long totalResults;
+
+    private final long maxResults;
+
+    private final long entitiesLoaded;
+
+    private final boolean flagged;
+
+    public QueryShapeStats(String shape, String mode, long count, long slowCount,
+                           long totalMillis, long maxMillis, long totalResults, long maxResults,
+                           long entitiesLoaded, boolean flagged) {
+        this.shape = shape;
+        this.mode = mode;
+        this.count = count;
+        this.slowCount = slowCount;
+        this.totalMillis = totalMillis;
+        this.maxMillis = maxMillis;
+        this.totalResults = totalResults;
+        this.maxResults = maxResults;
+        this.entitiesLoaded = entitiesLoaded;
+        this.flagged = flagged;
+    }
+
+    /**
+     * Returns the fields and operators of the queries, see ConferenceQueryForm.getShape.
+     */
+    public String getShape() {
+        return shape;
+    }
+
+    /**
+     * Returns the mode the last query of the shape ran in.
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of queries over the slow threshold.
+     */
+    public long getSlowCount() {
+        return slowCount;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public long getAverageMillis() {
+        return count == 0 ? 0 : totalMillis / count;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public long getAverageResults() {
+        return count == 0 ? 0 : totalResults / count;
+    }
+
+    public long getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * Returns the number of Conferences read from the datastore, the results of a keys-only
+     * query that were cached are not.
+     */
+    public long getEntitiesLoaded() {
+        return entitiesLoaded;
+    }
+
+    /**
+     * Returns whether the shape is slow on average or returned too many results.
+     */
+    public boolean isFlagged() {
+        return flagged;
+    }
+}
@@ -0,0 +1,56 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.Date;
+
+/**
+ * How often a shape of query ran, for the IndexAdvisor.
+ *
+ * The instances add their counts every few minutes, without a transaction: two instances
+ * flushing at once may lose a count, which is fine for advice.
+ */
+@Entity
+public class QueryShapeUsage {
+
+    /**
+     * The shape, as written by QueryShape.toString.
+     */
+    @Id
+    private String shape;
+
+    private long count;
+
+    private Date firstSeen;
+
+    private Date lastSeen;
+
+    private QueryShapeUsage() {}
+
+    public QueryShapeUsage(String shape) {
+        this.shape = shape;
+        this.firstSeen = new Date();
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public Date getFirstSeen() {
+        return firstSeen;
+    }
+
+    public Date getLastSeen() {
+        return lastSeen;
+    }
+
+    public void add(long count, Date seen) {
+        this.count += count;
+        this.lastSeen = seen;
+    }
+}
@@ -0,0 +1,116 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.condition.PojoIf;
+
+import java.util.Date;
+
+/**
+ * A seat of a Conference held for a user, the first phase of a registration.
+ *
+ * The seat is taken from the Conference when the hold is created. Once confirmed, a task
+ * finalizes the registration and deletes the hold; a hold that is not confirmed before it
+ * expires is deleted by the sweeper, which gives the seat back. Holding the seat again extends
+ * the hold, but not past a maximum lifetime counted from createdAt.
+ */
+@Entity
+public class SeatHold {
+
+    /**
+     * Only the unconfirmed holds are indexed, they are the only ones the sweeper looks for.
+     */
+    public static class IfNotConfirmed extends PojoIf<SeatHold> {
+        @Override
+        public boolean matchesPojo(SeatHold hold) {
+            return !hold.confirmed;
+        }
+    }
+
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The user id, a user holds at most one seat per Conference.
+     */
+    @Id
+    private String userId;
+
+    private Date createdAt;
+
+    @Index(IfNotConfirmed.class)
+    private Date expiresAt;
+
+    private boolean confirmed;
+
+    private SeatHold() {}
+
+    public SeatHold(Key<Conference> conferenceKey, String userId, Date expiresAt) {
+        this.conferenceKey = conferenceKey;
+        this.userId = userId;
+        this.createdAt = new Date();
+        this.expiresAt = expiresAt;
+    }
+
+    public static Key<SeatHold> key(Key<Conference> conferenceKey, String userId) {
+        return Key.create(conferenceKey, SeatHold.class, userId);
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<SeatHold> getKey() {
+        return key(conferenceKey, userId);
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return conferenceKey.getString();
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getUserId() {
+        return userId;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public Date getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isConfirmed() {
+        return confirmed;
+    }
+
+    public boolean isExpired(Date now) {
+        return !confirmed && !expiresAt.after(now);
+    }
+
+    /**
+     * Extends an unconfirmed hold, no further than latest.
+     *
+     * @return false when the hold already lasts until latest, it is then left as it is.
+     */
+    public boolean extend(Date expiresAt, Date latest) {
+        if (!this.expiresAt.before(latest)) {
+            return false;
+        }
+        this.expiresAt = expiresAt.after(latest) ? latest : expiresAt;
+        return true;
+    }
+
+    public void confirm() {
+        this.confirmed = true;
+    }
+}
@@ -0,0 +1,32 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the sequences that order the log entities.
+ */
+public class Sequences {
+
+    /**
+     * The last sequence handed out by this instance.
+     */
+    private static final AtomicLong LAST_SEQUENCE = new AtomicLong();
+
+    /**
+     * Returns microseconds since the epoch, made unique and increasing on this instance so that
+     * two entries written in the same millisecond keep their order.
+     *
+     * @param nowMillis the current time.
+     * @return the sequence.
+     */
+    public static long next(long nowMillis) {
+        long now = nowMillis * 1000;
+        while (true) {
+            long last = LAST_SEQUENCE.get();
+            long next = Math.max(now, last + 1);
+            if (LAST_SEQUENCE.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+}
@@ -2,7 +2,9 @@ package com.google.devrel.training.conference.domain;
 
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.api.server.spi.config.ApiTransformer;
 import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.service.EntityVersions;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.*;
 
@@ -13,9 +15,12 @@ import java.util.List;
 
 /**
  * Created by ricardo on 26/12/14.
+ *
+ * The API serializes a Session as its SessionView.
  */
 @Entity
 @Cache
+@ApiTransformer(SessionViewTransformer.class)
 public class Session {
 
 
@@ -70,6 +75,13 @@ public class Session {
     //Name of the conference room
     String location;
 
+    //Bumped on every save, used for the ETag
+    private long version;
+
+    //The read model of the Session as it is now, built on first use
+    @Ignore
+    private transient volatile SessionView view;
+
     public Session(){
 
     }
@@ -145,11 +157,54 @@ public class Session {
     public List<String> getHighlights() { return  highlights; }
 
     public String getStartTime() {
-        return String.valueOf(startTime/100) + ":" + String.valueOf(startTime%100);
+        return formatTime(startTime);
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getStartTimeInteger() {
+        return startTime;
+    }
+
+    /**
+     * Formats a time stored as an integer, the inverse of toTimeInteger.
+     */
+    static public String formatTime(int time) {
+        return String.valueOf(time/100) + ":" + String.valueOf(time%100);
     }
 
     public String getWebsafeKey() {
         return Key.create(conferenceKey, Session.class, id).getString();
     }
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public long getVersion() {
+        return version;
+    }
+
+    public String getEtag() {
+        return EntityVersions.etag(version);
+    }
+
+    /**
+     * Returns the read model of the Session, which is kept until the Session is saved again.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public SessionView toView() {
+        SessionView current = view;
+        if (current == null) {
+            current = new SessionView(this);
+            // The id of a new Session is only known once it is saved.
+            if (id != null) {
+                view = current;
+            }
+        }
+        return current;
+    }
+
+    @OnSave
+    void bumpVersion() {
+        version++;
+        view = null;
+    }
+
 }
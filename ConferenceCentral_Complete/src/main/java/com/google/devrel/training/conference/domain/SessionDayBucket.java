@@ -0,0 +1,93 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * One shard of the global session index for a single day.
+ *
+ * The summaries of all the Sessions starting on a day, in any conference, are spread over
+ * SHARDS buckets, so that the sessions created for the same day don't all contend for one
+ * entity group. A date range is read with a batch get of its buckets instead of a query over
+ * every Session.
+ */
+@Entity
+@Cache
+public class SessionDayBucket {
+
+    /**
+     * The number of buckets per day.
+     */
+    public static final int SHARDS = 4;
+
+    /**
+     * The day in UTC as yyyyMMdd, followed by the shard, e.g. 20151212-3.
+     */
+    @Id
+    private String id;
+
+    private List<SessionSummary> sessions = new ArrayList<>(0);
+
+    private SessionDayBucket() {}
+
+    public SessionDayBucket(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Returns the key of a bucket.
+     *
+     * @param day the day as returned by {@link #day(Date)}.
+     * @param shard the shard, from 0 to SHARDS - 1.
+     * @return the key of the bucket.
+     */
+    public static Key<SessionDayBucket> key(String day, int shard) {
+        return Key.create(SessionDayBucket.class, day + "-" + shard);
+    }
+
+    /**
+     * Returns the key of the bucket holding the given Session.
+     *
+     * @param summary the summary of the Session, it must have a start date.
+     * @return the key of the bucket.
+     */
+    public static Key<SessionDayBucket> keyOf(SessionSummary summary) {
+        int shard = (summary.getWebsafeKey().hashCode() & Integer.MAX_VALUE) % SHARDS;
+        return key(day(summary.getStartDate()), shard);
+    }
+
+    /**
+     * Returns the day of the given date in UTC, as yyyyMMdd.
+     */
+    public static String day(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public List<SessionSummary> getSessions() {
+        return ImmutableList.copyOf(sessions);
+    }
+
+    /**
+     * Adds or replaces the summary of a Session, keeping them sorted by time.
+     *
+     * @param summary the summary to add.
+     */
+    public void put(SessionSummary summary) {
+        SessionSummary.putSorted(sessions, summary);
+    }
+}
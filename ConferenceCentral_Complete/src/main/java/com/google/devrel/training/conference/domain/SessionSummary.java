@@ -0,0 +1,123 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A compact, denormalized copy of a Session, embedded in the materialized views.
+ */
+public class SessionSummary {
+
+    /**
+     * Orders the summaries by start date and then by start time, the sessions without a date
+     * come last.
+     */
+    public static final Comparator<SessionSummary> BY_START = new Comparator<SessionSummary>() {
+        @Override
+        public int compare(SessionSummary a, SessionSummary b) {
+            if (a.startDate == null || b.startDate == null) {
+                return a.startDate == null ? (b.startDate == null ? 0 : 1) : -1;
+            }
+            int result = a.startDate.compareTo(b.startDate);
+            return result != 0 ? result : Integer.compare(a.startTime, b.startTime);
+        }
+    };
+
+    private String websafeKey;
+
+    private String websafeConferenceKey;
+
+    private String name;
+
+    private Session.SessionType sessionType;
+
+    private Date startDate;
+
+    /**
+     * The start time as stored in Session, e.g. 1330 for 13:30.
+     */
+    private int startTime;
+
+    private int duration;
+
+    private String location;
+
+    private List<String> speakerNames;
+
+    private SessionSummary() {}
+
+    /**
+     * Creates the summary of the given Session.
+     *
+     * @param session the Session to summarize.
+     * @param speakerNames the resolved display names of the speakers.
+     */
+    public SessionSummary(Session session, List<String> speakerNames) {
+        this.websafeKey = session.getWebsafeKey();
+        this.websafeConferenceKey = session.getConferenceKey().getString();
+        this.name = session.getName();
+        this.sessionType = session.getSessionType();
+        this.startDate = session.getStartDate();
+        this.startTime = session.getStartTimeInteger();
+        this.duration = session.getDuration();
+        this.location = session.getLocation();
+        this.speakerNames = speakerNames == null ? null : ImmutableList.copyOf(speakerNames);
+    }
+
+    public String getWebsafeKey() {
+        return websafeKey;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Session.SessionType getSessionType() {
+        return sessionType;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public String getStartTime() {
+        return Session.formatTime(startTime);
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public List<String> getSpeakerNames() {
+        return speakerNames;
+    }
+
+    /**
+     * Adds or replaces a summary in a list sorted by BY_START, keeping it sorted.
+     *
+     * @param summaries the sorted list.
+     * @param summary the summary to add.
+     */
+    public static void putSorted(List<SessionSummary> summaries, SessionSummary summary) {
+        for (int i = 0; i < summaries.size(); i++) {
+            if (summaries.get(i).getWebsafeKey().equals(summary.getWebsafeKey())) {
+                summaries.remove(i);
+                break;
+            }
+        }
+        summaries.add(summary);
+        Collections.sort(summaries, BY_START);
+    }
+}
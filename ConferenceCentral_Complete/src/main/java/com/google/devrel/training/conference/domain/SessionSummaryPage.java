@@ -0,0 +1,31 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A page of Session summaries, as returned by the range queries over the session index.
+ */
+public class SessionSummaryPage {
+
+    private final List<SessionSummary> items;
+
+    /**
+     * The token of the next page, null when this is the last one.
+     */
+    private final String nextPageToken;
+
+    public SessionSummaryPage(List<SessionSummary> items, String nextPageToken) {
+        this.items = ImmutableList.copyOf(items);
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<SessionSummary> getItems() {
+        return items;
+    }
+
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+}
@@ -0,0 +1,95 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.devrel.training.conference.domain.Session.SessionType;
+import com.google.devrel.training.conference.service.EntityVersions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The immutable read model of a Session, which is what the API serializes in its place.
+ *
+ * Like ConferenceView, it is built once, with the websafe key, the start date and time and the
+ * ETag already formatted, and kept by the Session until it is saved again.
+ */
+public final class SessionView {
+
+    private final Long id;
+
+    private final String websafeKey;
+
+    private final String name;
+
+    private final SessionType sessionType;
+
+    private final String startDate;
+
+    private final String startTime;
+
+    private final int duration;
+
+    private final String location;
+
+    private final List<String> highlights;
+
+    private final String etag;
+
+    SessionView(Session session) {
+        this.id = session.getId();
+        this.websafeKey = session.getWebsafeKey();
+        this.name = session.getName();
+        this.sessionType = session.getSessionType();
+        this.startDate = ConferenceView.formatDateTime(session.getStartDate());
+        this.startTime = session.getStartTime();
+        this.duration = session.getDuration();
+        this.location = session.getLocation();
+        List<String> highlights = session.getHighlights();
+        this.highlights = highlights == null ? null
+                : Collections.unmodifiableList(new ArrayList<>(highlights));
+        this.etag = EntityVersions.etag(session.getVersion());
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getWebsafeKey() {
+        return websafeKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public SessionType getSessionType() {
+        return sessionType;
+    }
+
+    public String getStartDate() {
+        return startDate;
+    }
+
+    /**
+     * Returns the start time, as formatted by Session.formatTime.
+     */
+    public String getStartTime() {
+        return startTime;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public List<String> getHighlights() {
+        return highlights;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+}
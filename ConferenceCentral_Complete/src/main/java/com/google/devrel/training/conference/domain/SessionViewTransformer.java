@@ -0,0 +1,21 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.Transformer;
+
+/**
+ * Serializes a Session as its SessionView.
+ *
+ * Sessions are never read from a request, the forms are.
+ */
+public class SessionViewTransformer implements Transformer<Session, SessionView> {
+
+    @Override
+    public SessionView transformTo(Session conference) {
+        return conference.toView();
+    }
+
+    @Override
+    public Session transformFrom(SessionView view) {
+        throw new UnsupportedOperationException("A Session can't be read from a request");
+    }
+}
@@ -0,0 +1,86 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The speaker index: the summaries of the Sessions a speaker talks in.
+ *
+ * There is one entry for all the conferences and one entry per conference, both kept under the
+ * speaker's Profile so that createSession can update them in its transaction.
+ */
+@Entity
+@Cache
+public class SpeakerSessions {
+
+    /**
+     * The id of the entry spanning all the conferences.
+     */
+    public static final String GLOBAL_SCOPE = "global";
+
+    /**
+     * GLOBAL_SCOPE or the websafe String representation of a Conference Key.
+     */
+    @Id
+    private String scope;
+
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Profile> speakerKey;
+
+    private List<SessionSummary> sessions = new ArrayList<>(0);
+
+    private SpeakerSessions() {}
+
+    public SpeakerSessions(Key<Profile> speakerKey, String scope) {
+        this.speakerKey = speakerKey;
+        this.scope = scope;
+    }
+
+    /**
+     * Returns the key of the index entry.
+     *
+     * @param speakerKey the key of the speaker's Profile.
+     * @param websafeConferenceKey the conference to scope the entry to, null for all of them.
+     * @return the key of the entry.
+     */
+    public static Key<SpeakerSessions> key(Key<Profile> speakerKey, String websafeConferenceKey) {
+        return Key.create(speakerKey, SpeakerSessions.class,
+                websafeConferenceKey == null ? GLOBAL_SCOPE : websafeConferenceKey);
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Profile> getSpeakerKey() {
+        return speakerKey;
+    }
+
+    public String getWebsafeSpeakerKey() {
+        return speakerKey.getString();
+    }
+
+    public List<SessionSummary> getSessions() {
+        return ImmutableList.copyOf(sessions);
+    }
+
+    /**
+     * Adds or replaces the summary of a Session, keeping them sorted by time.
+     *
+     * @param summary the summary to add.
+     */
+    public void put(SessionSummary summary) {
+        SessionSummary.putSorted(sessions, summary);
+    }
+}
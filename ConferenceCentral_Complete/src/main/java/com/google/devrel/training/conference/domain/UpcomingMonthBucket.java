@@ -0,0 +1,163 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * One shard of the upcoming conferences starting in a month.
+ *
+ * The month is the month field of the Conference with the year of its start date. The
+ * conferences of a month are spread over SHARDS buckets, each sorted by start date, so that
+ * the next upcoming conferences are read with a batch get of a few buckets.
+ *
+ * A bucket keeps at most MAX_CONFERENCES, the first ones to start, which is many more than a
+ * read takes from a month. The ones beyond are dropped and the bucket marked truncated, it is
+ * refilled from the Conferences once the first ones have started.
+ */
+@Entity
+@Cache
+public class UpcomingMonthBucket {
+
+    /**
+     * The number of buckets per month.
+     */
+    public static final int SHARDS = 4;
+
+    /**
+     * The maximum number of conferences of a bucket, which keeps it well under 1MB.
+     */
+    public static final int MAX_CONFERENCES = 500;
+
+    /**
+     * The month as yyyyMM, followed by the shard, e.g. 201603-2.
+     */
+    @Id
+    private String id;
+
+    private List<ConferenceSummary> conferences = new ArrayList<>(0);
+
+    /**
+     * Whether conferences were dropped from the end because the bucket was full.
+     */
+    @Index
+    private boolean truncated;
+
+    private UpcomingMonthBucket() {}
+
+    public UpcomingMonthBucket(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Returns the key of a bucket.
+     *
+     * @param month the month as returned by {@link #month(Date)}.
+     * @param shard the shard, from 0 to SHARDS - 1.
+     * @return the key of the bucket.
+     */
+    public static Key<UpcomingMonthBucket> key(int month, int shard) {
+        return Key.create(UpcomingMonthBucket.class, month + "-" + shard);
+    }
+
+    /**
+     * Returns the key of the bucket holding the given Conference.
+     *
+     * @param websafeKey the websafe key of the Conference.
+     * @param startDate its start date.
+     * @return the key of the bucket.
+     */
+    public static Key<UpcomingMonthBucket> keyOf(String websafeKey, Date startDate) {
+        int shard = (websafeKey.hashCode() & Integer.MAX_VALUE) % SHARDS;
+        return key(month(startDate), shard);
+    }
+
+    /**
+     * Returns the month of the given date in UTC, as yyyyMM.
+     */
+    public static int month(Date date) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTime(date);
+        return calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+    }
+
+    /**
+     * Returns the month after the given one, both as yyyyMM.
+     */
+    public static int nextMonth(int month) {
+        return month % 100 == 12 ? month + 89 : month + 1;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public List<ConferenceSummary> getConferences() {
+        return ImmutableList.copyOf(conferences);
+    }
+
+    public boolean isEmpty() {
+        return conferences.isEmpty();
+    }
+
+    public int size() {
+        return conferences.size();
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Records that the bucket holds all the conferences of its shard again.
+     */
+    public void untruncate() {
+        truncated = false;
+    }
+
+    /**
+     * Adds or replaces the summary of a Conference, dropping the last one when the bucket is
+     * full.
+     */
+    public void put(ConferenceSummary summary) {
+        ConferenceSummary.putSorted(conferences, summary);
+        if (conferences.size() > MAX_CONFERENCES) {
+            conferences.remove(conferences.size() - 1);
+            truncated = true;
+        }
+    }
+
+    /**
+     * Removes a Conference.
+     *
+     * @return true when the bucket held the Conference.
+     */
+    public boolean remove(String websafeKey) {
+        return ConferenceSummary.remove(conferences, websafeKey);
+    }
+
+    /**
+     * Removes the conferences starting before the given date.
+     *
+     * @return the number of conferences removed.
+     */
+    public int expire(Date now) {
+        // They are sorted, the expired ones come first.
+        int expired = 0;
+        while (expired < conferences.size()
+                && conferences.get(expired).getStartDate().before(now)) {
+            expired++;
+        }
+        conferences.subList(0, expired).clear();
+        return expired;
+    }
+}
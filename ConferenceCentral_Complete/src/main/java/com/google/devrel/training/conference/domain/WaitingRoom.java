@@ -0,0 +1,238 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The waiting room of a Conference, for the opening of its registrations.
+ *
+ * The users who arrive get a position in the queue. The dispatcher moves the admitted
+ * position forward at a fixed rate, and only the users up to that position may register.
+ * The users admitted that have not taken a seat yet count against the seats left, until
+ * ADMISSION_MILLIS have passed: by then they are assumed gone.
+ */
+@Entity
+@Cache
+public class WaitingRoom {
+
+    /**
+     * A Conference has at most one waiting room, always with this id.
+     */
+    public static final long ID = 1;
+
+    private static final long ADMISSION_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    @Id
+    private Long id;
+
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    private boolean enabled;
+
+    private int admitPerMinute;
+
+    /**
+     * The number of positions given out, as last seen by the dispatcher.
+     */
+    private long issued;
+
+    /**
+     * The high-water mark of the positions: none above it has been given out. The shared
+     * counter restarts from here if memcache loses it.
+     */
+    private long reserved;
+
+    /**
+     * The users up to this position are admitted.
+     */
+    private long admitted;
+
+    /**
+     * Bumped when the room is enabled, the dispatch tasks of an older run carry an older tick
+     * and stop.
+     */
+    private long tick;
+
+    /**
+     * Whether a dispatch run is going on, it stops while the Conference is sold out.
+     */
+    private boolean dispatching;
+
+    /**
+     * The seats available at the last dispatch, or -1 before the first one.
+     */
+    private long seatsAtDispatch = -1;
+
+    /**
+     * The recent admissions whose users have not all taken a seat, the oldest first.
+     */
+    private List<WaitingRoomAdmission> admissions = new ArrayList<>(0);
+
+    private WaitingRoom() {}
+
+    public WaitingRoom(Key<Conference> conferenceKey) {
+        this.id = ID;
+        this.conferenceKey = conferenceKey;
+    }
+
+    public static Key<WaitingRoom> key(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, WaitingRoom.class, ID);
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return conferenceKey.getString();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getAdmitPerMinute() {
+        return admitPerMinute;
+    }
+
+    public long getIssued() {
+        return issued;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public long getReserved() {
+        return reserved;
+    }
+
+    public long getAdmitted() {
+        return admitted;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public long getTick() {
+        return tick;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isDispatching() {
+        return dispatching;
+    }
+
+    /**
+     * Enables the room or changes its rate.
+     *
+     * @return true when a new dispatch run must be started.
+     */
+    public boolean enable(int admitPerMinute) {
+        this.admitPerMinute = admitPerMinute;
+        this.enabled = true;
+        return resume();
+    }
+
+    /**
+     * Starts a new dispatch run if the room is enabled and has none.
+     *
+     * @return true when a new dispatch run must be started.
+     */
+    public boolean resume() {
+        if (!enabled || dispatching) {
+            return false;
+        }
+        this.dispatching = true;
+        this.tick++;
+        return true;
+    }
+
+    /**
+     * Stops the dispatch run, until the room is resumed.
+     */
+    public void stop() {
+        this.dispatching = false;
+        this.tick++;
+    }
+
+    public void disable() {
+        this.enabled = false;
+        this.dispatching = false;
+    }
+
+    /**
+     * Moves the high-water mark a block past a position given out, once the position is within
+     * half a block of it.
+     *
+     * @return true when the mark moved, the room must then be saved.
+     */
+    public boolean reserveThrough(long position, long block) {
+        if (position <= reserved - block / 2) {
+            return false;
+        }
+        this.reserved = Math.max(reserved, position) + block;
+        return true;
+    }
+
+    /**
+     * Reserves a block of positions for a counter restarted from the high-water mark.
+     *
+     * @return the position the counter restarts from, the positions after it are given out.
+     */
+    public long reserveFrom(long block) {
+        long start = Math.max(reserved, issued);
+        this.reserved = start + block;
+        return start;
+    }
+
+    /**
+     * Counts the seats taken since the last dispatch against the oldest admissions, and
+     * forgets the ones older than ADMISSION_MILLIS.
+     *
+     * @param seatsAvailable the seats available in the Conference now.
+     * @param now the current time in milliseconds.
+     * @return the users admitted that have not taken a seat yet.
+     */
+    public long outstanding(long seatsAvailable, long now) {
+        long taken = seatsAtDispatch < 0 ? 0 : Math.max(0, seatsAtDispatch - seatsAvailable);
+        seatsAtDispatch = seatsAvailable;
+        long outstanding = 0;
+        for (Iterator<WaitingRoomAdmission> it = admissions.iterator(); it.hasNext(); ) {
+            WaitingRoomAdmission admission = it.next();
+            taken = admission.take(taken);
+            if (admission.getCount() == 0
+                    || admission.getAdmittedAt() < now - ADMISSION_MILLIS) {
+                it.remove();
+            } else {
+                outstanding += admission.getCount();
+            }
+        }
+        return outstanding;
+    }
+
+    /**
+     * Admits more users.
+     *
+     * @param issued the number of positions given out so far.
+     * @param count how many more users to admit, at most.
+     * @param now the current time in milliseconds.
+     */
+    public void admit(long issued, long count, long now) {
+        this.issued = Math.max(this.issued, issued);
+        long before = admitted;
+        this.admitted = Math.min(this.issued, admitted + count);
+        if (admitted > before) {
+            admissions.add(new WaitingRoomAdmission(now, admitted - before));
+        }
+        this.tick++;
+    }
+}
@@ -0,0 +1,38 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * The users admitted by one dispatch that have not taken a seat yet, embedded in WaitingRoom.
+ */
+public class WaitingRoomAdmission {
+
+    private long admittedAt;
+
+    private long count;
+
+    private WaitingRoomAdmission() {}
+
+    public WaitingRoomAdmission(long admittedAt, long count) {
+        this.admittedAt = admittedAt;
+        this.count = count;
+    }
+
+    long getAdmittedAt() {
+        return admittedAt;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Counts seats taken against this admission.
+     *
+     * @param seats the seats taken.
+     * @return the seats left over.
+     */
+    long take(long seats) {
+        long taken = Math.min(seats, count);
+        count -= taken;
+        return seats - taken;
+    }
+}
@@ -0,0 +1,52 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * Where a user stands in the waiting room of a Conference, as polled by the clients.
+ */
+public class WaitingRoomStatus {
+
+    private final boolean enabled;
+
+    private final long position;
+
+    private final long admittedPosition;
+
+    private final long estimatedWaitSeconds;
+
+    public WaitingRoomStatus(boolean enabled, long position, long admittedPosition,
+                             long estimatedWaitSeconds) {
+        this.enabled = enabled;
+        this.position = position;
+        this.admittedPosition = admittedPosition;
+        this.estimatedWaitSeconds = estimatedWaitSeconds;
+    }
+
+    /**
+     * Returns false when the Conference has no waiting room, everybody is admitted then.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the position of the user, 0 when there is no waiting room.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the last position admitted so far.
+     */
+    public long getAdmittedPosition() {
+        return admittedPosition;
+    }
+
+    public boolean isAdmitted() {
+        return !enabled || position <= admittedPosition;
+    }
+
+    public long getEstimatedWaitSeconds() {
+        return estimatedWaitSeconds;
+    }
+}
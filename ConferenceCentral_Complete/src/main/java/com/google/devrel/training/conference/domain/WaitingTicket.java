@@ -0,0 +1,55 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * The position of a user in the waiting room of a Conference.
+ *
+ * The tickets are kept under the user's Profile, not under the Conference, so that a crowd
+ * arriving at once doesn't contend on a single entity group.
+ */
+@Entity
+@Cache
+public class WaitingTicket {
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The websafe key of the Conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    private long position;
+
+    private Date issuedAt;
+
+    private WaitingTicket() {}
+
+    public WaitingTicket(String userId, String websafeConferenceKey, long position) {
+        this.profileKey = Key.create(Profile.class, userId);
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.position = position;
+        this.issuedAt = new Date();
+    }
+
+    public static Key<WaitingTicket> key(String userId, String websafeConferenceKey) {
+        return Key.create(Key.create(Profile.class, userId), WaitingTicket.class,
+                websafeConferenceKey);
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public Date getIssuedAt() {
+        return issuedAt;
+    }
+}
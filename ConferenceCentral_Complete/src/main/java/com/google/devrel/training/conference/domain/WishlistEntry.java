@@ -0,0 +1,75 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Comparator;
+import java.util.Date;
+
+/**
+ * A single change of a user's wishlist.
+ *
+ * The changes are appended under the user's Profile as small entities, so that concurrent
+ * changes never overwrite each other. The compactor folds them into the WishlistSnapshot.
+ */
+@Entity
+public class WishlistEntry {
+
+    /**
+     * Orders the entries in the order they were written.
+     */
+    public static final Comparator<WishlistEntry> BY_CREATION = new Comparator<WishlistEntry>() {
+        @Override
+        public int compare(WishlistEntry a, WishlistEntry b) {
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    @Id
+    private Long id;
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    private String websafeSessionKey;
+
+    /**
+     * True when the Session was added, false when it was removed.
+     */
+    private boolean added;
+
+    private Date createdAt;
+
+    /**
+     * Orders the changes, see Sequences.
+     */
+    private long sequence;
+
+    private WishlistEntry() {}
+
+    public WishlistEntry(Key<Profile> profileKey, String websafeSessionKey, boolean added) {
+        this.profileKey = profileKey;
+        this.websafeSessionKey = websafeSessionKey;
+        this.added = added;
+        this.createdAt = new Date();
+        this.sequence = Sequences.next(createdAt.getTime());
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getWebsafeSessionKey() {
+        return websafeSessionKey;
+    }
+
+    public boolean isAdded() {
+        return added;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+}
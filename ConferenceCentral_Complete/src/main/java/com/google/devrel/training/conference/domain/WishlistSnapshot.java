@@ -0,0 +1,51 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The compacted wishlist of a user, all the WishlistEntries folded up to compactedAt.
+ */
+@Entity
+public class WishlistSnapshot {
+
+    private static final long SNAPSHOT_ID = 1L;
+
+    @Id
+    private Long id = SNAPSHOT_ID;
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    private List<String> sessionKeys = new ArrayList<>(0);
+
+    private Date compactedAt;
+
+    private WishlistSnapshot() {}
+
+    public WishlistSnapshot(Key<Profile> profileKey, Collection<String> sessionKeys) {
+        this.profileKey = profileKey;
+        this.sessionKeys = new ArrayList<>(sessionKeys);
+        this.compactedAt = new Date();
+    }
+
+    public static Key<WishlistSnapshot> key(Key<Profile> profileKey) {
+        return Key.create(profileKey, WishlistSnapshot.class, SNAPSHOT_ID);
+    }
+
+    public List<String> getSessionKeys() {
+        return ImmutableList.copyOf(sessionKeys);
+    }
+
+    public Date getCompactedAt() {
+        return compactedAt;
+    }
+}
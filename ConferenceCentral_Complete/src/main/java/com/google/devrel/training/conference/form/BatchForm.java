@@ -0,0 +1,48 @@
+package com.google.devrel.training.conference.form;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simple Java object (POJO) representing the calls of a batch, see ConferenceApi.batchGet.
+ */
+public class BatchForm {
+
+    /**
+     * A call of the batch: the name of a ConferenceApi method and its parameters.
+     */
+    public static class Call {
+        private String method;
+        private String websafeConferenceKey;
+
+        public Call() {}
+
+        public Call(String method, String websafeConferenceKey) {
+            this.method = method;
+            this.websafeConferenceKey = websafeConferenceKey;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getWebsafeConferenceKey() {
+            return websafeConferenceKey;
+        }
+    }
+
+    /**
+     * The calls, their results come back in the same order.
+     */
+    private List<Call> calls = new ArrayList<>(0);
+
+    public BatchForm() {}
+
+    public BatchForm(List<Call> calls) {
+        this.calls = calls;
+    }
+
+    public List<Call> getCalls() {
+        return calls;
+    }
+}
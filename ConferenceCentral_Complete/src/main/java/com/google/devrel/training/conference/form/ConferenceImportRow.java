@@ -0,0 +1,90 @@
+package com.google.devrel.training.conference.form;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One conference of a bulk import, with its organizer. The rows of a chunk are stored in its
+ * ImportChunk as JSON lines, see ConferenceImportReader.
+ */
+public class ConferenceImportRow {
+
+    /**
+     * The line of the upload the row starts on, for the error messages.
+     */
+    private final int line;
+
+    private final String organizerUserId;
+
+    private final String name;
+
+    private final String description;
+
+    private final ArrayList<String> topics;
+
+    private final String city;
+
+    private final Date startDate;
+
+    private final Date endDate;
+
+    private final int maxAttendees;
+
+    public ConferenceImportRow(int line, String organizerUserId, String name, String description,
+                               List<String> topics, String city, Date startDate, Date endDate,
+                               int maxAttendees) {
+        this.line = line;
+        this.organizerUserId = organizerUserId;
+        this.name = name;
+        this.description = description;
+        this.topics = topics == null ? null : new ArrayList<>(topics);
+        this.city = city;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.maxAttendees = maxAttendees;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public String getOrganizerUserId() {
+        return organizerUserId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public List<String> getTopics() {
+        return topics == null ? null : ImmutableList.copyOf(topics);
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    public ConferenceForm toForm() {
+        return new ConferenceForm(name, description, topics, city, startDate, endDate,
+                maxAttendees);
+    }
+}
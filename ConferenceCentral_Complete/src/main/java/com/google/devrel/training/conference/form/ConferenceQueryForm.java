@@ -4,13 +4,17 @@ import static com.google.devrel.training.conference.service.OfyService.ofy;
 
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.QueryShape;
 
 import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.logging.Logger;
 
 /**
@@ -163,6 +167,42 @@ public class ConferenceQueryForm {
         return this;
     }
 
+    /**
+     * Returns the shape of the query: its fields and operators without the values, sorted,
+     * e.g. "CITY:EQ&MONTH:GT", or "NONE" without filters. The queries of a shape use the same
+     * index.
+     *
+     * @return the shape of the query.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getShape() {
+        SortedSet<String> parts = new TreeSet<>();
+        for (Filter filter : this.filters) {
+            parts.add(filter.field.name() + ":" + filter.operator.name());
+        }
+        return parts.isEmpty() ? "NONE" : Joiner.on('&').join(parts);
+    }
+
+    /**
+     * Returns the shape of the query as the datastore sees it, for the IndexAdvisor: the
+     * datastore names of the fields, and the sort orders getQuery adds.
+     *
+     * @return the shape of the query.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public QueryShape getIndexShape() {
+        checkFilters();
+        List<String> equalities = new ArrayList<>();
+        for (Filter filter : this.filters) {
+            if (!filter.operator.isInequalityFilter()) {
+                equalities.add(filter.field.getFieldName());
+            }
+        }
+        return new QueryShape(Conference.class.getSimpleName(), false, equalities,
+                inequalityFilter == null ? null : inequalityFilter.field.getFieldName(),
+                ImmutableList.of("name"));
+    }
+
     /**
      * Returns an Objectify Query object for the specified filters.
      *
@@ -191,7 +231,8 @@ public class ConferenceQueryForm {
                         filter.operator.getQueryOperator()), Integer.parseInt(filter.value));
             }
         }
-        LOG.info(query.toString());
+        // The time and the size of the queries are in the QueryLog, by shape.
+        LOG.fine(query.toString());
         return query;
     }
 }
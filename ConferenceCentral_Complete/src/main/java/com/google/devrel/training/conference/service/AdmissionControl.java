@@ -0,0 +1,162 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Admission control for the write endpoints.
+ *
+ * Every request is checked against two token buckets, one keyed by the user ID and one keyed by
+ * the Conference key. The buckets live in two tiers: a local one kept on each instance, which
+ * rejects the obvious abusers without any RPC, and a shared one kept in memcache, which counts
+ * the requests across all the instances in one minute windows.
+ *
+ * The limits can be tuned per endpoint with system properties in appengine-web.xml, e.g.
+ * admission.registerForConference.userPerMinute. A limit of 0 disables the check.
+ */
+public class AdmissionControl {
+
+    private static final Logger LOG = Logger.getLogger(AdmissionControl.class.getName());
+
+    private static final String MEMCACHE_NAMESPACE = "admission";
+
+    private static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Enum representing a write endpoint together with its default limits.
+     */
+    public static enum Endpoint {
+        SAVE_PROFILE("saveProfile", 30, 0),
+        CREATE_CONFERENCE("createConference", 10, 0),
+        UPDATE_CONFERENCE("updateConference", 30, 300),
+        REGISTER_FOR_CONFERENCE("registerForConference", 10, 1200),
+        UNREGISTER_FROM_CONFERENCE("unregisterFromConference", 10, 1200),
+        HOLD_SEAT("holdSeat", 10, 1200),
+        CREATE_SESSION("createSession", 30, 300),
+        ADD_SESSION_TO_WISHLIST("addSessionToWishlist", 60, 0),
+        REMOVE_SESSION_FROM_WISHLIST("removeSessionFromWishlist", 60, 0);
+
+        private final String methodName;
+
+        private final int userPerMinute;
+
+        private final int conferencePerMinute;
+
+        private Endpoint(String methodName, int userPerMinute, int conferencePerMinute) {
+            this.methodName = methodName;
+            this.userPerMinute = userPerMinute;
+            this.conferencePerMinute = conferencePerMinute;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        /**
+         * Returns the number of requests a single user may send per minute.
+         * @return the limit, 0 when unlimited.
+         */
+        public int getUserPerMinute() {
+            return Integer.getInteger("admission." + methodName + ".userPerMinute",
+                    userPerMinute);
+        }
+
+        /**
+         * Returns the number of requests a single Conference may receive per minute.
+         * @return the limit, 0 when unlimited.
+         */
+        public int getConferencePerMinute() {
+            return Integer.getInteger("admission." + methodName + ".conferencePerMinute",
+                    conferencePerMinute);
+        }
+    }
+
+    /**
+     * The local tier. Idle buckets are dropped so that the map stays bounded.
+     */
+    private static final Cache<String, TokenBucket> LOCAL_BUCKETS = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Checks whether the request can be admitted.
+     *
+     * This method must be called before any datastore work.
+     *
+     * @param endpoint the endpoint being called.
+     * @param userId the id of the calling user.
+     * @param conferenceKey a websafe String representation of the Conference Key, or null when
+     *                      the endpoint doesn't target a Conference.
+     * @return true when the request is admitted, false when it is over the limit.
+     */
+    public static boolean tryAdmit(Endpoint endpoint, String userId, String conferenceKey) {
+        long now = System.currentTimeMillis();
+        int userLimit = endpoint.getUserPerMinute();
+        int conferenceLimit = conferenceKey == null ? 0 : endpoint.getConferencePerMinute();
+        String userScope = endpoint.getMethodName() + ":user:" + userId;
+        String conferenceScope = endpoint.getMethodName() + ":conference:" + conferenceKey;
+
+        // First the local tier, which costs nothing.
+        if (userLimit > 0 && !localBucket(userScope, userLimit, now).tryAcquire(now)) {
+            LOG.info("Rejected locally: " + userScope);
+            return false;
+        }
+        if (conferenceLimit > 0
+                && !localBucket(conferenceScope, conferenceLimit, now).tryAcquire(now)) {
+            LOG.info("Rejected locally: " + conferenceScope);
+            return false;
+        }
+        // Then the shared tier.
+        if (userLimit > 0 && countInWindow(userScope, now) > userLimit) {
+            LOG.info("Rejected by the shared counter: " + userScope);
+            return false;
+        }
+        if (conferenceLimit > 0 && countInWindow(conferenceScope, now) > conferenceLimit) {
+            LOG.info("Rejected by the shared counter: " + conferenceScope);
+            return false;
+        }
+        return true;
+    }
+
+    private static TokenBucket localBucket(String scope, int perMinute, long now) {
+        TokenBucket bucket = LOCAL_BUCKETS.getIfPresent(scope);
+        if (bucket == null) {
+            bucket = new TokenBucket(perMinute, perMinute, now);
+            TokenBucket existing = LOCAL_BUCKETS.asMap().putIfAbsent(scope, bucket);
+            if (existing != null) {
+                bucket = existing;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Increments the shared counter of the current window.
+     *
+     * @return the number of requests in the current window including this one, or 0 when
+     *         memcache is not available. We'd rather admit the request in that case.
+     */
+    private static long countInWindow(String scope, long now) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService(
+                MEMCACHE_NAMESPACE);
+        String key = scope + ":" + (now / WINDOW_MILLIS);
+        Long count = memcacheService.increment(key, 1);
+        if (count == null) {
+            // The first request in this window, the counter expires with the next window.
+            Expiration expiration = Expiration.byDeltaMillis((int) (2 * WINDOW_MILLIS));
+            if (memcacheService.put(key, 1L, expiration, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                return 1;
+            }
+            count = memcacheService.increment(key, 1);
+        }
+        return count == null ? 0 : count;
+    }
+}
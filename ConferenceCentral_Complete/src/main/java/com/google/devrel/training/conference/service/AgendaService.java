@@ -0,0 +1,165 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceAgenda;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.SessionSummary;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Builds and serves the materialized ConferenceAgenda.
+ */
+public class AgendaService {
+
+    private static final Logger LOG = Logger.getLogger(AgendaService.class.getName());
+
+    public static final String REBUILD_URL = "/tasks/rebuild_agenda";
+
+    /**
+     * Returns the agenda of the given Conference, building it when there is none yet.
+     *
+     * ConferenceAgenda is cached, so the usual case is a single memcache hit.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the agenda, or null when there is no such Conference.
+     */
+    public static ConferenceAgenda getAgenda(String websafeConferenceKey) {
+        ConferenceAgenda agenda = ofy().load()
+                .key(Key.create(ConferenceAgenda.class, websafeConferenceKey)).now();
+        Prewarmer.countAgendaRead(websafeConferenceKey, agenda != null);
+        if (agenda == null) {
+            agenda = rebuild(websafeConferenceKey);
+        }
+        return agenda;
+    }
+
+    /**
+     * Builds the agenda from the Conference, its Sessions and the speaker Profiles and saves it.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the new agenda, or null when there is no such Conference.
+     */
+    public static ConferenceAgenda rebuild(String websafeConferenceKey) {
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null) {
+            LOG.info("No Conference found with key: " + websafeConferenceKey);
+            ofy().delete().key(Key.create(ConferenceAgenda.class, websafeConferenceKey));
+            return null;
+        }
+        List<Session> sessions = ofy().load().type(Session.class).ancestor(conferenceKey).list();
+
+        // Resolve the organizer and all the speakers with a single batch get.
+        Key<Profile> organizerKey = Key.create(Profile.class, conference.getOrganizerUserId());
+        Set<Key<Profile>> profileKeys = new LinkedHashSet<>();
+        profileKeys.add(organizerKey);
+        for (Session session : sessions) {
+            profileKeys.addAll(session.getSpeakerProfileKeys());
+        }
+        Map<Key<Profile>, Profile> profiles = ofy().load().keys(profileKeys);
+
+        List<SessionSummary> summaries = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            List<String> speakerNames = new ArrayList<>();
+            for (Key<Profile> speakerKey : session.getSpeakerProfileKeys()) {
+                Profile speaker = profiles.get(speakerKey);
+                if (speaker != null) {
+                    speakerNames.add(speaker.getDisplayName());
+                }
+            }
+            summaries.add(new SessionSummary(session, speakerNames));
+        }
+        Collections.sort(summaries, SessionSummary.BY_START);
+
+        Profile organizer = profiles.get(organizerKey);
+        ConferenceAgenda agenda = new ConferenceAgenda(conference,
+                organizer == null ? conference.getOrganizerUserId() : organizer.getDisplayName(),
+                summaries);
+        ofy().save().entity(agenda).now();
+        return agenda;
+    }
+
+    /**
+     * Enqueues a rebuild of the agenda.
+     *
+     * When called inside a transaction the task is enlisted in it, so that the agenda is only
+     * rebuilt when the change is committed.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     */
+    public static void scheduleRebuild(String websafeConferenceKey) {
+        Queue queue = QueueFactory.getDefaultQueue();
+        TaskOptions task = TaskOptions.Builder.withUrl(REBUILD_URL)
+                .param("websafeConferenceKey", websafeConferenceKey);
+        if (ofy().getTransaction() != null) {
+            queue.add(ofy().getTransaction(), task);
+        } else {
+            queue.add(task);
+        }
+    }
+
+    /**
+     * Enqueues a rebuild of the agendas that show the name of a Profile: the ones of the
+     * conferences it organizes and of the ones where it talks. The session indexes that show
+     * the name are refreshed by the same task.
+     *
+     * A single task is enqueued, enlisted in the transaction when called inside one, so call
+     * it in the transaction that saves the Profile: the rebuilds then see the new name.
+     *
+     * @param profileKey the key of the Profile that has changed.
+     */
+    public static void scheduleRebuildForProfile(Key<Profile> profileKey) {
+        Queue queue = QueueFactory.getDefaultQueue();
+        TaskOptions task = TaskOptions.Builder.withUrl(REBUILD_URL)
+                .param("websafeProfileKey", profileKey.getString());
+        if (ofy().getTransaction() != null) {
+            queue.add(ofy().getTransaction(), task);
+        } else {
+            queue.add(task);
+        }
+    }
+
+    /**
+     * Enqueues a rebuild of each agenda that shows the name of a Profile, see
+     * scheduleRebuildForProfile, and puts the name in the summaries of the Sessions it talks
+     * in, in the speaker index and the global session index.
+     *
+     * @param websafeProfileKey The String representation of the Profile Key.
+     */
+    public static void scheduleRebuildsForProfile(String websafeProfileKey) {
+        Key<Profile> profileKey = Key.create(websafeProfileKey);
+        Profile profile = ofy().load().key(profileKey).now();
+        if (profile == null) {
+            return;
+        }
+        Set<String> conferenceKeys = new LinkedHashSet<>();
+        for (Key<Conference> conferenceKey : ofy().load().type(Conference.class)
+                .ancestor(profileKey).keys()) {
+            conferenceKeys.add(conferenceKey.getString());
+        }
+        for (Key<Session> sessionKey : profile.getSessionsToSpeakKeys()) {
+            conferenceKeys.add(sessionKey.getParent().getString());
+        }
+        for (String websafeConferenceKey : conferenceKeys) {
+            scheduleRebuild(websafeConferenceKey);
+        }
+        List<Session> sessions = new ArrayList<>(
+                ofy().load().keys(profile.getSessionsToSpeakKeys()).values());
+        SpeakerIndex.index(sessions);
+        SessionDateIndex.index(sessions);
+    }
+}
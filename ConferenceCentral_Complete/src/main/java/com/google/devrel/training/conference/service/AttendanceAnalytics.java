@@ -0,0 +1,148 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.AttendanceEvent;
+import com.google.devrel.training.conference.domain.AttendanceStats;
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The attendance analytics of the conferences.
+ *
+ * registerForConference and unregisterFromConference emit an AttendanceEvent in their
+ * transaction, under the user's Profile. An aggregation task, at most one per conference and
+ * minute, folds the pending events into the AttendanceStats of the Conference with a single
+ * write and deletes them. Reading the analytics is then a single get, however many people
+ * attend.
+ *
+ * The registrations share no entity group with the aggregation: it finds the events with an
+ * eventually consistent query, outside of any transaction, and only the write of the stats is
+ * transactional. The stats remember the events of the last fold, so a fold retried before its
+ * events are deleted doesn't count them twice, and an event the query doesn't see yet is
+ * folded by a later run.
+ */
+public class AttendanceAnalytics {
+
+    private static final Logger LOG = Logger.getLogger(AttendanceAnalytics.class.getName());
+
+    public static final String AGGREGATE_URL = "/tasks/aggregate_attendance";
+
+    private static final long AGGREGATION_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The maximum number of events folded by one transaction.
+     */
+    private static final int MAX_EVENTS_PER_FOLD = 500;
+
+    /**
+     * The maximum number of folds of one task, the next aggregation folds the rest.
+     */
+    private static final int MAX_FOLDS = 20;
+
+    /**
+     * Emits a registration or an unregistration.
+     *
+     * Call this in the transaction that changes the seats of the Conference, after bookSeats or
+     * giveBackSeats, then call scheduleAggregation once it is committed.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param conference the Conference with its new seats.
+     * @param userId the id of the user who registered or unregistered.
+     * @param registered true for a registration, false for an unregistration.
+     */
+    public static void emit(Key<Conference> conferenceKey, Conference conference, String userId,
+                            boolean registered) {
+        ofy().save().entity(new AttendanceEvent(conferenceKey, userId, registered,
+                conference.getSeatsAvailable())).now();
+    }
+
+    /**
+     * Enqueues the aggregation of a Conference's events, at most one per conference and
+     * window.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     */
+    public static void scheduleAggregation(String websafeConferenceKey) {
+        long window = System.currentTimeMillis() / AGGREGATION_DELAY_MILLIS;
+        Queue queue = QueueFactory.getDefaultQueue();
+        try {
+            queue.add(TaskOptions.Builder.withUrl(AGGREGATE_URL)
+                    .taskName("aggregate-attendance-"
+                            + websafeConferenceKey.replaceAll("[^a-zA-Z0-9_-]", "_")
+                            + "-" + window)
+                    .countdownMillis(AGGREGATION_DELAY_MILLIS)
+                    .param("websafeConferenceKey", websafeConferenceKey));
+        } catch (TaskAlreadyExistsException e) {
+            // An aggregation is already scheduled for this window.
+        }
+    }
+
+    /**
+     * Folds the pending events of a Conference into its stats.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the number of events folded.
+     */
+    public static int aggregate(String websafeConferenceKey) {
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        int total = 0;
+        int folded;
+        int folds = 0;
+        do {
+            folded = fold(conferenceKey);
+            total += folded;
+        } while (folded == MAX_EVENTS_PER_FOLD && ++folds < MAX_FOLDS);
+        if (folded == MAX_EVENTS_PER_FOLD) {
+            scheduleAggregation(websafeConferenceKey);
+        }
+        LOG.info("Folded " + total + " attendance events of " + websafeConferenceKey);
+        return total;
+    }
+
+    private static int fold(final Key<Conference> conferenceKey) {
+        final List<AttendanceEvent> events = ofy().load().type(AttendanceEvent.class)
+                .filter("websafeConferenceKey", conferenceKey.getString())
+                .order("occurredAt").limit(MAX_EVENTS_PER_FOLD).list();
+        if (events.isEmpty()) {
+            return 0;
+        }
+        // Read outside the transaction, so that the fold doesn't conflict with the registrations.
+        final Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference != null) {
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    AttendanceStats stats = getStats(conference, conferenceKey);
+                    stats.fold(events);
+                    stats.sync(conference);
+                    ofy().save().entity(stats).now();
+                }
+            });
+        }
+        ofy().delete().entities(events).now();
+        return events.size();
+    }
+
+    /**
+     * Returns the stats of a Conference.
+     *
+     * @param conference the Conference.
+     * @param conferenceKey the key of the Conference.
+     * @return the stats, empty when nothing was folded yet.
+     */
+    public static AttendanceStats getStats(Conference conference,
+                                           Key<Conference> conferenceKey) {
+        AttendanceStats stats = ofy().load().key(AttendanceStats.key(conferenceKey)).now();
+        return stats != null ? stats : new AttendanceStats(conference, conferenceKey);
+    }
+}
@@ -0,0 +1,139 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.AttendeePage;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Maintains and reads the reverse attendee index, the Attendee entities under each
+ * Conference.
+ *
+ * The entries are written in the registration transactions, in the entity group of the
+ * Conference, so the index is as consistent as the seat count. The registrations made before
+ * the index existed are added by a backfill task over the Profiles.
+ */
+public class AttendeeIndex {
+
+    private static final Logger LOG = Logger.getLogger(AttendeeIndex.class.getName());
+
+    public static final String BACKFILL_URL = "/tasks/backfill_attendees";
+
+    private static final int BACKFILL_CHUNK = 200;
+
+    /**
+     * Adds a user to the attendees, call this in the registration transaction.
+     */
+    public static void add(Key<Conference> conferenceKey, String userId) {
+        ofy().save().entity(new Attendee(conferenceKey, userId)).now();
+    }
+
+    /**
+     * Removes a user from the attendees, call this in the transaction that unregisters it.
+     */
+    public static void remove(Key<Conference> conferenceKey, String userId) {
+        ofy().delete().key(Attendee.key(conferenceKey, userId)).now();
+    }
+
+    /**
+     * Returns a page of the user ids of the attendees, in user id order.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param pageToken the token returned with the previous page, null for the first one.
+     * @param limit the size of the page.
+     * @return the page, read with a keys-only query.
+     * @throws IllegalArgumentException when the page token is not valid.
+     */
+    public static AttendeePage list(Key<Conference> conferenceKey, String pageToken, int limit) {
+        Query<Attendee> query = ofy().load().type(Attendee.class).ancestor(conferenceKey)
+                .limit(limit);
+        if (pageToken != null) {
+            query = query.startAt(Cursor.fromWebSafeString(pageToken));
+        }
+        QueryResultIterator<Key<Attendee>> iterator = query.keys().iterator();
+        List<String> userIds = new ArrayList<>(limit);
+        while (iterator.hasNext()) {
+            userIds.add(iterator.next().getName());
+        }
+        String nextPageToken = userIds.size() < limit ? null
+                : iterator.getCursor().toWebSafeString();
+        return new AttendeePage(userIds, nextPageToken);
+    }
+
+    /**
+     * Counts the attendees with a keys-only query.
+     */
+    public static int count(Key<Conference> conferenceKey) {
+        return ofy().load().type(Attendee.class).ancestor(conferenceKey).count();
+    }
+
+    /**
+     * Indexes the registrations of a chunk of the Profiles and enqueues the next chunk.
+     *
+     * Each entry is written in a transaction that checks the Profile again, so a user who
+     * unregisters while the backfill runs is never left in the index. Writing an entry twice
+     * only finds it there, so the backfill can run while users register.
+     *
+     * @param websafeCursor where to resume from, null to start from the beginning.
+     */
+    public static void backfill(String websafeCursor) {
+        Query<Profile> query = ofy().load().type(Profile.class).limit(BACKFILL_CHUNK);
+        if (websafeCursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(websafeCursor));
+        }
+        QueryResultIterator<Profile> iterator = query.iterator();
+        int indexed = 0;
+        int profiles = 0;
+        while (iterator.hasNext()) {
+            Profile profile = iterator.next();
+            profiles++;
+            for (String websafeConferenceKey : profile.getConferenceKeysToAttend()) {
+                if (indexRegistration(profile.getUserId(), websafeConferenceKey)) {
+                    indexed++;
+                }
+            }
+        }
+        LOG.info("Indexed " + indexed + " registrations of " + profiles + " profiles");
+
+        if (profiles == BACKFILL_CHUNK) {
+            QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(BACKFILL_URL)
+                    .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+    }
+
+    /**
+     * Adds a registration to the index when the user is still registered and not indexed yet.
+     *
+     * @return true when the entry was added.
+     */
+    private static boolean indexRegistration(final String userId,
+                                             final String websafeConferenceKey) {
+        return ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+                if (profile == null
+                        || !profile.getConferenceKeysToAttend().contains(websafeConferenceKey)
+                        || ofy().load().key(Attendee.key(conferenceKey, userId)).now() != null) {
+                    return false;
+                }
+                add(conferenceKey, userId);
+                return true;
+            }
+        });
+    }
+}
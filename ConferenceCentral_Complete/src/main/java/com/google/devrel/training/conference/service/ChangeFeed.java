@@ -0,0 +1,250 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.devrel.training.conference.domain.ChangeFeedPage;
+import com.google.devrel.training.conference.domain.ChangeFeedSequence;
+import com.google.devrel.training.conference.domain.ChangeRecord;
+import com.google.devrel.training.conference.domain.ChangeRecord.ChangeType;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The ordered change feed of the conferences, sessions, registrations and profiles.
+ *
+ * The records are written without a sequence. The sequencer, a cron, hands the sequences out
+ * from the ChangeFeedSequence counter to the records it finds, so a record is only sequenced
+ * once it is committed, and one that a global query shows late just gets a later sequence. The
+ * sequences handed out by a run are published by the next one, once their records are indexed,
+ * and the feed only serves the published ones: no record can show up behind the position of a
+ * consumer. A run holds a lease on the counter, so the runs never overlap, and it gets each
+ * record again before stamping it, so a record that the query still shows without a sequence
+ * is not sequenced twice.
+ *
+ * The retention and the readers can be set with system properties in appengine-web.xml:
+ * changefeed.retentionDays and changefeed.readers, a comma separated list of the emails allowed
+ * to read the feed.
+ */
+public class ChangeFeed {
+
+    private static final Logger LOG = Logger.getLogger(ChangeFeed.class.getName());
+
+    private static final int DEFAULT_RETENTION_DAYS = 7;
+
+    private static final int TRIM_CHUNK = 500;
+
+    private static final int SEQUENCE_CHUNK = 500;
+
+    private static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * How long a run sequences records, well within its lease.
+     */
+    private static final long SEQUENCE_MILLIS = TimeUnit.MINUTES.toMillis(4);
+
+    private static final BaseEncoding TOKEN_ENCODING = BaseEncoding.base64Url().omitPadding();
+
+    /**
+     * Appends a change to the feed.
+     *
+     * Call this in the transaction of the change, the record goes in the parent's entity group.
+     *
+     * @param parentKey the Conference or the Profile that was changed or holds the change.
+     * @param type the kind of change.
+     * @param websafeKey the websafe key of the changed entity.
+     * @param websafeConferenceKey the Conference concerned, null when there is none.
+     * @param userId the user concerned, null when there is none.
+     */
+    public static void record(Key<?> parentKey, ChangeType type, String websafeKey,
+                              String websafeConferenceKey, String userId) {
+        ofy().save().entity(new ChangeRecord(parentKey, type, websafeKey, websafeConferenceKey,
+                userId)).now();
+    }
+
+    /**
+     * Checks whether the given user may read the feed.
+     *
+     * @param email the email of the user.
+     * @return true when the email is one of the changefeed.readers.
+     */
+    public static boolean isReader(String email) {
+        String readers = System.getProperty("changefeed.readers", "");
+        return email != null && Arrays.asList(readers.split("\\s*,\\s*")).contains(email);
+    }
+
+    /**
+     * Reads the changes after the given position.
+     *
+     * @param position the position returned with the previous batch, null for the beginning.
+     * @param limit the maximum number of changes.
+     * @return the changes in order and the position after them.
+     * @throws IllegalArgumentException when the position is not valid.
+     */
+    public static ChangeFeedPage read(String position, int limit) {
+        long fromSequence = 0;
+        if (position != null) {
+            try {
+                fromSequence = Long.parseLong(
+                        new String(TOKEN_ENCODING.decode(position), Charsets.UTF_8));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid position: " + position);
+            }
+        }
+        ChangeFeedSequence sequence = ofy().load().key(ChangeFeedSequence.key()).now();
+        long published = sequence == null ? 1 : sequence.getPublished();
+
+        List<ChangeRecord> changes = ofy().load().type(ChangeRecord.class)
+                .filter("sequence >", fromSequence)
+                .filter("sequence <", published)
+                .order("sequence")
+                .limit(limit + 1)
+                .list();
+        if (changes.size() > limit) {
+            changes = changes.subList(0, limit);
+            return new ChangeFeedPage(changes, positionOf(changes.get(limit - 1)), true);
+        }
+        String next = changes.isEmpty() ? position : positionOf(changes.get(changes.size() - 1));
+        return new ChangeFeedPage(changes, next, false);
+    }
+
+    private static String positionOf(ChangeRecord record) {
+        return TOKEN_ENCODING.encode(String.valueOf(record.getSequence())
+                .getBytes(Charsets.UTF_8));
+    }
+
+    /**
+     * Publishes the sequences handed out by the previous run, then sequences the records
+     * written since. Nothing is done while another run holds the lease.
+     *
+     * @return the number of records sequenced.
+     */
+    public static int sequence() {
+        final long start = System.currentTimeMillis();
+        boolean leased = ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                ChangeFeedSequence sequence = loadSequence();
+                if (!sequence.lease(start, LEASE_MILLIS)) {
+                    return false;
+                }
+                sequence.publish();
+                ofy().save().entity(sequence).now();
+                return true;
+            }
+        });
+        if (!leased) {
+            LOG.info("Another sequencer is running");
+            return 0;
+        }
+        int sequenced = 0;
+        try {
+            List<ChangeRecord> batch = new ArrayList<>(SEQUENCE_CHUNK);
+            for (ChangeRecord record : ofy().load().type(ChangeRecord.class)
+                    .filter("sequence", null).order("createdAt").chunk(SEQUENCE_CHUNK)) {
+                batch.add(record);
+                if (batch.size() == SEQUENCE_CHUNK) {
+                    sequenced += assignSequences(batch);
+                    batch.clear();
+                    if (System.currentTimeMillis() - start > SEQUENCE_MILLIS) {
+                        // The next run sequences the rest.
+                        break;
+                    }
+                }
+            }
+            sequenced += assignSequences(batch);
+        } finally {
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    ChangeFeedSequence sequence = loadSequence();
+                    sequence.release();
+                    ofy().save().entity(sequence).now();
+                }
+            });
+        }
+        LOG.info("Sequenced " + sequenced + " change records");
+        return sequenced;
+    }
+
+    /**
+     * Gets the records again, since the query that found them is eventually consistent, and
+     * reserves a range of sequences for the ones still without one, then stamps it on them. A
+     * failure in between only leaves a gap in the sequences, the records are sequenced by the
+     * next run.
+     */
+    private static int assignSequences(List<ChangeRecord> found) {
+        if (found.isEmpty()) {
+            return 0;
+        }
+        List<Key<ChangeRecord>> keys = new ArrayList<>(found.size());
+        for (ChangeRecord record : found) {
+            keys.add(record.getKey());
+        }
+        // A session of its own, the one of the query holds the records as it found them.
+        List<ChangeRecord> records = new ArrayList<>(found.size());
+        for (ChangeRecord record : factory().begin().load().keys(keys).values()) {
+            if (record.getSequence() == null) {
+                records.add(record);
+            }
+        }
+        if (records.isEmpty()) {
+            return 0;
+        }
+        final int count = records.size();
+        long first = ofy().transact(new Work<Long>() {
+            @Override
+            public Long run() {
+                ChangeFeedSequence sequence = loadSequence();
+                long first = sequence.reserve(count);
+                ofy().save().entity(sequence).now();
+                return first;
+            }
+        });
+        for (ChangeRecord record : records) {
+            record.setSequence(first++);
+        }
+        ofy().save().entities(records).now();
+        return count;
+    }
+
+    private static ChangeFeedSequence loadSequence() {
+        ChangeFeedSequence sequence = ofy().load().key(ChangeFeedSequence.key()).now();
+        return sequence != null ? sequence : new ChangeFeedSequence();
+    }
+
+    /**
+     * Deletes the records older than the retention.
+     *
+     * @return the number of records deleted.
+     */
+    public static int trim() {
+        Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(
+                Integer.getInteger("changefeed.retentionDays", DEFAULT_RETENTION_DAYS)));
+        int deleted = 0;
+        List<Key<ChangeRecord>> batch = new ArrayList<>(TRIM_CHUNK);
+        for (Key<ChangeRecord> key : ofy().load().type(ChangeRecord.class)
+                .filter("createdAt <", cutoff).chunk(TRIM_CHUNK).keys()) {
+            batch.add(key);
+            if (batch.size() == TRIM_CHUNK) {
+                ofy().delete().keys(batch).now();
+                deleted += batch.size();
+                batch.clear();
+            }
+        }
+        ofy().delete().keys(batch).now();
+        deleted += batch.size();
+        LOG.info("Trimmed " + deleted + " change records");
+        return deleted;
+    }
+}
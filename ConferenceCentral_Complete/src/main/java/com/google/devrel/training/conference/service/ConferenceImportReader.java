@@ -0,0 +1,394 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.devrel.training.conference.domain.ExportJob.Format;
+import com.google.devrel.training.conference.form.ConferenceImportRow;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Reads the conferences of a bulk import one row at a time, from CSV with a header line or
+ * from JSON lines.
+ *
+ * The columns are organizerUserId, name, description, topics, city, startDate, endDate and
+ * maxAttendees. The dates are yyyy-MM-dd, the topics are separated by semicolons in CSV and
+ * an array in JSON.
+ */
+public class ConferenceImportReader {
+
+    private static final Splitter TOPIC_SPLITTER = Splitter.on(';').trimResults()
+            .omitEmptyStrings();
+
+    private final BufferedReader reader;
+
+    private final Format format;
+
+    private List<String> header;
+
+    private int line = 1;
+
+    /**
+     * The line the last CSV record started on.
+     */
+    private int recordLine;
+
+    public ConferenceImportReader(Reader reader, Format format) {
+        this.reader = new BufferedReader(reader);
+        this.format = format;
+    }
+
+    /**
+     * Returns the next row.
+     *
+     * A row that can't be read is skipped: the exception describes it, and the next call goes
+     * on with the following row.
+     *
+     * @return the row, or null at the end of the upload.
+     * @throws IOException when the upload can't be read.
+     * @throws IllegalArgumentException when the row is not valid.
+     */
+    public ConferenceImportRow next() throws IOException {
+        int rowLine = line;
+        Map<String, Object> values;
+        if (format == Format.CSV) {
+            if (header == null) {
+                header = readRecord();
+                if (header == null) {
+                    return null;
+                }
+            }
+            List<String> record = readRecord();
+            if (record == null) {
+                return null;
+            }
+            rowLine = recordLine;
+            if (record.size() != header.size()) {
+                throw new IllegalArgumentException("Line " + rowLine + ": expected "
+                        + header.size() + " columns, got " + record.size());
+            }
+            values = new HashMap<>();
+            for (int i = 0; i < record.size(); i++) {
+                values.put(header.get(i), record.get(i).isEmpty() ? null : record.get(i));
+            }
+        } else {
+            String text;
+            do {
+                rowLine = line;
+                text = reader.readLine();
+                line++;
+            } while (text != null && text.trim().isEmpty());
+            if (text == null) {
+                return null;
+            }
+            try {
+                values = new JsonObjectParser(text).parse();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + rowLine + ": " + e.getMessage());
+            }
+        }
+        return toRow(rowLine, values);
+    }
+
+    /**
+     * Reads the fields of the next CSV record, which may span lines inside quotes.
+     *
+     * @return the fields, or null at the end of the upload.
+     */
+    private List<String> readRecord() throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean empty = true;
+        recordLine = line;
+        int c;
+        while ((c = reader.read()) != -1) {
+            empty = false;
+            if (quoted) {
+                if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        field.append('"');
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                line++;
+                if (fields.isEmpty() && field.length() == 0) {
+                    // A blank line.
+                    empty = true;
+                    recordLine = line;
+                    continue;
+                }
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+        if (empty) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConferenceImportRow toRow(int line, Map<String, Object> values) {
+        String organizerUserId = string(values, "organizerUserId");
+        String name = string(values, "name");
+        if (organizerUserId == null || name == null) {
+            throw new IllegalArgumentException("Line " + line
+                    + ": organizerUserId and name are required");
+        }
+        Object topicValue = values.get("topics");
+        List<String> topics = null;
+        if (topicValue instanceof List) {
+            topics = new ArrayList<>();
+            for (Object topic : (List<Object>) topicValue) {
+                topics.add(String.valueOf(topic));
+            }
+        } else if (topicValue != null) {
+            topics = Lists.newArrayList(TOPIC_SPLITTER.split(topicValue.toString()));
+        }
+        try {
+            Object maxAttendees = values.get("maxAttendees");
+            return new ConferenceImportRow(line, organizerUserId, name,
+                    string(values, "description"), topics, string(values, "city"),
+                    date(values, "startDate"), date(values, "endDate"),
+                    maxAttendees == null ? 0 : Integer.parseInt(maxAttendees.toString()));
+        } catch (ParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Line " + line + ": " + e.getMessage());
+        }
+    }
+
+    private static String string(Map<String, Object> values, String name) {
+        Object value = values.get(name);
+        return value == null ? null : value.toString();
+    }
+
+    private static Date date(Map<String, Object> values, String name) throws ParseException {
+        String value = string(values, name);
+        if (value == null) {
+            return null;
+        }
+        return dateFormat().parse(value);
+    }
+
+    private static SimpleDateFormat dateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        return format;
+    }
+
+    /**
+     * Writes rows as JSON lines that keep the line of each row, for storing a chunk.
+     *
+     * @param rows the rows.
+     * @return the JSON lines, read back by {@link #fromStored(String)}.
+     */
+    public static String toStored(List<ConferenceImportRow> rows) {
+        SimpleDateFormat format = dateFormat();
+        StringBuilder builder = new StringBuilder();
+        for (ConferenceImportRow row : rows) {
+            builder.append("{\"line\":").append(row.getLine())
+                    .append(",\"organizerUserId\":").append(json(row.getOrganizerUserId()))
+                    .append(",\"name\":").append(json(row.getName()))
+                    .append(",\"description\":").append(json(row.getDescription()))
+                    .append(",\"topics\":");
+            if (row.getTopics() == null) {
+                builder.append("null");
+            } else {
+                builder.append('[');
+                for (int i = 0; i < row.getTopics().size(); i++) {
+                    builder.append(i > 0 ? "," : "").append(json(row.getTopics().get(i)));
+                }
+                builder.append(']');
+            }
+            builder.append(",\"city\":").append(json(row.getCity()))
+                    .append(",\"startDate\":").append(json(row.getStartDate() == null ? null
+                            : format.format(row.getStartDate())))
+                    .append(",\"endDate\":").append(json(row.getEndDate() == null ? null
+                            : format.format(row.getEndDate())))
+                    .append(",\"maxAttendees\":").append(row.getMaxAttendees())
+                    .append("}\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads the rows written by {@link #toStored(List)}.
+     *
+     * @param stored the JSON lines.
+     * @return the rows.
+     */
+    public static List<ConferenceImportRow> fromStored(String stored) {
+        List<ConferenceImportRow> rows = new ArrayList<>();
+        for (String text : Splitter.on('\n').omitEmptyStrings().split(stored)) {
+            Map<String, Object> values = new JsonObjectParser(text).parse();
+            rows.add(toRow(Integer.parseInt(string(values, "line")), values));
+        }
+        return rows;
+    }
+
+    private static String json(String value) {
+        return value == null ? "null" : ExportService.jsonString(value);
+    }
+
+    /**
+     * Parses a flat JSON object: strings, numbers, booleans, nulls and arrays of those.
+     */
+    private static class JsonObjectParser {
+
+        private final String text;
+
+        private int position;
+
+        JsonObjectParser(String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> parse() {
+            Map<String, Object> values = new HashMap<>();
+            expect('{');
+            if (peek() != '}') {
+                do {
+                    String name = parseString();
+                    expect(':');
+                    values.put(name, parseValue());
+                } while (consume(','));
+            }
+            expect('}');
+            if (peek() != 0) {
+                throw new IllegalArgumentException("unexpected text after the object");
+            }
+            return values;
+        }
+
+        private Object parseValue() {
+            char c = peek();
+            if (c == '"') {
+                return parseString();
+            }
+            if (c == '[') {
+                position++;
+                List<Object> items = new ArrayList<>();
+                if (peek() != ']') {
+                    do {
+                        items.add(parseValue());
+                    } while (consume(','));
+                }
+                expect(']');
+                return items;
+            }
+            int start = position;
+            while (position < text.length() && ",]} \t".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            switch (literal) {
+                case "null":
+                    return null;
+                case "true":
+                    return true;
+                case "false":
+                    return false;
+                default:
+                    if (!literal.matches("-?\\d+(\\.\\d+)?([eE][-+]?\\d+)?")) {
+                        throw new IllegalArgumentException("invalid value: " + literal);
+                    }
+                    return literal;
+            }
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder builder = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return builder.toString();
+                }
+                if (c == '\\' && position < text.length()) {
+                    char escaped = text.charAt(position++);
+                    switch (escaped) {
+                        case 'n':
+                            builder.append('\n');
+                            break;
+                        case 'r':
+                            builder.append('\r');
+                            break;
+                        case 't':
+                            builder.append('\t');
+                            break;
+                        case 'b':
+                            builder.append('\b');
+                            break;
+                        case 'f':
+                            builder.append('\f');
+                            break;
+                        case 'u':
+                            if (position + 4 > text.length()) {
+                                throw new IllegalArgumentException("invalid escape");
+                            }
+                            builder.append((char) Integer.parseInt(
+                                    text.substring(position, position + 4), 16));
+                            position += 4;
+                            break;
+                        default:
+                            builder.append(escaped);
+                    }
+                } else {
+                    builder.append(c);
+                }
+            }
+            throw new IllegalArgumentException("unterminated string");
+        }
+
+        /**
+         * Returns the next character that is not white space, 0 at the end.
+         */
+        private char peek() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            return position < text.length() ? text.charAt(position) : 0;
+        }
+
+        private boolean consume(char c) {
+            if (peek() == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw new IllegalArgumentException("expected '" + c + "' at " + position);
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.devrel.training.conference.domain.ChangeRecord;
+import com.google.devrel.training.conference.domain.ChangeRecord.ChangeType;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ExportJob.Format;
+import com.google.devrel.training.conference.domain.ImportChunk;
+import com.google.devrel.training.conference.domain.ImportJob;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceImportRow;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Imports conferences in bulk.
+ *
+ * The upload is read as a stream and split into chunks of rows, each saved in an ImportChunk
+ * and imported by a task that only gets its index. The tasks run in parallel: a task allocates
+ * the ids of its conferences with one call per organizer and writes them with one batch put,
+ * without transaction and without a confirmation email each. Once every chunk is done, each
+ * organizer gets one summary email for the whole import. An import whose chunks are not all
+ * done after MAX_FINISH_ATTEMPTS checks is marked failed.
+ *
+ * The chunk size can be set with the system property import.chunkSize in appengine-web.xml.
+ */
+public class ConferenceImporter {
+
+    private static final Logger LOG = Logger.getLogger(ConferenceImporter.class.getName());
+
+    public static final String CHUNK_URL = "/tasks/import_chunk";
+
+    public static final String FINISH_URL = "/tasks/finish_import";
+
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+
+    /**
+     * A chunk is put with its change records in one batch, which is limited to 500 entities.
+     */
+    private static final int MAX_CHUNK_SIZE = 200;
+
+    /**
+     * Well under the 1MB limit of an entity, a larger chunk is split in two.
+     */
+    private static final int MAX_CHUNK_BYTES = 512 * 1024;
+
+    private static final long FINISH_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The checks of the chunks before an import is marked failed, an hour of them.
+     */
+    private static final int MAX_FINISH_ATTEMPTS = 360;
+
+    /**
+     * The number of conference names listed in a summary email.
+     */
+    private static final int MAX_NAMES_PER_EMAIL = 50;
+
+    /**
+     * Reads an upload and enqueues the import of its chunks.
+     *
+     * @param userId the user importing the conferences.
+     * @param upload the upload.
+     * @param format the format of the upload, CSV or JSON lines.
+     * @param notify whether the organizers get a summary email.
+     * @return the job, with the number of chunks and the rejected rows.
+     * @throws IOException when the upload can't be read.
+     */
+    public static ImportJob upload(String userId, Reader upload, Format format, boolean notify)
+            throws IOException {
+        long id = factory().allocateId(ImportJob.class).getId();
+        ImportJob job = new ImportJob(id, userId, notify);
+        ofy().save().entity(job).now();
+
+        int chunkSize = Math.min(Integer.getInteger("import.chunkSize", DEFAULT_CHUNK_SIZE),
+                MAX_CHUNK_SIZE);
+        ConferenceImportReader reader = new ConferenceImportReader(upload, format);
+        List<ConferenceImportRow> rows = new ArrayList<>(chunkSize);
+        List<String> errors = new ArrayList<>();
+        int chunks = 0;
+        int rejected = 0;
+        while (true) {
+            ConferenceImportRow row;
+            try {
+                row = reader.next();
+            } catch (IllegalArgumentException e) {
+                rejected++;
+                if (errors.size() < ImportJob.MAX_ERRORS) {
+                    errors.add(e.getMessage());
+                }
+                continue;
+            }
+            if (row == null) {
+                break;
+            }
+            rows.add(row);
+            if (rows.size() == chunkSize) {
+                chunks = enqueueChunks(id, chunks, rows);
+                rows.clear();
+            }
+        }
+        if (!rows.isEmpty()) {
+            chunks = enqueueChunks(id, chunks, rows);
+        }
+        job.uploaded(chunks, rejected, errors);
+        ofy().save().entity(job).now();
+        enqueueFinish(id, 1);
+        LOG.info("Import " + id + " split into " + chunks + " chunks, " + rejected + " rejected");
+        return job;
+    }
+
+    /**
+     * Saves some rows as a chunk and enqueues its import, split in more chunks when they are
+     * too large.
+     *
+     * @return the number of chunks enqueued so far.
+     */
+    private static int enqueueChunks(long jobId, int chunks, List<ConferenceImportRow> rows) {
+        String stored = ConferenceImportReader.toStored(rows);
+        if (stored.getBytes(Charsets.UTF_8).length > MAX_CHUNK_BYTES && rows.size() > 1) {
+            int half = rows.size() / 2;
+            chunks = enqueueChunks(jobId, chunks, rows.subList(0, half));
+            return enqueueChunks(jobId, chunks, rows.subList(half, rows.size()));
+        }
+        int index = chunks + 1;
+        ofy().save().entity(new ImportChunk(Key.create(ImportJob.class, jobId), index, stored))
+                .now();
+        QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(CHUNK_URL)
+                .param("jobId", String.valueOf(jobId))
+                .param("index", String.valueOf(index)));
+        return index;
+    }
+
+    private static void enqueueFinish(long jobId, int attempt) {
+        QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(FINISH_URL)
+                .param("jobId", String.valueOf(jobId))
+                .param("attempt", String.valueOf(attempt))
+                .countdownMillis(FINISH_DELAY_MILLIS));
+    }
+
+    /**
+     * Imports a chunk.
+     *
+     * The keys of the conferences are saved in the ImportChunk before the conferences, a retry
+     * only writes the conferences that are still missing.
+     *
+     * @param jobId the id of the ImportJob.
+     * @param index the index of the chunk.
+     */
+    public static void importChunk(long jobId, long index) {
+        Key<ImportJob> jobKey = Key.create(ImportJob.class, jobId);
+        ImportChunk chunk = ofy().load().key(ImportChunk.key(jobKey, index)).now();
+        if (chunk == null) {
+            LOG.warning("Import " + jobId + " has no chunk " + index);
+            return;
+        }
+        if (chunk.isDone()) {
+            return;
+        }
+        List<ConferenceImportRow> rows = ConferenceImportReader.fromStored(chunk.getRows());
+        if (!chunk.isAllocated()) {
+            allocate(chunk, rows);
+            ofy().save().entity(chunk).now();
+        }
+
+        List<Key<Conference>> keys = chunk.getConferenceKeys();
+        Map<Key<Conference>, Conference> existing = ofy().load().keys(keys);
+        Map<Integer, ConferenceImportRow> rowsByLine = new HashMap<>();
+        for (ConferenceImportRow row : rows) {
+            rowsByLine.put(row.getLine(), row);
+        }
+        List<Conference> conferences = new ArrayList<>(existing.values());
+        List<Object> entities = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Key<Conference> key = keys.get(i);
+            if (existing.containsKey(key)) {
+                continue;
+            }
+            ConferenceImportRow row = rowsByLine.get(chunk.getLines().get(i));
+            String organizerUserId = row.getOrganizerUserId();
+            Conference conference = new Conference(key.getId(), organizerUserId, row.toForm());
+            conferences.add(conference);
+            entities.add(conference);
+            entities.add(new ChangeRecord(key, ChangeType.CONFERENCE_CREATED, key.getString(),
+                    key.getString(), organizerUserId));
+        }
+        ofy().save().entities(entities).now();
+        // All of them, a previous attempt may have failed after the put.
+        UpcomingConferences.putAll(conferences);
+        chunk.markDone();
+        ofy().save().entity(chunk).now();
+        LOG.info("Import " + jobId + " chunk " + index + ": " + keys.size() + " imported, "
+                + chunk.getErrors().size() + " failed");
+    }
+
+    /**
+     * Checks the organizers of the rows and allocates the ids of their conferences, one range
+     * per organizer.
+     */
+    private static void allocate(ImportChunk chunk, List<ConferenceImportRow> rows) {
+        Map<Key<Profile>, List<ConferenceImportRow>> rowsByOrganizer = new LinkedHashMap<>();
+        for (ConferenceImportRow row : rows) {
+            Key<Profile> profileKey = Key.create(Profile.class, row.getOrganizerUserId());
+            if (!rowsByOrganizer.containsKey(profileKey)) {
+                rowsByOrganizer.put(profileKey, new ArrayList<ConferenceImportRow>());
+            }
+            rowsByOrganizer.get(profileKey).add(row);
+        }
+        Map<Key<Profile>, Profile> organizers = ofy().load().keys(rowsByOrganizer.keySet());
+
+        List<Key<Conference>> keys = new ArrayList<>(rows.size());
+        List<Integer> lines = new ArrayList<>(rows.size());
+        List<String> errors = new ArrayList<>();
+        for (Map.Entry<Key<Profile>, List<ConferenceImportRow>> entry
+                : rowsByOrganizer.entrySet()) {
+            if (!organizers.containsKey(entry.getKey())) {
+                for (ConferenceImportRow row : entry.getValue()) {
+                    errors.add("Line " + row.getLine() + ": no profile for organizer "
+                            + row.getOrganizerUserId());
+                }
+                continue;
+            }
+            Iterator<Key<Conference>> range = factory().allocateIds(entry.getKey(),
+                    Conference.class, entry.getValue().size()).iterator();
+            for (ConferenceImportRow row : entry.getValue()) {
+                keys.add(range.next());
+                lines.add(row.getLine());
+            }
+        }
+        chunk.allocated(keys, lines, errors);
+    }
+
+    /**
+     * Completes an import once all its chunks are done, sending the summary emails, or checks
+     * again later, up to MAX_FINISH_ATTEMPTS times.
+     *
+     * @param jobId the id of the ImportJob.
+     * @param attempt the number of this check, from 1.
+     */
+    public static void finish(long jobId, int attempt) {
+        ImportJob job = getStatus(jobId);
+        if (job == null || job.isDone()) {
+            return;
+        }
+        if (!job.isUploaded() || job.getChunksDone() < job.getChunks()) {
+            if (attempt < MAX_FINISH_ATTEMPTS) {
+                enqueueFinish(jobId, attempt + 1);
+                return;
+            }
+            job.fail("Only " + job.getChunksDone() + " of " + job.getChunks()
+                    + " chunks were imported in time");
+            ofy().save().entity(job).now();
+            LOG.warning("Import " + jobId + " failed: " + job.getFailure());
+            return;
+        }
+        if (job.isNotify()) {
+            sendSummaries(job);
+        }
+        job.complete();
+        ofy().save().entity(job).now();
+        LOG.info("Import " + jobId + " done: " + job.getImported() + " imported, "
+                + (job.getRejected() + job.getFailed()) + " failed");
+    }
+
+    /**
+     * Enqueues one email per organizer, listing the conferences imported for them.
+     *
+     * The tasks are named after the job and the organizer, a retry doesn't send them twice.
+     */
+    private static void sendSummaries(ImportJob job) {
+        Map<Key<Profile>, List<Key<Conference>>> keysByOrganizer = new LinkedHashMap<>();
+        for (ImportChunk chunk : loadChunks(job.getKey())) {
+            for (Key<Conference> key : chunk.getConferenceKeys()) {
+                Key<Profile> profileKey = key.getParent();
+                if (!keysByOrganizer.containsKey(profileKey)) {
+                    keysByOrganizer.put(profileKey, new ArrayList<Key<Conference>>());
+                }
+                keysByOrganizer.get(profileKey).add(key);
+            }
+        }
+        Map<Key<Profile>, Profile> organizers = ofy().load().keys(keysByOrganizer.keySet());
+        Queue queue = QueueFactory.getDefaultQueue();
+        for (Map.Entry<Key<Profile>, List<Key<Conference>>> entry
+                : keysByOrganizer.entrySet()) {
+            Profile organizer = organizers.get(entry.getKey());
+            if (organizer == null || organizer.getMainEmail() == null) {
+                continue;
+            }
+            List<Key<Conference>> keys = entry.getValue();
+            StringBuilder info = new StringBuilder();
+            for (Conference conference : ofy().load().keys(
+                    keys.subList(0, Math.min(MAX_NAMES_PER_EMAIL, keys.size()))).values()) {
+                info.append(conference.getName()).append("\n");
+            }
+            if (keys.size() > MAX_NAMES_PER_EMAIL) {
+                info.append("and ").append(keys.size() - MAX_NAMES_PER_EMAIL).append(" more\n");
+            }
+            String taskName = "import-" + job.getId() + "-" + BaseEncoding.base16().lowerCase()
+                    .encode(organizer.getUserId().getBytes(Charsets.UTF_8));
+            try {
+                queue.add(TaskOptions.Builder.withUrl("/tasks/send_confirmation_email")
+                        .taskName(taskName)
+                        .param("email", organizer.getMainEmail())
+                        .param("count", String.valueOf(keys.size()))
+                        .param("conferenceInfo", info.toString()));
+            } catch (TaskAlreadyExistsException e) {
+                // Sent by a previous attempt.
+            }
+        }
+    }
+
+    /**
+     * Returns an import with its progress so far.
+     *
+     * @param jobId the id of the ImportJob.
+     * @return the job, or null when there is no such import.
+     */
+    public static ImportJob getStatus(long jobId) {
+        // A session of its own, the progress is added to the loaded job.
+        ImportJob job = factory().begin().load().key(Key.create(ImportJob.class, jobId)).now();
+        if (job != null && !job.isDone()) {
+            for (ImportChunk chunk : loadChunks(job.getKey())) {
+                job.addProgress(chunk);
+            }
+        }
+        return job;
+    }
+
+    private static List<ImportChunk> loadChunks(Key<ImportJob> jobKey) {
+        return ofy().load().type(ImportChunk.class).ancestor(jobKey).list();
+    }
+}
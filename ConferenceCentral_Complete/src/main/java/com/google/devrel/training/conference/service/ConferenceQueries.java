@@ -0,0 +1,90 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Splitter;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the queries of ConferenceQueryForm, in one of two modes chosen by the shape of the
+ * query.
+ *
+ * ENTITIES reads the Conferences from the query itself, an entity read each. KEYS_ONLY runs a
+ * keys-only query, a small operation per key, and resolves the keys through the
+ * InstanceCache, so only the Conferences that are not cached or not current are read, with a
+ * single batch get. The Conferences change rarely, so KEYS_ONLY wins as soon as most of them
+ * are cached; a cold cache costs an extra round trip. See ConferenceQueryBenchmark.
+ *
+ * The shapes run as KEYS_ONLY are listed, separated by commas, in the
+ * conferenceQuery.keysOnlyShapes system property in appengine-web.xml, "*" for all of them.
+ * Every query is recorded in the QueryLog, and its shape in the IndexAdvisor.
+ */
+public class ConferenceQueries {
+
+    /**
+     * How a query is run.
+     */
+    public static enum Mode {
+        ENTITIES, KEYS_ONLY
+    }
+
+    private static final String ALL_SHAPES = "*";
+
+    /**
+     * Returns the mode the queries of a shape are run in.
+     *
+     * @param shape the shape, see ConferenceQueryForm.getShape.
+     * @return the mode.
+     */
+    public static Mode modeFor(String shape) {
+        String shapes = System.getProperty("conferenceQuery.keysOnlyShapes", "");
+        for (String keysOnly : Splitter.on(',').trimResults().omitEmptyStrings().split(shapes)) {
+            if (keysOnly.equals(ALL_SHAPES) || keysOnly.equals(shape)) {
+                return Mode.KEYS_ONLY;
+            }
+        }
+        return Mode.ENTITIES;
+    }
+
+    /**
+     * Runs a query in the mode of its shape.
+     *
+     * @param conferenceQueryForm the query.
+     * @return the Conferences in the order of the query. They may be shared with the
+     *         InstanceCache, they must not be modified.
+     */
+    public static List<Conference> list(ConferenceQueryForm conferenceQueryForm) {
+        return list(conferenceQueryForm, modeFor(conferenceQueryForm.getShape()));
+    }
+
+    /**
+     * Runs a query in the given mode.
+     *
+     * @param conferenceQueryForm the query.
+     * @param mode the mode.
+     * @return the Conferences in the order of the query.
+     */
+    public static List<Conference> list(ConferenceQueryForm conferenceQueryForm, Mode mode) {
+        long start = System.nanoTime();
+        Query<Conference> query = conferenceQueryForm.getQuery();
+        List<Conference> conferences;
+        int loaded;
+        if (mode == Mode.KEYS_ONLY) {
+            AtomicInteger fetched = new AtomicInteger();
+            conferences = InstanceCache.getConferences(query.keys().list(), fetched);
+            loaded = fetched.get();
+        } else {
+            conferences = query.list();
+            loaded = conferences.size();
+        }
+        QueryLog.record(conferenceQueryForm.getShape(), mode,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), conferences.size(),
+                loaded);
+        IndexAdvisor.record(conferenceQueryForm.getIndexShape());
+        return conferences;
+    }
+}
@@ -0,0 +1,55 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A composite index of datastore-indexes.xml, all its properties ascending.
+ */
+public final class DatastoreIndex {
+
+    private final String kind;
+
+    private final boolean ancestor;
+
+    private final List<String> properties;
+
+    public DatastoreIndex(String kind, boolean ancestor, List<String> properties) {
+        this.kind = kind;
+        this.ancestor = ancestor;
+        this.properties = ImmutableList.copyOf(properties);
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public boolean hasAncestor() {
+        return ancestor;
+    }
+
+    public List<String> getProperties() {
+        return properties;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DatastoreIndex)) {
+            return false;
+        }
+        DatastoreIndex other = (DatastoreIndex) o;
+        return kind.equals(other.kind) && ancestor == other.ancestor
+                && properties.equals(other.properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return (kind.hashCode() * 31 + (ancestor ? 1 : 0)) * 31 + properties.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return kind + (ancestor ? " (ancestor)" : "") + " " + properties;
+    }
+}
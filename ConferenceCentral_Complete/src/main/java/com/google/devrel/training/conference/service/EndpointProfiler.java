@@ -0,0 +1,346 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.EndpointStats;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+/**
+ * Profiles the ConferenceApi methods on demand, on the instance that is asked to.
+ *
+ * A profile runs for a bounded time and samples a bounded share of the calls, the
+ * ProfilingFilter measures each sampled call: its time, and the bytes its thread allocated when
+ * the JVM measures them. It can also start a Java Flight Recording for the same time, with the
+ * default settings meant for production, written to a local file for download.
+ *
+ * Neither the allocated bytes nor the flight recorder are available in every runtime, the App
+ * Engine sandbox denies both: they are probed once, and a profile without them still measures
+ * the times. The caps on the duration and on the sampled share can be set with the
+ * profiler.maxSeconds and profiler.maxSamplePercent system properties in appengine-web.xml.
+ */
+public class EndpointProfiler {
+
+    private static final Logger LOG = Logger.getLogger(EndpointProfiler.class.getName());
+
+    private static final int DEFAULT_MAX_SECONDS = 300;
+
+    private static final int DEFAULT_MAX_SAMPLE_PERCENT = 10;
+
+    private static final String RECORDING_NAME = "conference-profiler";
+
+    private static final String DIAGNOSTIC_COMMAND = "com.sun.management:type=DiagnosticCommand";
+
+    /**
+     * com.sun.management.ThreadMXBean.getThreadAllocatedBytes, null when not available.
+     */
+    private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+    private static final AtomicReference<Profile> PROFILE = new AtomicReference<>();
+
+    /**
+     * A profile, running or over.
+     */
+    private static class Profile {
+
+        private final long startMillis;
+
+        private final long endMillis;
+
+        private final int samplePercent;
+
+        private final ConcurrentMap<String, MethodStats> methods = new ConcurrentHashMap<>();
+
+        private volatile boolean stopped;
+
+        private File recording;
+
+        private String recordingError;
+
+        Profile(long startMillis, long endMillis, int samplePercent) {
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.samplePercent = samplePercent;
+        }
+
+        boolean isRunning() {
+            return !stopped && System.currentTimeMillis() < endMillis;
+        }
+
+        MethodStats stats(String method) {
+            MethodStats stats = methods.get(method);
+            if (stats == null) {
+                MethodStats previous = methods.putIfAbsent(method, stats = new MethodStats());
+                if (previous != null) {
+                    stats = previous;
+                }
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * The running statistics of a method.
+     */
+    private static class MethodStats {
+
+        private long calls;
+
+        private long totalMillis;
+
+        private long maxMillis;
+
+        private long allocatedBytes;
+
+        private long maxAllocatedBytes;
+
+        synchronized void add(long millis, long bytes) {
+            calls++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+            allocatedBytes += bytes;
+            maxAllocatedBytes = Math.max(maxAllocatedBytes, bytes);
+        }
+
+        synchronized EndpointStats snapshot(String method) {
+            return new EndpointStats(method, calls, totalMillis, maxMillis, allocatedBytes,
+                    maxAllocatedBytes);
+        }
+    }
+
+    /**
+     * A sampled call, see begin.
+     */
+    public static final class Sample {
+
+        private final Profile profile;
+
+        private final long startNanos;
+
+        private final long startBytes;
+
+        private Sample(Profile profile, long startNanos, long startBytes) {
+            this.profile = profile;
+            this.startNanos = startNanos;
+            this.startBytes = startBytes;
+        }
+    }
+
+    private static Method allocatedBytesMethod() {
+        try {
+            Object threads = ManagementFactory.getThreadMXBean();
+            Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            if (!beanClass.isInstance(threads)
+                    || !(Boolean) beanClass.getMethod("isThreadAllocatedMemorySupported")
+                            .invoke(threads)) {
+                return null;
+            }
+            beanClass.getMethod("setThreadAllocatedMemoryEnabled", boolean.class)
+                    .invoke(threads, true);
+            return beanClass.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Throwable e) {
+            // The sandbox denies the management beans, or the JVM is not a HotSpot.
+            LOG.info("Allocated bytes are not measured: " + e);
+            return null;
+        }
+    }
+
+    private static long allocatedBytes() {
+        if (ALLOCATED_BYTES == null) {
+            return 0;
+        }
+        try {
+            return (Long) ALLOCATED_BYTES.invoke(ManagementFactory.getThreadMXBean(),
+                    Thread.currentThread().getId());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns whether the bytes allocated by the calls are measured.
+     */
+    public static boolean isAllocationSupported() {
+        return ALLOCATED_BYTES != null;
+    }
+
+    /**
+     * Starts a profile, the previous one is dropped.
+     *
+     * @param seconds how long to profile, capped by profiler.maxSeconds.
+     * @param samplePercent the share of the calls to sample, capped by
+     *                      profiler.maxSamplePercent.
+     * @param flightRecording whether to start a flight recording for the same time.
+     * @return the description of the profile, see getStatus.
+     * @throws IllegalStateException when a profile is running.
+     */
+    public static synchronized String start(int seconds, int samplePercent,
+                                            boolean flightRecording) {
+        Profile current = PROFILE.get();
+        if (current != null && current.isRunning()) {
+            throw new IllegalStateException("A profile is running until "
+                    + new Date(current.endMillis));
+        }
+        int cappedSeconds = Math.max(1, Math.min(seconds,
+                Integer.getInteger("profiler.maxSeconds", DEFAULT_MAX_SECONDS)));
+        int cappedPercent = Math.max(1, Math.min(samplePercent,
+                Integer.getInteger("profiler.maxSamplePercent", DEFAULT_MAX_SAMPLE_PERCENT)));
+        long now = System.currentTimeMillis();
+        Profile profile = new Profile(now, now + TimeUnit.SECONDS.toMillis(cappedSeconds),
+                cappedPercent);
+        if (flightRecording) {
+            startFlightRecording(profile, cappedSeconds);
+        }
+        PROFILE.set(profile);
+        LOG.info("Profiling " + cappedPercent + "% of the calls for " + cappedSeconds + " s");
+        return getStatus();
+    }
+
+    /**
+     * Stops the running profile, and its flight recording. Its statistics are kept.
+     */
+    public static synchronized void stop() {
+        Profile profile = PROFILE.get();
+        if (profile == null || !profile.isRunning()) {
+            return;
+        }
+        profile.stopped = true;
+        if (profile.recording != null) {
+            try {
+                diagnosticCommand("jfrStop", "name=" + RECORDING_NAME);
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Could not stop the flight recording", e);
+            }
+        }
+    }
+
+    /**
+     * Starts the flight recording with the diagnostic command of the JVM, available from Java
+     * 8. A failure only leaves the profile without a recording.
+     */
+    private static void startFlightRecording(Profile profile, int seconds) {
+        File file = new File(System.getProperty("java.io.tmpdir"),
+                RECORDING_NAME + "-" + profile.startMillis + ".jfr");
+        try {
+            diagnosticCommand("jfrStart", "name=" + RECORDING_NAME, "settings=default",
+                    "duration=" + seconds + "s", "filename=" + file.getAbsolutePath());
+            profile.recording = file;
+        } catch (Exception | LinkageError e) {
+            profile.recordingError = e.toString();
+            LOG.info("The flight recorder is not available: " + e);
+        }
+    }
+
+    private static Object diagnosticCommand(String command, String... arguments)
+            throws Exception {
+        return ManagementFactory.getPlatformMBeanServer().invoke(
+                new ObjectName(DIAGNOSTIC_COMMAND), command, new Object[] {arguments},
+                new String[] {String[].class.getName()});
+    }
+
+    /**
+     * Returns the flight recording of the last profile once it is over, or null.
+     */
+    public static File getRecording() {
+        Profile profile = PROFILE.get();
+        if (profile == null || profile.isRunning() || profile.recording == null
+                || !profile.recording.isFile()) {
+            return null;
+        }
+        return profile.recording;
+    }
+
+    /**
+     * Starts measuring a call, when a profile is running and samples it.
+     *
+     * @return the sample to pass to end, or null.
+     */
+    public static Sample begin() {
+        Profile profile = PROFILE.get();
+        if (profile == null || !profile.isRunning()
+                || ThreadLocalRandom.current().nextInt(100) >= profile.samplePercent) {
+            return null;
+        }
+        return new Sample(profile, System.nanoTime(), allocatedBytes());
+    }
+
+    /**
+     * Records a sampled call, on the thread that began it.
+     *
+     * @param sample the sample returned by begin.
+     * @param method the name of the ConferenceApi method.
+     */
+    public static void end(Sample sample, String method) {
+        long bytes = ALLOCATED_BYTES == null ? 0 : allocatedBytes() - sample.startBytes;
+        sample.profile.stats(method).add(
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sample.startNanos), bytes);
+    }
+
+    /**
+     * Returns the statistics of the last profile, the most allocating methods first, then the
+     * slowest in total, then the most called.
+     */
+    public static List<EndpointStats> getStats() {
+        Profile profile = PROFILE.get();
+        List<EndpointStats> stats = new ArrayList<>();
+        if (profile == null) {
+            return stats;
+        }
+        for (String method : profile.methods.keySet()) {
+            stats.add(profile.methods.get(method).snapshot(method));
+        }
+        Collections.sort(stats, new Comparator<EndpointStats>() {
+            @Override
+            public int compare(EndpointStats a, EndpointStats b) {
+                int byBytes = Long.compare(b.getAllocatedBytes(), a.getAllocatedBytes());
+                if (byBytes != 0) {
+                    return byBytes;
+                }
+                int byMillis = Long.compare(b.getAverageMillis() * b.getCalls(),
+                        a.getAverageMillis() * a.getCalls());
+                return byMillis != 0 ? byMillis : Long.compare(b.getCalls(), a.getCalls());
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * Returns a description of the last profile.
+     */
+    public static String getStatus() {
+        Profile profile = PROFILE.get();
+        if (profile == null) {
+            return "No profile";
+        }
+        StringBuilder status = new StringBuilder();
+        status.append(profile.isRunning() ? "Running" : "Over").append(", ")
+                .append(profile.samplePercent).append("% of the calls from ")
+                .append(new Date(profile.startMillis)).append(" to ")
+                .append(new Date(profile.endMillis)).append(profile.stopped ? " (stopped)" : "")
+                .append("\nAllocated bytes: ")
+                .append(isAllocationSupported() ? "measured" : "not available")
+                .append("\nFlight recording: ");
+        if (profile.recording != null) {
+            status.append(profile.recording.getAbsolutePath());
+        } else if (profile.recordingError != null) {
+            status.append("not available, ").append(profile.recordingError);
+        } else {
+            status.append("none");
+        }
+        return status.toString();
+    }
+}
@@ -0,0 +1,260 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PostPut;
+import com.google.appengine.api.datastore.PutContext;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.CasValues;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A memcache backed lookup of the current version of the entities, used for the conditional
+ * GETs.
+ *
+ * The versions of Conference, Session and Profile are bumped on every save. The datastore
+ * hands them to recordCommitted once the save is committed, never for a rolled back
+ * transaction, and they are recorded here with a few batched memcache calls per request: when
+ * the response starts, at the end of the request, or before this thread looks a version up, see
+ * flush. A recorded version only ever grows, so a stale writer can't move it back.
+ */
+public class EntityVersions {
+
+    /**
+     * The name of the request attribute holding the ETag of the response.
+     */
+    public static final String ETAG_ATTRIBUTE = "com.google.devrel.training.conference.ETag";
+
+    private static final String MEMCACHE_NAMESPACE = "versions";
+
+    private static final int MAX_CAS_ATTEMPTS = 3;
+
+    /**
+     * The versions committed by this thread and not recorded yet, by websafe key.
+     */
+    private static final ThreadLocal<Map<String, Long>> COMMITTED =
+            new ThreadLocal<Map<String, Long>>() {
+                @Override
+                protected Map<String, Long> initialValue() {
+                    return new HashMap<>();
+                }
+            };
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE);
+    }
+
+    /**
+     * Records the version of an entity unless a newer one is already recorded.
+     *
+     * @param key the key of the entity.
+     * @param version the version of the entity.
+     */
+    public static void record(Key<?> key, long version) {
+        MemcacheService memcacheService = memcache();
+        String memcacheKey = key.getString();
+        for (int i = 0; i < MAX_CAS_ATTEMPTS; i++) {
+            IdentifiableValue current = memcacheService.getIdentifiable(memcacheKey);
+            if (current == null) {
+                if (memcacheService.put(memcacheKey, version, null,
+                        SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                    return;
+                }
+            } else if ((Long) current.getValue() >= version
+                    || memcacheService.putIfUntouched(memcacheKey, current, version)) {
+                return;
+            }
+        }
+        // We lost the race too many times, drop the entry so that nobody trusts it.
+        memcacheService.delete(memcacheKey);
+    }
+
+    /**
+     * Keeps the version of a committed save for the next flush. Invoked by the datastore after
+     * the put, or after the commit of its transaction.
+     */
+    @PostPut(kinds = {"Conference", "Session", "Profile"})
+    public void recordCommitted(PutContext context) {
+        Entity entity = context.getCurrentElement();
+        Object version = entity.getProperty("version");
+        if (version instanceof Long) {
+            Map<String, Long> committed = COMMITTED.get();
+            String websafeKey = KeyFactory.keyToString(entity.getKey());
+            Long previous = committed.get(websafeKey);
+            if (previous == null || previous < (Long) version) {
+                committed.put(websafeKey, (Long) version);
+            }
+        }
+    }
+
+    /**
+     * Records the versions committed by this thread, unless newer ones are already recorded,
+     * with one batched memcache call of each kind per attempt.
+     */
+    public static void flush() {
+        Map<String, Long> remaining = COMMITTED.get();
+        if (remaining.isEmpty()) {
+            return;
+        }
+        COMMITTED.remove();
+        MemcacheService memcacheService = memcache();
+        for (int i = 0; i < MAX_CAS_ATTEMPTS && !remaining.isEmpty(); i++) {
+            Map<String, IdentifiableValue> current =
+                    memcacheService.getIdentifiables(remaining.keySet());
+            Map<String, Long> absent = new HashMap<>();
+            Map<String, CasValues> older = new HashMap<>();
+            for (Map.Entry<String, Long> entry : remaining.entrySet()) {
+                IdentifiableValue value = current.get(entry.getKey());
+                if (value == null) {
+                    absent.put(entry.getKey(), entry.getValue());
+                } else if ((Long) value.getValue() < entry.getValue()) {
+                    older.put(entry.getKey(), new CasValues(value, entry.getValue()));
+                }
+            }
+            Set<String> stored = new HashSet<>();
+            if (!absent.isEmpty()) {
+                stored.addAll(memcacheService.putAll(absent, null,
+                        SetPolicy.ADD_ONLY_IF_NOT_PRESENT));
+            }
+            if (!older.isEmpty()) {
+                stored.addAll(memcacheService.putIfUntouched(older));
+            }
+            Map<String, Long> lost = new HashMap<>();
+            for (String websafeKey : absent.keySet()) {
+                if (!stored.contains(websafeKey)) {
+                    lost.put(websafeKey, remaining.get(websafeKey));
+                }
+            }
+            for (String websafeKey : older.keySet()) {
+                if (!stored.contains(websafeKey)) {
+                    lost.put(websafeKey, remaining.get(websafeKey));
+                }
+            }
+            remaining = lost;
+        }
+        if (!remaining.isEmpty()) {
+            // We lost the race too many times, drop the entries so that nobody trusts them.
+            memcacheService.deleteAll(remaining.keySet());
+        }
+    }
+
+    /**
+     * Returns the recorded version of an entity.
+     *
+     * @param key the key of the entity.
+     * @return the version, or null when it is not in memcache.
+     */
+    public static Long lookup(Key<?> key) {
+        flush();
+        return (Long) memcache().get(key.getString());
+    }
+
+    /**
+     * Returns the recorded versions of entities, with a single memcache call.
+     *
+     * @param keys the keys of the entities.
+     * @return the versions found in memcache, by key.
+     */
+    public static <T> Map<Key<T>, Long> lookupAll(Collection<Key<T>> keys) {
+        Map<String, Key<T>> byString = new HashMap<>();
+        for (Key<T> key : keys) {
+            byString.put(key.getString(), key);
+        }
+        flush();
+        Map<Key<T>, Long> versions = new HashMap<>();
+        for (Map.Entry<String, Object> entry
+                : memcache().getAll(new ArrayList<>(byString.keySet())).entrySet()) {
+            versions.put(byString.get(entry.getKey()), (Long) entry.getValue());
+        }
+        return versions;
+    }
+
+    /**
+     * Records the versions of entities that have none recorded, with a single memcache call.
+     *
+     * An entry found with an older version is left alone: it is only not trusted until the
+     * next save records a newer one.
+     *
+     * @param versions the versions of the entities, by key.
+     */
+    public static void recordAllMissing(Map<? extends Key<?>, Long> versions) {
+        Map<String, Long> entries = new HashMap<>();
+        for (Map.Entry<? extends Key<?>, Long> entry : versions.entrySet()) {
+            entries.put(entry.getKey().getString(), entry.getValue());
+        }
+        memcache().putAll(entries, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+
+    /**
+     * Returns the stamp of a collection, e.g. the sessions of a conference.
+     *
+     * The stamp is read before the collection is loaded and bumped after every committed
+     * change, so a response never carries a stamp newer than its content.
+     *
+     * @param name the name of the collection.
+     * @return the current stamp of the collection.
+     */
+    public static long collectionStamp(String name) {
+        MemcacheService memcacheService = memcache();
+        Long stamp = (Long) memcacheService.get(name);
+        if (stamp == null) {
+            // Start from the clock, so that a stamp lost by an eviction is never reused.
+            stamp = System.currentTimeMillis();
+            if (!memcacheService.put(name, stamp, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                Long current = (Long) memcacheService.get(name);
+                stamp = current == null ? stamp : current;
+            }
+        }
+        return stamp;
+    }
+
+    /**
+     * Bumps the stamp of a collection. Call it after the change is committed.
+     *
+     * @param name the name of the collection.
+     */
+    public static void touchCollection(String name) {
+        memcache().increment(name, 1, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the ETag for the given version.
+     */
+    public static String etag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Checks the If-None-Match header against the given version.
+     *
+     * @param ifNoneMatch the value of the If-None-Match header, may be null.
+     * @param version the current version, may be null when it is unknown.
+     * @return true when the client already has this version.
+     */
+    public static boolean matches(String ifNoneMatch, Long version) {
+        if (ifNoneMatch == null || version == null) {
+            return false;
+        }
+        String etag = etag(version);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.startsWith("W/")) {
+                trimmed = trimmed.substring(2);
+            }
+            if (trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
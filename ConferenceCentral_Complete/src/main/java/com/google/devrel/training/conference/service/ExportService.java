@@ -0,0 +1,369 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ExportJob;
+import com.google.devrel.training.conference.domain.ExportJob.Format;
+import com.google.devrel.training.conference.domain.ExportJob.Kind;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the attendees or the sessions of a Conference as CSV or as JSON lines.
+ *
+ * The entities are read a chunk at a time, each chunk in an Objectify session of its own, and
+ * written out before the next one is read, so the memory used doesn't depend on the size of
+ * the export. Each chunk ends with a cursor: an export stopped by its deadline resumes from
+ * there, in the next request or in the next task.
+ *
+ * The attendees are read from the reverse attendee index, a chunk of keys at a time, and their
+ * Profiles loaded with one batch get per chunk.
+ *
+ * The chunk size and the time budgets can be set with system properties in
+ * appengine-web.xml: export.chunkSize, export.requestMillis and export.taskMillis. The
+ * background exports are written to the export.bucket in Cloud Storage, or to the local
+ * export.dir when there is no bucket.
+ */
+public class ExportService {
+
+    private static final Logger LOG = Logger.getLogger(ExportService.class.getName());
+
+    public static final String TASK_URL = "/tasks/export";
+
+    private static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private static final long DEFAULT_REQUEST_MILLIS = TimeUnit.SECONDS.toMillis(45);
+
+    private static final long DEFAULT_TASK_MILLIS = TimeUnit.MINUTES.toMillis(8);
+
+    private static final List<String> ATTENDEE_COLUMNS =
+            Arrays.asList("userId", "displayName", "mainEmail", "teeShirtSize");
+
+    private static final List<String> SESSION_COLUMNS = Arrays.asList("websafeKey", "name",
+            "sessionType", "startDate", "startTime", "duration", "location", "speakers");
+
+    /**
+     * What a call to write covered.
+     */
+    public static class Progress {
+
+        private final long rows;
+
+        private final String cursor;
+
+        Progress(long rows, String cursor) {
+            this.rows = rows;
+            this.cursor = cursor;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * Where to resume, null when the export is complete.
+         */
+        public String getCursor() {
+            return cursor;
+        }
+    }
+
+    /**
+     * Returns the time a request may spend writing an export.
+     */
+    public static long getRequestMillis() {
+        return Long.getLong("export.requestMillis", DEFAULT_REQUEST_MILLIS);
+    }
+
+    /**
+     * Writes the export, a chunk at a time, until it is complete or the deadline has passed.
+     *
+     * At least one chunk is written, whatever the deadline. The CSV header is only written at
+     * the start of the export, not when resuming.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param kind what to export.
+     * @param format how to write it.
+     * @param cursor where to resume, null to start from the beginning.
+     * @param out where to write, flushed after every chunk and left open.
+     * @param deadline the time after which no new chunk is started, in milliseconds.
+     * @return the number of rows written and where to resume.
+     * @throws IOException when the output fails.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    public static Progress write(Key<Conference> conferenceKey, Kind kind, Format format,
+                                 String cursor, OutputStream out, long deadline)
+            throws IOException {
+        int chunkSize = Integer.getInteger("export.chunkSize", DEFAULT_CHUNK_SIZE);
+        List<String> columns = kind == Kind.ATTENDEES ? ATTENDEE_COLUMNS : SESSION_COLUMNS;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+        if (cursor == null && format == Format.CSV) {
+            writeCsv(writer, columns.toArray());
+        }
+        long rows = 0;
+        do {
+            // A new session per chunk, the entities of the previous chunks can be collected.
+            Objectify session = factory().begin();
+            Query<?> query = kind == Kind.ATTENDEES
+                    ? session.load().type(Attendee.class).ancestor(conferenceKey)
+                    : session.load().type(Session.class).ancestor(conferenceKey);
+            query = query.limit(chunkSize);
+            if (cursor != null) {
+                query = query.startAt(Cursor.fromWebSafeString(cursor));
+            }
+            QueryResultIterator<?> iterator = kind == Kind.ATTENDEES
+                    ? query.keys().iterator()
+                    : query.iterator();
+            List<Object> entities = new ArrayList<>(chunkSize);
+            while (iterator.hasNext()) {
+                entities.add(iterator.next());
+            }
+            int fetched = entities.size();
+            if (kind == Kind.ATTENDEES) {
+                entities = loadAttendeeProfiles(session, entities);
+            }
+            for (Object entity : entities) {
+                Object[] row = kind == Kind.ATTENDEES
+                        ? attendeeRow((Profile) entity)
+                        : sessionRow((Session) entity);
+                if (format == Format.CSV) {
+                    writeCsv(writer, row);
+                } else {
+                    writeJson(writer, columns, row);
+                }
+                rows++;
+            }
+            cursor = fetched < chunkSize ? null : iterator.getCursor().toWebSafeString();
+            writer.flush();
+        } while (cursor != null && System.currentTimeMillis() < deadline);
+        return new Progress(rows, cursor);
+    }
+
+    /**
+     * Ends an export stopped by its deadline with where to resume: a "# resume=" line in CSV,
+     * a {"resume": ...} object in JSON.
+     */
+    public static void writeResume(Format format, String cursor, OutputStream out)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+        if (format == Format.CSV) {
+            writer.write("# resume=" + cursor + "\r\n");
+        } else {
+            writeJson(writer, Arrays.asList("resume"), new Object[] {cursor});
+        }
+        writer.flush();
+    }
+
+    /**
+     * Loads the Profiles of a chunk of Attendee keys with one batch get, in the same order.
+     */
+    private static List<Object> loadAttendeeProfiles(Objectify session,
+                                                     List<Object> attendeeKeys) {
+        List<Key<Profile>> profileKeys = new ArrayList<>(attendeeKeys.size());
+        for (Object attendeeKey : attendeeKeys) {
+            profileKeys.add(Key.create(Profile.class, ((Key<?>) attendeeKey).getName()));
+        }
+        // The values come in the order of the keys, without the missing Profiles.
+        return new ArrayList<Object>(session.load().keys(profileKeys).values());
+    }
+
+    private static Object[] attendeeRow(Profile profile) {
+        return new Object[] {profile.getUserId(), profile.getDisplayName(),
+                profile.getMainEmail(), profile.getTeeShirtSize()};
+    }
+
+    private static Object[] sessionRow(Session session) {
+        List<String> speakers = new ArrayList<>();
+        for (Key<Profile> speakerKey : session.getSpeakerProfileKeys()) {
+            speakers.add(speakerKey.getName());
+        }
+        String startDate = null;
+        if (session.getStartDate() != null) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            startDate = format.format(session.getStartDate());
+        }
+        return new Object[] {session.getWebsafeKey(), session.getName(),
+                session.getSessionType(), startDate, session.getStartTime(),
+                session.getDuration(), session.getLocation(),
+                Joiner.on(' ').join(speakers)};
+    }
+
+    private static void writeCsv(Writer writer, Object[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String value = row[i] == null ? "" : row[i].toString();
+            if (needsQuotes(value)) {
+                value = '"' + value.replace("\"", "\"\"") + '"';
+            }
+            writer.write(value);
+        }
+        writer.write("\r\n");
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == ',' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeJson(Writer writer, List<String> columns, Object[] row)
+            throws IOException {
+        writer.write('{');
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(jsonString(columns.get(i)));
+            writer.write(':');
+            if (row[i] == null) {
+                writer.write("null");
+            } else if (row[i] instanceof Number) {
+                writer.write(row[i].toString());
+            } else {
+                writer.write(jsonString(row[i].toString()));
+            }
+        }
+        writer.write("}\n");
+    }
+
+    static String jsonString(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Starts a background export.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param kind what to export.
+     * @param format how to write it.
+     * @param userId the user who asked for the export.
+     * @param recordKey the key of the idempotency record of the call, or null.
+     * @return the new job, or the one started by the first call with the same idempotency key.
+     */
+    public static ExportJob start(Key<Conference> conferenceKey, Kind kind, Format format,
+                                  String userId, final Key<IdempotencyRecord> recordKey) {
+        IdempotencyRecord replayed = IdempotencyKeys.find(recordKey);
+        if (replayed != null) {
+            return ofy().load().key(replayed.<ExportJob>getResultKey()).now();
+        }
+        long id = factory().allocateId(conferenceKey, ExportJob.class).getId();
+        final ExportJob job = new ExportJob(id, conferenceKey, kind, format, userId);
+        return ofy().transact(new Work<ExportJob>() {
+            @Override
+            public ExportJob run() {
+                IdempotencyRecord replayed = IdempotencyKeys.find(recordKey);
+                if (replayed != null) {
+                    return ofy().load().key(replayed.<ExportJob>getResultKey()).now();
+                }
+                ofy().save().entity(job).now();
+                enqueuePart(job.getKey(), 0);
+                IdempotencyKeys.save(recordKey, job.getKey(), null);
+                return job;
+            }
+        });
+    }
+
+    private static void enqueuePart(Key<ExportJob> jobKey, int part) {
+        QueueFactory.getDefaultQueue().add(ofy().getTransaction(),
+                TaskOptions.Builder.withUrl(TASK_URL)
+                        .param("websafeJobKey", jobKey.getString())
+                        .param("part", String.valueOf(part)));
+    }
+
+    /**
+     * Writes the next part of a background export and enqueues the one after it.
+     *
+     * A part is only recorded once it is completely written, a retried task writes it again.
+     *
+     * @param websafeJobKey the String representation of the ExportJob key.
+     * @param part the index of the part to write.
+     * @throws IOException when the part can't be written.
+     */
+    public static void runPart(String websafeJobKey, final int part) throws IOException {
+        final Key<ExportJob> jobKey = Key.create(websafeJobKey);
+        ExportJob job = ofy().load().key(jobKey).now();
+        if (job == null || job.isDone() || job.getParts().size() != part) {
+            LOG.info("Skipping part " + part + " of export " + websafeJobKey);
+            return;
+        }
+        final String name = job.nextPartName();
+        final Progress progress;
+        try (OutputStream out = new GZIPOutputStream(
+                store().create(name, job.getFormat().getContentType()))) {
+            progress = write(job.getConferenceKey(), job.getKind(), job.getFormat(),
+                    job.getCursor(), out, System.currentTimeMillis()
+                            + Long.getLong("export.taskMillis", DEFAULT_TASK_MILLIS));
+        }
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                ExportJob job = ofy().load().key(jobKey).now();
+                if (job.getParts().size() != part) {
+                    return;
+                }
+                job.addPart(name, progress.getRows(), progress.getCursor());
+                ofy().save().entity(job).now();
+                if (!job.isDone()) {
+                    enqueuePart(jobKey, part + 1);
+                }
+            }
+        });
+        LOG.info("Wrote " + progress.getRows() + " rows to " + name);
+    }
+
+    private static ExportStore store() {
+        String bucket = System.getProperty("export.bucket");
+        if (bucket != null) {
+            return new GcsExportStore(bucket);
+        }
+        return new LocalExportStore(new File(System.getProperty("export.dir",
+                System.getProperty("java.io.tmpdir"))));
+    }
+}
@@ -0,0 +1,22 @@
+package com.google.devrel.training.conference.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Where the background exports are written.
+ */
+public interface ExportStore {
+
+    /**
+     * Creates or replaces an object.
+     *
+     * The object only becomes visible once the returned stream is closed.
+     *
+     * @param name the name of the object, e.g. exports/1001/42/attendees-00000.csv.gz.
+     * @param contentType the content type of the uncompressed data, the object is gzipped.
+     * @return the stream to write the object to.
+     * @throws IOException when the object can't be created.
+     */
+    OutputStream create(String name, String contentType) throws IOException;
+}
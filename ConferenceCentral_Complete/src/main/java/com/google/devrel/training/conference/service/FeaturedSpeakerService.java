@@ -0,0 +1,126 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.FeaturedSpeaker;
+import com.google.devrel.training.conference.domain.FeaturedSpeakers;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains and reads the featured speakers of the conferences.
+ */
+public class FeaturedSpeakerService {
+
+    /**
+     * Makes a speaker the featured speaker of a Conference.
+     *
+     * Call this in the transaction that saves the Session, FeaturedSpeakers is in the
+     * Conference's entity group.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param speaker the Profile of the speaker.
+     * @param sessions the Sessions of the speaker in the Conference.
+     */
+    public static void feature(Key<Conference> conferenceKey, Profile speaker,
+                               List<Session> sessions) {
+        List<String> sessionNames = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            sessionNames.add(session.getName());
+        }
+        FeaturedSpeaker featured = new FeaturedSpeaker(
+                Key.create(Profile.class, speaker.getUserId()).getString(),
+                speaker.getDisplayName(), sessionNames);
+
+        FeaturedSpeakers featuredSpeakers = ofy().load()
+                .key(FeaturedSpeakers.key(conferenceKey)).now();
+        if (featuredSpeakers == null) {
+            featuredSpeakers = new FeaturedSpeakers(conferenceKey);
+        }
+        featuredSpeakers.feature(featured);
+        ofy().save().entity(featuredSpeakers).now();
+    }
+
+    /**
+     * Puts the speaker featured last in any conference in memcache, where getFeaturedSpeaker
+     * without a conference reads it. Run by a cron, so that featuring a speaker doesn't write
+     * this global entry.
+     */
+    public static void publishLatest() {
+        FeaturedSpeakers latest = ofy().load().type(FeaturedSpeakers.class)
+                .order("-featuredAt").limit(1).first().now();
+        if (latest != null && latest.getLatest() != null) {
+            MemcacheServiceFactory.getMemcacheService().put(Constants.FEATURED_SPEAKERS_KEY,
+                    latest.getLatest().getMessage());
+        }
+    }
+
+    /**
+     * Returns the featured speakers of many conferences with a single batch get.
+     *
+     * @param websafeConferenceKeys the String representations of the Conference Keys.
+     * @return one entry per conference in the same order, empty for the conferences without
+     *         featured speakers.
+     */
+    public static List<FeaturedSpeakers> lookup(List<String> websafeConferenceKeys) {
+        List<Key<FeaturedSpeakers>> keys = new ArrayList<>(websafeConferenceKeys.size());
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            keys.add(FeaturedSpeakers.key(Key.<Conference>create(websafeConferenceKey)));
+        }
+        Map<Key<FeaturedSpeakers>, FeaturedSpeakers> found = ofy().load().keys(keys);
+        List<FeaturedSpeakers> result = new ArrayList<>(keys.size());
+        for (Key<FeaturedSpeakers> key : keys) {
+            FeaturedSpeakers entry = found.get(key);
+            result.add(entry != null ? entry
+                    : new FeaturedSpeakers(Key.<Conference>create(key.getParent().getRaw())));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the featured speakers of a conference, with a single get through the memcache of
+     * Objectify. The concurrent lookups of the same conference on this instance share the get,
+     * and only when Objectify's memcache has nothing for it, neither the entity nor its absence,
+     * is the get made once on all the instances, see SingleFlight.
+     *
+     * The returned FeaturedSpeakers may be shared, it must not be modified.
+     *
+     * @param websafeConferenceKey the String representation of the Conference Key.
+     * @return the featured speakers, empty when the conference has none.
+     */
+    public static FeaturedSpeakers lookup(String websafeConferenceKey) {
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        final Key<FeaturedSpeakers> key = FeaturedSpeakers.key(conferenceKey);
+        final String flightKey = "FeaturedSpeakers:" + websafeConferenceKey;
+        final SingleFlight.Loader<FeaturedSpeakers> get =
+                new SingleFlight.Loader<FeaturedSpeakers>() {
+                    @Override
+                    public FeaturedSpeakers load() {
+                        // Not in the session of the request, the result may be shared.
+                        return factory().begin().load().key(key).now();
+                    }
+                };
+        FeaturedSpeakers found = SingleFlight.coalesce(flightKey,
+                new SingleFlight.Loader<FeaturedSpeakers>() {
+                    @Override
+                    public FeaturedSpeakers load() {
+                        if (MemcacheServiceFactory.getMemcacheService(
+                                ObjectifyFactory.MEMCACHE_NAMESPACE).get(key.getString()) != null) {
+                            return get.load();
+                        }
+                        return SingleFlight.lease(flightKey, null, get);
+                    }
+                });
+        return found != null ? found : new FeaturedSpeakers(conferenceKey);
+    }
+}
@@ -0,0 +1,39 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsOutputChannel;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
+import com.google.appengine.tools.cloudstorage.RetryParams;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+/**
+ * An ExportStore in a Google Cloud Storage bucket, written through the GCS client library.
+ */
+public class GcsExportStore implements ExportStore {
+
+    private static final GcsService GCS_SERVICE =
+            GcsServiceFactory.createGcsService(RetryParams.getDefaultInstance());
+
+    private final String bucket;
+
+    public GcsExportStore(String bucket) {
+        this.bucket = bucket;
+    }
+
+    @Override
+    public OutputStream create(String name, String contentType) throws IOException {
+        GcsOutputChannel channel = GCS_SERVICE.createOrReplace(new GcsFilename(bucket, name),
+                new GcsFileOptions.Builder()
+                        .mimeType(contentType)
+                        .contentEncoding("gzip")
+                        .build());
+        // Closing the channel finalizes the object and makes it readable.
+        return new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+    }
+}
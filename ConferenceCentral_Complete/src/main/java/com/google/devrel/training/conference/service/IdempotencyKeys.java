@@ -0,0 +1,117 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Answers the retries of the API calls that are not idempotent by nature, the creations and
+ * the registrations, from the outcome of their first success.
+ *
+ * A client sends the same Idempotency-Key header with every attempt of a call. The API method
+ * looks the key up before doing any work, and again within its transaction, where a
+ * concurrent attempt of the same call conflicts; it saves the outcome with its writes, so the
+ * retries neither write again nor enqueue the tasks again. A failure is not recorded, its
+ * retries run the call again.
+ *
+ * The keys are scoped by user and by method, and kept for a day; the TTL can be set with the
+ * idempotency.ttlHours system property in appengine-web.xml. A cron deletes the expired ones.
+ */
+public class IdempotencyKeys {
+
+    private static final Logger LOG = Logger.getLogger(IdempotencyKeys.class.getName());
+
+    public static final String HEADER = "Idempotency-Key";
+
+    public static final String EXPIRE_URL = "/crons/expire_idempotency_keys";
+
+    private static final int MAX_KEY_LENGTH = 100;
+
+    private static final int DEFAULT_TTL_HOURS = 24;
+
+    private static final int EXPIRE_CHUNK = 500;
+
+    /**
+     * Returns the key of the record of a call.
+     *
+     * @param request the request of the call, or null.
+     * @param userId the caller.
+     * @param method the name of the API method.
+     * @return the key, or null when the call has no Idempotency-Key.
+     * @throws IllegalArgumentException when the Idempotency-Key is too long.
+     */
+    public static Key<IdempotencyRecord> recordKey(HttpServletRequest request, String userId,
+                                                   String method) {
+        String idempotencyKey = request == null ? null : request.getHeader(HEADER);
+        if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+            return null;
+        }
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("The " + HEADER + " must be at most "
+                    + MAX_KEY_LENGTH + " characters long.");
+        }
+        return IdempotencyRecord.key(userId, method, idempotencyKey);
+    }
+
+    /**
+     * Returns the outcome of a previous success of a call, in the current transaction if any.
+     *
+     * @param recordKey the key of the record, or null.
+     * @return the record, or null when there is none or it has expired.
+     */
+    public static IdempotencyRecord find(Key<IdempotencyRecord> recordKey) {
+        if (recordKey == null) {
+            return null;
+        }
+        IdempotencyRecord record = ofy().load().key(recordKey).now();
+        return record == null || record.isExpired(new Date()) ? null : record;
+    }
+
+    /**
+     * Saves the outcome of a call, within its transaction.
+     *
+     * @param recordKey the key of the record, or null to do nothing.
+     * @param resultKey the key of the entity returned, or null.
+     * @param result the Boolean returned, or null.
+     */
+    public static void save(Key<IdempotencyRecord> recordKey, Key<?> resultKey, Boolean result) {
+        if (recordKey == null) {
+            return;
+        }
+        Date expiresAt = new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(
+                Integer.getInteger("idempotency.ttlHours", DEFAULT_TTL_HOURS)));
+        ofy().save().entity(new IdempotencyRecord(recordKey, resultKey, result, expiresAt));
+    }
+
+    /**
+     * Deletes the expired records.
+     *
+     * @return the number of records deleted.
+     */
+    public static int expire() {
+        int deleted = 0;
+        List<Key<IdempotencyRecord>> batch = new ArrayList<>(EXPIRE_CHUNK);
+        for (Key<IdempotencyRecord> key : ofy().load().type(IdempotencyRecord.class)
+                .filter("expiresAt <", new Date()).chunk(EXPIRE_CHUNK).keys()) {
+            batch.add(key);
+            if (batch.size() == EXPIRE_CHUNK) {
+                ofy().delete().keys(batch).now();
+                deleted += batch.size();
+                batch.clear();
+            }
+        }
+        ofy().delete().keys(batch).now();
+        deleted += batch.size();
+        LOG.info("Expired " + deleted + " idempotency records");
+        return deleted;
+    }
+}
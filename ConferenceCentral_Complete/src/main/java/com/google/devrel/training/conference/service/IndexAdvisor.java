@@ -0,0 +1,460 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AtomicLongMap;
+import com.google.devrel.training.conference.domain.QueryShapeUsage;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.VoidWork;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Advises which composite indexes of datastore-indexes.xml to keep, from the shapes of the
+ * queries that actually run.
+ *
+ * The query sites record their QueryShape; each instance hands its counts to a task that adds
+ * them to the QueryShapeUsage entities, at most once per FLUSH_INTERVAL_MILLIS. The advice keeps
+ * the indexes the shapes seen at least minCount times need, adds the ones they miss, and prunes
+ * the others. Every composite index costs index rows on each write of an entity, one per
+ * combination of the values of its properties, so the list properties such as topics multiply
+ * them; the rows are estimated from a sample of the entities.
+ *
+ * The indexes of a kind without any recorded query are kept, there is nothing to judge them
+ * by. The report lists the queries that would lose index support: the rare shapes, and the
+ * shapes the pruned indexes were made for.
+ */
+public class IndexAdvisor {
+
+    private static final Logger LOG = Logger.getLogger(IndexAdvisor.class.getName());
+
+    public static final String FLUSH_URL = "/tasks/flush_query_shapes";
+
+    private static final long FLUSH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final int SAMPLE_SIZE = 100;
+
+    /**
+     * The property a seat booking changes, the indexes that contain it are rewritten by every
+     * booking.
+     */
+    private static final String SEATS_PROPERTY = "seatsAvailable";
+
+    /**
+     * The queries run on this instance since the last flush, by shape.
+     */
+    private static final AtomicLongMap<String> COUNTS = AtomicLongMap.create();
+
+    private static final AtomicLong LAST_FLUSHED = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Records a query, and hands the counts of this instance to a task when they are due.
+     *
+     * @param shape the shape of the query.
+     */
+    public static void record(QueryShape shape) {
+        COUNTS.incrementAndGet(shape.toString());
+        long now = System.currentTimeMillis();
+        long last = LAST_FLUSHED.get();
+        if (now - last >= FLUSH_INTERVAL_MILLIS && LAST_FLUSHED.compareAndSet(last, now)) {
+            enqueueFlush();
+        }
+    }
+
+    /**
+     * Enqueues a task that adds the counts of this instance to the shared ones, so that the
+     * query that falls due only pays for the task. The counts go back if it can't be added.
+     */
+    private static void enqueueFlush() {
+        Map<String, Long> counts = drainCounts();
+        if (counts.isEmpty()) {
+            return;
+        }
+        TaskOptions task = TaskOptions.Builder.withUrl(FLUSH_URL);
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            task.param("shape", entry.getKey()).param("count", String.valueOf(entry.getValue()));
+        }
+        try {
+            // Outside of the transaction the query site may run in.
+            QueueFactory.getDefaultQueue().add(null, task);
+        } catch (RuntimeException e) {
+            LOG.warning("Keeping the query counts for the next flush: " + e);
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                COUNTS.addAndGet(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of this instance to the QueryShapeUsage entities right away.
+     */
+    public static void flush() {
+        addCounts(drainCounts());
+    }
+
+    /**
+     * Adds counts to the QueryShapeUsage entities, with one transaction per shape: the flush
+     * tasks of several instances may add to the same shape at once.
+     *
+     * @param counts the counts by shape.
+     */
+    public static void addCounts(Map<String, Long> counts) {
+        final Date now = new Date();
+        // A session of its own, the caller may run within a transaction.
+        Objectify objectify = factory().begin();
+        for (final Map.Entry<String, Long> entry : counts.entrySet()) {
+            objectify.transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    QueryShapeUsage usage = ofy().load()
+                            .key(Key.create(QueryShapeUsage.class, entry.getKey())).now();
+                    if (usage == null) {
+                        usage = new QueryShapeUsage(entry.getKey());
+                    }
+                    usage.add(entry.getValue(), now);
+                    ofy().save().entity(usage).now();
+                }
+            });
+        }
+    }
+
+    /**
+     * Takes the counts of this instance.
+     */
+    private static Map<String, Long> drainCounts() {
+        Map<String, Long> counts = new HashMap<>(COUNTS.asMap());
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            COUNTS.addAndGet(entry.getKey(), -entry.getValue());
+        }
+        COUNTS.removeAllZeros();
+        return counts;
+    }
+
+    /**
+     * Drops the counts of this instance.
+     */
+    static void clearCounts() {
+        COUNTS.clear();
+    }
+
+    /**
+     * Returns the shapes seen within the given number of days, with their counts since they
+     * were first seen.
+     */
+    public static Map<QueryShape, Long> loadUsage(int days) {
+        Date since = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days));
+        Map<QueryShape, Long> usage = new LinkedHashMap<>();
+        // A few dozen shapes at most, no index needed.
+        for (QueryShapeUsage shapeUsage : factory().begin().load().type(QueryShapeUsage.class)) {
+            if (shapeUsage.getLastSeen() == null || shapeUsage.getLastSeen().before(since)) {
+                continue;
+            }
+            try {
+                usage.put(QueryShape.parse(shapeUsage.getShape()), shapeUsage.getCount());
+            } catch (IllegalArgumentException e) {
+                LOG.warning("Skipping " + e.getMessage());
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Returns the average number of values of each property of a kind over a sample of its
+     * entities, 1 for a single value and the size for a list. An entity without the property
+     * counts as 0.
+     *
+     * @param kind the kind.
+     * @return the averages by property, empty when there are no entities.
+     */
+    public static Map<String, Double> sampleValuesPerProperty(String kind) {
+        List<Entity> sample = DatastoreServiceFactory.getDatastoreService()
+                .prepare(new Query(kind))
+                .asList(FetchOptions.Builder.withLimit(SAMPLE_SIZE));
+        Map<String, Double> totals = new TreeMap<>();
+        for (Entity entity : sample) {
+            for (Map.Entry<String, Object> property : entity.getProperties().entrySet()) {
+                Object value = property.getValue();
+                int values = value instanceof Collection ? ((Collection<?>) value).size() : 1;
+                Double total = totals.get(property.getKey());
+                totals.put(property.getKey(), (total == null ? 0 : total) + values);
+            }
+        }
+        for (Map.Entry<String, Double> total : totals.entrySet()) {
+            total.setValue(total.getValue() / sample.size());
+        }
+        return totals;
+    }
+
+    /**
+     * Parses the composite indexes of a datastore-indexes.xml.
+     *
+     * @throws IllegalArgumentException when the file is malformed or has a descending order,
+     *                                  which QueryShape does not model.
+     */
+    public static List<DatastoreIndex> parseIndexes(InputStream in) throws IOException {
+        Document document;
+        try {
+            document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalArgumentException("Malformed datastore-indexes.xml", e);
+        }
+        List<DatastoreIndex> indexes = new ArrayList<>();
+        NodeList indexElements = document.getElementsByTagName("datastore-index");
+        for (int i = 0; i < indexElements.getLength(); i++) {
+            Element indexElement = (Element) indexElements.item(i);
+            List<String> properties = new ArrayList<>();
+            NodeList propertyElements = indexElement.getElementsByTagName("property");
+            for (int j = 0; j < propertyElements.getLength(); j++) {
+                Element propertyElement = (Element) propertyElements.item(j);
+                if ("desc".equals(propertyElement.getAttribute("direction"))) {
+                    throw new IllegalArgumentException("Descending orders are not supported: "
+                            + propertyElement.getAttribute("name"));
+                }
+                properties.add(propertyElement.getAttribute("name"));
+            }
+            indexes.add(new DatastoreIndex(indexElement.getAttribute("kind"),
+                    "true".equals(indexElement.getAttribute("ancestor")), properties));
+        }
+        return indexes;
+    }
+
+    /**
+     * Advises on a set of indexes.
+     *
+     * @param current the indexes of datastore-indexes.xml.
+     * @param usage the counts of the shapes seen, see loadUsage.
+     * @param minCount the count under which a shape does not keep its indexes.
+     * @param valuesPerProperty the average values of each property, by kind, see
+     *                          sampleValuesPerProperty. A property missing counts as 1.
+     * @return the advice.
+     */
+    public static Advice advise(List<DatastoreIndex> current, Map<QueryShape, Long> usage,
+                                long minCount, Map<String, Map<String, Double>> valuesPerProperty) {
+        Set<String> recordedKinds = new LinkedHashSet<>();
+        for (QueryShape shape : usage.keySet()) {
+            recordedKinds.add(shape.getKind());
+        }
+        Set<DatastoreIndex> proposed = new LinkedHashSet<>();
+        for (DatastoreIndex index : current) {
+            if (!recordedKinds.contains(index.getKind())) {
+                proposed.add(index);
+            }
+        }
+        for (Map.Entry<QueryShape, Long> entry : usage.entrySet()) {
+            if (entry.getValue() >= minCount) {
+                proposed.addAll(entry.getKey().requiredIndexes());
+            }
+        }
+
+        Advice advice = new Advice(valuesPerProperty);
+        for (DatastoreIndex index : current) {
+            if (proposed.contains(index)) {
+                advice.keep.add(index);
+            } else {
+                advice.prune.add(index);
+            }
+        }
+        for (DatastoreIndex index : proposed) {
+            if (!current.contains(index)) {
+                advice.add.add(index);
+            }
+        }
+
+        // The queries the pruned indexes were made for, and the rare ones.
+        Set<QueryShape> candidates = new LinkedHashSet<>();
+        for (DatastoreIndex index : advice.prune) {
+            candidates.addAll(shapesServedBy(index));
+        }
+        candidates.addAll(usage.keySet());
+        for (QueryShape shape : candidates) {
+            if (shape.isSupportedBy(current) && !shape.isSupportedBy(proposed)) {
+                Long count = usage.get(shape);
+                advice.lostQueries.put(shape, count == null ? 0 : count);
+            }
+        }
+        return advice;
+    }
+
+    /**
+     * Returns the shapes an index serves on its own: the last property sorted and the others
+     * filtered by equality, and the second to last filtered by inequality too.
+     */
+    static List<QueryShape> shapesServedBy(DatastoreIndex index) {
+        List<String> properties = index.getProperties();
+        int last = properties.size() - 1;
+        List<QueryShape> shapes = new ArrayList<>();
+        shapes.add(new QueryShape(index.getKind(), index.hasAncestor(),
+                properties.subList(0, last), null, properties.subList(last, last + 1)));
+        if (last >= 1) {
+            shapes.add(new QueryShape(index.getKind(), index.hasAncestor(),
+                    properties.subList(0, last - 1), properties.get(last - 1),
+                    properties.subList(last - 1, last + 1)));
+        }
+        return shapes;
+    }
+
+    /**
+     * The advice on a set of indexes.
+     */
+    public static class Advice {
+
+        private final Map<String, Map<String, Double>> valuesPerProperty;
+
+        private final List<DatastoreIndex> keep = new ArrayList<>();
+
+        private final List<DatastoreIndex> prune = new ArrayList<>();
+
+        private final List<DatastoreIndex> add = new ArrayList<>();
+
+        private final Map<QueryShape, Long> lostQueries = new LinkedHashMap<>();
+
+        Advice(Map<String, Map<String, Double>> valuesPerProperty) {
+            this.valuesPerProperty = valuesPerProperty;
+        }
+
+        public List<DatastoreIndex> getKeep() {
+            return ImmutableList.copyOf(keep);
+        }
+
+        public List<DatastoreIndex> getPrune() {
+            return ImmutableList.copyOf(prune);
+        }
+
+        public List<DatastoreIndex> getAdd() {
+            return ImmutableList.copyOf(add);
+        }
+
+        /**
+         * Returns the shapes the current indexes serve and the proposed ones do not, with
+         * their counts, 0 when they were never seen.
+         */
+        public Map<QueryShape, Long> getLostQueries() {
+            return lostQueries;
+        }
+
+        /**
+         * Returns the estimated index rows an entity has in an index, written on every put of
+         * the entity that changes one of the properties.
+         */
+        public double rowsPerEntity(DatastoreIndex index) {
+            Map<String, Double> values = valuesPerProperty.get(index.getKind());
+            double rows = 1;
+            for (String property : index.getProperties()) {
+                Double average = values == null ? null : values.get(property);
+                rows *= average == null ? 1 : average;
+            }
+            return rows;
+        }
+
+        /**
+         * Returns whether a seat booking rewrites the rows of an index.
+         */
+        public boolean isWrittenBySeatBookings(DatastoreIndex index) {
+            return index.getProperties().contains(SEATS_PROPERTY);
+        }
+
+        /**
+         * Returns the estimated rows per entity of a list of indexes.
+         */
+        public double rowsPerEntity(List<DatastoreIndex> indexes) {
+            double rows = 0;
+            for (DatastoreIndex index : indexes) {
+                rows += rowsPerEntity(index);
+            }
+            return rows;
+        }
+
+        /**
+         * Returns the proposed datastore-indexes.xml: the indexes kept followed by the ones
+         * added. autoGenerate stays on, so that the development server keeps adding the
+         * indexes of new queries.
+         */
+        public String toXml() {
+            StringBuilder xml = new StringBuilder();
+            xml.append("<!-- Generated by the IndexAdvisor -->\n\n");
+            xml.append("<datastore-indexes autoGenerate=\"true\">\n");
+            for (List<DatastoreIndex> indexes : ImmutableList.of(keep, add)) {
+                for (DatastoreIndex index : indexes) {
+                    xml.append(String.format("%n    <!-- %.1f rows per entity -->%n",
+                            rowsPerEntity(index)));
+                    xml.append(String.format(
+                            "    <datastore-index kind=\"%s\" ancestor=\"%s\" source=\"manual\">%n",
+                            index.getKind(), index.hasAncestor()));
+                    for (String property : index.getProperties()) {
+                        xml.append(String.format(
+                                "        <property name=\"%s\" direction=\"asc\"/>%n", property));
+                    }
+                    xml.append("    </datastore-index>\n");
+                }
+            }
+            xml.append("\n</datastore-indexes>\n");
+            return xml.toString();
+        }
+
+        /**
+         * Returns the report: the indexes by decision with their estimated rows per entity,
+         * and the queries that would lose index support.
+         */
+        public String toReport() {
+            StringBuilder report = new StringBuilder();
+            appendIndexes(report, "Keep", keep);
+            appendIndexes(report, "Prune", prune);
+            appendIndexes(report, "Add", add);
+            report.append(String.format("Rows per entity: %.1f now, %.1f proposed%n%n",
+                    rowsPerEntity(keep) + rowsPerEntity(prune),
+                    rowsPerEntity(keep) + rowsPerEntity(add)));
+            report.append("Queries losing index support (count):\n");
+            if (lostQueries.isEmpty()) {
+                report.append("  none\n");
+            }
+            for (Map.Entry<QueryShape, Long> lost : lostQueries.entrySet()) {
+                report.append(String.format("  %-60s %8d%n", lost.getKey(), lost.getValue()));
+            }
+            return report.toString();
+        }
+
+        private void appendIndexes(StringBuilder report, String title,
+                                   List<DatastoreIndex> indexes) {
+            report.append(title).append(" (rows per entity):\n");
+            if (indexes.isEmpty()) {
+                report.append("  none\n");
+            }
+            for (DatastoreIndex index : indexes) {
+                report.append(String.format("  %-60s %6.1f%s%n", index, rowsPerEntity(index),
+                        isWrittenBySeatBookings(index) ? "  written by seat bookings" : ""));
+            }
+            report.append('\n');
+        }
+    }
+}
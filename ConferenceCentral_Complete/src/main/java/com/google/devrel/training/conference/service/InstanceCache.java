@@ -0,0 +1,400 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.AtomicLongMap;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.WaitingRoom;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The in-process caches of an instance, in front of memcache and the datastore.
+ *
+ * A cached Conference is only served while its version matches the one recorded in
+ * EntityVersions, so a change made on any instance is seen at once. The announcement is only
+ * refreshed every ANNOUNCEMENT_TTL_SECONDS, it changes once per cron run, and the waiting rooms
+ * every WAITING_ROOM_TTL_SECONDS.
+ *
+ * The Conferences that don't exist are remembered for MISSING_TTL_SECONDS, on this instance and
+ * in memcache, so that the lookups of unknown keys don't reach the datastore. The mark is only
+ * trusted while no version is recorded, and saving a Conference records one. The misses are
+ * loaded once at a time, see SingleFlight.
+ *
+ * The instances also share the keys of the most read conferences, which a new instance loads
+ * when it is warmed up.
+ */
+public class InstanceCache {
+
+    private static final String HOT_CONFERENCES_KEY = "HOT_CONFERENCES";
+
+    private static final int HOT_CONFERENCES = 20;
+
+    private static final int ANNOUNCEMENT_TTL_SECONDS = 30;
+
+    private static final int WAITING_ROOM_TTL_SECONDS = 5;
+
+    private static final int MISSING_TTL_SECONDS = 60;
+
+    private static final String MISSING_NAMESPACE = "missing";
+
+    private static final long PUBLISH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The Conferences are loaded in a session of their own, so that the cached instances are
+     * never shared with the session of a request that could modify them.
+     */
+    private static final Cache<String, Conference> CONFERENCES = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * The waiting rooms, absent for the conferences without one. A change made on another
+     * instance is seen after WAITING_ROOM_TTL_SECONDS.
+     */
+    private static final Cache<String, Optional<WaitingRoom>> WAITING_ROOMS =
+            CacheBuilder.newBuilder()
+                    .maximumSize(1000)
+                    .expireAfterWrite(WAITING_ROOM_TTL_SECONDS, TimeUnit.SECONDS)
+                    .build();
+
+    /**
+     * The keys of the Conferences found not to exist.
+     */
+    private static final Cache<String, Boolean> MISSING = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(MISSING_TTL_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    private static final Cache<String, Optional<String>> ANNOUNCEMENT = CacheBuilder.newBuilder()
+            .expireAfterWrite(ANNOUNCEMENT_TTL_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * The reads of each Conference since the last publication.
+     */
+    private static final AtomicLongMap<String> READS = AtomicLongMap.create();
+
+    private static final AtomicLong LAST_PUBLISHED = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Returns a Conference, from this instance when the cached version is still current.
+     *
+     * While another instance loads the same Conference, the version cached here is served even
+     * if it is not current anymore, for at most the lease of the load.
+     *
+     * The returned Conference is shared, it must not be modified.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @return the Conference, or null when there is no such Conference.
+     */
+    public static Conference getConference(final Key<Conference> conferenceKey) {
+        String websafeKey = conferenceKey.getString();
+        READS.incrementAndGet(websafeKey);
+        publishHotConferences();
+
+        // Within a request the same key must keep giving the same instance.
+        if (ofy().isLoaded(conferenceKey)) {
+            return ofy().load().key(conferenceKey).now();
+        }
+
+        Long version = EntityVersions.lookup(conferenceKey);
+        Conference cached = CONFERENCES.getIfPresent(websafeKey);
+        if (cached != null && version != null && cached.getVersion() == version) {
+            Prewarmer.countConferenceRead(websafeKey, true);
+            return cached;
+        }
+        if (version == null && isMissing(websafeKey)) {
+            Prewarmer.countConferenceRead(websafeKey, true);
+            return null;
+        }
+        Prewarmer.countConferenceRead(websafeKey, false);
+        Conference conference = SingleFlight.load("Conference:" + websafeKey, cached,
+                new SingleFlight.Loader<Conference>() {
+                    @Override
+                    public Conference load() {
+                        return factory().begin().load().key(conferenceKey).now();
+                    }
+                });
+        if (conference == cached) {
+            return cached;
+        }
+        if (conference == null) {
+            CONFERENCES.invalidate(websafeKey);
+            markMissing(websafeKey);
+            return null;
+        }
+        if (version == null) {
+            // Nobody recorded it since memcache lost it, do it now so that the next read hits.
+            EntityVersions.record(conferenceKey, conference.getVersion());
+        }
+        CONFERENCES.put(websafeKey, conference);
+        return conference;
+    }
+
+    private static boolean isMissing(String websafeKey) {
+        if (MISSING.getIfPresent(websafeKey) != null) {
+            return true;
+        }
+        if (MemcacheServiceFactory.getMemcacheService(MISSING_NAMESPACE).contains(websafeKey)) {
+            MISSING.put(websafeKey, Boolean.TRUE);
+            return true;
+        }
+        return false;
+    }
+
+    private static void markMissing(String websafeKey) {
+        MISSING.put(websafeKey, Boolean.TRUE);
+        MemcacheServiceFactory.getMemcacheService(MISSING_NAMESPACE).put(websafeKey,
+                Boolean.TRUE, Expiration.byDeltaSeconds(MISSING_TTL_SECONDS));
+    }
+
+    /**
+     * Returns Conferences with a batch get of the ones not cached on this instance, or whose
+     * cached version is not current.
+     *
+     * The returned Conferences are shared, they must not be modified.
+     *
+     * @param conferenceKeys the keys of the Conferences.
+     * @return the Conferences in the order of the keys, without the ones that do not exist.
+     */
+    public static List<Conference> getConferences(List<Key<Conference>> conferenceKeys) {
+        return getConferences(conferenceKeys, new AtomicInteger());
+    }
+
+    /**
+     * Returns Conferences like getConferences, and counts the ones read from the datastore.
+     *
+     * @param conferenceKeys the keys of the Conferences.
+     * @param loaded incremented by the number of Conferences read from the datastore.
+     * @return the Conferences in the order of the keys, without the ones that do not exist.
+     */
+    public static List<Conference> getConferences(List<Key<Conference>> conferenceKeys,
+                                                  AtomicInteger loaded) {
+        publishHotConferences();
+        Map<Key<Conference>, Long> versions = EntityVersions.lookupAll(conferenceKeys);
+        Map<Key<Conference>, Conference> found = new HashMap<>();
+        List<Key<Conference>> misses = new ArrayList<>();
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            String websafeKey = conferenceKey.getString();
+            READS.incrementAndGet(websafeKey);
+            if (ofy().isLoaded(conferenceKey)) {
+                found.put(conferenceKey, ofy().load().key(conferenceKey).now());
+                continue;
+            }
+            Conference cached = CONFERENCES.getIfPresent(websafeKey);
+            Long version = versions.get(conferenceKey);
+            if (cached != null && version != null && cached.getVersion() == version) {
+                Prewarmer.countConferenceRead(websafeKey, true);
+                found.put(conferenceKey, cached);
+            } else {
+                Prewarmer.countConferenceRead(websafeKey, false);
+                misses.add(conferenceKey);
+            }
+        }
+        if (!misses.isEmpty()) {
+            Map<Key<Conference>, Conference> fetched = factory().begin().load().keys(misses);
+            loaded.addAndGet(fetched.size());
+            Map<Key<Conference>, Long> unrecorded = new HashMap<>();
+            for (Key<Conference> conferenceKey : misses) {
+                Conference conference = fetched.get(conferenceKey);
+                if (conference == null) {
+                    CONFERENCES.invalidate(conferenceKey.getString());
+                    continue;
+                }
+                if (!versions.containsKey(conferenceKey)) {
+                    unrecorded.put(conferenceKey, conference.getVersion());
+                }
+                CONFERENCES.put(conferenceKey.getString(), conference);
+                found.put(conferenceKey, conference);
+            }
+            if (!unrecorded.isEmpty()) {
+                EntityVersions.recordAllMissing(unrecorded);
+            }
+        }
+        List<Conference> conferences = new ArrayList<>(found.size());
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            Conference conference = found.get(conferenceKey);
+            if (conference != null) {
+                conferences.add(conference);
+            }
+        }
+        return conferences;
+    }
+
+    /**
+     * Drops a Conference changed by this instance. The other instances notice the new version.
+     */
+    public static void invalidate(Key<Conference> conferenceKey) {
+        CONFERENCES.invalidate(conferenceKey.getString());
+        MISSING.invalidate(conferenceKey.getString());
+    }
+
+    /**
+     * Returns the waiting room of a Conference, reading the datastore at most once every
+     * WAITING_ROOM_TTL_SECONDS.
+     *
+     * The returned WaitingRoom is shared, it must not be modified.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @return the WaitingRoom, or null when the Conference never had one.
+     */
+    public static WaitingRoom getWaitingRoom(Key<Conference> conferenceKey) {
+        String websafeKey = conferenceKey.getString();
+        Optional<WaitingRoom> room = WAITING_ROOMS.getIfPresent(websafeKey);
+        if (room == null) {
+            room = Optional.fromNullable(factory().begin().load()
+                    .key(WaitingRoom.key(conferenceKey)).now());
+            WAITING_ROOMS.put(websafeKey, room);
+        }
+        return room.orNull();
+    }
+
+    /**
+     * Drops a waiting room changed by this instance.
+     */
+    public static void invalidateWaitingRoom(Key<Conference> conferenceKey) {
+        WAITING_ROOMS.invalidate(conferenceKey.getString());
+    }
+
+    /**
+     * Drops everything cached on this instance.
+     */
+    public static void clear() {
+        CONFERENCES.invalidateAll();
+        WAITING_ROOMS.invalidateAll();
+        MISSING.invalidateAll();
+        ANNOUNCEMENT.invalidateAll();
+        READS.clear();
+        Prewarmer.clearCounts();
+    }
+
+    /**
+     * Returns the current announcement. When it expires, a single request of this instance
+     * reads it again from memcache.
+     *
+     * @return the announcement, or null when there is none.
+     */
+    public static String getAnnouncement() {
+        Optional<String> announcement = ANNOUNCEMENT.getIfPresent(
+                Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+        if (announcement == null) {
+            announcement = SingleFlight.coalesce(Constants.MEMCACHE_ANNOUNCEMENTS_KEY,
+                    new SingleFlight.Loader<Optional<String>>() {
+                        @Override
+                        public Optional<String> load() {
+                            Object message = MemcacheServiceFactory.getMemcacheService()
+                                    .get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+                            Optional<String> loaded = Optional.fromNullable(
+                                    message == null ? null : message.toString());
+                            ANNOUNCEMENT.put(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, loaded);
+                            return loaded;
+                        }
+                    });
+        }
+        return announcement.orNull();
+    }
+
+    /**
+     * Loads the most read Conferences and the announcement, for a new instance.
+     *
+     * @return the Conferences loaded, they are shared and must not be modified.
+     */
+    @SuppressWarnings("unchecked")
+    public static Collection<Conference> prefill() {
+        getAnnouncement();
+        List<String> websafeKeys = (List<String>) MemcacheServiceFactory.getMemcacheService()
+                .get(HOT_CONFERENCES_KEY);
+        if (websafeKeys == null) {
+            return Collections.emptyList();
+        }
+        List<Key<Conference>> keys = new ArrayList<>(websafeKeys.size());
+        for (String websafeKey : websafeKeys) {
+            keys.add(Key.<Conference>create(websafeKey));
+        }
+        Map<Key<Conference>, Conference> conferences = factory().begin().load().keys(keys);
+        for (Map.Entry<Key<Conference>, Conference> entry : conferences.entrySet()) {
+            CONFERENCES.put(entry.getKey().getString(), entry.getValue());
+        }
+        return conferences.values();
+    }
+
+    /**
+     * Puts a Conference at the top of the shared list, so that the instances started from now
+     * on load it at warmup.
+     */
+    @SuppressWarnings("unchecked")
+    public static void promote(Key<Conference> conferenceKey) {
+        String websafeKey = conferenceKey.getString();
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        List<String> previous = (List<String>) memcacheService.get(HOT_CONFERENCES_KEY);
+        List<String> websafeKeys = new ArrayList<>();
+        websafeKeys.add(websafeKey);
+        if (previous != null) {
+            for (String previousKey : previous) {
+                if (!previousKey.equals(websafeKey) && websafeKeys.size() < HOT_CONFERENCES) {
+                    websafeKeys.add(previousKey);
+                }
+            }
+        }
+        memcacheService.put(HOT_CONFERENCES_KEY, websafeKeys);
+    }
+
+    /**
+     * Merges the most read Conferences of this instance into the shared list, at most once per
+     * PUBLISH_INTERVAL_MILLIS. Concurrent publications may overwrite each other, the list is
+     * only a hint.
+     */
+    @SuppressWarnings("unchecked")
+    private static void publishHotConferences() {
+        long now = System.currentTimeMillis();
+        long last = LAST_PUBLISHED.get();
+        if (now - last < PUBLISH_INTERVAL_MILLIS || !LAST_PUBLISHED.compareAndSet(last, now)) {
+            return;
+        }
+        final Map<String, Long> reads = new HashMap<>(READS.asMap());
+        READS.clear();
+        Prewarmer.flushCounts();
+
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        List<String> previous = (List<String>) memcacheService.get(HOT_CONFERENCES_KEY);
+        List<String> candidates = new ArrayList<>(reads.keySet());
+        if (previous != null) {
+            for (String websafeKey : previous) {
+                if (!reads.containsKey(websafeKey)) {
+                    candidates.add(websafeKey);
+                }
+            }
+        }
+        // The previous entries come after the ones read here, in their previous order.
+        Collections.sort(candidates, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long readsA = reads.containsKey(a) ? reads.get(a) : 0;
+                long readsB = reads.containsKey(b) ? reads.get(b) : 0;
+                return Long.compare(readsB, readsA);
+            }
+        });
+        memcacheService.put(HOT_CONFERENCES_KEY, new ArrayList<>(
+                candidates.subList(0, Math.min(HOT_CONFERENCES, candidates.size()))));
+    }
+}
@@ -0,0 +1,44 @@
+package com.google.devrel.training.conference.service;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An ExportStore on the local filesystem, for the development server and the tests.
+ */
+public class LocalExportStore implements ExportStore {
+
+    private final File directory;
+
+    public LocalExportStore(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public OutputStream create(String name, String contentType) throws IOException {
+        final File file = new File(directory, name);
+        final File temporary = new File(directory, name + ".tmp");
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Can't create the directory of " + file);
+        }
+        // Written aside and renamed, so that a part is never seen half written.
+        return new FilterOutputStream(new BufferedOutputStream(new FileOutputStream(temporary))) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (file.exists() && !file.delete() || !temporary.renameTo(file)) {
+                    throw new IOException("Can't rename " + temporary + " to " + file);
+                }
+            }
+        };
+    }
+}
@@ -1,9 +1,30 @@
 package com.google.devrel.training.conference.service;
 
 import com.google.devrel.training.conference.domain.AppEngineUser;
+import com.google.devrel.training.conference.domain.AttendanceEvent;
+import com.google.devrel.training.conference.domain.AttendanceStats;
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.ChangeFeedSequence;
+import com.google.devrel.training.conference.domain.ChangeRecord;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceAgenda;
+import com.google.devrel.training.conference.domain.ExportJob;
+import com.google.devrel.training.conference.domain.FeaturedSpeakers;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+import com.google.devrel.training.conference.domain.ImportChunk;
+import com.google.devrel.training.conference.domain.ImportJob;
+import com.google.devrel.training.conference.domain.PrewarmRun;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.QueryShapeUsage;
+import com.google.devrel.training.conference.domain.SeatHold;
 import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.SessionDayBucket;
+import com.google.devrel.training.conference.domain.SpeakerSessions;
+import com.google.devrel.training.conference.domain.UpcomingMonthBucket;
+import com.google.devrel.training.conference.domain.WaitingRoom;
+import com.google.devrel.training.conference.domain.WaitingTicket;
+import com.google.devrel.training.conference.domain.WishlistEntry;
+import com.google.devrel.training.conference.domain.WishlistSnapshot;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
@@ -17,9 +38,30 @@ public class OfyService {
      */
     static {
         factory().register(AppEngineUser.class);
+        factory().register(AttendanceEvent.class);
+        factory().register(AttendanceStats.class);
+        factory().register(Attendee.class);
+        factory().register(ChangeFeedSequence.class);
+        factory().register(ChangeRecord.class);
         factory().register(Conference.class);
+        factory().register(ConferenceAgenda.class);
+        factory().register(ExportJob.class);
+        factory().register(FeaturedSpeakers.class);
+        factory().register(IdempotencyRecord.class);
+        factory().register(ImportChunk.class);
+        factory().register(ImportJob.class);
+        factory().register(PrewarmRun.class);
         factory().register(Profile.class);
+        factory().register(QueryShapeUsage.class);
+        factory().register(SeatHold.class);
         factory().register(Session.class);
+        factory().register(SessionDayBucket.class);
+        factory().register(SpeakerSessions.class);
+        factory().register(UpcomingMonthBucket.class);
+        factory().register(WaitingRoom.class);
+        factory().register(WaitingTicket.class);
+        factory().register(WishlistEntry.class);
+        factory().register(WishlistSnapshot.class);
     }
 
     /**
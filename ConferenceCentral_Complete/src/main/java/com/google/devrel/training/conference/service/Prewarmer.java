@@ -0,0 +1,261 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.util.concurrent.AtomicLongMap;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.PrewarmRun;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Warms the caches before the announced registration openings, and reports how well they held
+ * up once the rush is over.
+ *
+ * A cron looks for the conferences opening within the lead time and enqueues one task per
+ * opening. The task loads the Conference into the InstanceCache and puts it on the shared list
+ * the new instances load at warmup, puts the Sessions in memcache, rebuilds the agenda, which
+ * resolves the speaker Profiles, and gets the waiting room ready. It then starts counting the
+ * hits and misses of the Conference and of its agenda, on every instance; the cron reports
+ * them on the PrewarmRun once the opening is over.
+ *
+ * The lead time and the length of the reported window can be set with the
+ * prewarm.leadMinutes and prewarm.reportAfterMinutes system properties in appengine-web.xml.
+ */
+public class Prewarmer {
+
+    private static final Logger LOG = Logger.getLogger(Prewarmer.class.getName());
+
+    public static final String WARM_URL = "/tasks/prewarm_conference";
+
+    private static final String MEMCACHE_NAMESPACE = "prewarm";
+
+    private static final int DEFAULT_LEAD_MINUTES = 15;
+
+    private static final int DEFAULT_REPORT_AFTER_MINUTES = 30;
+
+    private static final String CONFERENCE_HIT = "conference.hit:";
+
+    private static final String CONFERENCE_MISS = "conference.miss:";
+
+    private static final String AGENDA_HIT = "agenda.hit:";
+
+    private static final String AGENDA_MISS = "agenda.miss:";
+
+    private static final String TRACKED = "tracked:";
+
+    /**
+     * The reads counted on this instance since the last flush, by counter and Conference.
+     */
+    private static final AtomicLongMap<String> COUNTS = AtomicLongMap.create();
+
+    /**
+     * Counts a read of a Conference, a hit when it was served without a datastore get.
+     */
+    public static void countConferenceRead(String websafeConferenceKey, boolean hit) {
+        COUNTS.incrementAndGet((hit ? CONFERENCE_HIT : CONFERENCE_MISS) + websafeConferenceKey);
+    }
+
+    /**
+     * Counts a read of an agenda, a miss when it had to be built.
+     */
+    public static void countAgendaRead(String websafeConferenceKey, boolean hit) {
+        COUNTS.incrementAndGet((hit ? AGENDA_HIT : AGENDA_MISS) + websafeConferenceKey);
+    }
+
+    /**
+     * Adds the reads counted on this instance to the shared counters of the conferences being
+     * tracked, and forgets the others. It costs a memcache batch get and a batch increment.
+     */
+    public static void flushCounts() {
+        Map<String, Long> counts = new HashMap<>(COUNTS.asMap());
+        if (counts.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            COUNTS.addAndGet(entry.getKey(), -entry.getValue());
+        }
+        COUNTS.removeAllZeros();
+
+        Set<String> trackedKeys = new LinkedHashSet<>();
+        for (String counter : counts.keySet()) {
+            trackedKeys.add(TRACKED + websafeConferenceKey(counter));
+        }
+        MemcacheService memcacheService = memcacheService();
+        Set<String> tracked = memcacheService.getAll(trackedKeys).keySet();
+        Map<String, Long> deltas = new HashMap<>();
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            if (tracked.contains(TRACKED + websafeConferenceKey(entry.getKey()))) {
+                deltas.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!deltas.isEmpty()) {
+            memcacheService.incrementAll(deltas, 0L);
+        }
+    }
+
+    /**
+     * Drops the reads counted on this instance.
+     */
+    static void clearCounts() {
+        COUNTS.clear();
+    }
+
+    private static String websafeConferenceKey(String counter) {
+        return counter.substring(counter.indexOf(':') + 1);
+    }
+
+    private static List<String> counters(String websafeConferenceKey) {
+        return Arrays.asList(CONFERENCE_HIT + websafeConferenceKey,
+                CONFERENCE_MISS + websafeConferenceKey, AGENDA_HIT + websafeConferenceKey,
+                AGENDA_MISS + websafeConferenceKey);
+    }
+
+    private static MemcacheService memcacheService() {
+        return MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE);
+    }
+
+    /**
+     * Enqueues the warming of the openings within the lead time, and reports the ones that are
+     * over. Run by the cron.
+     *
+     * @return the number of openings enqueued.
+     */
+    public static int schedule() {
+        flushCounts();
+        Date now = new Date();
+        Date until = new Date(now.getTime() + TimeUnit.MINUTES.toMillis(
+                Integer.getInteger("prewarm.leadMinutes", DEFAULT_LEAD_MINUTES)));
+        List<Conference> opening = ofy().load().type(Conference.class)
+                .filter("registrationOpensAt >=", now)
+                .filter("registrationOpensAt <=", until)
+                .list();
+        int enqueued = 0;
+        for (Conference conference : opening) {
+            long opensAt = conference.getRegistrationOpensAt().getTime();
+            try {
+                // Named, so that the runs of the cron within the lead time enqueue it once.
+                QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(WARM_URL)
+                        .taskName("prewarm-" + conference.getWebsafeKey() + "-" + opensAt)
+                        .param("websafeConferenceKey", conference.getWebsafeKey())
+                        .param("opensAt", String.valueOf(opensAt)));
+                enqueued++;
+            } catch (TaskAlreadyExistsException e) {
+                // Enqueued by a previous run.
+            }
+        }
+
+        List<Key<PrewarmRun>> due = ofy().load().type(PrewarmRun.class)
+                .filter("reportDueAt <=", now).keys().list();
+        for (Key<PrewarmRun> runKey : due) {
+            report(runKey);
+        }
+        return enqueued;
+    }
+
+    /**
+     * Warms the caches for a registration opening, once.
+     *
+     * @param websafeConferenceKey the String representation of the Conference Key.
+     * @param opensAtMillis the time of the opening the task was enqueued for.
+     * @return the PrewarmRun, or null when the opening was cancelled or moved.
+     */
+    public static PrewarmRun warm(String websafeConferenceKey, long opensAtMillis) {
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Date opensAt = new Date(opensAtMillis);
+        PrewarmRun run = ofy().load().key(PrewarmRun.key(conferenceKey, opensAt)).now();
+        if (run != null) {
+            return run;
+        }
+        Conference conference = InstanceCache.getConference(conferenceKey);
+        if (conference == null || !opensAt.equals(conference.getRegistrationOpensAt())) {
+            LOG.info("The opening of " + websafeConferenceKey + " at " + opensAt + " has moved");
+            return null;
+        }
+        // The view resolves the organizer's display name.
+        conference.toView();
+        InstanceCache.promote(conferenceKey);
+
+        // Session is cached by Objectify, but only a get by key puts it in memcache.
+        List<Key<Session>> sessionKeys = ofy().load().type(Session.class)
+                .ancestor(conferenceKey).keys().list();
+        Map<Key<Session>, Session> sessions = ofy().load().keys(sessionKeys);
+        Set<Key<Profile>> speakerKeys = new LinkedHashSet<>();
+        for (Session session : sessions.values()) {
+            speakerKeys.addAll(session.getSpeakerProfileKeys());
+        }
+        AgendaService.rebuild(websafeConferenceKey);
+        boolean waitingRoom = WaitingRooms.prepare(conferenceKey);
+
+        // Only the reads from now on are counted.
+        for (String counter : counters(websafeConferenceKey)) {
+            COUNTS.remove(counter);
+        }
+        Date reportDueAt = new Date(opensAtMillis + TimeUnit.MINUTES.toMillis(
+                Integer.getInteger("prewarm.reportAfterMinutes", DEFAULT_REPORT_AFTER_MINUTES)));
+        MemcacheService memcacheService = memcacheService();
+        memcacheService.deleteAll(new ArrayList<Object>(counters(websafeConferenceKey)));
+        memcacheService.put(TRACKED + websafeConferenceKey, Boolean.TRUE,
+                Expiration.onDate(new Date(reportDueAt.getTime() + TimeUnit.HOURS.toMillis(1))));
+
+        run = new PrewarmRun(conferenceKey, opensAt, sessions.size(), speakerKeys.size(),
+                waitingRoom, reportDueAt);
+        ofy().save().entity(run).now();
+        LOG.info("Warmed " + websafeConferenceKey + " for " + opensAt + ": "
+                + sessions.size() + " sessions, " + speakerKeys.size() + " speakers");
+        return run;
+    }
+
+    /**
+     * Records the hits and misses counted since an opening was warmed and stops counting.
+     *
+     * The counters live in memcache, an eviction makes the report fall short.
+     *
+     * @param runKey the key of the PrewarmRun.
+     * @return the PrewarmRun, or null when there is none.
+     */
+    public static PrewarmRun report(Key<PrewarmRun> runKey) {
+        PrewarmRun run = ofy().load().key(runKey).now();
+        if (run == null || run.getReportedAt() != null) {
+            return run;
+        }
+        String websafeConferenceKey = run.getWebsafeConferenceKey();
+        MemcacheService memcacheService = memcacheService();
+        List<String> counters = counters(websafeConferenceKey);
+        Map<String, Object> counts = memcacheService.getAll(counters);
+        run.report(count(counts, counters.get(0)), count(counts, counters.get(1)),
+                count(counts, counters.get(2)), count(counts, counters.get(3)));
+        ofy().save().entity(run).now();
+        List<Object> done = new ArrayList<Object>(counters);
+        done.add(TRACKED + websafeConferenceKey);
+        memcacheService.deleteAll(done);
+        LOG.info(String.format("Pre-warm of %s for %s: %.1f%% hits, conference %d/%d, "
+                + "agenda %d/%d", websafeConferenceKey, run.getOpensAt(), run.getHitRate() * 100,
+                run.getConferenceHits(), run.getConferenceHits() + run.getConferenceMisses(),
+                run.getAgendaHits(), run.getAgendaHits() + run.getAgendaMisses()));
+        return run;
+    }
+
+    private static long count(Map<String, Object> counts, String counter) {
+        Object count = counts.get(counter);
+        return count == null ? 0 : ((Number) count).longValue();
+    }
+}
@@ -0,0 +1,156 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.devrel.training.conference.domain.QueryShapeStats;
+import com.google.devrel.training.conference.service.ConferenceQueries.Mode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * The slow-query log of the conference queries, aggregated by shape on each instance.
+ *
+ * Every query adds its time, its result count and the entities it loaded to the statistics of
+ * its shape; the values of the filters are never kept. At most MAX_SHAPES shapes are kept, the
+ * ones not seen for the longest are dropped first. A query over one of the thresholds is also
+ * logged as a warning, so that the slow shapes of all the instances can be found in the logs.
+ *
+ * The thresholds can be set with the queryLog.slowMillis and queryLog.largeResults system
+ * properties in appengine-web.xml.
+ */
+public class QueryLog {
+
+    private static final Logger LOG = Logger.getLogger(QueryLog.class.getName());
+
+    private static final int MAX_SHAPES = 200;
+
+    private static final int DEFAULT_SLOW_MILLIS = 200;
+
+    private static final int DEFAULT_LARGE_RESULTS = 500;
+
+    private static final Cache<String, ShapeStats> SHAPES = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SHAPES)
+            .build();
+
+    /**
+     * The running statistics of a shape.
+     */
+    private static class ShapeStats {
+
+        private final String shape;
+
+        private Mode mode;
+
+        private long count;
+
+        private long slowCount;
+
+        private long totalMillis;
+
+        private long maxMillis;
+
+        private long totalResults;
+
+        private long maxResults;
+
+        private long entitiesLoaded;
+
+        ShapeStats(String shape) {
+            this.shape = shape;
+        }
+
+        synchronized void add(Mode mode, long millis, int results, int loaded,
+                              boolean slow) {
+            this.mode = mode;
+            count++;
+            slowCount += slow ? 1 : 0;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+            totalResults += results;
+            maxResults = Math.max(maxResults, results);
+            entitiesLoaded += loaded;
+        }
+
+        synchronized QueryShapeStats snapshot(long slowMillis, long largeResults) {
+            boolean flagged = (count > 0 && totalMillis / count > slowMillis)
+                    || maxResults > largeResults;
+            // A shape is only seen here before its first query is added in a race.
+            return new QueryShapeStats(shape, mode == null ? null : mode.name(), count,
+                    slowCount, totalMillis, maxMillis, totalResults, maxResults, entitiesLoaded,
+                    flagged);
+        }
+    }
+
+    /**
+     * Records a query.
+     *
+     * @param shape the shape of the query, see ConferenceQueryForm.getShape.
+     * @param mode the mode it ran in.
+     * @param millis how long it took.
+     * @param results the number of Conferences returned.
+     * @param entitiesLoaded the number of Conferences read from the datastore.
+     */
+    public static void record(final String shape, Mode mode, long millis, int results,
+                              int entitiesLoaded) {
+        boolean slow = millis > slowMillis();
+        if (slow || results > largeResults()) {
+            LOG.warning("Conference query over the thresholds " + shape + " in " + mode + ": "
+                    + millis + " ms, " + results + " results, " + entitiesLoaded
+                    + " entities loaded");
+        }
+        ShapeStats stats;
+        try {
+            stats = SHAPES.get(shape, new Callable<ShapeStats>() {
+                @Override
+                public ShapeStats call() {
+                    return new ShapeStats(shape);
+                }
+            });
+        } catch (ExecutionException e) {
+            // The loader does not throw.
+            throw new IllegalStateException(e);
+        }
+        stats.add(mode, millis, results, entitiesLoaded, slow);
+    }
+
+    /**
+     * Returns the statistics of the shapes seen by this instance, the most time consuming
+     * first.
+     */
+    public static List<QueryShapeStats> getStats() {
+        long slowMillis = slowMillis();
+        long largeResults = largeResults();
+        List<QueryShapeStats> stats = new ArrayList<>();
+        for (ShapeStats shape : SHAPES.asMap().values()) {
+            stats.add(shape.snapshot(slowMillis, largeResults));
+        }
+        Collections.sort(stats, new Comparator<QueryShapeStats>() {
+            @Override
+            public int compare(QueryShapeStats a, QueryShapeStats b) {
+                return Long.compare(b.getTotalMillis(), a.getTotalMillis());
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * Drops the statistics of this instance.
+     */
+    public static void reset() {
+        SHAPES.invalidateAll();
+    }
+
+    private static long slowMillis() {
+        return Integer.getInteger("queryLog.slowMillis", DEFAULT_SLOW_MILLIS);
+    }
+
+    private static long largeResults() {
+        return Integer.getInteger("queryLog.largeResults", DEFAULT_LARGE_RESULTS);
+    }
+}
@@ -0,0 +1,186 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * What a datastore query asks of the indexes: its kind, whether it has an ancestor, the
+ * properties of its equality filters, the property of its inequality filters and its sort
+ * orders, all ascending. The values of the filters are not part of it.
+ *
+ * A shape is written as "Conference|A|eq=city,topics|ineq=month|sort=month,name", see
+ * toString and parse.
+ */
+public final class QueryShape {
+
+    private static final Joiner COMMA_JOINER = Joiner.on(',');
+
+    private static final Splitter COMMA_SPLITTER = Splitter.on(',').omitEmptyStrings();
+
+    private final String kind;
+
+    private final boolean ancestor;
+
+    private final List<String> equalities;
+
+    private final String inequality;
+
+    private final List<String> sorts;
+
+    /**
+     * Creates a shape.
+     *
+     * @param kind the kind queried.
+     * @param ancestor whether the query has an ancestor.
+     * @param equalities the properties of the equality filters, in any order, a property
+     *                   filtered twice appears twice.
+     * @param inequality the property of the inequality filters, or null.
+     * @param sorts the properties of the sort orders. The inequality property must come first
+     *              when there is one, as the datastore requires.
+     */
+    public QueryShape(String kind, boolean ancestor, Collection<String> equalities,
+                      String inequality, List<String> sorts) {
+        this.kind = kind;
+        this.ancestor = ancestor;
+        this.equalities = Ordering.natural().immutableSortedCopy(equalities);
+        this.inequality = inequality;
+        if (inequality != null && (sorts.isEmpty() || !sorts.get(0).equals(inequality))) {
+            List<String> withInequality = new ArrayList<>(sorts.size() + 1);
+            withInequality.add(inequality);
+            withInequality.addAll(sorts);
+            this.sorts = ImmutableList.copyOf(withInequality);
+        } else {
+            this.sorts = ImmutableList.copyOf(sorts);
+        }
+    }
+
+    /**
+     * Parses a shape written by toString.
+     *
+     * @throws IllegalArgumentException when the shape is malformed.
+     */
+    public static QueryShape parse(String shape) {
+        List<String> parts = ImmutableList.copyOf(Splitter.on('|').split(shape));
+        if (parts.size() != 5 || !parts.get(2).startsWith("eq=")
+                || !parts.get(3).startsWith("ineq=") || !parts.get(4).startsWith("sort=")) {
+            throw new IllegalArgumentException("Malformed query shape: " + shape);
+        }
+        String equalities = parts.get(2).substring("eq=".length());
+        String inequality = parts.get(3).substring("ineq=".length());
+        String sorts = parts.get(4).substring("sort=".length());
+        return new QueryShape(parts.get(0), "A".equals(parts.get(1)),
+                ImmutableList.copyOf(COMMA_SPLITTER.split(equalities)),
+                inequality.isEmpty() ? null : inequality,
+                ImmutableList.copyOf(COMMA_SPLITTER.split(sorts)));
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public boolean hasAncestor() {
+        return ancestor;
+    }
+
+    public List<String> getEqualities() {
+        return equalities;
+    }
+
+    public String getInequality() {
+        return inequality;
+    }
+
+    public List<String> getSorts() {
+        return sorts;
+    }
+
+    /**
+     * Returns whether the built-in indexes serve the query: equality filters and an ancestor
+     * alone, which the datastore merges, or a single property filtered or sorted on its own.
+     */
+    public boolean isBuiltIn() {
+        if (sorts.isEmpty()) {
+            return true;
+        }
+        return !ancestor && equalities.isEmpty() && sorts.size() == 1;
+    }
+
+    /**
+     * Returns the composite indexes to create for the query, none when it is built in.
+     *
+     * Without an inequality, one index per equality property followed by the sort orders: the
+     * datastore merges them, and they are shared by all the combinations of these equalities.
+     * With one, a single index with all the equalities, the inequality and the sort orders.
+     */
+    public List<DatastoreIndex> requiredIndexes() {
+        if (isBuiltIn()) {
+            return ImmutableList.of();
+        }
+        if (inequality == null && !equalities.isEmpty()) {
+            List<DatastoreIndex> indexes = new ArrayList<>();
+            for (String equality : new LinkedHashSet<>(equalities)) {
+                indexes.add(new DatastoreIndex(kind, ancestor,
+                        ImmutableList.<String>builder().add(equality).addAll(sorts).build()));
+            }
+            return indexes;
+        }
+        return ImmutableList.of(new DatastoreIndex(kind, ancestor,
+                ImmutableList.<String>builder().addAll(equalities).addAll(sorts).build()));
+    }
+
+    /**
+     * Returns whether the given indexes serve the query, with a single index or by merging
+     * several.
+     */
+    public boolean isSupportedBy(Collection<DatastoreIndex> indexes) {
+        if (isBuiltIn()) {
+            return true;
+        }
+        List<String> merged = new ArrayList<>();
+        for (DatastoreIndex index : indexes) {
+            if (!index.getKind().equals(kind) || index.hasAncestor() != ancestor) {
+                continue;
+            }
+            List<String> properties = index.getProperties();
+            int prefixLength = properties.size() - sorts.size();
+            if (prefixLength < 0 || !properties.subList(prefixLength, properties.size())
+                    .equals(sorts)) {
+                continue;
+            }
+            List<String> prefix = Ordering.natural().sortedCopy(
+                    properties.subList(0, prefixLength));
+            if (prefix.equals(equalities)) {
+                return true;
+            }
+            // Merging only works for the equalities, the inequality must be in every index.
+            if (inequality == null && !prefix.isEmpty() && equalities.containsAll(prefix)) {
+                merged.addAll(prefix);
+            }
+        }
+        return !merged.isEmpty() && merged.containsAll(equalities);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof QueryShape && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return kind + "|" + (ancestor ? "A" : "-") + "|eq=" + COMMA_JOINER.join(equalities)
+                + "|ineq=" + (inequality == null ? "" : inequality)
+                + "|sort=" + COMMA_JOINER.join(sorts);
+    }
+}
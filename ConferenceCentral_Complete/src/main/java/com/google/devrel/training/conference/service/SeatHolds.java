@@ -0,0 +1,232 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.ChangeRecord.ChangeType;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The second phase of the two-phase registrations and the sweeper of the expired holds.
+ *
+ * Holding a seat only writes the Conference group: the seat and the SeatHold. The Profile,
+ * the attendee index, the analytics and the change feed are written by the finalization task,
+ * off the request and without holding up the other registrations.
+ *
+ * A finalization task takes up to MAX_FINALIZE_BATCH confirmed holds of the Conference with
+ * it, so that a rush of confirmations costs one commit of the Conference group per batch
+ * rather than one per hold. The analytics events go to their own group and the change
+ * records under the Profiles.
+ *
+ * The time a hold lasts can be set with the seatHold.ttlSeconds system property in
+ * appengine-web.xml, and the time it can be extended to, from when it was first taken, with
+ * seatHold.maxLifetimeSeconds.
+ */
+public class SeatHolds {
+
+    private static final Logger LOG = Logger.getLogger(SeatHolds.class.getName());
+
+    public static final String FINALIZE_URL = "/tasks/finalize_seat_hold";
+
+    private static final int DEFAULT_TTL_SECONDS = 300;
+
+    private static final int DEFAULT_MAX_LIFETIME_SECONDS = 900;
+
+    private static final int SWEEP_CHUNK = 200;
+
+    /**
+     * The holds finalized by one transaction: their Profiles, the Conference and the
+     * attendance log stay under the 25 entity groups of a transaction.
+     */
+    private static final int MAX_FINALIZE_BATCH = 20;
+
+    /**
+     * The holds of a Conference looked at for the confirmed ones to finalize with a hold.
+     */
+    private static final int MAX_FINALIZE_SCAN = 200;
+
+    private static final long SWEEP_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Returns when a hold made or extended now expires.
+     */
+    public static Date expiresAt() {
+        return new Date(System.currentTimeMillis()
+                + TimeUnit.SECONDS.toMillis(Integer.getInteger("seatHold.ttlSeconds",
+                        DEFAULT_TTL_SECONDS)));
+    }
+
+    /**
+     * Returns the latest a hold can be extended to, so that a user can not keep a seat from the
+     * others by holding it again and again.
+     */
+    public static Date latestExpiry(SeatHold hold) {
+        return new Date(hold.getCreatedAt().getTime()
+                + TimeUnit.SECONDS.toMillis(Integer.getInteger("seatHold.maxLifetimeSeconds",
+                        DEFAULT_MAX_LIFETIME_SECONDS)));
+    }
+
+    /**
+     * Enqueues the finalization of a confirmed hold, call this in the transaction that confirms
+     * it.
+     */
+    public static void enqueueFinalize(Key<SeatHold> holdKey) {
+        QueueFactory.getDefaultQueue().add(ofy().getTransaction(),
+                TaskOptions.Builder.withUrl(FINALIZE_URL)
+                        .param("websafeHoldKey", holdKey.getString()));
+    }
+
+    /**
+     * Registers the user of a confirmed hold and deletes the hold, along with the other
+     * confirmed holds of the Conference, up to MAX_FINALIZE_BATCH of them.
+     *
+     * A retried task, or the task of a hold finalized with another one, finds no hold and does
+     * nothing. When a user has registered in the meantime, the held seat is given back
+     * instead.
+     *
+     * @param websafeHoldKey the String representation of the SeatHold key.
+     * @return the number of users registered.
+     */
+    public static int finalizeHold(String websafeHoldKey) {
+        Key<SeatHold> holdKey = Key.create(websafeHoldKey);
+        final Key<Conference> conferenceKey = holdKey.getParent();
+        final String websafeConferenceKey = conferenceKey.getString();
+        SeatHold own = ofy().load().key(holdKey).now();
+        if (own == null || !own.isConfirmed()) {
+            return 0;
+        }
+        // The ancestor query is consistent, the holds are checked again in the transaction.
+        final List<Key<SeatHold>> holdKeys = new ArrayList<>(MAX_FINALIZE_BATCH);
+        holdKeys.add(holdKey);
+        for (SeatHold hold : ofy().load().type(SeatHold.class).ancestor(conferenceKey)
+                .limit(MAX_FINALIZE_SCAN)) {
+            if (holdKeys.size() == MAX_FINALIZE_BATCH) {
+                break;
+            }
+            if (hold.isConfirmed() && !hold.getKey().equals(holdKey)) {
+                holdKeys.add(hold.getKey());
+            }
+        }
+        int registered = ofy().transact(new Work<Integer>() {
+            @Override
+            public Integer run() {
+                List<SeatHold> holds = new ArrayList<>();
+                List<Key<Profile>> profileKeys = new ArrayList<>();
+                for (SeatHold hold : ofy().load().keys(holdKeys).values()) {
+                    if (hold.isConfirmed()) {
+                        holds.add(hold);
+                        profileKeys.add(Key.create(Profile.class, hold.getUserId()));
+                    }
+                }
+                if (holds.isEmpty()) {
+                    return 0;
+                }
+                Conference conference = ofy().load().key(conferenceKey).now();
+                Map<Key<Profile>, Profile> profiles = ofy().load().keys(profileKeys);
+                ofy().delete().entities(holds).now();
+                if (conference == null) {
+                    return 0;
+                }
+                int registered = 0;
+                int givenBack = 0;
+                List<Profile> registeredProfiles = new ArrayList<>();
+                for (SeatHold hold : holds) {
+                    Key<Profile> profileKey = Key.create(Profile.class, hold.getUserId());
+                    Profile profile = profiles.get(profileKey);
+                    if (profile == null || profile.getConferenceKeysToAttend()
+                            .contains(websafeConferenceKey)) {
+                        LOG.info("Giving back the seat held by " + hold.getUserId());
+                        givenBack++;
+                        continue;
+                    }
+                    profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                    registeredProfiles.add(profile);
+                    AttendeeIndex.add(conferenceKey, hold.getUserId());
+                    ChangeFeed.record(profileKey, ChangeType.REGISTERED, websafeConferenceKey,
+                            websafeConferenceKey, hold.getUserId());
+                    registered++;
+                }
+                if (givenBack > 0) {
+                    conference.giveBackSeats(givenBack);
+                    ofy().save().entity(conference).now();
+                }
+                ofy().save().entities(registeredProfiles).now();
+                for (Profile profile : registeredProfiles) {
+                    AttendanceAnalytics.emit(conferenceKey, conference, profile.getUserId(),
+                            true);
+                }
+                return registered;
+            }
+        });
+        if (registered > 0) {
+            AttendanceAnalytics.scheduleAggregation(websafeConferenceKey);
+        }
+        return registered;
+    }
+
+    /**
+     * Deletes the expired holds that were not confirmed and gives their seats back, with one
+     * transaction per Conference and chunk. A waiting room stopped for lack of seats resumes.
+     *
+     * @return the number of seats given back.
+     */
+    public static int sweep() {
+        long deadline = System.currentTimeMillis() + SWEEP_MILLIS;
+        int reclaimed = 0;
+        List<Key<SeatHold>> keys;
+        do {
+            final Date now = new Date();
+            keys = ofy().load().type(SeatHold.class).filter("expiresAt <=", now)
+                    .limit(SWEEP_CHUNK).keys().list();
+            Map<Key<Conference>, List<Key<SeatHold>>> byConference = new LinkedHashMap<>();
+            for (Key<SeatHold> key : keys) {
+                Key<Conference> conferenceKey = key.getParent();
+                if (!byConference.containsKey(conferenceKey)) {
+                    byConference.put(conferenceKey, new ArrayList<Key<SeatHold>>());
+                }
+                byConference.get(conferenceKey).add(key);
+            }
+            for (final Map.Entry<Key<Conference>, List<Key<SeatHold>>> entry
+                    : byConference.entrySet()) {
+                int givenBack = ofy().transact(new Work<Integer>() {
+                    @Override
+                    public Integer run() {
+                        Conference conference = ofy().load().key(entry.getKey()).now();
+                        List<SeatHold> expired = new ArrayList<>();
+                        // The query is eventually consistent, check the holds again.
+                        for (SeatHold hold : ofy().load().keys(entry.getValue()).values()) {
+                            if (hold.isExpired(now)) {
+                                expired.add(hold);
+                            }
+                        }
+                        ofy().delete().entities(expired).now();
+                        if (conference != null && !expired.isEmpty()) {
+                            conference.giveBackSeats(expired.size());
+                            ofy().save().entity(conference).now();
+                        }
+                        return expired.size();
+                    }
+                });
+                if (givenBack > 0) {
+                    WaitingRooms.resume(entry.getKey());
+                }
+                reclaimed += givenBack;
+            }
+        } while (keys.size() == SWEEP_CHUNK && System.currentTimeMillis() < deadline);
+        LOG.info("Gave back " + reclaimed + " seats of expired holds");
+        return reclaimed;
+    }
+}
@@ -0,0 +1,297 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.SessionDayBucket;
+import com.google.devrel.training.conference.domain.SessionSummary;
+import com.google.devrel.training.conference.domain.SessionSummaryPage;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.logging.Logger;
+
+/**
+ * Maintains and reads the global session index, the SessionDayBuckets.
+ *
+ * A range is read a few days at a time: the buckets of those days are fetched with one batch
+ * get, merged in start order and filtered, until the page is full. The cost depends on the
+ * number of days in the window and the size of the page, not on the number of Sessions. Both
+ * are capped: a range is at most MAX_RANGE_DAYS long, and list returns at most
+ * MAX_LIST_SESSIONS.
+ */
+public class SessionDateIndex {
+
+    private static final Logger LOG = Logger.getLogger(SessionDateIndex.class.getName());
+
+    public static final String BACKFILL_URL = "/tasks/backfill_session_index";
+
+    /**
+     * The number of days fetched with each batch get.
+     */
+    private static final int BATCH_DAYS = 7;
+
+    /**
+     * The longest range that can be read, in days.
+     */
+    public static final int MAX_RANGE_DAYS = 92;
+
+    /**
+     * The most Sessions returned by list, a wider result must be read by pages.
+     */
+    public static final int MAX_LIST_SESSIONS = 500;
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final int BACKFILL_CHUNK = 200;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /**
+     * Adds a new Session to the index.
+     *
+     * Call this in the transaction that saves the Session, the bucket adds one entity group.
+     *
+     * @param session the Session, already saved so that it has an id.
+     * @param speakers the Profiles of the speakers.
+     */
+    public static void addSession(Session session, Iterable<Profile> speakers) {
+        if (session.getStartDate() == null) {
+            return;
+        }
+        List<String> speakerNames = new ArrayList<>();
+        for (Profile speaker : speakers) {
+            speakerNames.add(speaker.getDisplayName());
+        }
+        SessionSummary summary = new SessionSummary(session, speakerNames);
+        Key<SessionDayBucket> bucketKey = SessionDayBucket.keyOf(summary);
+        SessionDayBucket bucket = ofy().load().key(bucketKey).now();
+        if (bucket == null) {
+            bucket = new SessionDayBucket(bucketKey.getName());
+        }
+        bucket.put(summary);
+        ofy().save().entity(bucket).now();
+    }
+
+    /**
+     * Returns one page of the Sessions starting in the given range, in start order.
+     *
+     * @param from the start of the range, inclusive.
+     * @param to the end of the range, inclusive.
+     * @param maxDuration the maximum duration of the Sessions, null for any.
+     * @param pageToken the token returned with the previous page, null for the first one.
+     * @param limit the maximum number of Sessions in the page.
+     * @return the page.
+     * @throws IllegalArgumentException when the range is longer than MAX_RANGE_DAYS or the page
+     *         token is not valid.
+     */
+    public static SessionSummaryPage read(Date from, Date to, Integer maxDuration,
+                                          String pageToken, int limit) {
+        Calendar firstDay = startOfDay(from);
+        Calendar lastDay = startOfDay(to);
+        if ((lastDay.getTimeInMillis() - firstDay.getTimeInMillis()) / DAY_MILLIS
+                >= MAX_RANGE_DAYS) {
+            throw new IllegalArgumentException("The range must be at most " + MAX_RANGE_DAYS
+                    + " days long.");
+        }
+        // The token is the day to resume from and the number of its Sessions already returned.
+        Calendar day = firstDay;
+        int skip = 0;
+        if (pageToken != null) {
+            String[] parts = pageToken.split(":");
+            try {
+                day = startOfDay(newDayFormat().parse(parts[0]));
+                skip = Integer.parseInt(parts[1]);
+            } catch (ParseException | RuntimeException e) {
+                throw new IllegalArgumentException("Invalid page token: " + pageToken);
+            }
+            if (day.before(firstDay)) {
+                throw new IllegalArgumentException("Invalid page token: " + pageToken);
+            }
+        }
+
+        List<SessionSummary> items = new ArrayList<>();
+        while (!day.after(lastDay)) {
+            // Fetch the buckets of the next few days at once.
+            Map<String, List<Key<SessionDayBucket>>> keysByDay = new LinkedHashMap<>();
+            List<Key<SessionDayBucket>> keys = new ArrayList<>();
+            for (int i = 0; i < BATCH_DAYS && !day.after(lastDay); i++) {
+                String dayId = SessionDayBucket.day(day.getTime());
+                List<Key<SessionDayBucket>> dayKeys = new ArrayList<>(SessionDayBucket.SHARDS);
+                for (int shard = 0; shard < SessionDayBucket.SHARDS; shard++) {
+                    dayKeys.add(SessionDayBucket.key(dayId, shard));
+                }
+                keysByDay.put(dayId, dayKeys);
+                keys.addAll(dayKeys);
+                day.add(Calendar.DATE, 1);
+            }
+            Map<Key<SessionDayBucket>, SessionDayBucket> buckets = ofy().load().keys(keys);
+
+            for (Map.Entry<String, List<Key<SessionDayBucket>>> entry : keysByDay.entrySet()) {
+                List<SessionSummary> daySessions = new ArrayList<>();
+                for (Key<SessionDayBucket> key : entry.getValue()) {
+                    SessionDayBucket bucket = buckets.get(key);
+                    if (bucket != null) {
+                        daySessions.addAll(bucket.getSessions());
+                    }
+                }
+                // Each shard is sorted already, the sort only merges the runs.
+                Collections.sort(daySessions, SessionSummary.BY_START);
+
+                int index = 0;
+                for (SessionSummary summary : daySessions) {
+                    if (!matches(summary, from, to, maxDuration)) {
+                        continue;
+                    }
+                    if (index++ < skip) {
+                        continue;
+                    }
+                    if (items.size() == limit) {
+                        return new SessionSummaryPage(items, entry.getKey() + ":" + (index - 1));
+                    }
+                    items.add(summary);
+                }
+                skip = 0;
+            }
+        }
+        return new SessionSummaryPage(items, null);
+    }
+
+    /**
+     * Returns all the Sessions starting in the given range, in start order.
+     *
+     * @throws IllegalArgumentException when the range is longer than MAX_RANGE_DAYS or more
+     *         than MAX_LIST_SESSIONS Sessions start in it.
+     * @see #read(Date, Date, Integer, String, int)
+     */
+    public static List<SessionSummary> list(Date from, Date to, Integer maxDuration) {
+        SessionSummaryPage page = read(from, to, maxDuration, null, MAX_LIST_SESSIONS);
+        if (page.getNextPageToken() != null) {
+            throw new IllegalArgumentException("More than " + MAX_LIST_SESSIONS
+                    + " sessions start in the range, read it by pages.");
+        }
+        return page.getItems();
+    }
+
+    private static boolean matches(SessionSummary summary, Date from, Date to,
+                                   Integer maxDuration) {
+        return !summary.getStartDate().before(from) && !summary.getStartDate().after(to)
+                && (maxDuration == null || summary.getDuration() <= maxDuration);
+    }
+
+    /**
+     * Indexes a chunk of the existing Sessions and enqueues the next chunk.
+     *
+     * Adding a Session twice only replaces its summary, so the backfill can be run again
+     * safely.
+     *
+     * @param websafeCursor where to resume from, null to start from the beginning.
+     */
+    public static void backfill(String websafeCursor) {
+        Query<Session> query = ofy().load().type(Session.class).limit(BACKFILL_CHUNK);
+        if (websafeCursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(websafeCursor));
+        }
+        QueryResultIterator<Session> iterator = query.iterator();
+        List<Session> sessions = new ArrayList<>();
+        while (iterator.hasNext()) {
+            sessions.add(iterator.next());
+        }
+        index(sessions);
+
+        if (sessions.size() == BACKFILL_CHUNK) {
+            QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(BACKFILL_URL)
+                    .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+    }
+
+    /**
+     * Puts the summaries of existing Sessions in the index, with the current names of their
+     * speakers, in one transaction per bucket. The Sessions without a start date are skipped.
+     *
+     * @param sessions the Sessions.
+     */
+    public static void index(Collection<Session> sessions) {
+        Set<Key<Profile>> speakerKeys = new LinkedHashSet<>();
+        for (Session session : sessions) {
+            speakerKeys.addAll(session.getSpeakerProfileKeys());
+        }
+        Map<Key<Profile>, Profile> speakers = ofy().load().keys(speakerKeys);
+
+        Map<Key<SessionDayBucket>, List<SessionSummary>> byBucket = new LinkedHashMap<>();
+        int indexed = 0;
+        for (Session session : sessions) {
+            if (session.getStartDate() == null) {
+                continue;
+            }
+            List<String> speakerNames = new ArrayList<>();
+            for (Key<Profile> speakerKey : session.getSpeakerProfileKeys()) {
+                Profile speaker = speakers.get(speakerKey);
+                if (speaker != null) {
+                    speakerNames.add(speaker.getDisplayName());
+                }
+            }
+            SessionSummary summary = new SessionSummary(session, speakerNames);
+            Key<SessionDayBucket> bucketKey = SessionDayBucket.keyOf(summary);
+            if (!byBucket.containsKey(bucketKey)) {
+                byBucket.put(bucketKey, new ArrayList<SessionSummary>());
+            }
+            byBucket.get(bucketKey).add(summary);
+            indexed++;
+        }
+        for (final Map.Entry<Key<SessionDayBucket>, List<SessionSummary>> entry
+                : byBucket.entrySet()) {
+            // One transaction per bucket, createSession may be writing to it concurrently.
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    SessionDayBucket bucket = ofy().load().key(entry.getKey()).now();
+                    if (bucket == null) {
+                        bucket = new SessionDayBucket(entry.getKey().getName());
+                    }
+                    for (SessionSummary summary : entry.getValue()) {
+                        bucket.put(summary);
+                    }
+                    ofy().save().entity(bucket).now();
+                }
+            });
+        }
+        LOG.info("Indexed " + indexed + " sessions in " + byBucket.size() + " buckets");
+    }
+
+    private static Calendar startOfDay(Date date) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTime(date);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar;
+    }
+
+    private static SimpleDateFormat newDayFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+        format.setTimeZone(UTC);
+        format.setLenient(false);
+        return format;
+    }
+}
@@ -0,0 +1,149 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Throwables;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces the concurrent loads of the same value, so that a hot entry that expires costs
+ * one read instead of one per waiting request.
+ *
+ * On an instance, the first caller of a key loads it and the others wait for its result. Across
+ * instances, the loader takes a short memcache lease first: while another instance holds it,
+ * the caller serves the stale value it was given, or waits for the lease to be released and
+ * then loads, from memcache by then when the value is cached there. A lease that can't be
+ * taken because memcache is down is not waited for.
+ */
+public class SingleFlight {
+
+    private static final String MEMCACHE_NAMESPACE = "singleflight";
+
+    private static final int LEASE_MILLIS = 2000;
+
+    private static final int WAIT_MILLIS = 500;
+
+    private static final int POLL_MILLIS = 25;
+
+    /**
+     * Loads a value.
+     */
+    public interface Loader<V> {
+        V load();
+    }
+
+    /**
+     * The loads running on this instance, by key.
+     */
+    private static final ConcurrentMap<String, FutureTask<?>> IN_FLIGHT =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Loads a value once among the concurrent callers of this instance.
+     *
+     * @param key what is loaded.
+     * @param loader loads the value, it may return null.
+     * @return the value loaded by this caller or by the one it waited for.
+     */
+    public static <V> V coalesce(String key, final Loader<V> loader) {
+        FutureTask<V> task = new FutureTask<>(new Callable<V>() {
+            @Override
+            public V call() {
+                return loader.load();
+            }
+        });
+        @SuppressWarnings("unchecked")
+        FutureTask<V> running = (FutureTask<V>) IN_FLIGHT.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                IN_FLIGHT.remove(key, task);
+            }
+            return result(task);
+        }
+        try {
+            return running.get(LEASE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // The load we waited for is stuck or failed, try on our own.
+            return loader.load();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return loader.load();
+        }
+    }
+
+    /**
+     * Loads a value once among the concurrent callers of all the instances.
+     *
+     * @param key what is loaded.
+     * @param stale the value to serve while another instance loads, or null to wait for it.
+     * @param loader loads the value, it may return null.
+     * @return the value loaded, or the stale one.
+     */
+    public static <V> V load(final String key, final V stale, final Loader<V> loader) {
+        return coalesce(key, new Loader<V>() {
+            @Override
+            public V load() {
+                return lease(key, stale, loader);
+            }
+        });
+    }
+
+    /**
+     * Loads a value under the memcache lease of its key, without coalescing the callers of
+     * this instance: call it from the loader given to coalesce, when only some of the loads
+     * need the lease.
+     *
+     * @param key what is loaded.
+     * @param stale the value to serve while another instance loads, or null to wait for it.
+     * @param loader loads the value, it may return null.
+     * @return the value loaded, or the stale one.
+     */
+    public static <V> V lease(String key, V stale, Loader<V> loader) {
+        MemcacheService memcacheService =
+                MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE);
+        if (memcacheService.put(key, Boolean.TRUE, Expiration.byDeltaMillis(LEASE_MILLIS),
+                SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            try {
+                return loader.load();
+            } finally {
+                memcacheService.delete(key);
+            }
+        }
+        if (stale != null) {
+            return stale;
+        }
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        // Without a lease to wait for, memcache is failing, or it was just released.
+        while (memcacheService.contains(key) && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return loader.load();
+    }
+
+    private static <V> V result(FutureTask<V> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            // The task ran on this thread, it is done.
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.SessionSummary;
+import com.google.devrel.training.conference.domain.SpeakerSessions;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Maintains and reads the speaker index.
+ */
+public class SpeakerIndex {
+
+    private static final Logger LOG = Logger.getLogger(SpeakerIndex.class.getName());
+
+    public static final String BACKFILL_URL = "/tasks/backfill_speaker_index";
+
+    private static final int BACKFILL_CHUNK = 200;
+
+    /**
+     * Adds a new Session to the index entries of its speakers.
+     *
+     * Call this in the transaction that saves the Session, the entries live in the speakers'
+     * entity groups.
+     *
+     * @param session the Session, already saved so that it has an id.
+     * @param speakers the Profiles of the speakers.
+     */
+    public static void addSession(Session session, Collection<Profile> speakers) {
+        String websafeConferenceKey = session.getConferenceKey().getString();
+        List<String> speakerNames = new ArrayList<>();
+        List<Key<SpeakerSessions>> keys = new ArrayList<>();
+        for (Profile speaker : speakers) {
+            speakerNames.add(speaker.getDisplayName());
+            Key<Profile> speakerKey = Key.create(Profile.class, speaker.getUserId());
+            keys.add(SpeakerSessions.key(speakerKey, null));
+            keys.add(SpeakerSessions.key(speakerKey, websafeConferenceKey));
+        }
+        SessionSummary summary = new SessionSummary(session, speakerNames);
+        Map<Key<SpeakerSessions>, SpeakerSessions> existing = ofy().load().keys(keys);
+        List<SpeakerSessions> entries = new ArrayList<>(keys.size());
+        for (Key<SpeakerSessions> key : keys) {
+            SpeakerSessions entry = existing.get(key);
+            if (entry == null) {
+                entry = new SpeakerSessions(Key.<Profile>create(key.getParent().getRaw()),
+                        key.getName());
+            }
+            entry.put(summary);
+            entries.add(entry);
+        }
+        ofy().save().entities(entries).now();
+    }
+
+    /**
+     * Indexes a chunk of the existing Sessions and enqueues the next chunk.
+     *
+     * Adding a Session twice only replaces its summary, so the backfill can be run again
+     * safely.
+     *
+     * @param websafeCursor where to resume from, null to start from the beginning.
+     */
+    public static void backfill(String websafeCursor) {
+        Query<Session> query = ofy().load().type(Session.class).limit(BACKFILL_CHUNK);
+        if (websafeCursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(websafeCursor));
+        }
+        QueryResultIterator<Session> iterator = query.iterator();
+        List<Session> sessions = new ArrayList<>();
+        while (iterator.hasNext()) {
+            sessions.add(iterator.next());
+        }
+        index(sessions);
+
+        if (sessions.size() == BACKFILL_CHUNK) {
+            QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(BACKFILL_URL)
+                    .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+    }
+
+    /**
+     * Puts the summaries of existing Sessions in the entries of all their speakers, with the
+     * current names of the speakers, in one transaction per speaker.
+     *
+     * @param sessions the Sessions.
+     */
+    public static void index(Collection<Session> sessions) {
+        Set<Key<Profile>> speakerKeys = new LinkedHashSet<>();
+        for (Session session : sessions) {
+            speakerKeys.addAll(session.getSpeakerProfileKeys());
+        }
+        Map<Key<Profile>, Profile> speakers = ofy().load().keys(speakerKeys);
+
+        Map<Key<Profile>, List<SessionSummary>> bySpeaker = new LinkedHashMap<>();
+        for (Session session : sessions) {
+            List<String> speakerNames = new ArrayList<>();
+            for (Key<Profile> speakerKey : session.getSpeakerProfileKeys()) {
+                Profile speaker = speakers.get(speakerKey);
+                if (speaker != null) {
+                    speakerNames.add(speaker.getDisplayName());
+                }
+            }
+            SessionSummary summary = new SessionSummary(session, speakerNames);
+            for (Key<Profile> speakerKey : session.getSpeakerProfileKeys()) {
+                if (!speakers.containsKey(speakerKey)) {
+                    continue;
+                }
+                if (!bySpeaker.containsKey(speakerKey)) {
+                    bySpeaker.put(speakerKey, new ArrayList<SessionSummary>());
+                }
+                bySpeaker.get(speakerKey).add(summary);
+            }
+        }
+        for (final Map.Entry<Key<Profile>, List<SessionSummary>> entry : bySpeaker.entrySet()) {
+            // One transaction per speaker, createSession may be writing to the entries.
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    Set<Key<SpeakerSessions>> keys = new LinkedHashSet<>();
+                    for (SessionSummary summary : entry.getValue()) {
+                        keys.add(SpeakerSessions.key(entry.getKey(), null));
+                        keys.add(SpeakerSessions.key(entry.getKey(),
+                                summary.getWebsafeConferenceKey()));
+                    }
+                    Map<Key<SpeakerSessions>, SpeakerSessions> existing =
+                            ofy().load().keys(keys);
+                    Map<String, SpeakerSessions> entries = new LinkedHashMap<>();
+                    for (Key<SpeakerSessions> key : keys) {
+                        SpeakerSessions speakerSessions = existing.get(key);
+                        entries.put(key.getName(), speakerSessions != null ? speakerSessions
+                                : new SpeakerSessions(entry.getKey(), key.getName()));
+                    }
+                    for (SessionSummary summary : entry.getValue()) {
+                        entries.get(SpeakerSessions.GLOBAL_SCOPE).put(summary);
+                        entries.get(summary.getWebsafeConferenceKey()).put(summary);
+                    }
+                    ofy().save().entities(entries.values()).now();
+                }
+            });
+        }
+        LOG.info("Indexed " + sessions.size() + " sessions for " + bySpeaker.size()
+                + " speakers");
+    }
+
+    /**
+     * Returns the index entries of many speakers with a single batch get.
+     *
+     * @param websafeSpeakerKeys the String representations of the speakers' Profile Keys.
+     * @param websafeConferenceKey the conference to scope the lookup to, null for all of them.
+     * @return one entry per speaker in the same order, empty for the speakers without Sessions.
+     */
+    public static List<SpeakerSessions> lookup(List<String> websafeSpeakerKeys,
+                                               String websafeConferenceKey) {
+        List<Key<SpeakerSessions>> keys = new ArrayList<>(websafeSpeakerKeys.size());
+        for (String websafeSpeakerKey : websafeSpeakerKeys) {
+            keys.add(SpeakerSessions.key(Key.<Profile>create(websafeSpeakerKey),
+                    websafeConferenceKey));
+        }
+        Map<Key<SpeakerSessions>, SpeakerSessions> found = ofy().load().keys(keys);
+        List<SpeakerSessions> result = new ArrayList<>(keys.size());
+        for (Key<SpeakerSessions> key : keys) {
+            SpeakerSessions entry = found.get(key);
+            result.add(entry != null ? entry : new SpeakerSessions(
+                    Key.<Profile>create(key.getParent().getRaw()), key.getName()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+package com.google.devrel.training.conference.service;
+
+/**
+ * A simple token bucket used for the instance-local tier of the admission control.
+ *
+ * The bucket starts full and refills continuously at a fixed rate up to its capacity.
+ */
+public class TokenBucket {
+
+    /**
+     * The maximum number of tokens the bucket can hold.
+     */
+    private final double capacity;
+
+    /**
+     * Number of tokens added per millisecond.
+     */
+    private final double refillPerMilli;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param capacity the maximum burst size.
+     * @param refillPerMinute how many tokens are added back every minute.
+     * @param now the current time in milliseconds.
+     */
+    public TokenBucket(int capacity, int refillPerMinute, long now) {
+        this.capacity = capacity;
+        this.refillPerMilli = refillPerMinute / 60000.0;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Takes one token from the bucket if there is any.
+     *
+     * @param now the current time in milliseconds.
+     * @return true when a token was taken, false when the bucket is empty.
+     */
+    public synchronized boolean tryAcquire(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerMilli);
+            lastRefill = now;
+        }
+        if (tokens < 1) {
+            return false;
+        }
+        tokens = tokens - 1;
+        return true;
+    }
+}
@@ -0,0 +1,327 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.UpcomingMonthBucket;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.logging.Logger;
+
+/**
+ * Maintains and reads the upcoming conferences view, the UpcomingMonthBuckets.
+ *
+ * The next conferences are read a few months at a time, with one batch get of the buckets of
+ * those months, until there are enough of them. The conferences that have started are skipped
+ * when reading and removed by a daily cron, which also refills the truncated buckets.
+ *
+ * A created or updated Conference is put in the view by a task enlisted in the transaction
+ * that saves it, so that the shared buckets are written after the commit, each in a short
+ * transaction of its own, and never add their entity groups to the user's transaction.
+ */
+public class UpcomingConferences {
+
+    private static final Logger LOG = Logger.getLogger(UpcomingConferences.class.getName());
+
+    public static final String BACKFILL_URL = "/tasks/backfill_upcoming";
+
+    public static final String UPDATE_URL = "/tasks/update_upcoming";
+
+    /**
+     * The number of months fetched with each batch get.
+     */
+    private static final int BATCH_MONTHS = 3;
+
+    /**
+     * How far ahead the view is read.
+     */
+    private static final int MAX_MONTHS = 24;
+
+    private static final int BACKFILL_CHUNK = 200;
+
+    /**
+     * Enqueues the update of the view for a Conference that was created or updated.
+     *
+     * Call this in the transaction that saves the Conference: the task is enlisted in it, so it
+     * only runs once the Conference is committed.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param previousStartDate its start date before the update, null for a new Conference.
+     */
+    public static void schedulePut(String websafeConferenceKey, Date previousStartDate) {
+        TaskOptions task = TaskOptions.Builder.withUrl(UPDATE_URL)
+                .param("websafeConferenceKey", websafeConferenceKey);
+        if (previousStartDate != null) {
+            task.param("previousStartDate", String.valueOf(previousStartDate.getTime()));
+        }
+        QueueFactory.getDefaultQueue().add(ofy().getTransaction(), task);
+    }
+
+    /**
+     * Adds, moves or removes a Conference that was created or updated, as it is now.
+     *
+     * The tasks of successive updates may run in any order: each one puts the Conference where
+     * its current start date belongs, and only removes it from the bucket it was moved from.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param previousStartDate its start date before the update, null for a new Conference.
+     */
+    public static void put(String websafeConferenceKey, Date previousStartDate) {
+        final String websafeKey = websafeConferenceKey;
+        Conference conference = ofy().load().key(Key.<Conference>create(websafeKey)).now();
+        final ConferenceSummary summary = conference != null
+                && isUpcoming(conference.getStartDate()) ? new ConferenceSummary(conference) : null;
+        final Key<UpcomingMonthBucket> bucketKey = summary == null ? null
+                : UpcomingMonthBucket.keyOf(websafeKey, summary.getStartDate());
+        if (previousStartDate != null) {
+            final Key<UpcomingMonthBucket> previousKey =
+                    UpcomingMonthBucket.keyOf(websafeKey, previousStartDate);
+            if (!previousKey.equals(bucketKey)) {
+                ofy().transact(new VoidWork() {
+                    @Override
+                    public void vrun() {
+                        UpcomingMonthBucket previous = ofy().load().key(previousKey).now();
+                        if (previous != null && previous.remove(websafeKey)) {
+                            ofy().save().entity(previous).now();
+                        }
+                    }
+                });
+            }
+        }
+        if (bucketKey == null) {
+            return;
+        }
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                UpcomingMonthBucket bucket = ofy().load().key(bucketKey).now();
+                if (bucket == null) {
+                    bucket = new UpcomingMonthBucket(bucketKey.getName());
+                }
+                bucket.put(summary);
+                ofy().save().entity(bucket).now();
+            }
+        });
+    }
+
+    /**
+     * Adds many new Conferences, with one transaction per bucket.
+     *
+     * Adding a Conference twice only replaces its summary.
+     *
+     * @param conferences the Conferences, already saved.
+     */
+    public static void putAll(Iterable<Conference> conferences) {
+        Map<Key<UpcomingMonthBucket>, List<ConferenceSummary>> byBucket = new LinkedHashMap<>();
+        for (Conference conference : conferences) {
+            if (!isUpcoming(conference.getStartDate())) {
+                continue;
+            }
+            ConferenceSummary summary = new ConferenceSummary(conference);
+            Key<UpcomingMonthBucket> bucketKey = UpcomingMonthBucket.keyOf(
+                    summary.getWebsafeKey(), summary.getStartDate());
+            if (!byBucket.containsKey(bucketKey)) {
+                byBucket.put(bucketKey, new ArrayList<ConferenceSummary>());
+            }
+            byBucket.get(bucketKey).add(summary);
+        }
+        for (final Map.Entry<Key<UpcomingMonthBucket>, List<ConferenceSummary>> entry
+                : byBucket.entrySet()) {
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    UpcomingMonthBucket bucket = ofy().load().key(entry.getKey()).now();
+                    if (bucket == null) {
+                        bucket = new UpcomingMonthBucket(entry.getKey().getName());
+                    }
+                    for (ConferenceSummary summary : entry.getValue()) {
+                        bucket.put(summary);
+                    }
+                    ofy().save().entity(bucket).now();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the next conferences to start, in start order.
+     *
+     * @param limit the maximum number of conferences.
+     * @return the summaries of the conferences.
+     */
+    public static List<ConferenceSummary> list(int limit) {
+        Date today = startOfToday();
+        int month = UpcomingMonthBucket.month(today);
+        List<ConferenceSummary> upcoming = new ArrayList<>(limit);
+        for (int scanned = 0; scanned < MAX_MONTHS && upcoming.size() < limit; ) {
+            // Fetch the buckets of the next few months at once.
+            Map<Integer, List<Key<UpcomingMonthBucket>>> keysByMonth = new LinkedHashMap<>();
+            List<Key<UpcomingMonthBucket>> keys = new ArrayList<>();
+            for (int i = 0; i < BATCH_MONTHS && scanned < MAX_MONTHS; i++, scanned++) {
+                List<Key<UpcomingMonthBucket>> monthKeys = new ArrayList<>();
+                for (int shard = 0; shard < UpcomingMonthBucket.SHARDS; shard++) {
+                    monthKeys.add(UpcomingMonthBucket.key(month, shard));
+                }
+                keysByMonth.put(month, monthKeys);
+                keys.addAll(monthKeys);
+                month = UpcomingMonthBucket.nextMonth(month);
+            }
+            Map<Key<UpcomingMonthBucket>, UpcomingMonthBucket> buckets = ofy().load().keys(keys);
+
+            for (List<Key<UpcomingMonthBucket>> monthKeys : keysByMonth.values()) {
+                List<ConferenceSummary> monthConferences = new ArrayList<>();
+                for (Key<UpcomingMonthBucket> key : monthKeys) {
+                    UpcomingMonthBucket bucket = buckets.get(key);
+                    if (bucket != null) {
+                        monthConferences.addAll(bucket.getConferences());
+                    }
+                }
+                // Each shard is sorted already, the sort only merges the runs.
+                Collections.sort(monthConferences, ConferenceSummary.BY_START);
+                for (ConferenceSummary summary : monthConferences) {
+                    if (upcoming.size() == limit) {
+                        return upcoming;
+                    }
+                    // Not expired by the cron yet.
+                    if (!summary.getStartDate().before(today)) {
+                        upcoming.add(summary);
+                    }
+                }
+            }
+        }
+        return upcoming;
+    }
+
+    /**
+     * Removes the conferences that have started: deletes the buckets of the past months and
+     * expires the ones of the current month. Then refills the truncated buckets that are less
+     * than half full.
+     *
+     * @return the number of buckets deleted.
+     */
+    public static int expire() {
+        final Date today = startOfToday();
+        int month = UpcomingMonthBucket.month(today);
+        List<Key<UpcomingMonthBucket>> past = ofy().load().type(UpcomingMonthBucket.class)
+                .filterKey("<", UpcomingMonthBucket.key(month, 0)).keys().list();
+        ofy().delete().keys(past).now();
+        for (int shard = 0; shard < UpcomingMonthBucket.SHARDS; shard++) {
+            final Key<UpcomingMonthBucket> key = UpcomingMonthBucket.key(month, shard);
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    UpcomingMonthBucket bucket = ofy().load().key(key).now();
+                    if (bucket != null && bucket.expire(today) > 0) {
+                        ofy().save().entity(bucket).now();
+                    }
+                }
+            });
+        }
+        for (Key<UpcomingMonthBucket> key : ofy().load().type(UpcomingMonthBucket.class)
+                .filter("truncated", true).keys()) {
+            refill(key);
+        }
+        LOG.info("Deleted " + past.size() + " buckets of the past months");
+        return past.size();
+    }
+
+    /**
+     * Puts back the conferences dropped from a truncated bucket, when it is less than half
+     * full.
+     */
+    private static void refill(final Key<UpcomingMonthBucket> bucketKey) {
+        UpcomingMonthBucket bucket = ofy().load().key(bucketKey).now();
+        if (bucket == null || bucket.size() >= UpcomingMonthBucket.MAX_CONFERENCES / 2) {
+            return;
+        }
+        int month = Integer.parseInt(bucketKey.getName().substring(0, 6));
+        final List<ConferenceSummary> summaries = new ArrayList<>();
+        List<Key<Conference>> batch = new ArrayList<>(BACKFILL_CHUNK);
+        Iterator<Key<Conference>> keys = ofy().load().type(Conference.class)
+                .filter("month", month % 100).chunk(BACKFILL_CHUNK).keys().iterator();
+        while (keys.hasNext()) {
+            batch.add(keys.next());
+            if (batch.size() < BACKFILL_CHUNK && keys.hasNext()) {
+                continue;
+            }
+            // Loaded by key, the query may return a Conference that has moved since.
+            for (Conference conference : ofy().load().keys(batch).values()) {
+                Date startDate = conference.getStartDate();
+                if (isUpcoming(startDate) && bucketKey.equals(UpcomingMonthBucket.keyOf(
+                        conference.getWebsafeKey(), startDate))) {
+                    summaries.add(new ConferenceSummary(conference));
+                }
+            }
+            batch.clear();
+        }
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                UpcomingMonthBucket bucket = ofy().load().key(bucketKey).now();
+                if (bucket == null) {
+                    bucket = new UpcomingMonthBucket(bucketKey.getName());
+                }
+                bucket.untruncate();
+                for (ConferenceSummary summary : summaries) {
+                    bucket.put(summary);
+                }
+                ofy().save().entity(bucket).now();
+            }
+        });
+        LOG.info("Refilled " + bucketKey.getName() + " with " + summaries.size()
+                + " conferences");
+    }
+
+    /**
+     * Adds a chunk of the existing Conferences to the view and enqueues the next chunk.
+     *
+     * @param websafeCursor where to resume from, null to start from the beginning.
+     */
+    public static void backfill(String websafeCursor) {
+        Query<Conference> query = ofy().load().type(Conference.class).limit(BACKFILL_CHUNK);
+        if (websafeCursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(websafeCursor));
+        }
+        QueryResultIterator<Conference> iterator = query.iterator();
+        List<Conference> conferences = new ArrayList<>();
+        while (iterator.hasNext()) {
+            conferences.add(iterator.next());
+        }
+        putAll(conferences);
+        LOG.info("Added a chunk of " + conferences.size() + " conferences");
+
+        if (conferences.size() == BACKFILL_CHUNK) {
+            QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(BACKFILL_URL)
+                    .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+    }
+
+    private static boolean isUpcoming(Date startDate) {
+        return startDate != null && !startDate.before(startOfToday());
+    }
+
+    private static Date startOfToday() {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTime();
+    }
+}
@@ -0,0 +1,326 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.WaitingRoom;
+import com.google.devrel.training.conference.domain.WaitingRoomStatus;
+import com.google.devrel.training.conference.domain.WaitingTicket;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The waiting rooms of the conferences whose registrations open with a rush.
+ *
+ * A user who arrives gets the next position from a counter in memcache, and a WaitingTicket
+ * under the user's own Profile: nothing the crowd writes is shared. Every DISPATCH_INTERVAL
+ * a task admits the next users, at the rate of the room and never more than the seats left
+ * minus the users admitted that have not registered yet, so the Conference group only sees as
+ * many registrations as it can take. The run stops while the Conference is sold out. The rooms
+ * are read through the InstanceCache, so checking a user costs a ticket get at most.
+ *
+ * The room keeps a high-water mark of the positions, moved RESERVE_BLOCK ahead by one
+ * transaction every half a block of positions. When memcache loses the counter, it restarts
+ * from the mark: no position is given out twice, at the cost of skipping the rest of the block.
+ */
+public class WaitingRooms {
+
+    private static final Logger LOG = Logger.getLogger(WaitingRooms.class.getName());
+
+    public static final String DISPATCH_URL = "/tasks/dispatch_waiting_room";
+
+    private static final String MEMCACHE_NAMESPACE = "waitingroom";
+
+    private static final long DISPATCH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The positions reserved ahead of the counter. Up to a block is skipped when the counter is
+     * lost, the users admitted for them are counted until ADMISSION_MILLIS have passed.
+     */
+    private static final long RESERVE_BLOCK = 100;
+
+    /**
+     * About the writes per second an entity group sustains.
+     */
+    public static final int DEFAULT_ADMIT_PER_MINUTE = 60;
+
+    /**
+     * Enables the waiting room of a Conference, or changes its rate.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param admitPerMinute the number of users admitted per minute.
+     * @return the WaitingRoom.
+     */
+    public static WaitingRoom enable(final Key<Conference> conferenceKey,
+                                     final int admitPerMinute) {
+        WaitingRoom room = ofy().transact(new Work<WaitingRoom>() {
+            @Override
+            public WaitingRoom run() {
+                WaitingRoom room = ofy().load().key(WaitingRoom.key(conferenceKey)).now();
+                if (room == null) {
+                    room = new WaitingRoom(conferenceKey);
+                }
+                if (room.enable(admitPerMinute)) {
+                    enqueueDispatch(conferenceKey, room.getTick());
+                }
+                ofy().save().entity(room).now();
+                return room;
+            }
+        });
+        InstanceCache.invalidateWaitingRoom(conferenceKey);
+        return room;
+    }
+
+    /**
+     * Disables the waiting room of a Conference, everybody is admitted again.
+     *
+     * @param conferenceKey the key of the Conference.
+     */
+    public static void disable(final Key<Conference> conferenceKey) {
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                WaitingRoom room = ofy().load().key(WaitingRoom.key(conferenceKey)).now();
+                if (room != null && room.isEnabled()) {
+                    room.disable();
+                    ofy().save().entity(room).now();
+                }
+            }
+        });
+        InstanceCache.invalidateWaitingRoom(conferenceKey);
+    }
+
+    /**
+     * Puts a user in the waiting room of a Conference, if it is not there yet.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param userId the id of the user.
+     * @return where the user stands, admitted when the Conference has no waiting room.
+     */
+    public static WaitingRoomStatus join(Key<Conference> conferenceKey, String userId) {
+        WaitingRoom room = InstanceCache.getWaitingRoom(conferenceKey);
+        if (room == null || !room.isEnabled()) {
+            return new WaitingRoomStatus(false, 0, 0, 0);
+        }
+        Key<WaitingTicket> ticketKey = WaitingTicket.key(userId, conferenceKey.getString());
+        WaitingTicket ticket = ofy().load().key(ticketKey).now();
+        if (ticket == null) {
+            ticket = new WaitingTicket(userId, conferenceKey.getString(), nextPosition(room));
+            ofy().save().entity(ticket).now();
+        }
+        return status(room, ticket.getPosition());
+    }
+
+    /**
+     * Returns where a user stands, without putting it in the waiting room.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param userId the id of the user.
+     * @return the status, or null when the user has not joined the waiting room.
+     */
+    public static WaitingRoomStatus getStatus(Key<Conference> conferenceKey, String userId) {
+        WaitingRoom room = InstanceCache.getWaitingRoom(conferenceKey);
+        if (room == null || !room.isEnabled()) {
+            return new WaitingRoomStatus(false, 0, 0, 0);
+        }
+        WaitingTicket ticket = ofy().load()
+                .key(WaitingTicket.key(userId, conferenceKey.getString())).now();
+        return ticket == null ? null : status(room, ticket.getPosition());
+    }
+
+    /**
+     * Gets the waiting room of a Conference ready for an opening: loaded in the InstanceCache
+     * and with its position counter in memcache.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @return true when the Conference has a waiting room enabled.
+     */
+    public static boolean prepare(Key<Conference> conferenceKey) {
+        WaitingRoom room = InstanceCache.getWaitingRoom(conferenceKey);
+        if (room == null || !room.isEnabled()) {
+            return false;
+        }
+        if (MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE)
+                .get(counterKey(conferenceKey)) == null) {
+            seedCounter(conferenceKey);
+        }
+        return true;
+    }
+
+    private static WaitingRoomStatus status(WaitingRoom room, long position) {
+        long ahead = position - room.getAdmitted();
+        long wait = ahead <= 0 ? 0
+                : (ahead * TimeUnit.MINUTES.toSeconds(1) + room.getAdmitPerMinute() - 1)
+                        / Math.max(1, room.getAdmitPerMinute());
+        return new WaitingRoomStatus(true, position, room.getAdmitted(), wait);
+    }
+
+    private static String counterKey(Key<Conference> conferenceKey) {
+        return "issued:" + conferenceKey.getString();
+    }
+
+    /**
+     * Gives out the next position, and moves the high-water mark when the position gets close
+     * to it. The cached room may be behind, the mark is checked again in a transaction.
+     */
+    private static long nextPosition(WaitingRoom room) {
+        final Key<Conference> conferenceKey = room.getConferenceKey();
+        MemcacheService memcacheService =
+                MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE);
+        Long position = memcacheService.increment(counterKey(conferenceKey), 1);
+        if (position == null && seedCounter(conferenceKey) != null) {
+            position = memcacheService.increment(counterKey(conferenceKey), 1);
+        }
+        if (position == null) {
+            // Memcache is not available, we'd rather share a position than fail.
+            LOG.warning("No position counter for " + room.getWebsafeConferenceKey());
+            return room.getIssued() + 1;
+        }
+        if (position > room.getReserved() - RESERVE_BLOCK / 2) {
+            final long given = position;
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    WaitingRoom room = ofy().load().key(WaitingRoom.key(conferenceKey)).now();
+                    if (room != null && room.reserveThrough(given, RESERVE_BLOCK)) {
+                        ofy().save().entity(room).now();
+                    }
+                }
+            });
+            InstanceCache.invalidateWaitingRoom(conferenceKey);
+        }
+        return position;
+    }
+
+    /**
+     * Puts the position counter in memcache, restarted from the high-water mark of the room.
+     * Of the callers that race to seed it, the first one wins; each moves the mark past the
+     * block it reserved, so the mark stays above the counter.
+     *
+     * @return the value of the counter, or null when memcache is not available.
+     */
+    private static Long seedCounter(final Key<Conference> conferenceKey) {
+        Long start = ofy().transact(new Work<Long>() {
+            @Override
+            public Long run() {
+                WaitingRoom room = ofy().load().key(WaitingRoom.key(conferenceKey)).now();
+                if (room == null) {
+                    return null;
+                }
+                long start = room.reserveFrom(RESERVE_BLOCK);
+                ofy().save().entity(room).now();
+                return start;
+            }
+        });
+        InstanceCache.invalidateWaitingRoom(conferenceKey);
+        if (start == null) {
+            return null;
+        }
+        LOG.info("Restarting the position counter of " + conferenceKey.getString() + " at "
+                + start);
+        MemcacheService memcacheService =
+                MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE);
+        memcacheService.put(counterKey(conferenceKey), start, null,
+                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        Object counter = memcacheService.get(counterKey(conferenceKey));
+        return counter == null ? null : ((Number) counter).longValue();
+    }
+
+    private static void enqueueDispatch(Key<Conference> conferenceKey, long tick) {
+        QueueFactory.getDefaultQueue().add(ofy().getTransaction(),
+                TaskOptions.Builder.withUrl(DISPATCH_URL)
+                        .countdownMillis(DISPATCH_INTERVAL_MILLIS)
+                        .param("websafeConferenceKey", conferenceKey.getString())
+                        .param("tick", String.valueOf(tick)));
+    }
+
+    /**
+     * Starts the dispatch again after the Conference gave back seats, when its waiting room
+     * stopped because it was sold out. Call it once the seats are committed.
+     *
+     * @param conferenceKey the key of the Conference.
+     */
+    public static void resume(final Key<Conference> conferenceKey) {
+        WaitingRoom room = ofy().load().key(WaitingRoom.key(conferenceKey)).now();
+        if (room == null || !room.isEnabled() || room.isDispatching()) {
+            return;
+        }
+        boolean resumed = ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                WaitingRoom room = ofy().load().key(WaitingRoom.key(conferenceKey)).now();
+                if (room == null || !room.resume()) {
+                    return false;
+                }
+                ofy().save().entity(room).now();
+                enqueueDispatch(conferenceKey, room.getTick());
+                return true;
+            }
+        });
+        if (resumed) {
+            LOG.info("Resuming the dispatch of " + conferenceKey.getString());
+            InstanceCache.invalidateWaitingRoom(conferenceKey);
+        }
+    }
+
+    /**
+     * Admits the next users of a waiting room and enqueues the next dispatch.
+     *
+     * The users admitted that have not taken a seat yet are subtracted from the seats left.
+     * When the Conference is sold out the run stops, resume starts it again. A task of an
+     * older run, or a retried one, carries an older tick and does nothing.
+     *
+     * @param websafeConferenceKey the String representation of the Conference Key.
+     * @param tick the tick of the room when the task was enqueued.
+     * @return the number of users admitted.
+     */
+    public static long dispatch(String websafeConferenceKey, final long tick) {
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Object counter = MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE)
+                .get(counterKey(conferenceKey));
+        // A lost counter is seeded again: the positions up to the mark may all be held.
+        Long counted = counter == null ? seedCounter(conferenceKey)
+                : Long.valueOf(((Number) counter).longValue());
+        // Without memcache, admit keeps the positions the dispatcher has seen.
+        final long issued = counted == null ? 0 : counted;
+        long admitted = ofy().transact(new Work<Long>() {
+            @Override
+            public Long run() {
+                WaitingRoom room = ofy().load().key(WaitingRoom.key(conferenceKey)).now();
+                if (room == null || !room.isEnabled() || room.getTick() != tick) {
+                    return -1L;
+                }
+                Conference conference = ofy().load().key(conferenceKey).now();
+                long seats = conference == null ? 0 : Math.max(0, conference.getSeatsAvailable());
+                long now = System.currentTimeMillis();
+                long outstanding = room.outstanding(seats, now);
+                if (seats == 0) {
+                    room.stop();
+                    ofy().save().entity(room).now();
+                    return -1L;
+                }
+                long perDispatch = (room.getAdmitPerMinute() * DISPATCH_INTERVAL_MILLIS
+                        + TimeUnit.MINUTES.toMillis(1) - 1) / TimeUnit.MINUTES.toMillis(1);
+                long before = room.getAdmitted();
+                room.admit(issued, Math.max(0, Math.min(perDispatch, seats - outstanding)), now);
+                ofy().save().entity(room).now();
+                enqueueDispatch(conferenceKey, room.getTick());
+                return room.getAdmitted() - before;
+            }
+        });
+        InstanceCache.invalidateWaitingRoom(conferenceKey);
+        if (admitted < 0) {
+            LOG.info("Stopping the dispatch of " + websafeConferenceKey + " at tick " + tick);
+            return 0;
+        }
+        return admitted;
+    }
+}
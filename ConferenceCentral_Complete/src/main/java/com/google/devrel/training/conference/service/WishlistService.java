@@ -0,0 +1,161 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.ChangeRecord.ChangeType;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.WishlistEntry;
+import com.google.devrel.training.conference.domain.WishlistSnapshot;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Stores the wishlists as an append-only log of WishlistEntries plus a compacted
+ * WishlistSnapshot.
+ *
+ * A change is a single small put, so it costs the same whatever the size of the wishlist and it
+ * never conflicts with another change. The reads merge the snapshot with the entries written
+ * since the last compaction. Everything lives in the user's entity group, so both the reads and
+ * the compaction see a consistent view.
+ */
+public class WishlistService {
+
+    private static final Logger LOG = Logger.getLogger(WishlistService.class.getName());
+
+    public static final String COMPACT_URL = "/tasks/compact_wishlist";
+
+    /**
+     * How long the compactor waits after a change, so that it folds a burst of changes at once.
+     */
+    private static final long COMPACTION_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Appends a change to the user's wishlist and schedules a compaction.
+     *
+     * @param userId the id of the user.
+     * @param websafeSessionKey the String representation of the Session Key.
+     * @param added true when the Session is added, false when it is removed.
+     */
+    public static void append(final String userId, final String websafeSessionKey,
+                              final boolean added) {
+        final Key<Profile> profileKey = Key.create(Profile.class, userId);
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                ofy().save().entity(new WishlistEntry(profileKey, websafeSessionKey, added))
+                        .now();
+                ChangeFeed.record(profileKey,
+                        added ? ChangeType.WISHLIST_ADDED : ChangeType.WISHLIST_REMOVED,
+                        websafeSessionKey, conferenceOf(websafeSessionKey), userId);
+            }
+        });
+        scheduleCompaction(userId);
+    }
+
+    /**
+     * Returns the websafe key of the Conference of a Session, or null when the key is not valid.
+     */
+    private static String conferenceOf(String websafeSessionKey) {
+        try {
+            Key<?> conferenceKey = Key.create(websafeSessionKey).getParent();
+            return conferenceKey == null ? null : conferenceKey.getString();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the Session keys in the user's wishlist: the snapshot merged with the tail of
+     * the log.
+     *
+     * @param userId the id of the user.
+     * @return the websafe Session keys in the order they were added.
+     */
+    public static List<String> read(String userId) {
+        Key<Profile> profileKey = Key.create(Profile.class, userId);
+        return new ArrayList<>(fold(profileKey, loadTail(profileKey)));
+    }
+
+    /**
+     * Folds the log into the snapshot and deletes the folded entries.
+     *
+     * @param userId the id of the user.
+     */
+    public static void compact(String userId) {
+        final Key<Profile> profileKey = Key.create(Profile.class, userId);
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                List<WishlistEntry> tail = loadTail(profileKey);
+                if (tail.isEmpty()) {
+                    return;
+                }
+                Set<String> sessionKeys = fold(profileKey, tail);
+                ofy().save().entity(new WishlistSnapshot(profileKey, sessionKeys)).now();
+                ofy().delete().entities(tail).now();
+                LOG.info("Compacted " + tail.size() + " wishlist entries of " + profileKey);
+            }
+        });
+    }
+
+    private static List<WishlistEntry> loadTail(Key<Profile> profileKey) {
+        List<WishlistEntry> tail = new ArrayList<>(
+                ofy().load().type(WishlistEntry.class).ancestor(profileKey).list());
+        Collections.sort(tail, WishlistEntry.BY_CREATION);
+        return tail;
+    }
+
+    /**
+     * Applies the entries of the tail, in order, on top of the snapshot.
+     */
+    private static Set<String> fold(Key<Profile> profileKey, List<WishlistEntry> tail) {
+        Set<String> sessionKeys = new LinkedHashSet<>();
+        WishlistSnapshot snapshot = ofy().load().key(WishlistSnapshot.key(profileKey)).now();
+        if (snapshot != null) {
+            sessionKeys.addAll(snapshot.getSessionKeys());
+        } else {
+            // Not compacted yet, start from the wishlist stored in the Profile before the log.
+            Profile profile = ofy().load().key(profileKey).now();
+            if (profile != null) {
+                sessionKeys.addAll(profile.getSessionKeysWishListWebsafe());
+            }
+        }
+        for (WishlistEntry entry : tail) {
+            if (entry.isAdded()) {
+                sessionKeys.add(entry.getWebsafeSessionKey());
+            } else {
+                sessionKeys.remove(entry.getWebsafeSessionKey());
+            }
+        }
+        return sessionKeys;
+    }
+
+    /**
+     * Enqueues a compaction of the user's wishlist, at most one per user and delay window.
+     */
+    private static void scheduleCompaction(String userId) {
+        long window = System.currentTimeMillis() / COMPACTION_DELAY_MILLIS;
+        Queue queue = QueueFactory.getDefaultQueue();
+        try {
+            queue.add(TaskOptions.Builder.withUrl(COMPACT_URL)
+                    .taskName("compact-wishlist-" + userId.replaceAll("[^a-zA-Z0-9_-]", "_")
+                            + "-" + window)
+                    .countdownMillis(COMPACTION_DELAY_MILLIS)
+                    .param("userId", userId));
+        } catch (TaskAlreadyExistsException e) {
+            // A compaction is already scheduled for this window.
+        }
+    }
+}
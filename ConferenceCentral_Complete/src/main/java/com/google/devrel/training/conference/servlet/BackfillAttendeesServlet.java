@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.AttendeeIndex;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for indexing the existing registrations by Conference, one chunk of Profiles per
+ * request. Start it with a POST without a cursor.
+ */
+public class BackfillAttendeesServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        AttendeeIndex.backfill(request.getParameter("cursor"));
+        response.setStatus(204);
+    }
+}
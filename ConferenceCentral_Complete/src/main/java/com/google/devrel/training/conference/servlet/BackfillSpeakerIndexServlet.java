@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.SpeakerIndex;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for indexing the existing Sessions in the speaker index, one chunk per
+ * request. Start it with a POST without a cursor.
+ */
+public class BackfillSpeakerIndexServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        SpeakerIndex.backfill(request.getParameter("cursor"));
+        response.setStatus(204);
+    }
+}
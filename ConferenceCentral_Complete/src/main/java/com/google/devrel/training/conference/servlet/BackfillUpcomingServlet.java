@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.UpcomingConferences;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for adding the existing Conferences to the upcoming conferences, one chunk per
+ * request. Start it with a POST without a cursor.
+ */
+public class BackfillUpcomingServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        UpcomingConferences.backfill(request.getParameter("cursor"));
+        response.setStatus(204);
+    }
+}
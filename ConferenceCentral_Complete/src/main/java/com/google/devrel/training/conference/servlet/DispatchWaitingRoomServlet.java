@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.WaitingRooms;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for admitting the next users of a waiting room.
+ */
+public class DispatchWaitingRoomServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        WaitingRooms.dispatch(request.getParameter("websafeConferenceKey"),
+                Long.parseLong(request.getParameter("tick")));
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,62 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.EntityVersions;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A filter that records the versions of the entities saved by a request, see
+ * EntityVersions.flush.
+ *
+ * They are recorded right before the body gets written, so that the next request of the client
+ * already finds them, and at the end of the request for what was committed afterwards. It is
+ * mapped before the ObjectifyFilter, which completes the pending saves.
+ */
+public class EntityVersionsFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {}
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        try {
+            chain.doFilter(request, new FlushingResponse((HttpServletResponse) response));
+        } finally {
+            EntityVersions.flush();
+        }
+    }
+
+    @Override
+    public void destroy() {}
+
+    private static class FlushingResponse extends HttpServletResponseWrapper {
+
+        private FlushingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            EntityVersions.flush();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            EntityVersions.flush();
+            return super.getWriter();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.EntityVersions;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A filter that adds the ETag header set by the API methods to their responses.
+ *
+ * The API methods can't touch the response, so they leave the ETag in a request attribute and
+ * this filter copies it to the header right before the body gets written.
+ */
+public class EtagFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {}
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        chain.doFilter(request, new EtagResponse((HttpServletRequest) request,
+                (HttpServletResponse) response));
+    }
+
+    @Override
+    public void destroy() {}
+
+    private static class EtagResponse extends HttpServletResponseWrapper {
+
+        private final HttpServletRequest request;
+
+        private EtagResponse(HttpServletRequest request, HttpServletResponse response) {
+            super(response);
+            this.request = request;
+        }
+
+        private void addEtag() {
+            Object etag = request.getAttribute(EntityVersions.ETAG_ATTRIBUTE);
+            if (etag != null && !isCommitted()) {
+                setHeader("ETag", etag.toString());
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addEtag();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addEtag();
+            return super.getWriter();
+        }
+    }
+}
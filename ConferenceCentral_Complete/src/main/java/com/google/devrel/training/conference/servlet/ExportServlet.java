@@ -0,0 +1,112 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.oauth.OAuthRequestException;
+import com.google.appengine.api.oauth.OAuthServiceFactory;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ExportJob.Format;
+import com.google.devrel.training.conference.domain.ExportJob.Kind;
+import com.google.devrel.training.conference.service.ExportService;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet streaming the export of the attendees or the sessions of a Conference to its
+ * organizer.
+ *
+ * The parameters are websafeConferenceKey, kind (attendees or sessions), format (csv or json)
+ * and cursor. The response is gzipped when the client accepts it. When the export doesn't fit
+ * in the time of a request, it ends with a resume line holding the cursor to send back for the
+ * rest; the larger exports are better started in the background with the startExport API.
+ */
+public class ExportServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        long deadline = System.currentTimeMillis() + ExportService.getRequestMillis();
+        User user = getCurrentUser();
+        if (user == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Authorization required");
+            return;
+        }
+        Key<Conference> conferenceKey;
+        Kind kind;
+        Format format;
+        String cursor = request.getParameter("cursor");
+        try {
+            conferenceKey = Key.create(request.getParameter("websafeConferenceKey"));
+            kind = Kind.valueOf(parameter(request, "kind", "attendees").toUpperCase());
+            format = Format.valueOf(parameter(request, "format", "csv").toUpperCase());
+            if (cursor != null) {
+                Cursor.fromWebSafeString(cursor);
+            }
+        } catch (RuntimeException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid export parameters");
+            return;
+        }
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No Conference found");
+            return;
+        }
+        if (!conference.getOrganizerUserId().equals(ConferenceApi.getUserId(user))) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN,
+                    "Only the organizer can export the conference.");
+            return;
+        }
+
+        response.setContentType(format.getContentType() + "; charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\""
+                + kind.name().toLowerCase() + "." + format.getExtension() + "\"");
+        OutputStream out = response.getOutputStream();
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            // Sync flush, so that every chunk goes out as soon as it is written.
+            out = new GZIPOutputStream(out, 8192, true);
+        }
+        ExportService.Progress progress = ExportService.write(conferenceKey, kind, format,
+                cursor, out, deadline);
+        if (progress.getCursor() != null) {
+            ExportService.writeResume(format, progress.getCursor(), out);
+        }
+        out.close();
+    }
+
+    private static String parameter(HttpServletRequest request, String name,
+                                    String defaultValue) {
+        String value = request.getParameter(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Returns the user of an OAuth request, as the API clients send, or the signed in user.
+     */
+    private static User getCurrentUser() {
+        try {
+            User user = OAuthServiceFactory.getOAuthService().getCurrentUser(
+                    Constants.EMAIL_SCOPE);
+            if (user != null) {
+                return user;
+            }
+        } catch (OAuthRequestException e) {
+            // Not an OAuth request.
+        }
+        return UserServiceFactory.getUserService().getCurrentUser();
+    }
+}
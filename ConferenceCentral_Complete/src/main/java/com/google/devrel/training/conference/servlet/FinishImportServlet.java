@@ -0,0 +1,25 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ConferenceImporter;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for completing a bulk import once all its chunks are done.
+ */
+public class FinishImportServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String attempt = request.getParameter("attempt");
+        ConferenceImporter.finish(Long.parseLong(request.getParameter("jobId")),
+                attempt == null ? 1 : Integer.parseInt(attempt));
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,31 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.IndexAdvisor;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for adding the query counts of an instance to the shared ones of the IndexAdvisor.
+ */
+public class FlushQueryShapesServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String[] shapes = request.getParameterValues("shape");
+        String[] counts = request.getParameterValues("count");
+        Map<String, Long> byShape = new HashMap<>();
+        for (int i = 0; shapes != null && i < shapes.length; i++) {
+            byShape.put(shapes[i], Long.parseLong(counts[i]));
+        }
+        IndexAdvisor.addCounts(byShape);
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ConferenceImporter;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for importing one chunk of a bulk import.
+ */
+public class ImportChunkServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        ConferenceImporter.importChunk(Long.parseLong(request.getParameter("jobId")),
+                Long.parseLong(request.getParameter("index")));
+        response.setStatus(204);
+    }
+}
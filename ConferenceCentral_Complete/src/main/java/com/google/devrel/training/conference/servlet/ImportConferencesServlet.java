@@ -0,0 +1,74 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.devrel.training.conference.domain.ExportJob.Format;
+import com.google.devrel.training.conference.domain.ImportJob;
+import com.google.devrel.training.conference.service.ConferenceImporter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * An admin servlet for importing conferences in bulk.
+ *
+ * POST the upload as the body, with the parameters format (csv or json) and notify (false to
+ * send no email at all). GET with the id of the import returns its progress.
+ */
+public class ImportConferencesServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Format format;
+        try {
+            String value = request.getParameter("format");
+            format = Format.valueOf(value == null ? "CSV" : value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid format");
+            return;
+        }
+        if (request.getCharacterEncoding() == null) {
+            request.setCharacterEncoding("UTF-8");
+        }
+        ImportJob job = ConferenceImporter.upload(
+                UserServiceFactory.getUserService().getCurrentUser().getUserId(),
+                request.getReader(), format, !"false".equals(request.getParameter("notify")));
+        writeStatus(job, response);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        ImportJob job;
+        try {
+            job = ConferenceImporter.getStatus(Long.parseLong(request.getParameter("id")));
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid id");
+            return;
+        }
+        if (job == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No such import");
+            return;
+        }
+        writeStatus(job, response);
+    }
+
+    private static void writeStatus(ImportJob job, HttpServletResponse response)
+            throws IOException {
+        response.setContentType("text/plain; charset=UTF-8");
+        PrintWriter writer = response.getWriter();
+        writer.println("id: " + job.getId());
+        writer.println("done: " + job.isDone());
+        writer.println("chunks: " + job.getChunksDone() + "/" + job.getChunks());
+        writer.println("imported: " + job.getImported());
+        writer.println("failed: " + (job.getRejected() + job.getFailed()));
+        for (String error : job.getErrors()) {
+            writer.println(error);
+        }
+    }
+}
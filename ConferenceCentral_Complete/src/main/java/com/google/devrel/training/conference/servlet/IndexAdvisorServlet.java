@@ -0,0 +1,82 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.DatastoreIndex;
+import com.google.devrel.training.conference.service.IndexAdvisor;
+import com.google.devrel.training.conference.service.QueryShape;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * An admin servlet for the IndexAdvisor, on the datastore-indexes.xml deployed with the app.
+ *
+ * GET reports the indexes to keep, prune and add with their estimated rows per entity, and the
+ * queries that would lose index support; with format=xml, it returns the pruned
+ * datastore-indexes.xml instead. The shapes not seen for "days" days (30 by default) are
+ * ignored, and the ones seen fewer than "minCount" times (10 by default) do not keep their
+ * indexes.
+ */
+public class IndexAdvisorServlet extends HttpServlet {
+
+    private static final String INDEXES_PATH = "/WEB-INF/datastore-indexes.xml";
+
+    private static final int DEFAULT_DAYS = 30;
+
+    private static final int DEFAULT_MIN_COUNT = 10;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        int days;
+        int minCount;
+        try {
+            days = intParameter(request, "days", DEFAULT_DAYS);
+            minCount = intParameter(request, "minCount", DEFAULT_MIN_COUNT);
+        } catch (NumberFormatException e) {
+            response.sendError(400, "days and minCount must be numbers");
+            return;
+        }
+        List<DatastoreIndex> current;
+        try (InputStream in = getServletContext().getResourceAsStream(INDEXES_PATH)) {
+            if (in == null) {
+                response.sendError(404, "No " + INDEXES_PATH);
+                return;
+            }
+            current = IndexAdvisor.parseIndexes(in);
+        }
+
+        // The counts of this instance are included.
+        IndexAdvisor.flush();
+        Map<QueryShape, Long> usage = IndexAdvisor.loadUsage(days);
+        Map<String, Map<String, Double>> valuesPerProperty = new HashMap<>();
+        for (DatastoreIndex index : current) {
+            if (!valuesPerProperty.containsKey(index.getKind())) {
+                valuesPerProperty.put(index.getKind(),
+                        IndexAdvisor.sampleValuesPerProperty(index.getKind()));
+            }
+        }
+        IndexAdvisor.Advice advice = IndexAdvisor.advise(current, usage, minCount,
+                valuesPerProperty);
+
+        if ("xml".equals(request.getParameter("format"))) {
+            response.setContentType("text/xml; charset=UTF-8");
+            response.getWriter().print(advice.toXml());
+        } else {
+            response.setContentType("text/plain; charset=UTF-8");
+            response.getWriter().print(advice.toReport());
+        }
+    }
+
+    private static int intParameter(HttpServletRequest request, String name, int defaultValue) {
+        String value = request.getParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
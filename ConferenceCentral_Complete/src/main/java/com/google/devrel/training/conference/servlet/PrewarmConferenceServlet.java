@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Prewarmer;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for warming the caches before a registration opening.
+ */
+public class PrewarmConferenceServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Prewarmer.warm(request.getParameter("websafeConferenceKey"),
+                Long.parseLong(request.getParameter("opensAt")));
+        response.setStatus(204);
+    }
+}
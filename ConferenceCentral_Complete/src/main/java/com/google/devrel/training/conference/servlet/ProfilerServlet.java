@@ -0,0 +1,94 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.common.io.Files;
+import com.google.devrel.training.conference.domain.EndpointStats;
+import com.google.devrel.training.conference.service.EndpointProfiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * An admin servlet for the EndpointProfiler of the instance that serves it, next to Appstats.
+ *
+ * POST starts a profile of "seconds" seconds (60 by default) sampling "percent" percent of the
+ * calls (1 by default), with a flight recording when "jfr" is true; with action=stop it stops
+ * the running one. GET lists the statistics of the last profile by API method, the most
+ * allocating first; with download=jfr it returns its flight recording once it is over.
+ *
+ * The instance is chosen by App Engine, target one with its instance id in the host name to
+ * read the profile it started.
+ */
+public class ProfilerServlet extends HttpServlet {
+
+    private static final int DEFAULT_SECONDS = 60;
+
+    private static final int DEFAULT_PERCENT = 1;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if ("jfr".equals(request.getParameter("download"))) {
+            File recording = EndpointProfiler.getRecording();
+            if (recording == null) {
+                response.sendError(404, "No finished flight recording on this instance");
+                return;
+            }
+            response.setContentType("application/octet-stream");
+            response.setHeader("Content-Disposition",
+                    "attachment; filename=\"" + recording.getName() + "\"");
+            Files.copy(recording, response.getOutputStream());
+            return;
+        }
+        response.setContentType("text/plain; charset=UTF-8");
+        PrintWriter writer = response.getWriter();
+        writer.println(EndpointProfiler.getStatus());
+        writer.println();
+        writer.println(String.format("%-40s %8s %8s %8s %14s %14s", "method", "calls",
+                "avg ms", "max ms", "avg bytes", "max bytes"));
+        for (EndpointStats stats : EndpointProfiler.getStats()) {
+            writer.println(String.format("%-40s %8d %8d %8d %14d %14d", stats.getMethod(),
+                    stats.getCalls(), stats.getAverageMillis(), stats.getMaxMillis(),
+                    stats.getAverageAllocatedBytes(), stats.getMaxAllocatedBytes()));
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if ("stop".equals(request.getParameter("action"))) {
+            EndpointProfiler.stop();
+            response.setStatus(204);
+            return;
+        }
+        int seconds;
+        int percent;
+        try {
+            seconds = intParameter(request, "seconds", DEFAULT_SECONDS);
+            percent = intParameter(request, "percent", DEFAULT_PERCENT);
+        } catch (NumberFormatException e) {
+            response.sendError(400, "seconds and percent must be numbers");
+            return;
+        }
+        String status;
+        try {
+            status = EndpointProfiler.start(seconds, percent,
+                    Boolean.parseBoolean(request.getParameter("jfr")));
+        } catch (IllegalStateException e) {
+            response.sendError(409, e.getMessage());
+            return;
+        }
+        response.setContentType("text/plain; charset=UTF-8");
+        response.getWriter().println(status);
+    }
+
+    private static int intParameter(HttpServletRequest request, String name, int defaultValue) {
+        String value = request.getParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,44 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.EndpointProfiler;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * A filter that measures the calls to the API methods sampled by the EndpointProfiler.
+ *
+ * The calls arrive at /_ah/spi/{service class}.{method}; without a running profile, the
+ * filter costs a volatile read.
+ */
+public class ProfilingFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {}
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        EndpointProfiler.Sample sample = EndpointProfiler.begin();
+        if (sample == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            String path = ((HttpServletRequest) request).getRequestURI();
+            EndpointProfiler.end(sample, path.substring(path.lastIndexOf('.') + 1));
+        }
+    }
+
+    @Override
+    public void destroy() {}
+}
@@ -0,0 +1,45 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.QueryShapeStats;
+import com.google.devrel.training.conference.service.QueryLog;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * An admin servlet for the slow-query log of the instance that serves it.
+ *
+ * GET lists the statistics of each shape of conference query, the most time consuming first,
+ * with a * in front of the flagged ones. POST drops them.
+ */
+public class QueryLogServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain; charset=UTF-8");
+        PrintWriter writer = response.getWriter();
+        writer.println(String.format("  %-40s %-9s %8s %6s %8s %8s %8s %8s %10s", "shape",
+                "mode", "queries", "slow", "avg ms", "max ms", "avg res", "max res",
+                "loaded"));
+        for (QueryShapeStats stats : QueryLog.getStats()) {
+            writer.println(String.format("%s %-40s %-9s %8d %6d %8d %8d %8d %8d %10d",
+                    stats.isFlagged() ? "*" : " ", stats.getShape(), stats.getMode(),
+                    stats.getCount(), stats.getSlowCount(), stats.getAverageMillis(),
+                    stats.getMaxMillis(), stats.getAverageResults(), stats.getMaxResults(),
+                    stats.getEntitiesLoaded()));
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        QueryLog.reset();
+        response.setStatus(204);
+    }
+}
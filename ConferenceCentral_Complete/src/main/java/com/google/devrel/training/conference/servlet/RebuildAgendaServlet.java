@@ -0,0 +1,29 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.AgendaService;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for rebuilding the materialized agenda of a conference, or for fanning out the
+ * rebuilds of the agendas that show a Profile.
+ */
+public class RebuildAgendaServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String websafeProfileKey = request.getParameter("websafeProfileKey");
+        if (websafeProfileKey != null) {
+            AgendaService.scheduleRebuildsForProfile(websafeProfileKey);
+        } else {
+            AgendaService.rebuild(request.getParameter("websafeConferenceKey"));
+        }
+        response.setStatus(204);
+    }
+}
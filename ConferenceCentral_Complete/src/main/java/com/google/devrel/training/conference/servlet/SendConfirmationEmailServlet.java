@@ -33,7 +33,13 @@ public class SendConfirmationEmailServlet extends HttpServlet {
         String conferenceInfo = request.getParameter("conferenceInfo");
         Properties props = new Properties();
         Session session = Session.getDefaultInstance(props, null);
-        String body = "Hi, you have created a following conference.\n" + conferenceInfo;
+        // Set by the bulk imports, which send one summary per organizer.
+        String count = request.getParameter("count");
+        String subject = count == null ? "You created a new Conference!"
+                : String.format("%s Conferences were imported for you!", count);
+        String body = count == null
+                ? "Hi, you have created a following conference.\n" + conferenceInfo
+                : "Hi, the following conferences were imported for you.\n" + conferenceInfo;
         try {
             Message message = new MimeMessage(session);
             InternetAddress from = new InternetAddress(
@@ -41,7 +47,7 @@ public class SendConfirmationEmailServlet extends HttpServlet {
                             SystemProperty.applicationId.get()), "Conference Central");
             message.setFrom(from);
             message.addRecipient(Message.RecipientType.TO, new InternetAddress(email, ""));
-            message.setSubject("You created a new Conference!");
+            message.setSubject(subject);
             message.setText(body);
             Transport.send(message);
         } catch (MessagingException e) {
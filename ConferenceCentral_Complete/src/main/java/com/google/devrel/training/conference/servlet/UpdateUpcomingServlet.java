@@ -0,0 +1,26 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.UpcomingConferences;
+
+import java.io.IOException;
+import java.util.Date;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for putting a created or updated Conference in the upcoming conferences.
+ */
+public class UpdateUpcomingServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String previousStartDate = request.getParameter("previousStartDate");
+        UpcomingConferences.put(request.getParameter("websafeConferenceKey"),
+                previousStartDate == null ? null : new Date(Long.parseLong(previousStartDate)));
+        response.setStatus(204);
+    }
+}
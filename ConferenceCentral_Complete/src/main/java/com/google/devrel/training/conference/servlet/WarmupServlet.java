@@ -0,0 +1,72 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+
+import com.google.api.server.spi.ConfiguredObjectMapper;
+import com.google.api.server.spi.config.ApiSerializationConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.service.InstanceCache;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The warmup request of a new instance, sent by App Engine before it routes user requests to
+ * it.
+ *
+ * The Endpoints SystemServiceServlet is loaded on startup, so its API configuration is built
+ * before this runs. Here we pay for the Objectify registration, fill the InstanceCache and
+ * serialize one of the Conferences loaded, which builds the JSON serializers of Conference and
+ * its ConferenceView. The API declares no transformers of its own, so Endpoints serializes its
+ * responses with the object mapper cached for an empty configuration, the one used here. The
+ * time of each step is logged, so that the cold starts can be tracked in the logs.
+ */
+public class WarmupServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(WarmupServlet.class.getName());
+
+    /**
+     * When this class was loaded, close to when the instance started.
+     */
+    private static final long LOADED_AT = System.currentTimeMillis();
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        long start = System.currentTimeMillis();
+
+        // The first use of OfyService registers all the entities.
+        factory().getMetadata(Conference.class);
+        factory().getMetadata(Profile.class);
+        factory().getMetadata(Session.class);
+        long objectifyMillis = System.currentTimeMillis() - start;
+
+        long cachesStart = System.currentTimeMillis();
+        Collection<Conference> conferences = InstanceCache.prefill();
+        long cachesMillis = System.currentTimeMillis() - cachesStart;
+
+        long serializersStart = System.currentTimeMillis();
+        if (!conferences.isEmpty()) {
+            ConfiguredObjectMapper.builder().apiSerializationConfig(new ApiSerializationConfig())
+                    .build().writer().writeValueAsString(conferences.iterator().next());
+        }
+        long serializersMillis = System.currentTimeMillis() - serializersStart;
+
+        long end = System.currentTimeMillis();
+        String report = "Warmup done in " + (end - start) + " ms, " + (end - LOADED_AT)
+                + " ms since the instance started: objectify " + objectifyMillis
+                + " ms, caches " + cachesMillis + " ms (" + conferences.size()
+                + " conferences), serializers " + serializersMillis + " ms";
+        LOG.info(report);
+        response.setContentType("text/plain");
+        response.getWriter().println(report);
+    }
+}
@@ -3,9 +3,12 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.factory;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 
+import com.google.api.server.spi.ServiceException;
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
@@ -19,23 +22,52 @@ import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.users.User;
 import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.*;
+import com.google.devrel.training.conference.domain.ChangeRecord.ChangeType;
+import com.google.devrel.training.conference.form.BatchForm;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
 import com.google.devrel.training.conference.form.SessionForm;
+import com.google.devrel.training.conference.service.AdmissionControl;
+import com.google.devrel.training.conference.service.AgendaService;
+import com.google.devrel.training.conference.service.AttendanceAnalytics;
+import com.google.devrel.training.conference.service.AttendeeIndex;
+import com.google.devrel.training.conference.service.ChangeFeed;
+import com.google.devrel.training.conference.service.ConferenceQueries;
+import com.google.devrel.training.conference.service.EntityVersions;
+import com.google.devrel.training.conference.service.ExportService;
+import com.google.devrel.training.conference.service.FeaturedSpeakerService;
+import com.google.devrel.training.conference.service.IdempotencyKeys;
+import com.google.devrel.training.conference.service.IndexAdvisor;
+import com.google.devrel.training.conference.service.InstanceCache;
+import com.google.devrel.training.conference.service.QueryShape;
+import com.google.devrel.training.conference.service.SeatHolds;
+import com.google.devrel.training.conference.service.SessionDateIndex;
+import com.google.devrel.training.conference.service.SpeakerIndex;
+import com.google.devrel.training.conference.service.UpcomingConferences;
+import com.google.devrel.training.conference.service.WaitingRooms;
+import com.google.devrel.training.conference.service.WishlistService;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.inject.Named;
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * Defines conference APIs.
@@ -55,6 +87,66 @@ public class ConferenceApi {
 
     private static final Logger LOG = Logger.getLogger(ConferenceApi.class.getName());
 
+    /**
+     * The maximum number of speakers in a single getSessionsBySpeakers call.
+     */
+    private static final int MAX_SPEAKERS_PER_LOOKUP = 100;
+
+    /**
+     * The maximum number of conferences in a single getFeaturedSpeakers call.
+     */
+    private static final int MAX_CONFERENCES_PER_LOOKUP = 100;
+
+    /**
+     * The maximum number of calls in a single batch.
+     */
+    private static final int MAX_BATCH_CALLS = 20;
+
+    /**
+     * The default and the maximum number of conferences of getUpcomingConferences.
+     */
+    private static final int DEFAULT_UPCOMING_CONFERENCES = 20;
+
+    private static final int MAX_UPCOMING_CONFERENCES = 100;
+
+    /**
+     * The default and the maximum size of a page of getSessionsByDateRange.
+     */
+    private static final int DEFAULT_SESSION_PAGE_SIZE = 50;
+
+    private static final int MAX_SESSION_PAGE_SIZE = 200;
+
+    /**
+     * The default and the maximum size of a page of getConferenceAttendees.
+     */
+    private static final int DEFAULT_ATTENDEE_PAGE_SIZE = 100;
+
+    private static final int MAX_ATTENDEE_PAGE_SIZE = 1000;
+
+    /**
+     * The default and the maximum size of a batch of getChanges.
+     */
+    private static final int DEFAULT_CHANGE_BATCH_SIZE = 100;
+
+    private static final int MAX_CHANGE_BATCH_SIZE = 1000;
+
+    /**
+     * The shapes of the fixed queries, recorded in the IndexAdvisor.
+     */
+    private static final QueryShape CONFERENCES_CREATED_SHAPE = new QueryShape("Conference",
+            true, Collections.<String>emptyList(), null, Collections.singletonList("name"));
+
+    private static final QueryShape SESSIONS_BY_NAME_SHAPE = new QueryShape("Session", true,
+            Collections.<String>emptyList(), null, Collections.singletonList("name"));
+
+    private static final QueryShape SESSIONS_BY_TYPE_SHAPE = new QueryShape("Session", true,
+            Collections.singletonList("sessionType"), null, Collections.<String>emptyList());
+
+    // IN runs one query per value, each an equality.
+    private static final QueryShape SESSIONS_NOT_OF_TYPE_UP_TO_TIME_SHAPE = new QueryShape(
+            "Session", false, Collections.singletonList("sessionType"), "startTime",
+            Collections.<String>emptyList());
+
     private static String extractDefaultDisplayNameFromEmail(String email) {
         return email == null ? null : email.substring(0, email.indexOf("@"));
     }
@@ -78,7 +170,7 @@ public class ConferenceApi {
      * @param user A User object injected by the cloud endpoints.
      * @return the App Engine userId for the user.
      */
-    private static String getUserId(User user) {
+    public static String getUserId(User user) {
         String userId = user.getUserId();
         if (userId == null) {
             LOG.info("userId is null, so trying to obtain it from the datastore.");
@@ -93,6 +185,102 @@ public class ConferenceApi {
         return userId;
     }
 
+    /**
+     * Rejects the request when the caller is over the limit of the given endpoint.
+     *
+     * @param endpoint the endpoint being called.
+     * @param userId the id of the calling user.
+     * @param websafeConferenceKey the String representation of the Conference Key, or null.
+     * @throws TooManyRequestsException when the request is over the limit.
+     */
+    private static void checkAdmission(AdmissionControl.Endpoint endpoint, String userId,
+                                       String websafeConferenceKey)
+            throws TooManyRequestsException {
+        if (!AdmissionControl.tryAdmit(endpoint, userId, websafeConferenceKey)) {
+            throw new TooManyRequestsException("Too many requests, please try again later.");
+        }
+    }
+
+    /**
+     * Returns the key of the idempotency record of a call, null when it has no
+     * Idempotency-Key.
+     *
+     * @throws BadRequestException when the Idempotency-Key is too long.
+     */
+    private static Key<IdempotencyRecord> idempotencyRecordKey(HttpServletRequest request,
+                                                               User user, String method)
+            throws BadRequestException {
+        try {
+            return IdempotencyKeys.recordKey(request, getUserId(user), method);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps the users who are not admitted yet out of a Conference with a waiting room, and
+     * gives them a position when they have none.
+     *
+     * @throws TooManyRequestsException when the user has to wait.
+     */
+    private static void checkWaitingRoom(String userId, String websafeConferenceKey)
+            throws TooManyRequestsException {
+        WaitingRoomStatus status = WaitingRooms.join(Key.<Conference>create(websafeConferenceKey),
+                userId);
+        if (!status.isAdmitted()) {
+            throw new TooManyRequestsException("You are in the waiting room at position "
+                    + status.getPosition() + ", please try again in about "
+                    + status.getEstimatedWaitSeconds() + " seconds.");
+        }
+    }
+
+    /**
+     * Answers a conditional GET with a 304 when the ETag of the client is still current.
+     *
+     * Only the cached version is looked up, so a 304 never costs a datastore read.
+     *
+     * @param request the request injected by the cloud endpoints, may be null.
+     * @param version the current version, null when it is unknown.
+     * @throws NotModifiedException when the client already has this version.
+     */
+    private static void checkNotModified(HttpServletRequest request, Long version)
+            throws NotModifiedException {
+        if (request != null
+                && EntityVersions.matches(request.getHeader("If-None-Match"), version)) {
+            throw new NotModifiedException(EntityVersions.etag(version));
+        }
+    }
+
+    /**
+     * Sets the ETag of the response. The EtagFilter copies it to the header.
+     *
+     * @param request the request injected by the cloud endpoints, may be null.
+     * @param version the version of the response.
+     */
+    private static void setEtag(HttpServletRequest request, long version) {
+        if (request != null) {
+            request.setAttribute(EntityVersions.ETAG_ATTRIBUTE, EntityVersions.etag(version));
+        }
+    }
+
+    /**
+     * Sets the ETag of an entity response and makes sure its version is cached for the next
+     * conditional GET.
+     */
+    private static void setEtag(HttpServletRequest request, Key<?> key, long version) {
+        if (request != null) {
+            if (request.getHeader("If-None-Match") != null) {
+                // The version was probably evicted, put it back.
+                EntityVersions.record(key, version);
+            }
+            setEtag(request, version);
+        }
+    }
+
+    private static String sessionsCollection(String websafeConferenceKey) {
+        return "sessions:" + websafeConferenceKey;
+    }
+
     /**
      * Just a wrapper for Boolean.
      */
@@ -109,6 +297,22 @@ public class ConferenceApi {
         }
     }
 
+    /**
+     * Just a wrapper for Integer.
+     */
+    public static class WrappedInteger {
+
+        private final Integer result;
+
+        public WrappedInteger(Integer result) {
+            this.result = result;
+        }
+
+        public Integer getResult() {
+            return result;
+        }
+    }
+
     /**
      * A wrapper class that can embrace a generic result or some kind of exception.
      *
@@ -171,11 +375,29 @@ public class ConferenceApi {
      * automatically inject the User object.
      *
      * @param user A User object injected by the cloud endpoints.
+     * @param request The request injected by the cloud endpoints, for the If-None-Match header.
      * @return Profile object.
      * @throws UnauthorizedException when the User object is null.
+     * @throws NotModifiedException when the client already has the current Profile.
      */
     @ApiMethod(name = "getProfile", path = "profile", httpMethod = HttpMethod.GET)
-    public Profile getProfile(final User user) throws UnauthorizedException {
+    public Profile getProfile(final User user, HttpServletRequest request)
+            throws UnauthorizedException, NotModifiedException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Key<Profile> profileKey = Key.create(Profile.class, getUserId(user));
+        if (request != null && request.getHeader("If-None-Match") != null) {
+            checkNotModified(request, EntityVersions.lookup(profileKey));
+        }
+        Profile profile = loadProfile(user);
+        if (profile != null) {
+            setEtag(request, profileKey, profile.getVersion());
+        }
+        return profile;
+    }
+
+    private static Profile loadProfile(final User user) throws UnauthorizedException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
@@ -192,30 +414,49 @@ public class ConferenceApi {
      * @param profileForm A ProfileForm object sent from the client form.
      * @return Profile object just created.
      * @throws UnauthorizedException when the User object is null.
+     * @throws TooManyRequestsException when the user is over the limit.
      */
     @ApiMethod(name = "saveProfile", path = "profile", httpMethod = HttpMethod.POST)
     public Profile saveProfile(final User user, final ProfileForm profileForm)
-            throws UnauthorizedException {
+            throws UnauthorizedException, TooManyRequestsException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        String displayName = profileForm.getDisplayName();
-        TeeShirtSize teeShirtSize = profileForm.getTeeShirtSize();
-
-        Profile profile = ofy().load().key(Key.create(Profile.class, getUserId(user))).now();
-        if (profile == null) {
-            // Populate displayName and teeShirtSize with the default values if null.
-            if (displayName == null) {
-                displayName = extractDefaultDisplayNameFromEmail(user.getEmail());
-            }
-            if (teeShirtSize == null) {
-                teeShirtSize = TeeShirtSize.NOT_SPECIFIED;
+        checkAdmission(AdmissionControl.Endpoint.SAVE_PROFILE, getUserId(user), null);
+        final Key<Profile> profileKey = Key.create(Profile.class, getUserId(user));
+        // Loaded in the transaction, so that a registration committed meanwhile isn't lost.
+        Profile profile = ofy().transact(new Work<Profile>() {
+            @Override
+            public Profile run() {
+                String displayName = profileForm.getDisplayName();
+                TeeShirtSize teeShirtSize = profileForm.getTeeShirtSize();
+                Profile profile = ofy().load().key(profileKey).now();
+                boolean displayNameChanged = false;
+                if (profile == null) {
+                    // Populate displayName and teeShirtSize with the default values if null.
+                    if (displayName == null) {
+                        displayName = extractDefaultDisplayNameFromEmail(user.getEmail());
+                    }
+                    if (teeShirtSize == null) {
+                        teeShirtSize = TeeShirtSize.NOT_SPECIFIED;
+                    }
+                    profile = new Profile(getUserId(user), displayName, user.getEmail(),
+                            teeShirtSize);
+                } else {
+                    displayNameChanged = displayName != null
+                            && !displayName.equals(profile.getDisplayName());
+                    profile.update(displayName, teeShirtSize);
+                }
+                ofy().save().entity(profile).now();
+                if (displayNameChanged) {
+                    // The organizer and speaker names are denormalized into the agendas.
+                    AgendaService.scheduleRebuildForProfile(profileKey);
+                }
+                ChangeFeed.record(profileKey, ChangeType.PROFILE_SAVED, profileKey.getString(),
+                        null, profile.getUserId());
+                return profile;
             }
-            profile = new Profile(getUserId(user), displayName, user.getEmail(), teeShirtSize);
-        } else {
-            profile.update(displayName, teeShirtSize);
-        }
-        ofy().save().entity(profile).now();
+        });
         return profile;
     }
 
@@ -224,15 +465,27 @@ public class ConferenceApi {
      *
      * @param user A user who invokes this method, null when the user is not signed in.
      * @param conferenceForm A ConferenceForm object representing user's inputs.
+     * @param request The request injected by the cloud endpoints, for the Idempotency-Key
+     *                header. A retry with the same key returns the Conference created first.
      * @return A newly created Conference Object.
      * @throws UnauthorizedException when the user is not signed in.
+     * @throws TooManyRequestsException when the user is over the limit.
+     * @throws BadRequestException when the Idempotency-Key is too long.
      */
     @ApiMethod(name = "createConference", path = "conference", httpMethod = HttpMethod.POST)
-    public Conference createConference(final User user, final ConferenceForm conferenceForm)
-        throws UnauthorizedException {
+    public Conference createConference(final User user, final ConferenceForm conferenceForm,
+                                       HttpServletRequest request)
+        throws UnauthorizedException, TooManyRequestsException, BadRequestException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        final Key<IdempotencyRecord> recordKey = idempotencyRecordKey(request, user,
+                "createConference");
+        IdempotencyRecord replayed = IdempotencyKeys.find(recordKey);
+        if (replayed != null) {
+            return ofy().load().key(replayed.<Conference>getResultKey()).now();
+        }
+        checkAdmission(AdmissionControl.Endpoint.CREATE_CONFERENCE, getUserId(user), null);
         // Allocate Id first, in order to make the transaction idempotent.
         Key<Profile> profileKey = Key.create(Profile.class, getUserId(user));
         final Key<Conference> conferenceKey = factory().allocateId(profileKey, Conference.class);
@@ -243,15 +496,24 @@ public class ConferenceApi {
         Conference conference = ofy().transact(new Work<Conference>() {
             @Override
             public Conference run() {
+                // A concurrent attempt may have committed since, the record is in this group.
+                IdempotencyRecord replayed = IdempotencyKeys.find(recordKey);
+                if (replayed != null) {
+                    return ofy().load().key(replayed.<Conference>getResultKey()).now();
+                }
                 // Fetch user's Profile.
                 Profile profile = getProfileFromUser(user, userId);
                 Conference conference = new Conference(conferenceId, userId, conferenceForm);
                 // Save Conference and Profile.
                 ofy().save().entities(conference, profile).now();
+                ChangeFeed.record(conferenceKey, ChangeType.CONFERENCE_CREATED,
+                        conferenceKey.getString(), conferenceKey.getString(), userId);
+                UpcomingConferences.schedulePut(conferenceKey.getString(), null);
                 queue.add(ofy().getTransaction(),
                         TaskOptions.Builder.withUrl("/tasks/send_confirmation_email")
                         .param("email", profile.getMainEmail())
                         .param("conferenceInfo", conference.toString()));
+                IdempotencyKeys.save(recordKey, conferenceKey, null);
                 return conference;
             }
         });
@@ -268,6 +530,7 @@ public class ConferenceApi {
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
      * @throws ForbiddenException when the user is not the owner of the Conference.
+     * @throws TooManyRequestsException when the user or the Conference is over the limit.
      */
     @ApiMethod(
             name = "updateConference",
@@ -277,12 +540,14 @@ public class ConferenceApi {
     public Conference updateConference(final User user, final ConferenceForm conferenceForm,
                                        @Named("websafeConferenceKey")
                                        final String websafeConferenceKey)
-            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            TooManyRequestsException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
         final String userId = getUserId(user);
+        checkAdmission(AdmissionControl.Endpoint.UPDATE_CONFERENCE, userId, websafeConferenceKey);
         // Update the conference with the conferenceForm sent from the client.
         // Need a transaction because we need to safely preserve the number of allocated seats.
         TxResult<Conference> result = ofy().transact(new Work<TxResult<Conference>>() {
@@ -303,13 +568,20 @@ public class ConferenceApi {
                     return new TxResult<>(
                             new ForbiddenException("Only the owner can update the conference."));
                 }
+                Date previousStartDate = conference.getStartDate();
                 conference.updateWithConferenceForm(conferenceForm);
                 ofy().save().entity(conference).now();
+                UpcomingConferences.schedulePut(websafeConferenceKey, previousStartDate);
+                ChangeFeed.record(conferenceKey, ChangeType.CONFERENCE_UPDATED,
+                        websafeConferenceKey, websafeConferenceKey, userId);
+                AgendaService.scheduleRebuild(websafeConferenceKey);
                 return new TxResult<>(conference);
             }
         });
         // NotFoundException or ForbiddenException is actually thrown here.
-        return result.getResult();
+        Conference conference = result.getResult();
+        InstanceCache.invalidate(Key.<Conference>create(websafeConferenceKey));
+        return conference;
     }
 
     @ApiMethod(
@@ -317,11 +589,14 @@ public class ConferenceApi {
             path = "announcement",
             httpMethod = HttpMethod.GET
     )
-    public Announcement getAnnouncement() {
-        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-        Object message = memcacheService.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+    public Announcement getAnnouncement(HttpServletRequest request) throws NotModifiedException {
+        String message = InstanceCache.getAnnouncement();
         if (message != null) {
-            return new Announcement(message.toString());
+            // The announcement has no version, its hash is good enough for an ETag.
+            long version = message.hashCode() & 0xffffffffL;
+            checkNotModified(request, version);
+            setEtag(request, version);
+            return new Announcement(message);
         }
         return null;
     }
@@ -330,8 +605,10 @@ public class ConferenceApi {
      * Returns a Conference object with the given conferenceId.
      *
      * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param request The request injected by the cloud endpoints, for the If-None-Match header.
      * @return a Conference object with the given conferenceId.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws NotModifiedException when the client already has the current Conference.
      */
     @ApiMethod(
             name = "getConference",
@@ -339,13 +616,18 @@ public class ConferenceApi {
             httpMethod = HttpMethod.GET
     )
     public Conference getConference(
-            @Named("websafeConferenceKey") final String websafeConferenceKey)
-            throws NotFoundException {
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            HttpServletRequest request)
+            throws NotFoundException, NotModifiedException {
         Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        Conference conference = ofy().load().key(conferenceKey).now();
+        if (request != null && request.getHeader("If-None-Match") != null) {
+            checkNotModified(request, EntityVersions.lookup(conferenceKey));
+        }
+        Conference conference = InstanceCache.getConference(conferenceKey);
         if (conference == null) {
             throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
         }
+        setEtag(request, conferenceKey, conference.getVersion());
         return conference;
     }
 
@@ -384,6 +666,8 @@ public class ConferenceApi {
      *
      * Normally this kind of method is supposed to get invoked by a GET HTTP method,
      * but we do it with POST, in order to receive conferenceQueryForm Object via the POST body.
+     * Some shapes of queries are run keys-only and served from the caches, see
+     * ConferenceQueries.
      *
      * @param conferenceQueryForm A form object representing the query.
      * @return A List of Conferences that match the query.
@@ -394,12 +678,10 @@ public class ConferenceApi {
             httpMethod = HttpMethod.POST
     )
     public List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm) {
-        Iterable<Conference> conferenceIterable = conferenceQueryForm.getQuery();
-        List<Conference> result = new ArrayList<>(0);
-        List<Key<Profile>> organizersKeyList = new ArrayList<>(0);
-        for (Conference conference : conferenceIterable) {
+        List<Conference> result = ConferenceQueries.list(conferenceQueryForm);
+        List<Key<Profile>> organizersKeyList = new ArrayList<>(result.size());
+        for (Conference conference : result) {
             organizersKeyList.add(Key.create(Profile.class, conference.getOrganizerUserId()));
-            result.add(conference);
         }
         // To avoid separate datastore gets for each Conference, pre-fetch the Profiles.
         ofy().load().keys(organizersKeyList);
@@ -425,19 +707,53 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
         String userId = getUserId(user);
+        IndexAdvisor.record(CONFERENCES_CREATED_SHAPE);
         return ofy().load().type(Conference.class)
                 .ancestor(Key.create(Profile.class, userId))
                 .order("name").list();
     }
 
+    /**
+     * Returns the next conferences to start, in start order.
+     *
+     * @param limit The maximum number of conferences, or null for the default.
+     * @return the upcoming Conferences.
+     * @throws BadRequestException when the limit is not valid.
+     */
+    @ApiMethod(
+            name = "getUpcomingConferences",
+            path = "upcomingConferences",
+            httpMethod = HttpMethod.GET
+    )
+    public List<Conference> getUpcomingConferences(
+            @Nullable @Named("limit") final Integer limit) throws BadRequestException {
+        int size = limit == null ? DEFAULT_UPCOMING_CONFERENCES : limit;
+        if (size < 1 || size > MAX_UPCOMING_CONFERENCES) {
+            throw new BadRequestException("The limit must be between 1 and "
+                    + MAX_UPCOMING_CONFERENCES);
+        }
+        List<Key<Conference>> keys = new ArrayList<>();
+        for (ConferenceSummary summary : UpcomingConferences.list(size)) {
+            keys.add(Key.<Conference>create(summary.getWebsafeKey()));
+        }
+        // The values come in the order of the keys.
+        return new ArrayList<>(ofy().load().keys(keys).values());
+    }
+
     /**
      * Registers to the specified Conference.
      *
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param request The request injected by the cloud endpoints, for the Idempotency-Key
+     *                header. A retry with the same key succeeds again instead of failing as
+     *                already registered.
      * @return Boolean true when success, otherwise false
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ConflictException when the registrations are not open or there are no seats.
+     * @throws TooManyRequestsException when the user or the Conference is over the limit.
+     * @throws BadRequestException when the Idempotency-Key is too long.
      */
     @ApiMethod(
             name = "registerForConference",
@@ -446,13 +762,25 @@ public class ConferenceApi {
     )
     public WrappedBoolean registerForConference(final User user,
                                          @Named("websafeConferenceKey")
-                                         final String websafeConferenceKey)
-        throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+                                         final String websafeConferenceKey,
+                                         HttpServletRequest request)
+        throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            TooManyRequestsException, BadRequestException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
         final String userId = getUserId(user);
+        final Key<IdempotencyRecord> recordKey = idempotencyRecordKey(request, user,
+                "registerForConference:" + websafeConferenceKey);
+        IdempotencyRecord replayed = IdempotencyKeys.find(recordKey);
+        if (replayed != null) {
+            return new WrappedBoolean(replayed.getResult());
+        }
+        // Reject the abusive callers before opening a transaction on the Conference group.
+        checkAdmission(AdmissionControl.Endpoint.REGISTER_FOR_CONFERENCE, userId,
+                websafeConferenceKey);
+        checkWaitingRoom(userId, websafeConferenceKey);
         TxResult<Boolean> result = ofy().transact(new Work<TxResult<Boolean>>() {
             @Override
             public TxResult<Boolean> run() {
@@ -463,6 +791,15 @@ public class ConferenceApi {
                     return new TxResult<>(new NotFoundException(
                             "No Conference found with key: " + websafeConferenceKey));
                 }
+                if (!conference.isRegistrationOpen(new Date())) {
+                    return new TxResult<>(new ConflictException(
+                            "The registrations are not open yet."));
+                }
+                // The record is in the group of the Profile, read below.
+                IdempotencyRecord replayed = IdempotencyKeys.find(recordKey);
+                if (replayed != null) {
+                    return new TxResult<>(replayed.getResult());
+                }
                 // Registration happens here.
                 Profile profile = getProfileFromUser(user, userId);
                 if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
@@ -473,12 +810,21 @@ public class ConferenceApi {
                     profile.addToConferenceKeysToAttend(websafeConferenceKey);
                     conference.bookSeats(1);
                     ofy().save().entities(profile, conference).now();
+                    AttendeeIndex.add(conferenceKey, userId);
+                    AttendanceAnalytics.emit(conferenceKey, conference, userId, true);
+                    ChangeFeed.record(conferenceKey, ChangeType.REGISTERED,
+                            websafeConferenceKey, websafeConferenceKey, userId);
+                    IdempotencyKeys.save(recordKey, null, true);
                     return new TxResult<>(true);
                 }
             }
         });
         // NotFoundException is actually thrown here.
-        return new WrappedBoolean(result.getResult());
+        Boolean changed = result.getResult();
+        if (changed) {
+            AttendanceAnalytics.scheduleAggregation(websafeConferenceKey);
+        }
+        return new WrappedBoolean(changed);
     }
 
     /**
@@ -487,9 +833,13 @@ public class ConferenceApi {
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key to unregister
      *                             from.
+     * @param request The request injected by the cloud endpoints, for the Idempotency-Key
+     *                header. A retry with the same key returns the first answer.
      * @return Boolean true when success, otherwise false.
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws TooManyRequestsException when the user or the Conference is over the limit.
+     * @throws BadRequestException when the Idempotency-Key is too long.
      */
     @ApiMethod(
             name = "unregisterFromConference",
@@ -498,13 +848,23 @@ public class ConferenceApi {
     )
     public WrappedBoolean unregisterFromConference(final User user,
                                             @Named("websafeConferenceKey")
-                                            final String websafeConferenceKey)
-            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+                                            final String websafeConferenceKey,
+                                            HttpServletRequest request)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            TooManyRequestsException, BadRequestException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
         final String userId = getUserId(user);
+        final Key<IdempotencyRecord> recordKey = idempotencyRecordKey(request, user,
+                "unregisterFromConference:" + websafeConferenceKey);
+        IdempotencyRecord replayed = IdempotencyKeys.find(recordKey);
+        if (replayed != null) {
+            return new WrappedBoolean(replayed.getResult());
+        }
+        checkAdmission(AdmissionControl.Endpoint.UNREGISTER_FROM_CONFERENCE, userId,
+                websafeConferenceKey);
         TxResult<Boolean> result = ofy().transact(new Work<TxResult<Boolean>>() {
             @Override
             public TxResult<Boolean> run() {
@@ -515,33 +875,597 @@ public class ConferenceApi {
                     return new TxResult<>(new NotFoundException(
                             "No Conference found with key: " + websafeConferenceKey));
                 }
+                IdempotencyRecord replayed = IdempotencyKeys.find(recordKey);
+                if (replayed != null) {
+                    return new TxResult<>(replayed.getResult());
+                }
                 // Un-registering from the Conference.
                 Profile profile = getProfileFromUser(user, userId);
                 if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
                     profile.unregisterFromConference(websafeConferenceKey);
                     conference.giveBackSeats(1);
                     ofy().save().entities(profile, conference).now();
+                    AttendeeIndex.remove(conferenceKey, userId);
+                    AttendanceAnalytics.emit(conferenceKey, conference, userId, false);
+                    ChangeFeed.record(conferenceKey, ChangeType.UNREGISTERED,
+                            websafeConferenceKey, websafeConferenceKey, userId);
+                    IdempotencyKeys.save(recordKey, null, true);
                     return new TxResult<>(true);
                 } else {
+                    IdempotencyKeys.save(recordKey, null, false);
                     return new TxResult<>(false);
                 }
             }
         });
         // NotFoundException is actually thrown here.
+        Boolean changed = result.getResult();
+        if (changed) {
+            AttendanceAnalytics.scheduleAggregation(websafeConferenceKey);
+            WaitingRooms.resume(Key.<Conference>create(websafeConferenceKey));
+        }
+        return new WrappedBoolean(changed);
+    }
+
+    /**
+     * Schedules the opening of the registrations of a Conference. Until then registering and
+     * holding a seat are refused, and shortly before it the caches are warmed for the rush.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param opensAt When the registrations open, or null to open them now.
+     * @return the updated Conference.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     * @throws BadRequestException when the opening is in the past.
+     */
+    @ApiMethod(
+            name = "scheduleRegistrationOpening",
+            path = "conference/{websafeConferenceKey}/registration/schedule",
+            httpMethod = HttpMethod.POST
+    )
+    public Conference scheduleRegistrationOpening(final User user,
+                                                  @Named("websafeConferenceKey")
+                                                  final String websafeConferenceKey,
+                                                  @Nullable @Named("opensAt")
+                                                  final Date opensAt)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            BadRequestException {
+        if (opensAt != null && !opensAt.after(new Date())) {
+            throw new BadRequestException("opensAt must be in the future.");
+        }
+        final Key<Conference> conferenceKey = checkOrganizer(user, websafeConferenceKey);
+        final String userId = getUserId(user);
+        Conference conference = ofy().transact(new Work<Conference>() {
+            @Override
+            public Conference run() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                conference.scheduleRegistrationOpening(opensAt);
+                ofy().save().entity(conference).now();
+                ChangeFeed.record(conferenceKey, ChangeType.CONFERENCE_UPDATED,
+                        websafeConferenceKey, websafeConferenceKey, userId);
+                return conference;
+            }
+        });
+        InstanceCache.invalidate(conferenceKey);
+        return conference;
+    }
+
+    /**
+     * Holds a seat of the specified Conference, the first phase of a two-phase registration.
+     *
+     * Only the Conference group is written: the seat is taken and a SeatHold records it. The
+     * hold must be confirmed with confirmSeatHold before it expires, or the seat is given back.
+     * Holding again extends the hold, without taking another seat, up to its maximum lifetime.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the SeatHold, with its expiry.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     * @throws ConflictException when the registrations are not open, the user is registered,
+     *                           there are no seats available or the hold can not be extended
+     *                           any further.
+     * @throws TooManyRequestsException when the user or the Conference is over the limit.
+     */
+    @ApiMethod(
+            name = "holdSeat",
+            path = "conference/{websafeConferenceKey}/hold",
+            httpMethod = HttpMethod.POST
+    )
+    public SeatHold holdSeat(final User user,
+                             @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            ConflictException, TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        final String userId = getUserId(user);
+        checkAdmission(AdmissionControl.Endpoint.HOLD_SEAT, userId, websafeConferenceKey);
+        checkWaitingRoom(userId, websafeConferenceKey);
+        // The Profile is created out of the transaction, the finalization only updates it.
+        if (ofy().load().key(Key.create(Profile.class, userId)).now() == null) {
+            ofy().save().entity(getProfileFromUser(user, userId)).now();
+        }
+        TxResult<SeatHold> result = ofy().transact(new Work<TxResult<SeatHold>>() {
+            @Override
+            public TxResult<SeatHold> run() {
+                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                Key<SeatHold> holdKey = SeatHold.key(conferenceKey, userId);
+                Key<Attendee> attendeeKey = Attendee.key(conferenceKey, userId);
+                // One batch get, all in the Conference group.
+                List<Key<?>> keys = new ArrayList<>(3);
+                keys.add(conferenceKey);
+                keys.add(holdKey);
+                keys.add(attendeeKey);
+                Map<Key<Object>, Object> loaded = ofy().load().values(keys);
+                Conference conference = (Conference) loaded.get(conferenceKey);
+                SeatHold hold = (SeatHold) loaded.get(holdKey);
+                if (conference == null) {
+                    return new TxResult<>(new NotFoundException(
+                            "No Conference found with key: " + websafeConferenceKey));
+                }
+                if (!conference.isRegistrationOpen(new Date())) {
+                    return new TxResult<>(new ConflictException(
+                            "The registrations are not open yet."));
+                }
+                if (loaded.containsKey(attendeeKey)) {
+                    return new TxResult<>(new ConflictException(
+                            "You have already registered for this conference"));
+                }
+                if (hold != null) {
+                    // Confirmed holds are kept until they are finalized.
+                    if (!hold.isConfirmed()) {
+                        if (!hold.extend(SeatHolds.expiresAt(), SeatHolds.latestExpiry(hold))) {
+                            return new TxResult<>(new ConflictException(
+                                    "The seat hold can not be extended any further,"
+                                            + " confirm it before it expires."));
+                        }
+                        ofy().save().entity(hold).now();
+                    }
+                    return new TxResult<>(hold);
+                }
+                if (conference.getSeatsAvailable() <= 0) {
+                    return new TxResult<>(new ConflictException("There are no seats available."));
+                }
+                conference.bookSeats(1);
+                hold = new SeatHold(conferenceKey, userId, SeatHolds.expiresAt());
+                ofy().save().entities(conference, hold).now();
+                return new TxResult<>(hold);
+            }
+        });
+        // NotFoundException or ConflictException is actually thrown here.
+        return result.getResult();
+    }
+
+    /**
+     * Confirms the seat held in the specified Conference. The registration is finalized by a
+     * task, shortly after.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when the registration is on its way.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when the user holds no seat in the Conference.
+     * @throws ConflictException when the hold has expired.
+     */
+    @ApiMethod(
+            name = "confirmSeatHold",
+            path = "conference/{websafeConferenceKey}/hold/confirm",
+            httpMethod = HttpMethod.POST
+    )
+    public WrappedBoolean confirmSeatHold(final User user,
+                                          @Named("websafeConferenceKey")
+                                          final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            ConflictException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        final Key<SeatHold> holdKey = SeatHold.key(
+                Key.<Conference>create(websafeConferenceKey), getUserId(user));
+        TxResult<Boolean> result = ofy().transact(new Work<TxResult<Boolean>>() {
+            @Override
+            public TxResult<Boolean> run() {
+                SeatHold hold = ofy().load().key(holdKey).now();
+                if (hold == null) {
+                    return new TxResult<>(new NotFoundException(
+                            "You hold no seat in this conference"));
+                }
+                if (hold.isConfirmed()) {
+                    return new TxResult<>(true);
+                }
+                if (hold.isExpired(new Date())) {
+                    return new TxResult<>(new ConflictException("Your seat hold has expired."));
+                }
+                hold.confirm();
+                ofy().save().entity(hold).now();
+                SeatHolds.enqueueFinalize(holdKey);
+                return new TxResult<>(true);
+            }
+        });
         return new WrappedBoolean(result.getResult());
     }
 
+    /**
+     * Enables the waiting room of a Conference, or changes its rate. From then on, the users
+     * have to join it and wait to be admitted before they can register.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param admitPerMinute The number of users admitted per minute, or null for the default.
+     * @return the WaitingRoom.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     * @throws BadRequestException when the rate is not positive.
+     */
+    @ApiMethod(
+            name = "enableWaitingRoom",
+            path = "conference/{websafeConferenceKey}/waitingroom/enable",
+            httpMethod = HttpMethod.POST
+    )
+    public WaitingRoom enableWaitingRoom(final User user,
+                                         @Named("websafeConferenceKey")
+                                         final String websafeConferenceKey,
+                                         @Nullable @Named("admitPerMinute")
+                                         final Integer admitPerMinute)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            BadRequestException {
+        Key<Conference> conferenceKey = checkOrganizer(user, websafeConferenceKey);
+        int rate = admitPerMinute == null ? WaitingRooms.DEFAULT_ADMIT_PER_MINUTE
+                : admitPerMinute;
+        if (rate < 1) {
+            throw new BadRequestException("admitPerMinute must be positive.");
+        }
+        return WaitingRooms.enable(conferenceKey, rate);
+    }
+
+    /**
+     * Disables the waiting room of a Conference, everybody can register again.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     */
+    @ApiMethod(
+            name = "disableWaitingRoom",
+            path = "conference/{websafeConferenceKey}/waitingroom/disable",
+            httpMethod = HttpMethod.POST
+    )
+    public WrappedBoolean disableWaitingRoom(final User user,
+                                             @Named("websafeConferenceKey")
+                                             final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException {
+        WaitingRooms.disable(checkOrganizer(user, websafeConferenceKey));
+        return new WrappedBoolean(true);
+    }
+
+    /**
+     * Joins the waiting room of a Conference, before registering.
+     *
+     * Joining again keeps the position. Without a waiting room the user is admitted at once.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the position of the user and the position admitted so far.
+     * @throws UnauthorizedException when the user is not signed in.
+     */
+    @ApiMethod(
+            name = "joinWaitingRoom",
+            path = "conference/{websafeConferenceKey}/waitingroom",
+            httpMethod = HttpMethod.POST
+    )
+    public WaitingRoomStatus joinWaitingRoom(final User user,
+                                             @Named("websafeConferenceKey")
+                                             final String websafeConferenceKey)
+            throws UnauthorizedException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        return WaitingRooms.join(Key.<Conference>create(websafeConferenceKey), getUserId(user));
+    }
+
+    /**
+     * Returns where the user stands in the waiting room of a Conference, for the clients to
+     * poll until they are admitted. It costs a ticket get at most.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the position of the user and the position admitted so far.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when the user has not joined the waiting room.
+     */
+    @ApiMethod(
+            name = "getWaitingRoomStatus",
+            path = "conference/{websafeConferenceKey}/waitingroom",
+            httpMethod = HttpMethod.GET
+    )
+    public WaitingRoomStatus getWaitingRoomStatus(final User user,
+                                                  @Named("websafeConferenceKey")
+                                                  final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        WaitingRoomStatus status = WaitingRooms.getStatus(
+                Key.<Conference>create(websafeConferenceKey), getUserId(user));
+        if (status == null) {
+            throw new NotFoundException("Join the waiting room first.");
+        }
+        return status;
+    }
+
+    /**
+     * Returns the pre-warming of the caches for the registration opening of a Conference, with
+     * the cache hit rates once the opening is over.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param opensAt The opening, or null for the one scheduled now.
+     * @return the PrewarmRun of the opening.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when the caches were not warmed for the opening.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     */
+    @ApiMethod(
+            name = "getPrewarmReport",
+            path = "conference/{websafeConferenceKey}/prewarm",
+            httpMethod = HttpMethod.GET
+    )
+    public PrewarmRun getPrewarmReport(final User user,
+                                       @Named("websafeConferenceKey")
+                                       final String websafeConferenceKey,
+                                       @Nullable @Named("opensAt") final Date opensAt)
+            throws UnauthorizedException, NotFoundException, ForbiddenException {
+        Key<Conference> conferenceKey = checkOrganizer(user, websafeConferenceKey);
+        Date opening = opensAt != null ? opensAt
+                : ofy().load().key(conferenceKey).now().getRegistrationOpensAt();
+        PrewarmRun run = opening == null ? null
+                : ofy().load().key(PrewarmRun.key(conferenceKey, opening)).now();
+        if (run == null) {
+            throw new NotFoundException("The caches were not warmed for this opening.");
+        }
+        return run;
+    }
+
+    /**
+     * Returns the attendance analytics of a Conference: the fill rate, the cancellation rate
+     * and the registrations per hour and per day.
+     *
+     * The analytics are pre-aggregated and lag behind the registrations by about a minute.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the AttendanceStats of the Conference.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     */
+    @ApiMethod(
+            name = "getConferenceAnalytics",
+            path = "conference/{websafeConferenceKey}/analytics",
+            httpMethod = HttpMethod.GET
+    )
+    public AttendanceStats getConferenceAnalytics(final User user,
+                                                  @Named("websafeConferenceKey")
+                                                  final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException {
+        Key<Conference> conferenceKey = checkOrganizer(user, websafeConferenceKey);
+        // checkOrganizer loaded it into the session.
+        Conference conference = ofy().load().key(conferenceKey).now();
+        return AttendanceAnalytics.getStats(conference, conferenceKey);
+    }
+
+    /**
+     * Returns a page of the user ids of the attendees of a Conference, from the reverse
+     * attendee index.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param pageToken The nextPageToken of the previous page, or null for the first page.
+     * @param limit The size of the page, or null for the default.
+     * @return the user ids in user id order, with the token of the next page.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     * @throws BadRequestException when the page token or the size are not valid.
+     */
+    @ApiMethod(
+            name = "getConferenceAttendees",
+            path = "conference/{websafeConferenceKey}/attendees",
+            httpMethod = HttpMethod.GET
+    )
+    public AttendeePage getConferenceAttendees(final User user,
+                                               @Named("websafeConferenceKey")
+                                               final String websafeConferenceKey,
+                                               @Nullable @Named("pageToken")
+                                               final String pageToken,
+                                               @Nullable @Named("limit") final Integer limit)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            BadRequestException {
+        Key<Conference> conferenceKey = checkOrganizer(user, websafeConferenceKey);
+        int pageSize = limit == null ? DEFAULT_ATTENDEE_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_ATTENDEE_PAGE_SIZE) {
+            throw new BadRequestException("The limit must be between 1 and "
+                    + MAX_ATTENDEE_PAGE_SIZE + ".");
+        }
+        try {
+            return AttendeeIndex.list(conferenceKey, pageToken, pageSize);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid page token: " + pageToken);
+        }
+    }
+
+    /**
+     * Counts the attendees of a Conference, from the reverse attendee index.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the number of attendees.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     */
+    @ApiMethod(
+            name = "getConferenceAttendeeCount",
+            path = "conference/{websafeConferenceKey}/attendees/count",
+            httpMethod = HttpMethod.GET
+    )
+    public WrappedInteger getConferenceAttendeeCount(final User user,
+                                                     @Named("websafeConferenceKey")
+                                                     final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException {
+        Key<Conference> conferenceKey = checkOrganizer(user, websafeConferenceKey);
+        return new WrappedInteger(AttendeeIndex.count(conferenceKey));
+    }
+
+    /**
+     * Starts a background export of the attendees or the sessions of a Conference.
+     *
+     * The export is written in parts to the export store, the job lists them as they are
+     * done. The smaller exports can be streamed at once from /export instead.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param kind ATTENDEES or SESSIONS.
+     * @param format CSV or JSON.
+     * @param request The request injected by the cloud endpoints, for the Idempotency-Key
+     *                header. A retry with the same key returns the ExportJob started first.
+     * @return the new ExportJob.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     * @throws BadRequestException when the Idempotency-Key is too long.
+     */
+    @ApiMethod(
+            name = "startExport",
+            path = "conference/{websafeConferenceKey}/export",
+            httpMethod = HttpMethod.POST
+    )
+    public ExportJob startExport(final User user,
+                                 @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                 @Named("kind") final ExportJob.Kind kind,
+                                 @Named("format") final ExportJob.Format format,
+                                 HttpServletRequest request)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            BadRequestException {
+        Key<Conference> conferenceKey = checkOrganizer(user, websafeConferenceKey);
+        Key<IdempotencyRecord> recordKey = idempotencyRecordKey(request, user,
+                "startExport:" + websafeConferenceKey);
+        return ExportService.start(conferenceKey, kind, format, getUserId(user), recordKey);
+    }
+
+    /**
+     * Returns the progress of a background export.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param exportId The id of the ExportJob.
+     * @return the ExportJob.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no such Conference or ExportJob.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     */
+    @ApiMethod(
+            name = "getExport",
+            path = "conference/{websafeConferenceKey}/export/{exportId}",
+            httpMethod = HttpMethod.GET
+    )
+    public ExportJob getExport(final User user,
+                               @Named("websafeConferenceKey") final String websafeConferenceKey,
+                               @Named("exportId") final long exportId)
+            throws UnauthorizedException, NotFoundException, ForbiddenException {
+        Key<Conference> conferenceKey = checkOrganizer(user, websafeConferenceKey);
+        ExportJob job = ofy().load().key(Key.create(conferenceKey, ExportJob.class, exportId))
+                .now();
+        if (job == null) {
+            throw new NotFoundException("No export found with id: " + exportId);
+        }
+        return job;
+    }
+
+    private static Key<Conference> checkOrganizer(User user, String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        if (!conference.getOrganizerUserId().equals(getUserId(user))) {
+            throw new ForbiddenException("Only the organizer can do this.");
+        }
+        return conferenceKey;
+    }
+
+    /**
+     * Reads the change feed of the conferences, sessions, registrations and profiles.
+     *
+     * The consumers keep the returned position and send it back to read the next batch.
+     *
+     * @param user An user who invokes this method, one of the changefeed.readers.
+     * @param position The position returned with the previous batch, or null for the oldest
+     *                 change still retained.
+     * @param limit The size of the batch, or null for the default.
+     * @return the changes in order, with the position after them.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws ForbiddenException when the user is not allowed to read the feed.
+     * @throws BadRequestException when the position or the size are not valid.
+     */
+    @ApiMethod(
+            name = "getChanges",
+            path = "changes",
+            httpMethod = HttpMethod.GET
+    )
+    public ChangeFeedPage getChanges(final User user,
+                                     @Nullable @Named("position") final String position,
+                                     @Nullable @Named("limit") final Integer limit)
+            throws UnauthorizedException, ForbiddenException, BadRequestException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        if (!ChangeFeed.isReader(user.getEmail())) {
+            throw new ForbiddenException("Not allowed to read the change feed.");
+        }
+        int batchSize = limit == null ? DEFAULT_CHANGE_BATCH_SIZE : limit;
+        if (batchSize < 1 || batchSize > MAX_CHANGE_BATCH_SIZE) {
+            throw new BadRequestException("The limit must be between 1 and "
+                    + MAX_CHANGE_BATCH_SIZE + ".");
+        }
+        try {
+            return ChangeFeed.read(position, batchSize);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
     /**Task 1: Add Sessions to a Conference **/
 
      @ApiMethod(name = "createSession", path = "conference/{websafeConferenceKey}/session", httpMethod = HttpMethod.POST)
     public Session createSession(final User user,
                                  @Named("websafeConferenceKey") final String websafeConferenceKey,
-                                 final SessionForm sessionForm)
-            throws UnauthorizedException, OAuthRequestException, ConflictException, NotFoundException, ForbiddenException {
+                                 final SessionForm sessionForm,
+                                 HttpServletRequest request)
+            throws UnauthorizedException, OAuthRequestException, ConflictException, NotFoundException, ForbiddenException,
+            TooManyRequestsException, BadRequestException {
 
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        // A retry with the same Idempotency-Key returns the Session created first.
+        final Key<IdempotencyRecord> recordKey = idempotencyRecordKey(request, user,
+                "createSession:" + websafeConferenceKey);
+        IdempotencyRecord replayed = IdempotencyKeys.find(recordKey);
+        if (replayed != null) {
+            return ofy().load().key(replayed.<Session>getResultKey()).now();
+        }
+        checkAdmission(AdmissionControl.Endpoint.CREATE_SESSION, getUserId(user), websafeConferenceKey);
 
         final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
         final Key<Session> sessionKey = factory().allocateId(conferenceKey, Session.class);
@@ -552,6 +1476,12 @@ public class ConferenceApi {
                     @Override
                     public TxResult<Session> run() {
 
+                        IdempotencyRecord replayed = IdempotencyKeys.find(recordKey);
+                        if (replayed != null) {
+                            return new TxResult<Session>(
+                                    ofy().load().key(replayed.<Session>getResultKey()).now());
+                        }
+
                         Conference conference = ofy().load().now(conferenceKey);
 
 
@@ -588,11 +1518,23 @@ public class ConferenceApi {
                         }
 
                         ofy().save().entities(profiles).now();
-
-                        List<Session> conferenceSessions = getConferenceSessions(websafeConferenceKey);
+                        SpeakerIndex.addSession(session, profiles);
+                        SessionDateIndex.addSession(session, profiles);
+                        ChangeFeed.record(conferenceKey, ChangeType.SESSION_CREATED,
+                                sessionKey.getString(), websafeConferenceKey, getUserId(user));
+
+                        AgendaService.scheduleRebuild(websafeConferenceKey);
+
+                        List<Session> conferenceSessions = new ArrayList<>(ofy().load()
+                                .type(Session.class).ancestor(conferenceKey).list());
+                        // The query sees the group as of the start of the transaction.
+                        if (!conferenceSessions.contains(session)) {
+                            conferenceSessions.add(session);
+                        }
                         for(String speakerKey : sessionForm.getSpeakerProfileKeys()) {
                             featureSpeaker(conferenceSessions, speakerKey);
                         }
+                        IdempotencyKeys.save(recordKey, sessionKey, null);
 
 
                         return new TxResult<Session>(session);
@@ -603,7 +1545,9 @@ public class ConferenceApi {
 
 
 
-        return result.getResult();
+        Session session = result.getResult();
+        EntityVersions.touchCollection(sessionsCollection(websafeConferenceKey));
+        return session;
     }
 
     /**
@@ -636,19 +1580,35 @@ public class ConferenceApi {
 
         if(speakerSessions.size() >= 2) {
             Profile speaker = ofy().load().key(Key.<Profile>create(websafeSpeakerKey)).now();
-            addFeaturedSpeaker(speaker, speakerSessions);
+            FeaturedSpeakerService.feature(speakerSessions.get(0).getConferenceKey(), speaker,
+                    speakerSessions);
         }
 
         return count;
     }
 
 
+    /**
+     * Returns the Sessions of a Conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param request The request injected by the cloud endpoints, for the If-None-Match header.
+     * @return the Sessions ordered by name.
+     * @throws NotModifiedException when none of the Sessions changed since the client's ETag.
+     */
     @ApiMethod(name = "getConferenceSessions",
             path = "conference/{websafeConferenceKey}/session",
             httpMethod = HttpMethod.GET)
     public List<Session> getConferenceSessions( @Named("websafeConferenceKey")
-                                            final String websafeConferenceKey) {
-
+                                            final String websafeConferenceKey,
+                                            HttpServletRequest request)
+            throws NotModifiedException {
+
+        // The stamp must be read before the sessions, so that it is never newer than them.
+        long stamp = EntityVersions.collectionStamp(sessionsCollection(websafeConferenceKey));
+        checkNotModified(request, stamp);
+        setEtag(request, stamp);
+        IndexAdvisor.record(SESSIONS_BY_NAME_SHAPE);
         return ofy().load().type(Session.class)
                 .ancestor( Key.create(websafeConferenceKey))
                 .order("name")
@@ -659,6 +1619,27 @@ public class ConferenceApi {
 
 
 
+    /**
+     * Returns the materialized agenda of a Conference: the Conference, its Sessions sorted by
+     * time and the speaker names, all in a single read.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the agenda of the Conference.
+     * @throws NotFoundException when there is no Conference with the given key.
+     */
+    @ApiMethod(name = "getConferenceAgenda",
+            path = "conference/{websafeConferenceKey}/agenda",
+            httpMethod = HttpMethod.GET)
+    public ConferenceAgenda getConferenceAgenda(
+            @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws NotFoundException {
+        ConferenceAgenda agenda = AgendaService.getAgenda(websafeConferenceKey);
+        if (agenda == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        return agenda;
+    }
+
     @ApiMethod(name = "getConferenceSessionByType",
             path = "conference/{websafeConferenceKey}/session/by-type",
             httpMethod = HttpMethod.GET)
@@ -666,6 +1647,7 @@ public class ConferenceApi {
             @Named("websafeConferenceKey") final String websafeConferenceKey,
             @Named("sessionType") Session.SessionType sessionType) {
 
+        IndexAdvisor.record(SESSIONS_BY_TYPE_SHAPE);
         return ofy().load().type(Session.class)
                 .ancestor(Key.create(websafeConferenceKey))
                 .filter("sessionType", sessionType)
@@ -678,9 +1660,36 @@ public class ConferenceApi {
     public Collection<Session> getSessionsBySpeaker(@Named("speakerProfileKey") String speakerProfileKey) {
 
         Profile p = ofy().load().key(Key.<Profile>create(speakerProfileKey)).now();
+        if (p == null) {
+            return Collections.emptyList();
+        }
         return ofy().load().keys(p.getSessionsToSpeakKeys()).values();
     }
 
+    /**
+     * Returns the Sessions of many speakers at once from the speaker index, with a single
+     * batch get.
+     *
+     * @param speakerProfileKeys The String representations of the speakers' Profile Keys.
+     * @param websafeConferenceKey The String representation of a Conference Key to scope the
+     *                             lookup to, or null for the Sessions of all the conferences.
+     * @return one entry per speaker, in the same order, with the summaries of the Sessions.
+     * @throws BadRequestException when too many speakers are requested.
+     */
+    @ApiMethod(name = "getSessionsBySpeakers",
+            path = "conference/session/by-speakers",
+            httpMethod = HttpMethod.GET)
+    public List<SpeakerSessions> getSessionsBySpeakers(
+            @Named("speakerProfileKeys") List<String> speakerProfileKeys,
+            @Nullable @Named("websafeConferenceKey") String websafeConferenceKey)
+            throws BadRequestException {
+        if (speakerProfileKeys.size() > MAX_SPEAKERS_PER_LOOKUP) {
+            throw new BadRequestException("At most " + MAX_SPEAKERS_PER_LOOKUP
+                    + " speakers can be looked up at once.");
+        }
+        return SpeakerIndex.lookup(speakerProfileKeys, websafeConferenceKey);
+    }
+
 
     /**Task 2: Add Sessions to User Wishlist**/
     @ApiMethod(name = "addSessionToWishlist",
@@ -689,7 +1698,11 @@ public class ConferenceApi {
     public WrappedBoolean addSessionToWishlist(
             final User user,
             @Named("websafeSessionKey") final String websafeSessionKey
-    ) throws NotFoundException, UnauthorizedException {
+    ) throws NotFoundException, UnauthorizedException, TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        checkAdmission(AdmissionControl.Endpoint.ADD_SESSION_TO_WISHLIST, getUserId(user), null);
         Session s = ofy().load().key(Key.<Session>create(websafeSessionKey)).now();
 
         //Validating if the session actually exists
@@ -697,24 +1710,50 @@ public class ConferenceApi {
             throw new NotFoundException("No Session found with the key: " + websafeSessionKey);
         }
 
-        Profile profile = getProfile(user);
-
-        profile.addSessionKeyWishList(websafeSessionKey);
+        // A small append instead of rewriting the whole Profile.
+        WishlistService.append(getUserId(user), websafeSessionKey, true);
 
-        ofy().save().entities(profile).now();
+        return new WrappedBoolean(true);
 
+    }
 
+    /**
+     * Removes a Session from the user's wishlist.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeSessionKey The String representation of the Session Key.
+     * @return Boolean true when success.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws TooManyRequestsException when the user is over the limit.
+     */
+    @ApiMethod(name = "removeSessionFromWishlist",
+            path = "conference/session/{websafeSessionKey}/wishlist",
+            httpMethod = HttpMethod.DELETE)
+    public WrappedBoolean removeSessionFromWishlist(
+            final User user,
+            @Named("websafeSessionKey") final String websafeSessionKey
+    ) throws UnauthorizedException, TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        checkAdmission(AdmissionControl.Endpoint.REMOVE_SESSION_FROM_WISHLIST, getUserId(user),
+                null);
+        WishlistService.append(getUserId(user), websafeSessionKey, false);
         return new WrappedBoolean(true);
-
     }
 
     @ApiMethod(name = "getSessionsInWishlist",
             path = "conference/session/wishlist",
             httpMethod = HttpMethod.GET)
     public Collection<Session> getSessionsInWishlist(User user) throws UnauthorizedException {
-
-        Profile profile = getProfile(user);
-        return ofy().load().keys(profile.getSessionKeysWishList()).values();
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        List<Key<Session>> sessionKeys = new ArrayList<>();
+        for (String websafeSessionKey : WishlistService.read(getUserId(user))) {
+            sessionKeys.add(Key.<Session>create(websafeSessionKey));
+        }
+        return ofy().load().keys(sessionKeys).values();
     }
 
 
@@ -727,14 +1766,58 @@ public class ConferenceApi {
             httpMethod = HttpMethod.GET)
     public Collection<Session> getSessionsByDates(
             @Named("dateFrom") final Date dateFrom,
-            @Named("dateTo") final Date dateTo) {
+            @Named("dateTo") final Date dateTo) throws BadRequestException {
 
-        List<Session> sessions = ofy().load().type(Session.class)
-                .filter("startDate >= ", dateFrom)
-                .filter("startDate <= ", dateTo)
-                .order("startDate").list();
+        try {
+            return loadSessions(SessionDateIndex.list(dateFrom, dateTo, null));
+        } catch (IllegalArgumentException e) {
+            // The range is too long, or has too many sessions for a single response.
+            throw new BadRequestException(e.getMessage());
+        }
+    }
 
-        return sessions;
+    /**
+     * Returns a page of the Sessions of all the conferences starting in the given range, from
+     * the global session index.
+     *
+     * @param dateFrom The start of the range, inclusive.
+     * @param dateTo The end of the range, inclusive.
+     * @param maxDuration The maximum duration in minutes, or null for any.
+     * @param pageToken The nextPageToken of the previous page, or null for the first page.
+     * @param limit The size of the page, or null for the default.
+     * @return the summaries of the Sessions in start order, with the token of the next page.
+     * @throws BadRequestException when the page token or the size are not valid.
+     */
+    @ApiMethod(name = "getSessionsByDateRange",
+            path = "conference/session/by-date-range/{dateFrom}/{dateTo}",
+            httpMethod = HttpMethod.GET)
+    public SessionSummaryPage getSessionsByDateRange(
+            @Named("dateFrom") final Date dateFrom,
+            @Named("dateTo") final Date dateTo,
+            @Nullable @Named("maxDuration") final Integer maxDuration,
+            @Nullable @Named("pageToken") final String pageToken,
+            @Nullable @Named("limit") final Integer limit) throws BadRequestException {
+        int pageSize = limit == null ? DEFAULT_SESSION_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_SESSION_PAGE_SIZE) {
+            throw new BadRequestException("The limit must be between 1 and "
+                    + MAX_SESSION_PAGE_SIZE + ".");
+        }
+        try {
+            return SessionDateIndex.read(dateFrom, dateTo, maxDuration, pageToken, pageSize);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the Sessions of the given summaries with a single batch get, in the same order.
+     */
+    private static List<Session> loadSessions(List<SessionSummary> summaries) {
+        List<Key<Session>> keys = new ArrayList<>(summaries.size());
+        for (SessionSummary summary : summaries) {
+            keys.add(Key.<Session>create(summary.getWebsafeKey()));
+        }
+        return new ArrayList<>(ofy().load().keys(keys).values());
     }
 
     /**
@@ -749,12 +1832,20 @@ public class ConferenceApi {
             httpMethod = HttpMethod.GET)
     public Collection<Session> getSessionsByDateAndDuration(
             @Named("date") final Date date,
-            @Named("duration") final int duration) {
+            @Named("duration") final int duration) throws BadRequestException {
 
-        List<Session> sessions = ofy().load().type(Session.class)
-                .filter("startDate = ", date)
-                .filter("duration <= ", duration)
-                .order("duration").list();
+        List<Session> sessions;
+        try {
+            sessions = loadSessions(SessionDateIndex.list(date, date, duration));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+        Collections.sort(sessions, new Comparator<Session>() {
+            @Override
+            public int compare(Session a, Session b) {
+                return Integer.compare(a.getDuration(), b.getDuration());
+            }
+        });
 
         return sessions;
     }
@@ -781,6 +1872,7 @@ public class ConferenceApi {
                 sessionTypes.add(s);
         }
 
+        IndexAdvisor.record(SESSIONS_NOT_OF_TYPE_UP_TO_TIME_SHAPE);
         return  query
                 .filter("sessionType IN ", sessionTypes)
                 .filter("startTime < ", Session.toTimeInteger(beforeTime))
@@ -788,26 +1880,26 @@ public class ConferenceApi {
     }
 
 
-    private void addFeaturedSpeaker(Profile speaker, List<Session> sessions) {
-        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("Featured Speaker: " + speaker.getDisplayName() + " will be in sessions: " );
-
-        for(Session s : sessions) {
-            sb.append(s.getName() + "\n");
-        }
-
-        memcacheService.put(Constants.FEATURED_SPEAKERS_KEY, sb.toString()     );
-
-    }
-
+    /**
+     * Returns the featured speaker of a Conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key, or null for
+     *                             the speaker featured last in any conference, as published
+     *                             by the cron every minute.
+     * @return the announcement of the featured speaker, or null when there is none.
+     */
     @ApiMethod(
             name = "getFeaturedSpeaker",
             path = "featured-speaker",
             httpMethod = HttpMethod.GET
     )
-    public Announcement getFeaturedSpeaker() {
+    public Announcement getFeaturedSpeaker(
+            @Nullable @Named("websafeConferenceKey") final String websafeConferenceKey) {
+        if (websafeConferenceKey != null) {
+            FeaturedSpeaker latest = FeaturedSpeakerService.lookup(websafeConferenceKey)
+                    .getLatest();
+            return latest == null ? null : new Announcement(latest.getMessage());
+        }
         MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
         Object message = memcacheService.get(Constants.FEATURED_SPEAKERS_KEY);
         if (message != null) {
@@ -816,7 +1908,134 @@ public class ConferenceApi {
         return null;
     }
 
+    /**
+     * Returns the featured speakers of many conferences at once, with a single batch get.
+     *
+     * @param websafeConferenceKeys The String representations of the Conference Keys.
+     * @return one entry per conference, in the same order, with the most recent speakers first.
+     * @throws BadRequestException when too many conferences are requested.
+     */
+    @ApiMethod(
+            name = "getFeaturedSpeakers",
+            path = "featured-speakers",
+            httpMethod = HttpMethod.GET
+    )
+    public List<FeaturedSpeakers> getFeaturedSpeakers(
+            @Named("websafeConferenceKeys") final List<String> websafeConferenceKeys)
+            throws BadRequestException {
+        if (websafeConferenceKeys.size() > MAX_CONFERENCES_PER_LOOKUP) {
+            throw new BadRequestException("At most " + MAX_CONFERENCES_PER_LOOKUP
+                    + " conferences can be looked up at once.");
+        }
+        return FeaturedSpeakerService.lookup(websafeConferenceKeys);
+    }
 
+    /**
+     * Runs the read calls of a page load in a single request: getConference, getProfile,
+     * getConferencesToAttend, getFeaturedSpeaker and getAnnouncement.
+     *
+     * The Profile of the user is requested up front, the get runs while the calls that don't
+     * need it go on, and the calls share the Objectify session of the request: a Profile read
+     * by several calls is read once. The Conferences of the getConference calls are read
+     * together through the InstanceCache, with one batch get for the ones not cached in their
+     * current version.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param batchForm the calls.
+     * @return one result per call, in the same order. A failed call doesn't fail the others,
+     *         its result carries the status code it would have had on its own.
+     * @throws BadRequestException when the calls are missing or there are too many of them.
+     */
+    @ApiMethod(name = "batchGet", path = "batch-get", httpMethod = HttpMethod.POST)
+    public List<BatchResult> batchGet(final User user, BatchForm batchForm)
+            throws BadRequestException {
+        List<BatchForm.Call> calls = batchForm == null ? null : batchForm.getCalls();
+        if (calls == null) {
+            throw new BadRequestException("The calls of the batch are missing.");
+        }
+        if (calls.size() > MAX_BATCH_CALLS) {
+            throw new BadRequestException("At most " + MAX_BATCH_CALLS
+                    + " calls can be made at once.");
+        }
+        if (user != null) {
+            for (BatchForm.Call call : calls) {
+                String method = call.getMethod();
+                if ("getProfile".equals(method) || "getConferencesToAttend".equals(method)) {
+                    // Not waited for, the calls find the pending Profile in the session.
+                    ofy().load().key(Key.create(Profile.class, getUserId(user)));
+                    break;
+                }
+            }
+        }
+        Set<Key<Conference>> conferenceKeys = new LinkedHashSet<>();
+        for (BatchForm.Call call : calls) {
+            if ("getConference".equals(call.getMethod())
+                    && call.getWebsafeConferenceKey() != null) {
+                try {
+                    conferenceKeys.add(Key.<Conference>create(call.getWebsafeConferenceKey()));
+                } catch (IllegalArgumentException e) {
+                    // The call fails on its own.
+                }
+            }
+        }
+        Map<Key<Conference>, Conference> conferences = new HashMap<>();
+        if (!conferenceKeys.isEmpty()) {
+            for (Conference conference : InstanceCache.getConferences(
+                    new ArrayList<>(conferenceKeys))) {
+                conferences.put(Key.<Conference>create(conference.getWebsafeKey()), conference);
+            }
+        }
+        List<BatchResult> results = new ArrayList<>(calls.size());
+        for (BatchForm.Call call : calls) {
+            results.add(runBatchCall(user, call, conferences));
+        }
+        return results;
+    }
 
-
+    /**
+     * Runs a call of a batch.
+     *
+     * @param conferences the Conferences of the getConference calls, without the ones that do
+     *                    not exist.
+     */
+    private BatchResult runBatchCall(User user, BatchForm.Call call,
+                                     Map<Key<Conference>, Conference> conferences) {
+        String method = call.getMethod();
+        String websafeConferenceKey = call.getWebsafeConferenceKey();
+        try {
+            if (method == null) {
+                throw new BadRequestException("The method of a call is missing.");
+            }
+            switch (method) {
+                case "getConference":
+                    if (websafeConferenceKey == null) {
+                        throw new BadRequestException("getConference needs a "
+                                + "websafeConferenceKey.");
+                    }
+                    Conference conference =
+                            conferences.get(Key.<Conference>create(websafeConferenceKey));
+                    if (conference == null) {
+                        throw new NotFoundException("No Conference found with key: "
+                                + websafeConferenceKey);
+                    }
+                    return BatchResult.of(method, conference);
+                case "getProfile":
+                    return BatchResult.of(method, getProfile(user, null));
+                case "getConferencesToAttend":
+                    return BatchResult.of(method,
+                            new ArrayList<>(getConferencesToAttend(user)));
+                case "getFeaturedSpeaker":
+                    return BatchResult.of(method, getFeaturedSpeaker(websafeConferenceKey));
+                case "getAnnouncement":
+                    return BatchResult.of(method, getAnnouncement(null));
+                default:
+                    throw new BadRequestException("Unknown method: " + method);
+            }
+        } catch (ServiceException e) {
+            return BatchResult.error(method, e.getStatusCode(), e.getMessage());
+        } catch (IllegalArgumentException e) {
+            // A malformed websafe key.
+            return BatchResult.error(method, 400, e.getMessage());
+        }
+    }
 }
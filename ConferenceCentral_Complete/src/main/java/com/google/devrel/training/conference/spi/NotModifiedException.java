@@ -0,0 +1,26 @@
+package com.google.devrel.training.conference.spi;
+
+import com.google.api.server.spi.ServiceException;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * Thrown when the client already has the current version of the requested resource.
+ */
+public class NotModifiedException extends ServiceException {
+
+    private static final int STATUS_CODE = 304;
+
+    private final String etag;
+
+    public NotModifiedException(String etag) {
+        super(STATUS_CODE, "Not Modified");
+        this.etag = etag;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return ImmutableMap.of("ETag", etag);
+    }
+}
@@ -0,0 +1,15 @@
+package com.google.devrel.training.conference.spi;
+
+import com.google.api.server.spi.ServiceException;
+
+/**
+ * Thrown when a request is rejected by the admission control.
+ */
+public class TooManyRequestsException extends ServiceException {
+
+    private static final int STATUS_CODE = 429;
+
+    public TooManyRequestsException(String message) {
+        super(STATUS_CODE, message);
+    }
+}
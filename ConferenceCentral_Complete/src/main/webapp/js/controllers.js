@@ -548,13 +548,17 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
 
     /**
      * Initializes the conference detail page.
-     * Invokes the conference.getConference method and sets the returned conference in the $scope.
+     * Invokes the conference.batchGet method with the getConference and getProfile calls, in a
+     * single request, and sets the returned conference in the $scope.
      *
      */
     $scope.init = function () {
         $scope.loading = true;
-        gapi.client.conference.getConference({
-            websafeConferenceKey: $routeParams.websafeConferenceKey
+        gapi.client.conference.batchGet({
+            calls: [
+                {method: 'getConference', websafeConferenceKey: $routeParams.websafeConferenceKey},
+                {method: 'getProfile'}
+            ]
         }).execute(function (resp) {
             $scope.$apply(function () {
                 $scope.loading = false;
@@ -565,25 +569,30 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
                         + ' ' + errorMessage;
                     $scope.alertStatus = 'warning';
                     $log.error($scope.messages);
+                    return;
+                }
+                var conferenceResult = resp.items[0];
+                if (conferenceResult.error) {
+                    // The getConference call has failed.
+                    $scope.messages = 'Failed to get the conference : ' + $routeParams.websafeKey
+                        + ' ' + conferenceResult.error;
+                    $scope.alertStatus = 'warning';
+                    $log.error($scope.messages);
                 } else {
-                    // The request has succeeded.
+                    // The getConference call has succeeded.
                     $scope.alertStatus = 'success';
-                    $scope.conference = resp.result;
+                    $scope.conference = conferenceResult.conference;
                 }
-            });
-        });
 
-        $scope.loading = true;
-        // If the user is attending the conference, updates the status message and available function.
-        gapi.client.conference.getProfile().execute(function (resp) {
-            $scope.$apply(function () {
-                $scope.loading = false;
-                if (resp.error) {
+                // If the user is attending the conference, updates the status message and available function.
+                var profileResult = resp.items[1];
+                if (profileResult.error || !profileResult.profile) {
                     // Failed to get a user profile.
                 } else {
-                    var profile = resp.result;
-                    for (var i = 0; i < profile.conferenceKeysToAttend.length; i++) {
-                        if ($routeParams.websafeConferenceKey == profile.conferenceKeysToAttend[i]) {
+                    var profile = profileResult.profile;
+                    var conferenceKeysToAttend = profile.conferenceKeysToAttend || [];
+                    for (var i = 0; i < conferenceKeysToAttend.length; i++) {
+                        if ($routeParams.websafeConferenceKey == conferenceKeysToAttend[i]) {
                             // The user is attending the conference.
                             $scope.alertStatus = 'info';
                             $scope.messages = 'You are attending this conference';
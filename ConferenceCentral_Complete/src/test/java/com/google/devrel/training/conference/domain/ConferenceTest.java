@@ -131,4 +131,37 @@ public class ConferenceTest {
         Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
         conference.giveBackSeats(1);
     }
+
+    @Test
+    public void testView() throws Exception {
+        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
+        ConferenceView view = conference.toView();
+        assertEquals(ID, view.getId());
+        assertEquals(conference.getWebsafeKey(), view.getWebsafeKey());
+        assertEquals(NAME, view.getName());
+        assertEquals(ORGANIZER_USER_ID, view.getOrganizerDisplayName());
+        assertEquals(topics, view.getTopics());
+        assertEquals(CAP, view.getSeatsAvailable());
+        SimpleDateFormat rfc3339 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+        assertEquals(startDate, rfc3339.parse(view.getStartDate()));
+        assertEquals(endDate, rfc3339.parse(view.getEndDate()));
+        // The view is kept until the Conference changes.
+        assertSame(view, conference.toView());
+        conference.bookSeats(1);
+        assertNotSame(view, conference.toView());
+        assertEquals(CAP, view.getSeatsAvailable());
+        assertEquals(CAP - 1, conference.toView().getSeatsAvailable());
+    }
+
+    @Test
+    public void testViewFollowsTheOrganizerName() throws Exception {
+        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
+        ConferenceView view = conference.toView();
+        ofy().save().entity(new Profile(ORGANIZER_USER_ID, "Before", "", null)).now();
+        assertEquals("Before", view.getOrganizerDisplayName());
+        ofy().save().entity(new Profile(ORGANIZER_USER_ID, "After", "", null)).now();
+        // Same view, the name is read when it is serialized.
+        assertSame(view, conference.toView());
+        assertEquals("After", view.getOrganizerDisplayName());
+    }
 }
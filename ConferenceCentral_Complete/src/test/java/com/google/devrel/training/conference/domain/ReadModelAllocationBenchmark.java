@@ -0,0 +1,116 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Measures the bytes allocated to serialize a Conference or a Session, reading the entity
+ * getters the way the serializer used to and reading the cached views.
+ *
+ * The organizer's display name is left out of the entity run, it costs a datastore get on its
+ * own. Run it as a plain main class on a HotSpot JVM:
+ *
+ *   java -cp ... com.google.devrel.training.conference.domain.ReadModelAllocationBenchmark
+ */
+public class ReadModelAllocationBenchmark {
+
+    private static final int ITEMS = 1000;
+
+    private static final int ROUNDS = 20;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Keeps the values read alive, so that the reads are not optimized away.
+     */
+    private static int sink;
+
+    public static void main(String[] args) throws Exception {
+        LocalServiceTestHelper helper =
+                new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+        helper.setUp();
+        try {
+            List<Conference> conferences = new ArrayList<>();
+            List<Session> sessions = new ArrayList<>();
+            ConferenceForm form = new ConferenceForm("Conference", "Description",
+                    Arrays.asList("Google", "Cloud"), "London", new Date(), new Date(), 100);
+            for (int i = 1; i <= ITEMS; i++) {
+                Conference conference = new Conference(i, "organizer", form);
+                conferences.add(conference);
+                Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+                sessions.add(new Session(conferenceKey, (long) i, "Session",
+                        new ArrayList<String>(), new Date(), 60, "Room", Session.SessionType.LECTURE, Arrays.asList("Highlight"), 1430));
+            }
+            // Builds the views, and warms up both paths.
+            for (int round = 0; round < ROUNDS; round++) {
+                readEntities(conferences, sessions);
+                readViews(conferences, sessions);
+            }
+
+            report("entity getters", measureEntities(conferences, sessions));
+            report("cached views", measureViews(conferences, sessions));
+        } finally {
+            helper.tearDown();
+        }
+    }
+
+    private static long measureEntities(List<Conference> conferences, List<Session> sessions) {
+        long before = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int round = 0; round < ROUNDS; round++) {
+            readEntities(conferences, sessions);
+        }
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+    }
+
+    private static long measureViews(List<Conference> conferences, List<Session> sessions) {
+        long before = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int round = 0; round < ROUNDS; round++) {
+            readViews(conferences, sessions);
+        }
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+    }
+
+    private static void report(String name, long bytes) {
+        System.out.printf("%-15s %8.1f bytes per item%n", name,
+                (double) bytes / (ROUNDS * ITEMS * 2));
+    }
+
+    private static void readEntities(List<Conference> conferences, List<Session> sessions) {
+        for (Conference conference : conferences) {
+            sink += (int) (conference.getWebsafeKey().length() + conference.getName().length()
+                    + conference.getTopics().size() + conference.getCity().length()
+                    + conference.getStartDate().getTime() + conference.getEndDate().getTime()
+                    + conference.getSeatsAvailable() + conference.getEtag().length());
+        }
+        for (Session session : sessions) {
+            sink += (int) (session.getWebsafeKey().length() + session.getName().length()
+                    + session.getStartDate().getTime() + session.getStartTime().length()
+                    + session.getHighlights().size() + session.getEtag().length());
+        }
+    }
+
+    private static void readViews(List<Conference> conferences, List<Session> sessions) {
+        for (Conference conference : conferences) {
+            ConferenceView view = conference.toView();
+            sink += view.getWebsafeKey().length() + view.getName().length()
+                    + view.getTopics().size() + view.getCity().length()
+                    + view.getStartDate().length() + view.getEndDate().length()
+                    + view.getSeatsAvailable() + view.getEtag().length();
+        }
+        for (Session session : sessions) {
+            SessionView view = session.toView();
+            sink += view.getWebsafeKey().length() + view.getName().length()
+                    + view.getStartDate().length() + view.getStartTime().length()
+                    + view.getHighlights().size() + view.getEtag().length();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.ExportJob.Format;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceImportRow;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Tests for ConferenceImportReader.
+ */
+public class ConferenceImportReaderTest {
+
+    @Test
+    public void testCsv() throws Exception {
+        ConferenceImportReader reader = new ConferenceImportReader(new StringReader(
+                "organizerUserId,name,description,topics,city,startDate,endDate,maxAttendees\r\n"
+                + "123,GCP Live,\"New, and \"\"improved\"\"\nplatform\",Cloud; Platform,"
+                + "Mountain View,2014-03-25,2014-03-26,500\r\n"
+                + "\r\n"
+                + "456,Google I/O,,,,,,\r\n"), Format.CSV);
+
+        ConferenceImportRow row = reader.next();
+        assertEquals(2, row.getLine());
+        assertEquals("123", row.getOrganizerUserId());
+        ConferenceForm form = row.toForm();
+        assertEquals("GCP Live", form.getName());
+        assertEquals("New, and \"improved\"\nplatform", form.getDescription());
+        assertEquals(ImmutableList.of("Cloud", "Platform"), form.getTopics());
+        assertEquals("Mountain View", form.getCity());
+        assertEquals(500, form.getMaxAttendees());
+
+        row = reader.next();
+        assertEquals(5, row.getLine());
+        assertEquals("Google I/O", row.toForm().getName());
+        assertNull(row.toForm().getCity());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        ConferenceImportReader reader = new ConferenceImportReader(new StringReader(
+                "{\"organizerUserId\": \"123\", \"name\": \"GCP \\\"Live\\\"\", "
+                + "\"topics\": [\"Cloud\", \"Platform\"], \"maxAttendees\": 500, "
+                + "\"city\": null}\n"), Format.JSON);
+
+        ConferenceForm form = reader.next().toForm();
+        assertEquals("GCP \"Live\"", form.getName());
+        assertEquals(ImmutableList.of("Cloud", "Platform"), form.getTopics());
+        assertEquals(500, form.getMaxAttendees());
+        assertNull(form.getCity());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testInvalidRowsAreSkipped() throws Exception {
+        ConferenceImportReader reader = new ConferenceImportReader(new StringReader(
+                "{\"organizerUserId\": \"123\"}\n"
+                + "{\"organizerUserId\": \"123\", \"name\": \"Bad date\", "
+                + "\"startDate\": \"2014-13-01\"}\n"
+                + "not json\n"
+                + "{\"organizerUserId\": \"123\", \"name\": \"GCP Live\"}\n"), Format.JSON);
+        for (int line = 1; line <= 3; line++) {
+            try {
+                reader.next();
+                fail("Line " + line + " should have been rejected.");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Line " + line + ":"));
+            }
+        }
+        assertEquals("GCP Live", reader.next().toForm().getName());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testStoredRowsKeepTheirLines() throws Exception {
+        ConferenceImportReader reader = new ConferenceImportReader(new StringReader(
+                "organizerUserId,name,description,topics,city,startDate,endDate,maxAttendees\n"
+                + "123,\"GCP \"\"Live\"\"\",\"Two\nlines\",Cloud; Platform,,"
+                + "2014-03-25,,500\n"
+                + "\n"
+                + "456,Google I/O,,,,,,\n"), Format.CSV);
+        List<ConferenceImportRow> rows = ImmutableList.of(reader.next(), reader.next());
+
+        List<ConferenceImportRow> stored = ConferenceImportReader.fromStored(
+                ConferenceImportReader.toStored(rows));
+        assertEquals(2, stored.size());
+        assertEquals(2, stored.get(0).getLine());
+        assertEquals("123", stored.get(0).getOrganizerUserId());
+        ConferenceForm form = stored.get(0).toForm();
+        assertEquals("GCP \"Live\"", form.getName());
+        assertEquals("Two\nlines", form.getDescription());
+        assertEquals(ImmutableList.of("Cloud", "Platform"), form.getTopics());
+        assertNull(form.getCity());
+        assertEquals(rows.get(0).getStartDate(), form.getStartDate());
+        assertNull(form.getEndDate());
+        assertEquals(500, form.getMaxAttendees());
+        assertEquals(5, stored.get(1).getLine());
+        assertNull(stored.get(1).toForm().getTopics());
+    }
+}
@@ -0,0 +1,175 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.util.concurrent.AtomicLongMap;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.service.ConferenceQueries.Mode;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the two modes of ConferenceQueries at several hit ratios of the InstanceCache.
+ *
+ * For each ratio the cache is refilled with that share of the matching Conferences before
+ * every query, so the ratio holds for all the rounds. It reports the time per query against
+ * the local stubs, the RPCs per query by service, and the entity reads, which is what the
+ * datastore bills: ENTITIES reads every result, KEYS_ONLY one per query plus the misses, the
+ * keys themselves are small operations.
+ *
+ * The local stubs answer in microseconds, so the times understate the round trips; the RPC
+ * counts are what to compare with production latencies. Run it as a plain main class:
+ *
+ *   java -cp ... com.google.devrel.training.conference.service.ConferenceQueryBenchmark
+ */
+public class ConferenceQueryBenchmark {
+
+    private static final int CONFERENCES = 200;
+
+    private static final int ROUNDS = 50;
+
+    private static final double[] HIT_RATIOS = {0, 0.5, 0.9, 0.99, 1};
+
+    public static void main(String[] args) throws Exception {
+        LocalServiceTestHelper helper = new LocalServiceTestHelper(
+                new LocalDatastoreServiceTestConfig()
+                        .setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                new LocalMemcacheServiceTestConfig());
+        helper.setUp();
+        ApiProxy.Delegate<?> original = ApiProxy.getDelegate();
+        try {
+            ConferenceForm form = new ConferenceForm("Conference", "Description",
+                    Arrays.asList("Google", "Cloud"), "London", new Date(), new Date(), 100);
+            List<Conference> conferences = new ArrayList<>();
+            for (int i = 1; i <= CONFERENCES; i++) {
+                conferences.add(new Conference(i, "organizer", form));
+            }
+            ofy().save().entities(conferences).now();
+            ConferenceQueryForm query = new ConferenceQueryForm().filter(
+                    new ConferenceQueryForm.Filter(ConferenceQueryForm.Field.CITY,
+                            ConferenceQueryForm.Operator.EQ, "London"));
+            List<Key<Conference>> keys = query.getQuery().keys().list();
+
+            @SuppressWarnings("unchecked")
+            CountingDelegate counter = new CountingDelegate(
+                    (ApiProxy.Delegate<ApiProxy.Environment>) original);
+            ApiProxy.setDelegate(counter);
+
+            // Warms up the JIT on both paths.
+            for (int round = 0; round < ROUNDS; round++) {
+                run(query, keys, Mode.ENTITIES, 0.5, counter);
+                run(query, keys, Mode.KEYS_ONLY, 0.5, counter);
+            }
+
+            System.out.printf("%-9s %6s %10s %14s %14s %12s%n", "mode", "hits", "ms/query",
+                    "datastore RPCs", "memcache RPCs", "entity reads");
+            for (double ratio : HIT_RATIOS) {
+                for (Mode mode : Mode.values()) {
+                    counter.calls.clear();
+                    long nanos = 0;
+                    long reads = 0;
+                    for (int round = 0; round < ROUNDS; round++) {
+                        long start = System.nanoTime();
+                        int results = run(query, keys, mode, ratio, counter);
+                        nanos += System.nanoTime() - start;
+                        reads += mode == Mode.ENTITIES ? results
+                                : 1 + keys.size() - warmed(keys, ratio);
+                    }
+                    System.out.printf("%-9s %5.0f%% %10.2f %14.1f %14.1f %12.1f%n", mode,
+                            ratio * 100, nanos / 1e6 / ROUNDS,
+                            (double) counter.count("datastore_v3") / ROUNDS,
+                            (double) counter.count("memcache") / ROUNDS,
+                            (double) reads / ROUNDS);
+                }
+            }
+        } finally {
+            // The helper tears down the delegate it installed.
+            ApiProxy.setDelegate(original);
+            helper.tearDown();
+        }
+    }
+
+    private static int warmed(List<Key<Conference>> keys, double ratio) {
+        return (int) Math.round(keys.size() * ratio);
+    }
+
+    /**
+     * Runs a query with the given share of the results cached, the refill is not counted.
+     */
+    private static int run(ConferenceQueryForm query, List<Key<Conference>> keys, Mode mode,
+                           double ratio, CountingDelegate counter) {
+        InstanceCache.clear();
+        ofy().clear();
+        counter.paused = true;
+        InstanceCache.getConferences(keys.subList(0, warmed(keys, ratio)));
+        ofy().clear();
+        counter.paused = false;
+        return ConferenceQueries.list(query, mode).size();
+    }
+
+    /**
+     * Counts the API calls, by service.
+     */
+    private static class CountingDelegate implements ApiProxy.Delegate<ApiProxy.Environment> {
+
+        private final ApiProxy.Delegate<ApiProxy.Environment> delegate;
+
+        private final AtomicLongMap<String> calls = AtomicLongMap.create();
+
+        private volatile boolean paused;
+
+        CountingDelegate(ApiProxy.Delegate<ApiProxy.Environment> delegate) {
+            this.delegate = delegate;
+        }
+
+        long count(String service) {
+            return calls.get(service);
+        }
+
+        @Override
+        public byte[] makeSyncCall(ApiProxy.Environment environment, String service,
+                                   String method, byte[] request)
+                throws ApiProxy.ApiProxyException {
+            if (!paused) {
+                calls.incrementAndGet(service);
+            }
+            return delegate.makeSyncCall(environment, service, method, request);
+        }
+
+        @Override
+        public Future<byte[]> makeAsyncCall(ApiProxy.Environment environment, String service,
+                                            String method, byte[] request,
+                                            ApiProxy.ApiConfig config) {
+            if (!paused) {
+                calls.incrementAndGet(service);
+            }
+            return delegate.makeAsyncCall(environment, service, method, request, config);
+        }
+
+        @Override
+        public void log(ApiProxy.Environment environment, ApiProxy.LogRecord record) {
+            delegate.log(environment, record);
+        }
+
+        @Override
+        public void flushLogs(ApiProxy.Environment environment) {
+            delegate.flushLogs(environment);
+        }
+
+        @Override
+        public List<Thread> getRequestThreads(ApiProxy.Environment environment) {
+            return delegate.getRequestThreads(environment);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.devrel.training.conference.domain.EndpointStats;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests for EndpointProfiler.
+ */
+public class EndpointProfilerTest {
+
+    @After
+    public void tearDown() throws Exception {
+        EndpointProfiler.stop();
+        System.clearProperty("profiler.maxSamplePercent");
+    }
+
+    @Test
+    public void testCapsAndSingleProfile() throws Exception {
+        String status = EndpointProfiler.start(60, 50, false);
+        assertTrue(status, status.startsWith("Running, 10% of the calls"));
+        try {
+            EndpointProfiler.start(60, 1, false);
+            fail("A second profile started");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        EndpointProfiler.stop();
+        assertTrue(EndpointProfiler.getStatus().startsWith("Over"));
+        EndpointProfiler.start(60, 1, false);
+    }
+
+    @Test
+    public void testRecordsSampledCalls() throws Exception {
+        System.setProperty("profiler.maxSamplePercent", "100");
+        EndpointProfiler.start(60, 100, false);
+        for (int i = 0; i < 3; i++) {
+            EndpointProfiler.Sample sample = EndpointProfiler.begin();
+            assertNotNull(sample);
+            byte[][] garbage = new byte[16][];
+            for (int j = 0; j < garbage.length; j++) {
+                garbage[j] = new byte[1024];
+            }
+            EndpointProfiler.end(sample, i == 0 ? "getProfile" : "queryConferences");
+        }
+        List<EndpointStats> stats = EndpointProfiler.getStats();
+        assertEquals(2, stats.size());
+        // The most allocating first, or the most called.
+        EndpointStats queries = stats.get(0);
+        assertEquals("queryConferences", queries.getMethod());
+        assertEquals(2, queries.getCalls());
+        if (EndpointProfiler.isAllocationSupported()) {
+            assertTrue(queries.getAverageAllocatedBytes() >= 16 * 1024);
+        }
+
+        EndpointProfiler.stop();
+        assertNull(EndpointProfiler.begin());
+        assertNull(EndpointProfiler.getRecording());
+    }
+}
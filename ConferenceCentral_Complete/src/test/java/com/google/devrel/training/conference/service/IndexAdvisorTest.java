@@ -0,0 +1,133 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for IndexAdvisor and QueryShape.
+ */
+public class IndexAdvisorTest {
+
+    private static final String INDEXES = "<datastore-indexes autoGenerate=\"true\">"
+            + "<datastore-index kind=\"Conference\" ancestor=\"false\" source=\"auto\">"
+            + "<property name=\"city\" direction=\"asc\"/>"
+            + "<property name=\"name\" direction=\"asc\"/>"
+            + "</datastore-index>"
+            + "<datastore-index kind=\"Conference\" ancestor=\"false\" source=\"auto\">"
+            + "<property name=\"topics\" direction=\"asc\"/>"
+            + "<property name=\"name\" direction=\"asc\"/>"
+            + "</datastore-index>"
+            + "<datastore-index kind=\"Conference\" ancestor=\"false\" source=\"auto\">"
+            + "<property name=\"city\" direction=\"asc\"/>"
+            + "<property name=\"topics\" direction=\"asc\"/>"
+            + "<property name=\"name\" direction=\"asc\"/>"
+            + "</datastore-index>"
+            + "<datastore-index kind=\"Conference\" ancestor=\"false\" source=\"auto\">"
+            + "<property name=\"topics\" direction=\"asc\"/>"
+            + "<property name=\"maxAttendees\" direction=\"asc\"/>"
+            + "<property name=\"name\" direction=\"asc\"/>"
+            + "</datastore-index>"
+            + "<datastore-index kind=\"Session\" ancestor=\"false\" source=\"manual\">"
+            + "<property name=\"sessionType\" direction=\"asc\"/>"
+            + "<property name=\"startTime\" direction=\"asc\"/>"
+            + "</datastore-index>"
+            + "</datastore-indexes>";
+
+    private static final List<String> BY_NAME = Collections.singletonList("name");
+
+    private static QueryShape conferenceQuery(List<String> equalities, String inequality) {
+        return new QueryShape("Conference", false, equalities, inequality, BY_NAME);
+    }
+
+    private static DatastoreIndex conferenceIndex(String... properties) {
+        return new DatastoreIndex("Conference", false, Arrays.asList(properties));
+    }
+
+    @Test
+    public void testShapeRoundTrip() throws Exception {
+        QueryShape shape = conferenceQuery(Arrays.asList("topics", "city"), "month");
+        assertEquals("Conference|-|eq=city,topics|ineq=month|sort=month,name",
+                shape.toString());
+        assertEquals(shape, QueryShape.parse(shape.toString()));
+    }
+
+    @Test
+    public void testRequiredIndexes() throws Exception {
+        // A single sort, or equalities alone, use the built-in indexes.
+        assertTrue(new QueryShape("Conference", false, Collections.<String>emptyList(), null,
+                BY_NAME).requiredIndexes().isEmpty());
+        assertTrue(new QueryShape("Session", true, Collections.singletonList("sessionType"),
+                null, Collections.<String>emptyList()).requiredIndexes().isEmpty());
+        // Equalities are merged, one index each.
+        assertEquals(ImmutableList.of(conferenceIndex("city", "name"),
+                conferenceIndex("topics", "name")),
+                conferenceQuery(Arrays.asList("city", "topics"), null).requiredIndexes());
+        // An inequality needs all the properties in one index.
+        assertEquals(ImmutableList.of(conferenceIndex("topics", "maxAttendees", "name")),
+                conferenceQuery(Arrays.asList("topics"), "maxAttendees").requiredIndexes());
+    }
+
+    @Test
+    public void testIsSupportedBy() throws Exception {
+        List<DatastoreIndex> merged = ImmutableList.of(conferenceIndex("city", "name"),
+                conferenceIndex("topics", "name"));
+        assertTrue(conferenceQuery(Arrays.asList("city", "topics"), null)
+                .isSupportedBy(merged));
+        assertFalse(conferenceQuery(Arrays.asList("city", "month"), null)
+                .isSupportedBy(merged));
+        assertFalse(conferenceQuery(Arrays.asList("city"), "maxAttendees")
+                .isSupportedBy(merged));
+        assertTrue(conferenceQuery(Arrays.asList("city"), "maxAttendees")
+                .isSupportedBy(ImmutableList.of(conferenceIndex("city", "maxAttendees", "name"))));
+    }
+
+    @Test
+    public void testAdvise() throws Exception {
+        List<DatastoreIndex> current = IndexAdvisor.parseIndexes(
+                new ByteArrayInputStream(INDEXES.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(5, current.size());
+
+        Map<QueryShape, Long> usage = ImmutableMap.of(
+                conferenceQuery(Arrays.asList("city", "topics"), null), 50L,
+                conferenceQuery(Arrays.asList("topics"), "maxAttendees"), 2L,
+                new QueryShape("Conference", true, Collections.<String>emptyList(), null,
+                        BY_NAME), 20L);
+        Map<String, Map<String, Double>> valuesPerProperty = ImmutableMap.<String,
+                Map<String, Double>>of("Conference", ImmutableMap.of("topics", 3.0));
+        IndexAdvisor.Advice advice = IndexAdvisor.advise(current, usage, 10,
+                valuesPerProperty);
+
+        // The Session index is kept, no Session query was recorded.
+        assertEquals(ImmutableList.of(conferenceIndex("city", "name"),
+                conferenceIndex("topics", "name"), current.get(4)), advice.getKeep());
+        assertEquals(ImmutableList.of(conferenceIndex("city", "topics", "name"),
+                conferenceIndex("topics", "maxAttendees", "name")), advice.getPrune());
+        assertEquals(ImmutableList.of(new DatastoreIndex("Conference", true, BY_NAME)),
+                advice.getAdd());
+
+        // The rare query, and the one the pruned index was made for.
+        Map<QueryShape, Long> lost = advice.getLostQueries();
+        assertEquals(Long.valueOf(2),
+                lost.get(conferenceQuery(Arrays.asList("topics"), "maxAttendees")));
+        assertEquals(Long.valueOf(0), lost.get(new QueryShape("Conference", false,
+                Arrays.asList("maxAttendees", "topics"), null, BY_NAME)));
+        // The merged query keeps its support.
+        assertFalse(lost.containsKey(conferenceQuery(Arrays.asList("city", "topics"), null)));
+
+        assertEquals(3.0, advice.rowsPerEntity(conferenceIndex("city", "topics", "name")), 0);
+        assertFalse(advice.isWrittenBySeatBookings(conferenceIndex("city", "name")));
+        assertEquals(4, IndexAdvisor.parseIndexes(new ByteArrayInputStream(
+                advice.toXml().getBytes(StandardCharsets.UTF_8))).size());
+    }
+}
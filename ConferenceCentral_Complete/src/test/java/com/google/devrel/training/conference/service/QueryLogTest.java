@@ -0,0 +1,83 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.devrel.training.conference.domain.QueryShapeStats;
+import com.google.devrel.training.conference.service.ConferenceQueries.Mode;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests for QueryLog.
+ */
+public class QueryLogTest {
+
+    @After
+    public void tearDown() throws Exception {
+        QueryLog.reset();
+    }
+
+    @Test
+    public void testAggregatesByShape() throws Exception {
+        QueryLog.record("CITY:EQ", Mode.ENTITIES, 10, 4, 4);
+        QueryLog.record("CITY:EQ", Mode.KEYS_ONLY, 30, 2, 0);
+        QueryLog.record("NONE", Mode.ENTITIES, 5, 1, 1);
+
+        List<QueryShapeStats> stats = QueryLog.getStats();
+        assertEquals(2, stats.size());
+        // The most time consuming first.
+        QueryShapeStats city = stats.get(0);
+        assertEquals("CITY:EQ", city.getShape());
+        assertEquals("KEYS_ONLY", city.getMode());
+        assertEquals(2, city.getCount());
+        assertEquals(20, city.getAverageMillis());
+        assertEquals(30, city.getMaxMillis());
+        assertEquals(3, city.getAverageResults());
+        assertEquals(4, city.getMaxResults());
+        assertEquals(4, city.getEntitiesLoaded());
+        assertEquals(0, city.getSlowCount());
+        assertFalse(city.isFlagged());
+        assertEquals("NONE", stats.get(1).getShape());
+    }
+
+    @Test
+    public void testFlagsSlowAndLargeShapes() throws Exception {
+        System.setProperty("queryLog.slowMillis", "100");
+        System.setProperty("queryLog.largeResults", "50");
+        try {
+            QueryLog.record("MONTH:GT", Mode.ENTITIES, 150, 1, 1);
+            QueryLog.record("MONTH:GT", Mode.ENTITIES, 150, 1, 1);
+            QueryLog.record("TOPIC:EQ", Mode.ENTITIES, 1, 60, 60);
+            QueryLog.record("CITY:EQ", Mode.ENTITIES, 150, 1, 1);
+            QueryLog.record("CITY:EQ", Mode.ENTITIES, 10, 1, 1);
+            QueryLog.record("CITY:EQ", Mode.ENTITIES, 10, 1, 1);
+
+            for (QueryShapeStats stats : QueryLog.getStats()) {
+                if (stats.getShape().equals("MONTH:GT")) {
+                    assertTrue(stats.isFlagged());
+                    assertEquals(2, stats.getSlowCount());
+                } else if (stats.getShape().equals("TOPIC:EQ")) {
+                    assertTrue(stats.isFlagged());
+                } else {
+                    // One slow query is not enough, the average is under the threshold.
+                    assertEquals(1, stats.getSlowCount());
+                    assertFalse(stats.isFlagged());
+                }
+            }
+        } finally {
+            System.clearProperty("queryLog.slowMillis");
+            System.clearProperty("queryLog.largeResults");
+        }
+    }
+
+    @Test
+    public void testBoundedShapes() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            QueryLog.record("SHAPE" + i, Mode.ENTITIES, 1, 1, 1);
+        }
+        assertTrue(QueryLog.getStats().size() <= 200);
+    }
+}
@@ -0,0 +1,82 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for SingleFlight.
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallersShareOneLoad() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final SingleFlight.Loader<String> loader = new SingleFlight.Loader<String>() {
+            @Override
+            public String load() {
+                loads.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "value";
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Callable<String> call = new Callable<String>() {
+                @Override
+                public String call() {
+                    return SingleFlight.coalesce("key", loader);
+                }
+            };
+            Future<String> leader = executor.submit(call);
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<String> follower1 = executor.submit(call);
+            Future<String> follower2 = executor.submit(call);
+            // Let the followers reach the load in flight.
+            Thread.sleep(100);
+            release.countDown();
+            assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("value", follower1.get(5, TimeUnit.SECONDS));
+            assertEquals("value", follower2.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsNotShared() throws Exception {
+        try {
+            SingleFlight.coalesce("failing", new SingleFlight.Loader<String>() {
+                @Override
+                public String load() {
+                    throw new IllegalArgumentException("failed");
+                }
+            });
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertNull(SingleFlight.coalesce("failing", new SingleFlight.Loader<String>() {
+            @Override
+            public String load() {
+                return null;
+            }
+        }));
+    }
+}
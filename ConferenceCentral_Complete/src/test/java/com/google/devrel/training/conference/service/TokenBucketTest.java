@@ -0,0 +1,41 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for TokenBucket.
+ */
+public class TokenBucketTest {
+
+    private static final long NOW = 1000000L;
+
+    @Test
+    public void testBurstUpToCapacity() throws Exception {
+        TokenBucket bucket = new TokenBucket(3, 60, NOW);
+        assertTrue(bucket.tryAcquire(NOW));
+        assertTrue(bucket.tryAcquire(NOW));
+        assertTrue(bucket.tryAcquire(NOW));
+        assertFalse(bucket.tryAcquire(NOW));
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        // 60 per minute means one token per second.
+        TokenBucket bucket = new TokenBucket(1, 60, NOW);
+        assertTrue(bucket.tryAcquire(NOW));
+        assertFalse(bucket.tryAcquire(NOW + 500));
+        assertTrue(bucket.tryAcquire(NOW + 1000));
+        assertFalse(bucket.tryAcquire(NOW + 1000));
+    }
+
+    @Test
+    public void testRefillDoesNotExceedCapacity() throws Exception {
+        TokenBucket bucket = new TokenBucket(2, 60, NOW);
+        long later = NOW + 3600000;
+        assertTrue(bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later));
+        assertFalse(bucket.tryAcquire(later));
+    }
+}
@@ -3,20 +3,62 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.ForbiddenException;
+import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
+import com.google.devrel.training.conference.domain.AttendanceEvent;
+import com.google.devrel.training.conference.domain.AttendanceStats;
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.ChangeFeedPage;
+import com.google.devrel.training.conference.domain.ChangeFeedSequence;
+import com.google.devrel.training.conference.domain.ChangeRecord;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ExportJob;
+import com.google.devrel.training.conference.domain.ExportJob.Format;
+import com.google.devrel.training.conference.domain.ExportJob.Kind;
+import com.google.devrel.training.conference.domain.ImportJob;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.SessionSummary;
+import com.google.devrel.training.conference.domain.SpeakerSessions;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ProfileForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.form.SessionForm;
+import com.google.devrel.training.conference.service.AgendaService;
+import com.google.devrel.training.conference.service.AttendanceAnalytics;
+import com.google.devrel.training.conference.service.AttendeeIndex;
+import com.google.devrel.training.conference.service.ChangeFeed;
+import com.google.devrel.training.conference.service.ConferenceImporter;
+import com.google.devrel.training.conference.service.ConferenceQueries;
+import com.google.devrel.training.conference.service.ExportService;
+import com.google.devrel.training.conference.service.InstanceCache;
+import com.google.devrel.training.conference.service.Prewarmer;
+import com.google.devrel.training.conference.service.SeatHolds;
+import com.google.devrel.training.conference.service.SpeakerIndex;
+import com.googlecode.objectify.Key;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Tests for ConferenceApi API methods.
@@ -112,6 +154,7 @@ public class ConferenceApiGlobalQueryTest {
     @After
     public void tearDown() throws Exception {
         ofy().clear();
+        InstanceCache.clear();
         helper.tearDown();
     }
 
@@ -129,6 +172,53 @@ public class ConferenceApiGlobalQueryTest {
         assertEquals(conference2, conferences.get(2));
     }
 
+    @Test
+    public void testKeysOnlyQuery() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Platform"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MONTH,
+                        ConferenceQueryForm.Operator.GT,
+                        "1"
+                ));
+        assertEquals("MONTH:GT&TOPIC:EQ", conferenceQueryForm.getShape());
+        assertEquals(ConferenceQueries.Mode.ENTITIES,
+                ConferenceQueries.modeFor(conferenceQueryForm.getShape()));
+        List<Conference> expected = ConferenceQueries.list(conferenceQueryForm,
+                ConferenceQueries.Mode.ENTITIES);
+
+        System.setProperty("conferenceQuery.keysOnlyShapes", "CITY:EQ, MONTH:GT&TOPIC:EQ");
+        try {
+            assertEquals(ConferenceQueries.Mode.KEYS_ONLY,
+                    ConferenceQueries.modeFor(conferenceQueryForm.getShape()));
+            ofy().clear();
+            List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+            assertEquals(expected.size(), conferences.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getWebsafeKey(), conferences.get(i).getWebsafeKey());
+            }
+
+            // A Conference saved since is read again, the others come from the cache.
+            ofy().clear();
+            Conference changed = ofy().load().entity(conference3).now();
+            changed.bookSeats(1);
+            ofy().save().entity(changed).now();
+            ofy().clear();
+            for (Conference conference : conferenceApi.queryConferences(conferenceQueryForm)) {
+                int seatsBooked = conference.getWebsafeKey().equals(changed.getWebsafeKey())
+                        ? 1 : 0;
+                assertEquals(conference.getMaxAttendees() - seatsBooked,
+                        conference.getSeatsAvailable());
+            }
+        } finally {
+            System.clearProperty("conferenceQuery.keysOnlyShapes");
+        }
+    }
+
     @Test
     public void testCityQuery() throws Exception {
         // A query only specifies the city.
@@ -266,6 +356,346 @@ public class ConferenceApiGlobalQueryTest {
         assertEquals(conference3, conferences.get(1));
     }
 
+    @Test
+    public void testChangeFeed() throws Exception {
+        System.setProperty("changefeed.readers", "sync@gmail.com");
+        try {
+            User reader = new User("sync@gmail.com", "gmail.com", "sync");
+            User user = new User("user@gmail.com", "gmail.com", USER_ID);
+            Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                    NAME1, DESCRIPTION1, TOPICS1, CITY1, startDate1, endDate1, CAP1), null);
+            conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
+
+            // Nothing is served before it is sequenced, then published by the next run.
+            assertEquals(0, conferenceApi.getChanges(reader, null, 10).getChanges().size());
+            assertEquals(2, ChangeFeed.sequence());
+            assertEquals(0, conferenceApi.getChanges(reader, null, 10).getChanges().size());
+            assertEquals(0, ChangeFeed.sequence());
+
+            ChangeFeedPage page = conferenceApi.getChanges(reader, null, 1);
+            assertEquals(1, page.getChanges().size());
+            assertEquals(ChangeRecord.ChangeType.CONFERENCE_CREATED,
+                    page.getChanges().get(0).getType());
+            assertEquals(conference.getWebsafeKey(), page.getChanges().get(0).getWebsafeKey());
+            assertTrue(page.isMore());
+
+            page = conferenceApi.getChanges(reader, page.getPosition(), 10);
+            assertEquals(1, page.getChanges().size());
+            assertEquals(ChangeRecord.ChangeType.REGISTERED, page.getChanges().get(0).getType());
+            assertEquals(USER_ID, page.getChanges().get(0).getUserId());
+            assertFalse(page.isMore());
+
+            // Nothing new, the position stays where it was.
+            String position = page.getPosition();
+            page = conferenceApi.getChanges(reader, position, 10);
+            assertEquals(0, page.getChanges().size());
+            assertEquals(position, page.getPosition());
+        } finally {
+            System.clearProperty("changefeed.readers");
+        }
+    }
+
+    @Test
+    public void testChangeFeedSequencerLease() throws Exception {
+        User user = new User("user@gmail.com", "gmail.com", USER_ID);
+        conferenceApi.createConference(user, new ConferenceForm(NAME1, DESCRIPTION1, TOPICS1,
+                CITY1, startDate1, endDate1, CAP1), null);
+        // Another run holds the lease: nothing is sequenced until it ends.
+        ChangeFeedSequence sequence = new ChangeFeedSequence();
+        assertTrue(sequence.lease(System.currentTimeMillis(), 60000));
+        ofy().save().entity(sequence).now();
+        assertEquals(0, ChangeFeed.sequence());
+
+        sequence.release();
+        ofy().save().entity(sequence).now();
+        assertEquals(1, ChangeFeed.sequence());
+        // The run released the lease, and the records it sequenced are not sequenced again.
+        assertEquals(0, ChangeFeed.sequence());
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testChangeFeedForOtherUser() throws Exception {
+        conferenceApi.getChanges(new User("user@gmail.com", "gmail.com", USER_ID), null, null);
+    }
+
+    @Test
+    public void testExportAttendees() throws Exception {
+        // Small chunks, so that the export takes several requests.
+        System.setProperty("export.chunkSize", "2");
+        try {
+            User organizer = new User("user@gmail.com", "gmail.com", USER_ID);
+            Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                    NAME1, DESCRIPTION1, TOPICS1, CITY1, startDate1, endDate1, CAP1), null);
+            registerAttendees(conference, 3);
+            Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+
+            // A deadline in the past stops after every chunk, resume until there is no cursor.
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ExportService.Progress progress = ExportService.write(conferenceKey, Kind.ATTENDEES,
+                    Format.CSV, null, out, 0);
+            long rows = progress.getRows();
+            int requests = 1;
+            while (progress.getCursor() != null) {
+                progress = ExportService.write(conferenceKey, Kind.ATTENDEES, Format.CSV,
+                        progress.getCursor(), out, 0);
+                rows += progress.getRows();
+                requests++;
+            }
+            assertEquals(3, rows);
+            assertTrue(requests > 1);
+            assertEquals("userId,displayName,mainEmail,teeShirtSize\r\n"
+                    + "attendee0,\"Attendee, 0\",attendee0@gmail.com,M\r\n"
+                    + "attendee1,\"Attendee, 1\",attendee1@gmail.com,M\r\n"
+                    + "attendee2,\"Attendee, 2\",attendee2@gmail.com,M\r\n",
+                    out.toString("UTF-8"));
+        } finally {
+            System.clearProperty("export.chunkSize");
+        }
+    }
+
+    @Test
+    public void testBackgroundExport() throws Exception {
+        File directory = Files.createTempDir();
+        System.setProperty("export.dir", directory.getPath());
+        try {
+            User organizer = new User("user@gmail.com", "gmail.com", USER_ID);
+            Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                    NAME1, DESCRIPTION1, TOPICS1, CITY1, startDate1, endDate1, CAP1), null);
+            registerAttendees(conference, 2);
+
+            ExportJob job = conferenceApi.startExport(organizer, conference.getWebsafeKey(),
+                    Kind.ATTENDEES, Format.JSON, null);
+            assertFalse(job.isDone());
+            ExportService.runPart(job.getKey().getString(), 0);
+            // Running the same part again does nothing.
+            ExportService.runPart(job.getKey().getString(), 0);
+            ofy().clear();
+
+            job = conferenceApi.getExport(organizer, conference.getWebsafeKey(), job.getId());
+            assertTrue(job.isDone());
+            assertEquals(2, job.getRows());
+            assertEquals(1, job.getParts().size());
+            File part = new File(directory, job.getParts().get(0));
+            try (Reader reader = new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(part)), Charsets.UTF_8)) {
+                assertEquals("{\"userId\":\"attendee0\",\"displayName\":\"Attendee, 0\","
+                        + "\"mainEmail\":\"attendee0@gmail.com\",\"teeShirtSize\":\"M\"}\n"
+                        + "{\"userId\":\"attendee1\",\"displayName\":\"Attendee, 1\","
+                        + "\"mainEmail\":\"attendee1@gmail.com\",\"teeShirtSize\":\"M\"}\n",
+                        CharStreams.toString(reader));
+            }
+        } finally {
+            System.clearProperty("export.dir");
+            deleteRecursively(directory);
+        }
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testExportForOtherUser() throws Exception {
+        conferenceApi.startExport(new User("other@gmail.com", "gmail.com", "other"),
+                conference1.getWebsafeKey(), Kind.ATTENDEES, Format.CSV, null);
+    }
+
+    @Test
+    public void testBulkImport() throws Exception {
+        User organizer = new User("user@gmail.com", "gmail.com", USER_ID);
+        conferenceApi.saveProfile(organizer, new ProfileForm("Organizer", TeeShirtSize.M));
+        String upload = "organizerUserId,name,city,maxAttendees\n"
+                + USER_ID + ",Imported 1,Tokyo,100\n"
+                + "unknown,Imported 2,Tokyo,100\n"
+                + USER_ID + ",Imported 3,Tokyo,not a number\n"
+                + USER_ID + ",Imported 4,Tokyo,200\n";
+        ImportJob job = ConferenceImporter.upload(USER_ID, new StringReader(upload), Format.CSV,
+                true);
+        assertEquals(1, job.getChunks());
+        assertEquals(1, job.getRejected());
+
+        // Run the chunk as its task would, twice as a retried task would.
+        ConferenceImporter.importChunk(job.getId(), 1);
+        ConferenceImporter.importChunk(job.getId(), 1);
+        ConferenceImporter.finish(job.getId(), 1);
+        ofy().clear();
+
+        job = ConferenceImporter.getStatus(job.getId());
+        assertTrue(job.isDone());
+        assertEquals(2, job.getImported());
+        assertEquals(1, job.getFailed());
+        assertEquals(2, job.getErrors().size());
+        List<Conference> imported = ofy().load().type(Conference.class)
+                .ancestor(Key.create(Profile.class, USER_ID)).list();
+        assertEquals(2, imported.size());
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testBackfillAttendees() throws Exception {
+        User organizer = new User("user@gmail.com", "gmail.com", USER_ID);
+        Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                NAME1, DESCRIPTION1, TOPICS1, CITY1, startDate1, endDate1, CAP1), null);
+        registerAttendees(conference, 2);
+        Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+        // Registrations made before the index existed.
+        ofy().delete().keys(ofy().load().type(Attendee.class).ancestor(conferenceKey).keys())
+                .now();
+        assertEquals(0, AttendeeIndex.count(conferenceKey));
+
+        AttendeeIndex.backfill(null);
+        assertEquals(2, AttendeeIndex.count(conferenceKey));
+        assertEquals(ImmutableList.of("attendee0", "attendee1"),
+                AttendeeIndex.list(conferenceKey, null, 10).getUserIds());
+    }
+
+    @Test
+    public void testConferenceAnalytics() throws Exception {
+        User organizer = new User("user@gmail.com", "gmail.com", USER_ID);
+        Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                NAME1, DESCRIPTION1, TOPICS1, CITY1, startDate1, endDate1, CAP1), null);
+        String websafeKey = conference.getWebsafeKey();
+        conferenceApi.registerForConference(organizer, websafeKey, null);
+        conferenceApi.unregisterFromConference(organizer, websafeKey, null);
+        conferenceApi.registerForConference(organizer, websafeKey, null);
+
+        // Nothing is folded before the aggregation runs.
+        assertEquals(0, conferenceApi.getConferenceAnalytics(organizer, websafeKey)
+                .getRegistrations());
+
+        assertEquals(3, AttendanceAnalytics.aggregate(websafeKey));
+        AttendanceStats stats = conferenceApi.getConferenceAnalytics(organizer, websafeKey);
+        assertEquals(2, stats.getRegistrations());
+        assertEquals(1, stats.getCancellations());
+        assertEquals(1, stats.getSeatsTaken());
+        assertEquals(0.5, stats.getCancellationRate(), 0.001);
+        assertEquals(1.0 / CAP1, stats.getFillRate(), 0.001);
+        assertEquals(1, stats.getHours().size());
+        assertEquals(2, stats.getHours().get(0).getRegistrations());
+        assertEquals(1, stats.getDays().size());
+
+        // The events are gone once folded.
+        assertEquals(0, AttendanceAnalytics.aggregate(websafeKey));
+    }
+
+    @Test
+    public void testAttendanceFoldIsIdempotent() throws Exception {
+        User organizer = new User("user@gmail.com", "gmail.com", USER_ID);
+        Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                NAME1, DESCRIPTION1, TOPICS1, CITY1, startDate1, endDate1, CAP1), null);
+        Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+        conferenceApi.registerForConference(organizer, conference.getWebsafeKey(), null);
+        List<AttendanceEvent> events = ofy().load().type(AttendanceEvent.class).list();
+
+        // A fold retried before its events were deleted.
+        AttendanceStats stats = AttendanceAnalytics.getStats(conference, conferenceKey);
+        assertEquals(1, stats.fold(events));
+        assertEquals(0, stats.fold(events));
+        assertEquals(1, stats.getRegistrations());
+    }
+
+    @Test
+    public void testBackfillSpeakerIndex() throws Exception {
+        User organizer = new User("user@gmail.com", "gmail.com", USER_ID);
+        Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                NAME1, DESCRIPTION1, TOPICS1, CITY1, startDate1, endDate1, CAP1), null);
+        User speaker = new User("speaker@gmail.com", "gmail.com", "speaker");
+        conferenceApi.saveProfile(speaker, new ProfileForm("Speaker", TeeShirtSize.M));
+        String speakerKey = Key.create(Profile.class, "speaker").getString();
+        conferenceApi.createSession(organizer, conference.getWebsafeKey(), new SessionForm(
+                "Keynote", null, ImmutableList.of(speakerKey), 60, Session.SessionType.KEYNOTE,
+                startDate1, null, "10:00"), null);
+        // Sessions created before the index existed.
+        ofy().delete().keys(ofy().load().type(SpeakerSessions.class).keys()).now();
+        assertTrue(conferenceApi.getSessionsBySpeakers(ImmutableList.of(speakerKey), null)
+                .get(0).getSessions().isEmpty());
+
+        SpeakerIndex.backfill(null);
+        List<SessionSummary> sessions = conferenceApi.getSessionsBySpeakers(
+                ImmutableList.of(speakerKey), null).get(0).getSessions();
+        assertEquals(1, sessions.size());
+        assertEquals(ImmutableList.of("Speaker"), sessions.get(0).getSpeakerNames());
+
+        // A rename reaches the index with the agenda rebuilds.
+        conferenceApi.saveProfile(speaker, new ProfileForm("Renamed", TeeShirtSize.M));
+        AgendaService.scheduleRebuildsForProfile(speakerKey);
+        sessions = conferenceApi.getSessionsBySpeakers(ImmutableList.of(speakerKey), null)
+                .get(0).getSessions();
+        assertEquals(ImmutableList.of("Renamed"), sessions.get(0).getSpeakerNames());
+    }
+
+    @Test
+    public void testSweepSeatHolds() throws Exception {
+        User organizer = new User("user@gmail.com", "gmail.com", USER_ID);
+        Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                NAME1, DESCRIPTION1, TOPICS1, CITY1, startDate1, endDate1, CAP1), null);
+        String websafeKey = conference.getWebsafeKey();
+        User confirming = new User("confirming@gmail.com", "gmail.com", "confirming");
+        System.setProperty("seatHold.ttlSeconds", "0");
+        try {
+            conferenceApi.holdSeat(organizer, websafeKey);
+            conferenceApi.holdSeat(confirming, websafeKey);
+        } finally {
+            System.clearProperty("seatHold.ttlSeconds");
+        }
+        // A confirmed hold is kept until it is finalized, even past its expiry.
+        ofy().save().entity(confirmedHold(websafeKey, confirming)).now();
+
+        assertEquals(1, SeatHolds.sweep());
+        assertEquals(0, SeatHolds.sweep());
+        ofy().clear();
+        assertEquals(CAP1 - 1, conferenceApi.getConference(websafeKey, null)
+                .getSeatsAvailable());
+    }
+
+    @Test
+    public void testSchedulePrewarm() throws Exception {
+        User organizer = new User("user@gmail.com", "gmail.com", USER_ID);
+        Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                NAME1, DESCRIPTION1, TOPICS1, CITY1, startDate1, endDate1, CAP1), null);
+        String websafeKey = conference.getWebsafeKey();
+        conferenceApi.createConference(organizer, new ConferenceForm(
+                NAME2, DESCRIPTION2, TOPICS2, CITY2, startDate2, endDate2, CAP2), null);
+        Date opensAt = new Date(System.currentTimeMillis() + 60000);
+        conferenceApi.scheduleRegistrationOpening(organizer, websafeKey, opensAt);
+
+        // Only the opening within the lead time, and only once.
+        assertEquals(1, Prewarmer.schedule());
+        assertEquals(0, Prewarmer.schedule());
+
+        // The report is due at once.
+        System.setProperty("prewarm.reportAfterMinutes", "-10");
+        try {
+            Prewarmer.warm(websafeKey, opensAt.getTime());
+        } finally {
+            System.clearProperty("prewarm.reportAfterMinutes");
+        }
+        Prewarmer.schedule();
+        assertNotNull(conferenceApi.getPrewarmReport(organizer, websafeKey, opensAt)
+                .getReportedAt());
+    }
+
+    private SeatHold confirmedHold(String websafeKey, User user) {
+        SeatHold hold = ofy().load().key(SeatHold.key(Key.<Conference>create(websafeKey),
+                user.getUserId())).now();
+        hold.confirm();
+        return hold;
+    }
+
+    private void registerAttendees(Conference conference, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            User attendee = new User("attendee" + i + "@gmail.com", "gmail.com", "attendee" + i);
+            conferenceApi.saveProfile(attendee, new ProfileForm("Attendee, " + i,
+                    TeeShirtSize.M));
+            conferenceApi.registerForConference(attendee, conference.getWebsafeKey(), null);
+        }
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testMultipleInequalityFilter() throws Exception {
         // A query specifies the maxAttendees <= 1000 and month != 6.
@@ -3,29 +3,57 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.base.Strings;
+import com.google.devrel.training.conference.domain.AttendeePage;
+import com.google.devrel.training.conference.domain.BatchResult;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.PrewarmRun;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.WaitingRoom;
+import com.google.devrel.training.conference.domain.WaitingRoomStatus;
+import com.google.devrel.training.conference.form.BatchForm;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.EntityVersions;
+import com.google.devrel.training.conference.service.IdempotencyKeys;
+import com.google.devrel.training.conference.service.InstanceCache;
+import com.google.devrel.training.conference.service.Prewarmer;
+import com.google.devrel.training.conference.service.SeatHolds;
+import com.google.devrel.training.conference.service.UpcomingConferences;
+import com.google.devrel.training.conference.service.WaitingRooms;
 import com.googlecode.objectify.Key;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * Tests for ConferenceApi API methods.
@@ -68,19 +96,20 @@ public class ConferenceApiTest {
     @After
     public void tearDown() throws Exception {
         ofy().clear();
+        InstanceCache.clear();
         helper.tearDown();
     }
 
     @Test(expected = UnauthorizedException.class)
     public void testGetProfileWithoutUser() throws Exception {
-        conferenceApi.getProfile(null);
+        conferenceApi.getProfile(null, null);
     }
 
     @Test
     public void testGetProfileFirstTime() throws Exception {
         Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertNull(profile);
-        profile = conferenceApi.getProfile(user);
+        profile = conferenceApi.getProfile(user, null);
         assertNull(profile);
     }
 
@@ -124,7 +153,7 @@ public class ConferenceApiTest {
     public void testGetProfile() throws Exception {
         conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
         // Fetch the Profile via the API.
-        Profile profile = conferenceApi.getProfile(user);
+        Profile profile = conferenceApi.getProfile(user, null);
         assertEquals(USER_ID, profile.getUserId());
         assertEquals(EMAIL, profile.getMainEmail());
         assertEquals(TEE_SHIRT_SIZE, profile.getTeeShirtSize());
@@ -182,7 +211,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
@@ -214,7 +243,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
 
         List<Conference> conferencesCreated = conferenceApi.getConferencesCreated(user);
         assertEquals(1, conferencesCreated.size());
@@ -234,7 +263,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
@@ -284,8 +313,8 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
-        conference = conferenceApi.getConference(conference.getWebsafeKey());
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        conference = conferenceApi.getConference(conference.getWebsafeKey(), null);
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
@@ -299,6 +328,295 @@ public class ConferenceApiTest {
         assertEquals(MONTH, conference.getMonth());
     }
 
+    @Test
+    public void testGetConferenceNotModified() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String etag = conferenceApi.getConference(conference.getWebsafeKey(), null).getEtag();
+        try {
+            conferenceApi.getConference(conference.getWebsafeKey(), requestWithIfNoneMatch(etag));
+            fail("NotModifiedException expected");
+        } catch (NotModifiedException e) {
+            assertEquals(etag, e.getHeaders().get("ETag"));
+        }
+        // A save bumps the version, so the old ETag doesn't match anymore.
+        conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
+        conference = conferenceApi.getConference(conference.getWebsafeKey(),
+                requestWithIfNoneMatch(etag));
+        assertNotEquals(etag, conference.getEtag());
+        assertEquals(CAP - 1, conference.getSeatsAvailable());
+    }
+
+    @Test
+    public void testGetConferenceSeesChangesFromOtherInstances() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        // Every call below stands for a request of its own.
+        ofy().clear();
+        Conference cached = conferenceApi.getConference(conference.getWebsafeKey(), null);
+        assertSame(cached, conferenceApi.getConference(conference.getWebsafeKey(), null));
+
+        // A save made elsewhere records a new version, so the cached copy is not served.
+        Conference changed = ofy().load().key(Key.<Conference>create(conference.getWebsafeKey()))
+                .now();
+        changed.bookSeats(1);
+        ofy().save().entity(changed).now();
+        ofy().clear();
+        Conference reloaded = conferenceApi.getConference(conference.getWebsafeKey(), null);
+        assertNotSame(cached, reloaded);
+        assertEquals(CAP - 1, reloaded.getSeatsAvailable());
+    }
+
+    @Test
+    public void testGetUnknownConferenceIsRemembered() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        Entity entity = ofy().save().toEntity(conference);
+        ofy().delete().entity(conference).now();
+        // As if memcache lost the version of the deleted Conference.
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        InstanceCache.clear();
+        ofy().clear();
+        try {
+            conferenceApi.getConference(websafeKey, null);
+            fail("NotFoundException expected");
+        } catch (NotFoundException e) {
+            // Expected.
+        }
+
+        // Put back behind the caches, the Conference is still unknown: it is not read again.
+        // Without a version, the put doesn't record one either.
+        entity.removeProperty("version");
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+        try {
+            conferenceApi.getConference(websafeKey, null);
+            fail("NotFoundException expected");
+        } catch (NotFoundException e) {
+            // Expected.
+        }
+
+        // Saving records a version, which the mark of the unknown Conference gives way to.
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        EntityVersions.record(Key.create(websafeKey), conference.getVersion());
+        assertEquals(NAME, conferenceApi.getConference(websafeKey, null).getName());
+    }
+
+    @Test
+    public void testBatchGet() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        conferenceApi.registerForConference(user, websafeKey, null);
+        // A page load of its own.
+        ofy().clear();
+        InstanceCache.clear();
+
+        List<BatchResult> results = conferenceApi.batchGet(user, new BatchForm(Arrays.asList(
+                new BatchForm.Call("getConference", websafeKey),
+                new BatchForm.Call("getProfile", null),
+                new BatchForm.Call("getConferencesToAttend", null),
+                new BatchForm.Call("getConference", "malformed"),
+                new BatchForm.Call("deleteConference", websafeKey),
+                new BatchForm.Call("getConference", Key.create(Conference.class, 404L)
+                        .getString()))));
+        assertEquals(6, results.size());
+        assertEquals(200, results.get(0).getCode());
+        assertEquals(CAP - 1, results.get(0).getConference().getSeatsAvailable());
+        assertEquals(Arrays.asList(websafeKey),
+                results.get(1).getProfile().getConferenceKeysToAttend());
+        assertEquals(NAME, results.get(2).getConferences().get(0).getName());
+        assertEquals(400, results.get(3).getCode());
+        assertNull(results.get(3).getConference());
+        assertEquals(400, results.get(4).getCode());
+        assertEquals(404, results.get(5).getCode());
+
+        // The calls fail on their own.
+        ofy().clear();
+        Conference warm = results.get(0).getConference();
+        results = conferenceApi.batchGet(null, new BatchForm(Arrays.asList(
+                new BatchForm.Call("getConference", websafeKey),
+                new BatchForm.Call("getProfile", null))));
+        assertEquals(200, results.get(0).getCode());
+        assertEquals(401, results.get(1).getCode());
+        // The warm Conference comes from the InstanceCache.
+        assertSame(warm, results.get(0).getConference());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testBatchGetTooManyCalls() throws Exception {
+        List<BatchForm.Call> calls = new ArrayList<>();
+        for (int i = 0; i <= 20; i++) {
+            calls.add(new BatchForm.Call("getAnnouncement", null));
+        }
+        conferenceApi.batchGet(user, new BatchForm(calls));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testBatchGetWithoutCalls() throws Exception {
+        // What the endpoint gets for a body of {}.
+        conferenceApi.batchGet(user, new BatchForm(null));
+    }
+
+    /**
+     * Returns a minimal HttpServletRequest carrying the If-None-Match header.
+     */
+    private static HttpServletRequest requestWithIfNoneMatch(String etag) {
+        return requestWithHeader("If-None-Match", etag);
+    }
+
+    /**
+     * Returns a minimal HttpServletRequest carrying one header.
+     */
+    private static HttpServletRequest requestWithHeader(final String name, final String value) {
+        final Map<String, Object> attributes = new HashMap<>();
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                HttpServletRequest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "getHeader":
+                                return name.equalsIgnoreCase((String) args[0]) ? value : null;
+                            case "setAttribute":
+                                attributes.put((String) args[0], args[1]);
+                                return null;
+                            case "getAttribute":
+                                return attributes.get(args[0]);
+                            default:
+                                return null;
+                        }
+                    }
+                });
+    }
+
+    @Test
+    public void testCreateConferenceWithIdempotencyKey() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        HttpServletRequest request = requestWithHeader(IdempotencyKeys.HEADER, "create-1");
+        Conference first = conferenceApi.createConference(user, conferenceForm, request);
+        Conference retried = conferenceApi.createConference(user, conferenceForm, request);
+        assertEquals(first.getWebsafeKey(), retried.getWebsafeKey());
+        assertEquals(1, conferenceApi.getConferencesCreated(user).size());
+
+        // Another key is another call.
+        conferenceApi.createConference(user, conferenceForm,
+                requestWithHeader(IdempotencyKeys.HEADER, "create-2"));
+        assertEquals(2, conferenceApi.getConferencesCreated(user).size());
+    }
+
+    @Test
+    public void testRegisterWithIdempotencyKey() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null)
+                .getWebsafeKey();
+        HttpServletRequest request = requestWithHeader(IdempotencyKeys.HEADER, "register-1");
+        assertTrue(conferenceApi.registerForConference(user, websafeKey, request).getResult());
+        // The retry gets the first answer, instead of a conflict.
+        assertTrue(conferenceApi.registerForConference(user, websafeKey, request).getResult());
+        assertEquals(CAP - 1,
+                conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+        try {
+            conferenceApi.registerForConference(user, websafeKey,
+                    requestWithHeader(IdempotencyKeys.HEADER, "register-2"));
+            fail("A new key should register again.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testIdempotencyKeyTooLong() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        conferenceApi.createConference(user, conferenceForm,
+                requestWithHeader(IdempotencyKeys.HEADER, Strings.repeat("k", 101)));
+    }
+
+    @Test
+    public void testGetUpcomingConferences() throws Exception {
+        long day = 24 * 60 * 60 * 1000L;
+        long now = System.currentTimeMillis();
+        Conference later = createConferenceStarting("Later", new Date(now + 90 * day));
+        Conference soon = createConferenceStarting("Soon", new Date(now + 2 * day));
+        createConferenceStarting("Past", new Date(now - 2 * day));
+        createConferenceStarting("Undated", null);
+        Conference moved = createConferenceStarting("Moved", new Date(now + 400 * day));
+
+        List<Conference> upcoming = conferenceApi.getUpcomingConferences(null);
+        assertEquals(3, upcoming.size());
+        assertEquals(soon.getWebsafeKey(), upcoming.get(0).getWebsafeKey());
+        assertEquals(later.getWebsafeKey(), upcoming.get(1).getWebsafeKey());
+        assertEquals(moved.getWebsafeKey(), upcoming.get(2).getWebsafeKey());
+
+        // Moved to another month, before the others.
+        conferenceApi.updateConference(user, new ConferenceForm("Moved", DESCRIPTION, null,
+                CITY, new Date(now + day), null, CAP), moved.getWebsafeKey());
+        UpcomingConferences.put(moved.getWebsafeKey(), new Date(now + 400 * day));
+        upcoming = conferenceApi.getUpcomingConferences(2);
+        assertEquals(2, upcoming.size());
+        assertEquals(moved.getWebsafeKey(), upcoming.get(0).getWebsafeKey());
+        assertEquals(soon.getWebsafeKey(), upcoming.get(1).getWebsafeKey());
+    }
+
+    private Conference createConferenceStarting(String name, Date startDate) throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                name, DESCRIPTION, null, CITY, startDate, null, CAP), null);
+        // Run the task of the view.
+        UpcomingConferences.put(conference.getWebsafeKey(), null);
+        return conference;
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testConferenceAnalyticsForOtherUser() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        conferenceApi.getConferenceAnalytics(new User("other@gmail.com", "gmail.com", "other"),
+                conference.getWebsafeKey());
+    }
+
+    @Test
+    public void testConferenceAttendees() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        User other = new User("other@gmail.com", "gmail.com", "other");
+        conferenceApi.registerForConference(user, websafeKey, null);
+        conferenceApi.registerForConference(other, websafeKey, null);
+
+        assertEquals(2, conferenceApi.getConferenceAttendeeCount(user, websafeKey)
+                .getResult().intValue());
+        AttendeePage page = conferenceApi.getConferenceAttendees(user, websafeKey, null, 1);
+        assertEquals(Arrays.asList(user.getUserId()), page.getUserIds());
+        page = conferenceApi.getConferenceAttendees(user, websafeKey, page.getNextPageToken(), 1);
+        assertEquals(Arrays.asList(other.getUserId()), page.getUserIds());
+
+        conferenceApi.unregisterFromConference(other, websafeKey, null);
+        assertEquals(1, conferenceApi.getConferenceAttendeeCount(user, websafeKey)
+                .getResult().intValue());
+        page = conferenceApi.getConferenceAttendees(user, websafeKey, null, null);
+        assertEquals(Arrays.asList(user.getUserId()), page.getUserIds());
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testConferenceAttendeesForOtherUser() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        conferenceApi.getConferenceAttendees(new User("other@gmail.com", "gmail.com", "other"),
+                conference.getWebsafeKey(), null, null);
+    }
+
     @Test
     public void testRegistrations() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -310,11 +628,11 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Registration
         Boolean result = conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
-        conference = conferenceApi.getConference(conference.getWebsafeKey());
+                user, conference.getWebsafeKey(), null).getResult();
+        conference = conferenceApi.getConference(conference.getWebsafeKey(), null);
         Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("registerForConference should succeed.", result);
         assertEquals(CAP - 1, conference.getSeatsAvailable());
@@ -323,8 +641,8 @@ public class ConferenceApiTest {
 
         // Unregister
         result = conferenceApi.unregisterFromConference(
-                user, conference.getWebsafeKey()).getResult();
-        conference = conferenceApi.getConference(conference.getWebsafeKey());
+                user, conference.getWebsafeKey(), null).getResult();
+        conference = conferenceApi.getConference(conference.getWebsafeKey(), null);
         profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("unregisterFromConference should succeed.", result);
         assertEquals(CAP, conference.getSeatsAvailable());
@@ -332,6 +650,258 @@ public class ConferenceApiTest {
                 profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
     }
 
+    @Test
+    public void testSeatHold() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        SeatHold hold = conferenceApi.holdSeat(user, websafeKey);
+        assertFalse(hold.isConfirmed());
+        // Holding again extends the hold.
+        conferenceApi.holdSeat(user, websafeKey);
+        assertEquals(CAP - 1, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+
+        assertTrue(conferenceApi.confirmSeatHold(user, websafeKey).getResult());
+        // Done by the task.
+        assertEquals(1, SeatHolds.finalizeHold(hold.getKey().getString()));
+        assertEquals(0, SeatHolds.finalizeHold(hold.getKey().getString()));
+        ofy().clear();
+        Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
+        assertTrue(profile.getConferenceKeysToAttend().contains(websafeKey));
+        assertEquals(CAP - 1, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+        assertEquals(1, conferenceApi.getConferenceAttendeeCount(user, websafeKey)
+                .getResult().intValue());
+    }
+
+    @Test
+    public void testSeatHoldsAreFinalizedTogether() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        User other = new User("other@gmail.com", "gmail.com", "other");
+        SeatHold hold = conferenceApi.holdSeat(user, websafeKey);
+        SeatHold otherHold = conferenceApi.holdSeat(other, websafeKey);
+        conferenceApi.confirmSeatHold(user, websafeKey);
+        conferenceApi.confirmSeatHold(other, websafeKey);
+
+        // The first task takes the other confirmed hold with it.
+        assertEquals(2, SeatHolds.finalizeHold(hold.getKey().getString()));
+        assertEquals(0, SeatHolds.finalizeHold(otherHold.getKey().getString()));
+        ofy().clear();
+        assertEquals(2, conferenceApi.getConferenceAttendeeCount(user, websafeKey)
+                .getResult().intValue());
+        assertEquals(CAP - 2, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+    }
+
+    @Test(expected = ConflictException.class)
+    public void testSeatHoldFailure_AlreadyRegistered() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        conferenceApi.registerForConference(user, websafeKey, null);
+        conferenceApi.holdSeat(user, websafeKey);
+    }
+
+    @Test(expected = ConflictException.class)
+    public void testSeatHoldFailure_MaxLifetime() throws Exception {
+        System.setProperty("seatHold.maxLifetimeSeconds", "0");
+        try {
+            ConferenceForm conferenceForm = new ConferenceForm(
+                    NAME, DESCRIPTION, null, CITY, null, null, CAP);
+            String websafeKey = conferenceApi.createConference(user, conferenceForm, null)
+                    .getWebsafeKey();
+            conferenceApi.holdSeat(user, websafeKey);
+            conferenceApi.holdSeat(user, websafeKey);
+        } finally {
+            System.clearProperty("seatHold.maxLifetimeSeconds");
+        }
+    }
+
+    @Test(expected = ConflictException.class)
+    public void testConfirmSeatHoldFailure_Expired() throws Exception {
+        System.setProperty("seatHold.ttlSeconds", "0");
+        try {
+            ConferenceForm conferenceForm = new ConferenceForm(
+                    NAME, DESCRIPTION, null, CITY, null, null, CAP);
+            String websafeKey = conferenceApi.createConference(user, conferenceForm, null)
+                    .getWebsafeKey();
+            conferenceApi.holdSeat(user, websafeKey);
+            conferenceApi.confirmSeatHold(user, websafeKey);
+        } finally {
+            System.clearProperty("seatHold.ttlSeconds");
+        }
+    }
+
+    @Test
+    public void testWaitingRoom() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        User first = new User("first@gmail.com", "gmail.com", "first");
+        User second = new User("second@gmail.com", "gmail.com", "second");
+        assertFalse(conferenceApi.joinWaitingRoom(first, websafeKey).isEnabled());
+
+        // One user per dispatch.
+        WaitingRoom room = conferenceApi.enableWaitingRoom(user, websafeKey, 6);
+        try {
+            conferenceApi.registerForConference(first, websafeKey, null);
+            fail("The first user should wait.");
+        } catch (TooManyRequestsException e) {
+            // Joined the waiting room.
+        }
+        WaitingRoomStatus status = conferenceApi.getWaitingRoomStatus(first, websafeKey);
+        assertEquals(1, status.getPosition());
+        assertFalse(status.isAdmitted());
+        assertEquals(2, conferenceApi.joinWaitingRoom(second, websafeKey).getPosition());
+        assertEquals(1, conferenceApi.joinWaitingRoom(first, websafeKey).getPosition());
+
+        assertEquals(1, WaitingRooms.dispatch(websafeKey, room.getTick()));
+        // A retried task does nothing.
+        assertEquals(0, WaitingRooms.dispatch(websafeKey, room.getTick()));
+        assertTrue(conferenceApi.getWaitingRoomStatus(first, websafeKey).isAdmitted());
+        assertTrue(conferenceApi.registerForConference(first, websafeKey, null).getResult());
+        assertFalse(conferenceApi.getWaitingRoomStatus(second, websafeKey).isAdmitted());
+
+        conferenceApi.disableWaitingRoom(user, websafeKey);
+        assertTrue(conferenceApi.registerForConference(second, websafeKey, null).getResult());
+    }
+
+    @Test
+    public void testWaitingRoomCounterLost() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        User first = new User("first@gmail.com", "gmail.com", "first");
+        User second = new User("second@gmail.com", "gmail.com", "second");
+        User third = new User("third@gmail.com", "gmail.com", "third");
+        WaitingRoom room = conferenceApi.enableWaitingRoom(user, websafeKey, 6);
+        assertEquals(1, conferenceApi.joinWaitingRoom(first, websafeKey).getPosition());
+
+        // The counter restarts past the high-water mark, not from the stale room.
+        MemcacheServiceFactory.getMemcacheService("waitingroom").clearAll();
+        long position = conferenceApi.joinWaitingRoom(second, websafeKey).getPosition();
+        assertTrue(position > 1);
+        assertEquals(position + 1, conferenceApi.joinWaitingRoom(third, websafeKey).getPosition());
+
+        // Nor does the dispatch read a lost counter as no position given out.
+        MemcacheServiceFactory.getMemcacheService("waitingroom").clearAll();
+        assertEquals(1, WaitingRooms.dispatch(websafeKey, room.getTick()));
+        room = ofy().load().key(WaitingRoom.key(Key.<Conference>create(websafeKey))).now();
+        assertTrue(room.getIssued() >= position + 1);
+    }
+
+    @Test
+    public void testWaitingRoomCountsTheAdmittedUsers() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 1);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        Key<Conference> conferenceKey = Key.create(websafeKey);
+        User first = new User("first@gmail.com", "gmail.com", "first");
+        User second = new User("second@gmail.com", "gmail.com", "second");
+        WaitingRoom room = conferenceApi.enableWaitingRoom(user, websafeKey, 60);
+        conferenceApi.joinWaitingRoom(first, websafeKey);
+        conferenceApi.joinWaitingRoom(second, websafeKey);
+
+        // The only seat goes to the first user.
+        assertEquals(1, WaitingRooms.dispatch(websafeKey, room.getTick()));
+        room = ofy().load().key(WaitingRoom.key(conferenceKey)).now();
+        // Until the first user registers, nobody else is admitted.
+        assertEquals(0, WaitingRooms.dispatch(websafeKey, room.getTick()));
+        assertFalse(conferenceApi.getWaitingRoomStatus(second, websafeKey).isAdmitted());
+
+        // Sold out, the dispatch stops.
+        assertTrue(conferenceApi.registerForConference(first, websafeKey, null).getResult());
+        room = ofy().load().key(WaitingRoom.key(conferenceKey)).now();
+        assertEquals(0, WaitingRooms.dispatch(websafeKey, room.getTick()));
+        room = ofy().load().key(WaitingRoom.key(conferenceKey)).now();
+        assertFalse(room.isDispatching());
+
+        // The seat given back resumes it.
+        assertTrue(conferenceApi.unregisterFromConference(first, websafeKey, null).getResult());
+        room = ofy().load().key(WaitingRoom.key(conferenceKey)).now();
+        assertTrue(room.isDispatching());
+        assertEquals(1, WaitingRooms.dispatch(websafeKey, room.getTick()));
+        assertTrue(conferenceApi.getWaitingRoomStatus(second, websafeKey).isAdmitted());
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testWaitingRoomStatusWithoutJoining() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        conferenceApi.enableWaitingRoom(user, websafeKey, null);
+        conferenceApi.getWaitingRoomStatus(user, websafeKey);
+    }
+
+    @Test
+    public void testScheduleRegistrationOpening() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        User attendee = new User("attendee@gmail.com", "gmail.com", "attendee");
+        Date opensAt = new Date(System.currentTimeMillis() + 60000);
+        Conference conference =
+                conferenceApi.scheduleRegistrationOpening(user, websafeKey, opensAt);
+        assertEquals(opensAt, conference.getRegistrationOpensAt());
+        try {
+            conferenceApi.registerForConference(attendee, websafeKey, null);
+            fail("The registrations should not be open yet.");
+        } catch (ConflictException e) {
+            // Not open yet.
+        }
+        try {
+            conferenceApi.holdSeat(attendee, websafeKey);
+            fail("The registrations should not be open yet.");
+        } catch (ConflictException e) {
+            // Not open yet.
+        }
+
+        assertNull(conferenceApi.scheduleRegistrationOpening(user, websafeKey, null)
+                .getRegistrationOpensAt());
+        assertTrue(conferenceApi.registerForConference(attendee, websafeKey, null).getResult());
+    }
+
+    @Test
+    public void testPrewarm() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        Date opensAt = new Date(System.currentTimeMillis() + 60000);
+        conferenceApi.scheduleRegistrationOpening(user, websafeKey, opensAt);
+        conferenceApi.enableWaitingRoom(user, websafeKey, null);
+
+        PrewarmRun run = Prewarmer.warm(websafeKey, opensAt.getTime());
+        assertTrue(run.isWaitingRoom());
+        assertNull(run.getReportedAt());
+        // A retried task finds the run.
+        assertEquals(run.getWarmedAt(), Prewarmer.warm(websafeKey, opensAt.getTime())
+                .getWarmedAt());
+        // An opening that moved is not warmed.
+        assertNull(Prewarmer.warm(websafeKey, opensAt.getTime() + 1));
+
+        ofy().clear();
+        conferenceApi.getConference(websafeKey, null);
+        conferenceApi.getConference(websafeKey, null);
+        conferenceApi.getConferenceAgenda(websafeKey);
+        Prewarmer.flushCounts();
+        Prewarmer.report(PrewarmRun.key(Key.<Conference>create(websafeKey), opensAt));
+
+        run = conferenceApi.getPrewarmReport(user, websafeKey, null);
+        assertNotNull(run.getReportedAt());
+        assertEquals(2, run.getConferenceHits());
+        assertEquals(1, run.getAgendaHits());
+        assertEquals(1.0, run.getHitRate(), 0);
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testScheduleRegistrationOpeningForOtherUser() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        conferenceApi.scheduleRegistrationOpening(new User("other@gmail.com", "gmail.com",
+                "other"), websafeKey, new Date(System.currentTimeMillis() + 60000));
+    }
+
     @Test(expected = ConflictException.class)
     public void testRegistrationFailure_NoSeatsAvailable() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -344,9 +914,9 @@ public class ConferenceApiTest {
         // Create a conference as the remaining seats is zero.
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, 0);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
     }
 
     @Test(expected = ConflictException.class)
@@ -360,11 +930,11 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Registration
         Boolean result = conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
-        conference = conferenceApi.getConference(conference.getWebsafeKey());
+                user, conference.getWebsafeKey(), null).getResult();
+        conference = conferenceApi.getConference(conference.getWebsafeKey(), null);
         Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("The first registration should succeed.", result);
         assertEquals(CAP - 1, conference.getSeatsAvailable());
@@ -373,7 +943,7 @@ public class ConferenceApiTest {
 
         // The user has already registered for the conference. This should throw an ForbiddenException.
         conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
     }
 
     @Test(expected = NotFoundException.class)
@@ -393,15 +963,15 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
 
         // Should be 0 result.
         Collection<Conference> conferenceToAttend = conferenceApi.getConferencesToAttend(user);
         assertEquals(0, conferenceToAttend.size());
 
         // Registration
-        conferenceApi.registerForConference(user, conference.getWebsafeKey());
-        conference = conferenceApi.getConference(conference.getWebsafeKey());
+        conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
+        conference = conferenceApi.getConference(conference.getWebsafeKey(), null);
         conferenceToAttend = conferenceApi.getConferencesToAttend(user);
         assertEquals(1, conferenceToAttend.size());
         assertTrue("The result should contain the conference.",
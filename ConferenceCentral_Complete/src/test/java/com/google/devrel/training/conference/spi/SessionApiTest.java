@@ -1,5 +1,6 @@
 package com.google.devrel.training.conference.spi;
 
+import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
@@ -9,10 +10,16 @@ import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceAgenda;
+import com.google.devrel.training.conference.domain.FeaturedSpeakers;
 import com.google.devrel.training.conference.domain.Profile;
 import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.SessionSummaryPage;
+import com.google.devrel.training.conference.domain.SpeakerSessions;
+import com.google.devrel.training.conference.domain.WishlistEntry;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.SessionForm;
+import com.google.devrel.training.conference.service.WishlistService;
 import com.googlecode.objectify.Key;
 import org.junit.After;
 import org.junit.Before;
@@ -21,6 +28,7 @@ import org.junit.Test;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -81,12 +89,12 @@ public class SessionApiTest {
 
     @Test(expected = UnauthorizedException.class)
     public void testCreateSessionWithoutUser() throws Exception {
-        conferenceApi.createSession(null, medicalConference.getWebsafeKey(), null);
+        conferenceApi.createSession(null, medicalConference.getWebsafeKey(), null, null);
     }
 
     @Test(expected = ForbiddenException.class)
     public void testCreateSessionWithNonOrganizerUser() throws Exception {
-        conferenceApi.createSession(new User("", "", assistant.getUserId()), medicalConference.getWebsafeKey(), null);
+        conferenceApi.createSession(new User("", "", assistant.getUserId()), medicalConference.getWebsafeKey(), null, null);
     }
 
 
@@ -105,7 +113,7 @@ public class SessionApiTest {
 
         Session session = conferenceApi.createSession(new User("", "", organizer.getUserId()), medicalConference.getWebsafeKey(),
                 sessionForm
-        );
+        , null);
 
         assertEquals(sessionForm.getSessionName(), session.getName());
         assertEquals(sessionForm.getDuration(), session.getDuration());
@@ -139,8 +147,8 @@ public class SessionApiTest {
         ).now();
 
         //Getting sessions with the API
-        List<Session> list1 = conferenceApi.getConferenceSessions(drupalConference.getWebsafeKey());
-        List<Session> list2 = conferenceApi.getConferenceSessions(medicalConference.getWebsafeKey());
+        List<Session> list1 = conferenceApi.getConferenceSessions(drupalConference.getWebsafeKey(), null);
+        List<Session> list2 = conferenceApi.getConferenceSessions(medicalConference.getWebsafeKey(), null);
 
         //Testing
         assertEquals(2, list1.size());
@@ -152,7 +160,7 @@ public class SessionApiTest {
     }
 
     @Test(expected = NotFoundException.class)
-    public void testCreateSessionWithInvalidSpeaker() throws NotFoundException, OAuthRequestException, ForbiddenException, UnauthorizedException, ConflictException {
+    public void testCreateSessionWithInvalidSpeaker() throws NotFoundException, OAuthRequestException, ForbiddenException, UnauthorizedException, ConflictException, TooManyRequestsException, BadRequestException {
 
         Key<Profile> otherKey = Key.create(Profile.class, invalidUser.getUserId());
 
@@ -170,7 +178,7 @@ public class SessionApiTest {
                         new Date(),
                         null, "24:05"
                 )
-        );
+        , null);
 
         //Check that the session wasn't created
         assertEquals(ofy().load().type(Session.class).ancestor(Key.create(medicalConference.getWebsafeKey())).list(), 0);
@@ -215,7 +223,7 @@ public class SessionApiTest {
                         new Date(),
                         null, "24:05"
                 )
-        );
+        , null);
         Session medicalSession = conferenceApi.createSession(new User("", "", organizer.getUserId()), medicalConference.getWebsafeKey(),
                 new SessionForm("Medical Websites",
                         null,
@@ -225,7 +233,7 @@ public class SessionApiTest {
                         new Date(),
                         null, "24:05"
                 )
-        );
+        , null);
 
 
         List<Profile> profiles = ofy().load().type(Profile.class).list();
@@ -246,7 +254,73 @@ public class SessionApiTest {
     }
 
     @Test
-    public void testSessionWishList() throws NotFoundException, UnauthorizedException, ConflictException, OAuthRequestException, ForbiddenException {
+    public void testGetSessionsBySpeakerWithoutProfile() throws Exception {
+        Key<Profile> otherKey = Key.create(Profile.class, invalidUser.getUserId());
+        assertTrue(conferenceApi.getSessionsBySpeaker(otherKey.getString()).isEmpty());
+    }
+
+    @Test
+    public void testGetSessionsBySpeakers() throws Exception {
+
+        Key<Profile> medicalSpeakerKey = Key.create(Profile.class, medicalSpeaker.getUserId());
+        Key<Profile> drupalSpeakerKey = Key.create(Profile.class, drupalSpeaker.getUserId());
+        Key<Profile> otherKey = Key.create(Profile.class, assistant.getUserId());
+
+        conferenceApi.createSession(new User("", "", organizer.getUserId()), drupalConference.getWebsafeKey(),
+                new SessionForm("Drupal Migrations", null,
+                        Arrays.asList(drupalSpeakerKey.getString()),
+                        20, Session.SessionType.KEYNOTE, new Date(), null, "10:00"), null);
+        conferenceApi.createSession(new User("", "", organizer.getUserId()), medicalConference.getWebsafeKey(),
+                new SessionForm("Medical Websites", null,
+                        Arrays.asList(medicalSpeakerKey.getString(), drupalSpeakerKey.getString()),
+                        20, Session.SessionType.KEYNOTE, new Date(), null, "11:00"), null);
+
+        List<String> speakerKeys = Arrays.asList(
+                medicalSpeakerKey.getString(), drupalSpeakerKey.getString(), otherKey.getString());
+
+        List<SpeakerSessions> global = conferenceApi.getSessionsBySpeakers(speakerKeys, null);
+        assertEquals(3, global.size());
+        assertEquals(1, global.get(0).getSessions().size());
+        assertEquals(2, global.get(1).getSessions().size());
+        assertEquals(0, global.get(2).getSessions().size());
+
+        List<SpeakerSessions> drupalOnly = conferenceApi.getSessionsBySpeakers(speakerKeys,
+                drupalConference.getWebsafeKey());
+        assertEquals(0, drupalOnly.get(0).getSessions().size());
+        assertEquals(1, drupalOnly.get(1).getSessions().size());
+        assertEquals("Drupal Migrations", drupalOnly.get(1).getSessions().get(0).getName());
+    }
+
+    @Test
+    public void testGetConferenceAgenda() throws Exception {
+
+        Key<Profile> medicalSpeakerKey = Key.create(Profile.class, medicalSpeaker.getUserId());
+        Key<Profile> drupalSpeakerKey = Key.create(Profile.class, drupalSpeaker.getUserId());
+
+        Date earlier = new Date(1420070400000L);
+        Date later = new Date(1420156800000L);
+
+        conferenceApi.createSession(new User("", "", organizer.getUserId()), medicalConference.getWebsafeKey(),
+                new SessionForm("Medical Websites", null,
+                        Arrays.asList(medicalSpeakerKey.getString(), drupalSpeakerKey.getString()),
+                        20, Session.SessionType.KEYNOTE, later, null, "10:00"), null);
+        conferenceApi.createSession(new User("", "", organizer.getUserId()), medicalConference.getWebsafeKey(),
+                new SessionForm("Cancer", null,
+                        Arrays.asList(medicalSpeakerKey.getString()),
+                        20, Session.SessionType.LECTURE, earlier, null, "09:00"), null);
+
+        ConferenceAgenda agenda = conferenceApi.getConferenceAgenda(medicalConference.getWebsafeKey());
+
+        assertEquals(medicalConference.getName(), agenda.getName());
+        assertEquals(2, agenda.getSessions().size());
+        assertEquals("Cancer", agenda.getSessions().get(0).getName());
+        assertEquals("Medical Websites", agenda.getSessions().get(1).getName());
+        assertEquals(Arrays.asList(medicalSpeaker.getDisplayName(), drupalSpeaker.getDisplayName()),
+                agenda.getSessions().get(1).getSpeakerNames());
+    }
+
+    @Test
+    public void testSessionWishList() throws NotFoundException, UnauthorizedException, ConflictException, OAuthRequestException, ForbiddenException, TooManyRequestsException {
 
 
         //Creating some Sample Sessions into conferences
@@ -289,7 +363,128 @@ public class SessionApiTest {
     }
 
     @Test
-    public void testGetSessionByDates() {
+    public void testWishListCompaction() throws Exception {
+
+        Session s1 =  new Session( Key.<Conference>create( drupalConference.getWebsafeKey() ), null, "Drupal Migrations", null,null,0, null, null, null, 2305 );
+        Session s2 =  new Session(  Key.<Conference>create( medicalConference.getWebsafeKey() ) , null, "Cancer", null,null,0, null, null , null, 2305 );
+        Session s3 = new Session( Key.<Conference>create( medicalConference.getWebsafeKey() ) , null, "Flu", null,null,0, null, null, null, 2305 );
+        ofy().save().entities(s1, s2, s3).now();
+
+        User user = new User("", "", assistant.getUserId());
+        conferenceApi.addSessionToWishlist(user, s1.getWebsafeKey());
+        conferenceApi.addSessionToWishlist(user, s2.getWebsafeKey());
+        conferenceApi.removeSessionFromWishlist(user, s1.getWebsafeKey());
+
+        // Before the compaction the reads merge the log.
+        Collection<Session> sessions = conferenceApi.getSessionsInWishlist(user);
+        assertEquals(1, sessions.size());
+        assertTrue(sessions.contains(s2));
+
+        WishlistService.compact(assistant.getUserId());
+        assertEquals(0, ofy().load().type(WishlistEntry.class)
+                .ancestor(Key.create(Profile.class, assistant.getUserId())).count());
+
+        // New changes go on top of the snapshot.
+        conferenceApi.addSessionToWishlist(user, s3.getWebsafeKey());
+        sessions = conferenceApi.getSessionsInWishlist(user);
+        assertEquals(2, sessions.size());
+        assertTrue(sessions.contains(s2));
+        assertTrue(sessions.contains(s3));
+    }
+
+    @Test
+    public void testGetSessionsByDateRange() throws Exception {
+        User user = new User("", "", organizer.getUserId());
+        List<String> speakers = Arrays.asList(
+                Key.create(Profile.class, drupalSpeaker.getUserId()).getString());
+        long day = 24L * 60 * 60 * 1000;
+        Date start = new Date(1449878400000L); // 2015-12-12T00:00:00Z
+
+        Session s1 = conferenceApi.createSession(user, drupalConference.getWebsafeKey(),
+                new SessionForm("Drupal Migrations", null, speakers, 60,
+                        Session.SessionType.LECTURE, start, null, "10:00"), null);
+        Session s2 = conferenceApi.createSession(user, medicalConference.getWebsafeKey(),
+                new SessionForm("Cancer", null, speakers, 30,
+                        Session.SessionType.LECTURE, start, null, "09:00"), null);
+        Session s3 = conferenceApi.createSession(user, medicalConference.getWebsafeKey(),
+                new SessionForm("Flu", null, speakers, 20,
+                        Session.SessionType.LECTURE, new Date(start.getTime() + 10 * day),
+                        null, "09:00"), null);
+        // Outside of the range.
+        conferenceApi.createSession(user, medicalConference.getWebsafeKey(),
+                new SessionForm("Headache", null, speakers, 20,
+                        Session.SessionType.LECTURE, new Date(start.getTime() + 40 * day),
+                        null, "09:00"), null);
+
+        Date to = new Date(start.getTime() + 20 * day);
+        SessionSummaryPage page = conferenceApi.getSessionsByDateRange(start, to, null, null, 2);
+        assertEquals(2, page.getItems().size());
+        assertEquals(s2.getWebsafeKey(), page.getItems().get(0).getWebsafeKey());
+        assertEquals(s1.getWebsafeKey(), page.getItems().get(1).getWebsafeKey());
+        assertNotNull(page.getNextPageToken());
+
+        page = conferenceApi.getSessionsByDateRange(start, to, null, page.getNextPageToken(), 2);
+        assertEquals(1, page.getItems().size());
+        assertEquals(s3.getWebsafeKey(), page.getItems().get(0).getWebsafeKey());
+        assertNull(page.getNextPageToken());
+
+        page = conferenceApi.getSessionsByDateRange(start, to, 30, null, null);
+        assertEquals(2, page.getItems().size());
+        assertEquals(s2.getWebsafeKey(), page.getItems().get(0).getWebsafeKey());
+        assertEquals(s3.getWebsafeKey(), page.getItems().get(1).getWebsafeKey());
+
+        Collection<Session> sessions = conferenceApi.getSessionsByDateAndDuration(start, 45);
+        assertEquals(1, sessions.size());
+        assertTrue(sessions.contains(s2));
+
+        // A range of years is rejected rather than read day by day.
+        try {
+            conferenceApi.getSessionsByDates(start, new Date(start.getTime() + 1000 * day));
+            fail("BadRequestException expected");
+        } catch (BadRequestException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testFeaturedSpeakersPerConference() throws Exception {
+        User user = new User("", "", organizer.getUserId());
+        List<String> drupal = Arrays.asList(
+                Key.create(Profile.class, drupalSpeaker.getUserId()).getString());
+        List<String> medical = Arrays.asList(
+                Key.create(Profile.class, medicalSpeaker.getUserId()).getString());
+        for (String name : Arrays.asList("Drupal Migrations", "Drupal Administration")) {
+            conferenceApi.createSession(user, drupalConference.getWebsafeKey(),
+                    new SessionForm(name, null, drupal, 60, Session.SessionType.LECTURE,
+                            new Date(), null, "10:00"), null);
+        }
+        for (String name : Arrays.asList("Cancer", "Flu")) {
+            conferenceApi.createSession(user, medicalConference.getWebsafeKey(),
+                    new SessionForm(name, null, medical, 60, Session.SessionType.LECTURE,
+                            new Date(), null, "10:00"), null);
+        }
+        ofy().clear();
+
+        // The medical conference doesn't overwrite the featured speaker of the drupal one.
+        List<FeaturedSpeakers> featured = conferenceApi.getFeaturedSpeakers(Arrays.asList(
+                drupalConference.getWebsafeKey(), medicalConference.getWebsafeKey()));
+        assertEquals(2, featured.size());
+        assertEquals(drupalSpeaker.getDisplayName(),
+                featured.get(0).getLatest().getDisplayName());
+        assertEquals(new HashSet<>(Arrays.asList("Drupal Migrations", "Drupal Administration")),
+                new HashSet<>(featured.get(0).getLatest().getSessionNames()));
+        assertEquals(1, featured.get(0).getHistory().size());
+        assertEquals(medicalSpeaker.getDisplayName(),
+                featured.get(1).getLatest().getDisplayName());
+
+        assertTrue(conferenceApi.getFeaturedSpeaker(drupalConference.getWebsafeKey())
+                .getMessage().contains(drupalSpeaker.getDisplayName()));
+        // The global entry is only written by the cron.
+        assertNull(conferenceApi.getFeaturedSpeaker(null));
+    }
+
+    @Test
+    public void testGetSessionByDates() throws Exception {
 
         Date date1 = new Date();
         date1.setYear(2005);